@@ -0,0 +1,88 @@
+package com.tidal.playlist.benchmark;
+
+import com.tidal.playlist.dao.PlaylistDaoBean;
+import com.tidal.playlist.dao.PlaylistRecordCodec;
+import com.tidal.playlist.data.PlayListTrack;
+import com.tidal.playlist.data.TrackPlayList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the binary playlist record codec with Java serialization of the same tracks. The encoded sizes
+ * are printed once per trial.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PlaylistCodecBenchmark {
+
+    @Param({"100", "10000"})
+    int size;
+
+    private TrackPlayList playList;
+    private ByteBuffer buffer;
+    private ByteBuffer encoded;
+    private byte[] serialized;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        playList = new PlaylistDaoBean(size, 1).getPlaylistByUUID(UUID.randomUUID().toString(), 1);
+        buffer = ByteBuffer.allocate(size * 200 + 1024);
+        encoded = encode().asReadOnlyBuffer();
+        serialized = serialize();
+        System.out.println("\nCodec " + encoded.remaining() + " bytes, Java serialization " + serialized.length + " bytes");
+    }
+
+    @Benchmark
+    public ByteBuffer encode() {
+        buffer.clear();
+        PlaylistRecordCodec.encode(playList, buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    @Benchmark
+    public TrackPlayList decode() {
+        return PlaylistRecordCodec.decode(encoded.duplicate());
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(new ArrayList<PlayListTrack>(playList.getPlayListTracksSorted()));
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public List<PlayListTrack> deserialize() throws IOException, ClassNotFoundException {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized));
+        return (List<PlayListTrack>) in.readObject();
+    }
+}
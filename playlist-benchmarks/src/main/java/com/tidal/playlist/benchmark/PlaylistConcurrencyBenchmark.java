@@ -0,0 +1,99 @@
+package com.tidal.playlist.benchmark;
+
+import com.tidal.playlist.PlaylistBusinessBean;
+import com.tidal.playlist.PlaylistLocks;
+import com.tidal.playlist.dao.PlaylistDaoBean;
+import com.tidal.playlist.data.Track;
+import com.tidal.playlist.data.TrackPlayList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Measures how modifications scale with threads, when every thread edits its own playlist and when all
+ * threads edit the same one. Run it once per thread count, e.g. with {@code -t 1} up to {@code -t 8}: the
+ * first should scale with cores, the second is bounded by the playlist's lock.
+ * <p>
+ * Each invocation adds a track at the tail and deletes it again, holding the playlist's lock for both so
+ * that the delete finds the added track even when threads share the playlist.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PlaylistConcurrencyBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class SharedPlaylist {
+
+        @Param({"1000", "100000"})
+        int size;
+
+        PlaylistBusinessBean playlistBusinessBean;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            playlistBusinessBean = playlistBusinessBean(size);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class OwnPlaylist {
+
+        @Param({"1000", "100000"})
+        int size;
+
+        PlaylistBusinessBean playlistBusinessBean;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            playlistBusinessBean = playlistBusinessBean(size);
+        }
+    }
+
+    private static final List<Track> TRACKS_TO_ADD = Collections.singletonList(PlaylistDaoBean.getTrack());
+
+    @Benchmark
+    public TrackPlayList ownPlaylist(OwnPlaylist state) {
+        return addAndDelete(state.playlistBusinessBean);
+    }
+
+    @Benchmark
+    public TrackPlayList sharedPlaylist(SharedPlaylist state) {
+        return addAndDelete(state.playlistBusinessBean);
+    }
+
+    private TrackPlayList addAndDelete(PlaylistBusinessBean playlistBusinessBean) {
+        Lock lock = PlaylistLocks.shared().lockFor(playlistBusinessBean.getPlayList().getUuid());
+        lock.lock();
+        try {
+            TrackPlayList playList = playlistBusinessBean.addTracks(TRACKS_TO_ADD, -1, new Date()).getPlayList();
+            Integer added = playList.getPlayListTrackAt(playList.getPlayListTracksSize() - 1).getId();
+            return playlistBusinessBean.deleteTracks(Collections.singletonList(added)).getPlayList();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private static PlaylistBusinessBean playlistBusinessBean(int size) {
+        return new PlaylistBusinessBean(1, UUID.randomUUID().toString(), new PlaylistDaoBean(size, 1), Integer.MAX_VALUE);
+    }
+}
@@ -0,0 +1,64 @@
+package com.tidal.playlist.benchmark;
+
+import com.tidal.playlist.dao.PlaylistDaoBean;
+import com.tidal.playlist.data.PlayListTrack;
+import com.tidal.playlist.data.PlaylistDiff;
+import com.tidal.playlist.data.TrackPlayList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures diffing two versions of a playlist where 1% of the tracks were moved, deleted or added.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PlaylistDiffBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    int size;
+
+    private TrackPlayList older;
+    private TrackPlayList newer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String uuid = UUID.randomUUID().toString();
+        older = new PlaylistDaoBean(size, 1).getPlaylistByUUID(uuid, 1);
+        newer = new PlaylistDaoBean(size, 1).getPlaylistByUUID(uuid, 1);
+        Random random = new Random(1);
+        for (int i = 0; i < size / 100; i++) {
+            Integer moved = newer.getPlayListTrackAt(random.nextInt(size)).getId();
+            newer.movePlayListTracksById(Collections.singletonList(moved), random.nextInt(size));
+            Integer deleted = newer.getPlayListTrackAt(random.nextInt(size)).getId();
+            newer.removePlayListTracksById(Collections.singletonList(deleted));
+            PlayListTrack added = new PlayListTrack();
+            added.setId(size + 1 + i);
+            added.setTrack(PlaylistDaoBean.getTrack());
+            newer.addPlayListTracks(random.nextInt(size), Collections.singletonList(added));
+        }
+    }
+
+    @Benchmark
+    public PlaylistDiff diff() {
+        return PlaylistDiff.between(older, newer);
+    }
+}
@@ -0,0 +1,77 @@
+package com.tidal.playlist.benchmark;
+
+import com.tidal.playlist.PlaylistBusinessBean;
+import com.tidal.playlist.dao.PlaylistDaoBean;
+import com.tidal.playlist.data.PlayListTrack;
+import com.tidal.playlist.data.Track;
+import com.tidal.playlist.data.TrackPlayList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures checking a batch of 500 tracks, all already in the playlist, for duplicates: by scanning the
+ * playlist for each track, and through addTracks with {@link PlaylistBusinessBean.DuplicateTracks#SKIP},
+ * which leaves the playlist unchanged.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PlaylistDuplicateBenchmark {
+
+    private static final int BATCH_SIZE = 500;
+
+    @Param({"1000", "100000"})
+    int size;
+
+    private PlaylistBusinessBean playlistBusinessBean;
+    private TrackPlayList scanned;
+    private List<Track> batch;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String uuid = UUID.randomUUID().toString();
+        playlistBusinessBean = new PlaylistBusinessBean(1, uuid, new PlaylistDaoBean(size, 1), Integer.MAX_VALUE);
+        scanned = new PlaylistDaoBean(size, 1).getPlaylistByUUID(uuid, 1);
+        batch = new ArrayList<Track>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.add(scanned.getPlayListTrackAt(i * (size / BATCH_SIZE) + size % BATCH_SIZE).getTrack());
+        }
+        playlistBusinessBean.addTracks(batch, -1, new Date());
+    }
+
+    @Benchmark
+    public int scanForEachTrack() {
+        int found = 0;
+        for (Track track : batch) {
+            PlayListTrack playListTrack = scanned.getPlayListTrack(track.getId());
+            if (playListTrack != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public List<Track> addSkippingDuplicates() {
+        return playlistBusinessBean.addTracks(batch, -1, new Date(), PlaylistBusinessBean.DuplicateTracks.SKIP);
+    }
+}
@@ -0,0 +1,38 @@
+package com.tidal.playlist.benchmark;
+
+import com.tidal.playlist.dao.PlaylistDaoBean;
+import com.tidal.playlist.data.TrackCatalog;
+import com.tidal.playlist.data.TrackPlayList;
+import com.tidal.playlist.data.TrackStorage;
+
+import java.util.UUID;
+
+/**
+ * Prints the heap retained by one playlist in each {@link TrackStorage}, which JMH does not measure,
+ * and how many tracks the playlists shared through the {@link TrackCatalog}.
+ * <p>
+ * Example: {@code java -cp playlist-benchmarks/target/benchmarks.jar com.tidal.playlist.benchmark.PlaylistFootprint 1000000}
+ */
+public class PlaylistFootprint {
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        for (TrackStorage storage : TrackStorage.values()) {
+            long before = usedHeap();
+            TrackPlayList playList = new PlaylistDaoBean(size, 1).getPlaylistByUUID(UUID.randomUUID().toString(), 1);
+            playList.setTrackStorage(storage);
+            long retained = usedHeap() - before;
+            System.out.printf("%-8s %,d tracks: %,d bytes, %.1f bytes per track%n",
+                    storage, playList.getPlayListTracksSize(), retained, (double) retained / size);
+        }
+        System.out.println(TrackCatalog.shared());
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
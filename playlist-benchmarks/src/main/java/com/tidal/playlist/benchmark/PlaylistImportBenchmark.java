@@ -0,0 +1,65 @@
+package com.tidal.playlist.benchmark;
+
+import com.tidal.playlist.PlaylistBusinessBean;
+import com.tidal.playlist.dao.PlaylistDaoBean;
+import com.tidal.playlist.data.Track;
+import com.tidal.playlist.data.TrackPlayList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures importing a library of tracks from a one-pass source into the middle of a playlist of
+ * 1000 tracks. The time per imported track should stay flat as the library grows.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PlaylistImportBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    int size;
+
+    private PlaylistBusinessBean playlistBusinessBean;
+    private Track track;
+
+    @Setup(Level.Invocation)
+    public void setUp() {
+        playlistBusinessBean = new PlaylistBusinessBean(1, UUID.randomUUID().toString(), new PlaylistDaoBean(1000, 1), Integer.MAX_VALUE);
+        track = PlaylistDaoBean.getTrack();
+    }
+
+    @Benchmark
+    public TrackPlayList importTracks() {
+        Iterator<Track> library = new Iterator<Track>() {
+            private int remaining = size;
+
+            public boolean hasNext() {
+                return remaining > 0;
+            }
+
+            public Track next() {
+                remaining--;
+                return track;
+            }
+        };
+        return playlistBusinessBean.importTracks(library, 500, new Date()).getPlayList();
+    }
+}
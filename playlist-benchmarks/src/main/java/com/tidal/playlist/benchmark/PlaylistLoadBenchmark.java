@@ -0,0 +1,89 @@
+package com.tidal.playlist.benchmark;
+
+import com.tidal.playlist.dao.MappedPlaylistStore;
+import com.tidal.playlist.dao.PlaylistDaoBean;
+import com.tidal.playlist.data.PlayListTrack;
+import com.tidal.playlist.data.TrackPlayList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures loading a stored playlist to read its header, read a page or append a track, with all tracks
+ * decoded up front and with segments decoded on demand.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PlaylistLoadBenchmark {
+
+    private static final String UUID = "benchmark";
+    private static final int PAGE_SIZE = 50;
+
+    @Param({"10000", "100000"})
+    int size;
+
+    @Param({"eager", "lazy"})
+    String loading;
+
+    private File folder;
+    private MappedPlaylistStore store;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("playlist-load").toFile();
+        int lazyThreshold = "lazy".equals(loading) ? 1 : MappedPlaylistStore.NEVER_LAZY;
+        store = new MappedPlaylistStore(folder, 64 * 1024 * 1024, MappedPlaylistStore.NEVER_COLUMNAR, lazyThreshold);
+        store.savePlaylist(new PlaylistDaoBean(size, 1).getPlaylistByUUID(UUID, 1));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        store.close();
+        for (File file : folder.listFiles()) {
+            Files.delete(file.toPath());
+        }
+        Files.delete(folder.toPath());
+    }
+
+    @Benchmark
+    public long loadHeader() {
+        TrackPlayList playList = store.getPlaylistByUUID(UUID, 1);
+        return playList.getDurationMillis() + playList.getNrOfTracks();
+    }
+
+    @Benchmark
+    public List<PlayListTrack> loadPageFromMiddle() {
+        return store.getPlaylistByUUID(UUID, 1).getPlayListTracks(size / 2, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public TrackPlayList loadAndAppend() {
+        TrackPlayList playList = store.getPlaylistByUUID(UUID, 1);
+        PlayListTrack added = new PlayListTrack();
+        added.setId(playList.nextPlayListTrackId());
+        added.setTrack(PlaylistDaoBean.getTrack(1));
+        playList.addPlayListTracks(playList.getPlayListTracksSize(), Collections.singletonList(added));
+        return playList;
+    }
+}
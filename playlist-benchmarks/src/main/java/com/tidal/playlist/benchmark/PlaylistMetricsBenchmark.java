@@ -0,0 +1,68 @@
+package com.tidal.playlist.benchmark;
+
+import com.tidal.playlist.PlaylistBusinessBean;
+import com.tidal.playlist.PlaylistLocks;
+import com.tidal.playlist.dao.PlaylistDaoBean;
+import com.tidal.playlist.data.PlayListTrack;
+import com.tidal.playlist.data.Track;
+import com.tidal.playlist.data.TrackCatalog;
+import com.tidal.playlist.data.TrackPlayList;
+import com.tidal.playlist.metrics.PlaylistMetrics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of recording metrics, by adding and deleting a track at the tail and reading a page
+ * with recording switched off, recording latency only, and recording latency and allocations.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PlaylistMetricsBenchmark {
+
+    @Param({"off", "latency", "allocations"})
+    String recording;
+
+    private PlaylistBusinessBean playlistBusinessBean;
+    private List<Track> tracksToAdd;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        PlaylistMetrics metrics = new PlaylistMetrics("allocations".equals(recording));
+        metrics.setEnabled(!"off".equals(recording));
+        playlistBusinessBean = new PlaylistBusinessBean(1, UUID.randomUUID().toString(), new PlaylistDaoBean(1000, 1),
+                Integer.MAX_VALUE, PlaylistLocks.shared(), TrackCatalog.shared(), metrics);
+        tracksToAdd = Collections.singletonList(PlaylistDaoBean.getTrack());
+    }
+
+    @Benchmark
+    public TrackPlayList addAndDeleteAtTail() {
+        TrackPlayList playList = playlistBusinessBean.addTracks(tracksToAdd, -1, new Date()).getPlayList();
+        Integer added = playList.getPlayListTrackAt(playList.getPlayListTracksSize() - 1).getId();
+        return playlistBusinessBean.deleteTracks(Collections.singletonList(added)).getPlayList();
+    }
+
+    @Benchmark
+    public List<PlayListTrack> getPage() {
+        return playlistBusinessBean.getPlayListTracks(500, 10);
+    }
+}
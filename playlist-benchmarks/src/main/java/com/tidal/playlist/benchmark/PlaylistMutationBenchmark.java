@@ -0,0 +1,110 @@
+package com.tidal.playlist.benchmark;
+
+import com.tidal.playlist.PlaylistBusinessBean;
+import com.tidal.playlist.dao.PlaylistDaoBean;
+import com.tidal.playlist.data.PlayListTrack;
+import com.tidal.playlist.data.Track;
+import com.tidal.playlist.data.TrackPlayList;
+import com.tidal.playlist.data.TrackStorage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures addTracks, deleteTracks and moveTracks on playlists of increasing size.
+ * <p>
+ * Every benchmark puts the playlist back to its original size before returning, so the size
+ * parameter holds for the whole run. An add is paired with deleting the added track, and a delete
+ * with adding the deleted tracks back at the tail.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PlaylistMutationBenchmark {
+
+    @Param({"100", "1000", "10000", "100000", "1000000"})
+    int size;
+
+    @Param({"OBJECTS", "COLUMNAR"})
+    TrackStorage storage;
+
+    private PlaylistBusinessBean playlistBusinessBean;
+    private List<Track> tracksToAdd;
+    private int deleteBatchSize;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        playlistBusinessBean = new PlaylistBusinessBean(1, UUID.randomUUID().toString(), new PlaylistDaoBean(size, 1), Integer.MAX_VALUE);
+        playlistBusinessBean.getPlayList().setTrackStorage(storage);
+        tracksToAdd = Collections.singletonList(PlaylistDaoBean.getTrack());
+        deleteBatchSize = Math.max(1, size / 100);
+    }
+
+    @Benchmark
+    public TrackPlayList addTracksAtHead() {
+        return addAndDeleteAt(0);
+    }
+
+    @Benchmark
+    public TrackPlayList addTracksInMiddle() {
+        return addAndDeleteAt(size / 2);
+    }
+
+    @Benchmark
+    public TrackPlayList addTracksAtTail() {
+        return addAndDeleteAt(size);
+    }
+
+    /**
+     * Deletes 1% of the playlist, spread evenly over it, then restores the size.
+     */
+    @Benchmark
+    public TrackPlayList deleteTracks() {
+        TrackPlayList playList = playlistBusinessBean.getPlayList();
+        int stride = size / deleteBatchSize;
+        List<Integer> ids = new ArrayList<Integer>(deleteBatchSize);
+        List<Track> deleted = new ArrayList<Track>(deleteBatchSize);
+        for (int i = 0; i < deleteBatchSize; i++) {
+            PlayListTrack playListTrack = playList.getPlayListTrackAt(i * stride);
+            ids.add(playListTrack.getId());
+            deleted.add(playListTrack.getTrack());
+        }
+        playlistBusinessBean.deleteTracks(ids);
+        return playlistBusinessBean.addTracks(deleted, -1, new Date()).getPlayList();
+    }
+
+    /**
+     * Moves the last track to the head, which keeps the size.
+     */
+    @Benchmark
+    public TrackPlayList moveTrackToHead() {
+        TrackPlayList playList = playlistBusinessBean.getPlayList();
+        Integer last = playList.getPlayListTrackAt(playList.getPlayListTracksSize() - 1).getId();
+        return playlistBusinessBean.moveTracks(Collections.singletonList(last), 0).getPlayList();
+    }
+
+    private TrackPlayList addAndDeleteAt(int toIndex) {
+        TrackPlayList playList = playlistBusinessBean.addTracks(tracksToAdd, toIndex, new Date()).getPlayList();
+        Integer added = playList.getPlayListTrackAt(toIndex).getId();
+        return playlistBusinessBean.deleteTracks(Collections.singletonList(added)).getPlayList();
+    }
+}
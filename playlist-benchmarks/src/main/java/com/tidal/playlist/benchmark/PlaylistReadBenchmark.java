@@ -0,0 +1,68 @@
+package com.tidal.playlist.benchmark;
+
+import com.tidal.playlist.dao.PlaylistDaoBean;
+import com.tidal.playlist.data.PlayListTrack;
+import com.tidal.playlist.data.TrackPlayList;
+import com.tidal.playlist.data.TrackStorage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reading a whole playlist, in order, reading one page from its middle, and loading one
+ * through the DAO. Run with {@code -prof gc} to see that a page allocates the same at every size.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PlaylistReadBenchmark {
+
+    private static final int PAGE_SIZE = 50;
+
+    @Param({"100", "1000", "10000", "100000", "1000000"})
+    int size;
+
+    @Param({"OBJECTS", "COLUMNAR"})
+    TrackStorage storage;
+
+    private PlaylistDaoBean playlistDaoBean;
+    private TrackPlayList playList;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        playlistDaoBean = new PlaylistDaoBean(size, 1);
+        playList = playlistDaoBean.getPlaylistByUUID(UUID.randomUUID().toString(), 1);
+        playList.setTrackStorage(storage);
+    }
+
+    @Benchmark
+    public List<PlayListTrack> getPlayListTracksSorted() {
+        return playList.getPlayListTracksSorted();
+    }
+
+    @Benchmark
+    public List<PlayListTrack> getPageFromMiddle() {
+        return playList.getPlayListTracks(size / 2, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public TrackPlayList getPlaylistByUUID() {
+        return playlistDaoBean.getPlaylistByUUID(playList.getUuid(), 1);
+    }
+}
@@ -0,0 +1,83 @@
+package com.tidal.playlist.benchmark;
+
+import com.tidal.playlist.dao.PlaylistDaoBean;
+import com.tidal.playlist.data.PlayListTrack;
+import com.tidal.playlist.data.TrackPlayList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures finding the tracks of an artist, and the tracks with a title word, in position order: by
+ * scanning the playlist, and through the playlist's indexes, which are built once in setup.
+ * <p>
+ * Generated titles are "Track no: n" for n below 15, so a title query finds about one track in 15, while
+ * an artist has about one track in 10000.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PlaylistSearchBenchmark {
+
+    @Param({"1000", "100000"})
+    int size;
+
+    private TrackPlayList playList;
+    private int artistId;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        playList = new PlaylistDaoBean(size, 1).getPlaylistByUUID(UUID.randomUUID().toString(), 1);
+        artistId = playList.getPlayListTrackAt(size / 2).getTrackArtistId();
+        playList.getPlayListTracksByArtist(artistId);
+    }
+
+    @Benchmark
+    public List<PlayListTrack> scanByArtist() {
+        List<PlayListTrack> found = new ArrayList<PlayListTrack>();
+        for (PlayListTrack playListTrack : playList.getPlayListTracksSorted()) {
+            if (playListTrack.getTrackArtistId() == artistId) {
+                found.add(playListTrack);
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public List<PlayListTrack> indexByArtist() {
+        return playList.getPlayListTracksByArtist(artistId);
+    }
+
+    @Benchmark
+    public List<PlayListTrack> scanByTitle() {
+        List<PlayListTrack> found = new ArrayList<PlayListTrack>();
+        for (PlayListTrack playListTrack : playList.getPlayListTracksSorted()) {
+            if (playListTrack.getTrack().getTitle().endsWith(" 14")) {
+                found.add(playListTrack);
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public List<PlayListTrack> indexByTitle() {
+        return playList.findPlayListTracksByTitle("no 14");
+    }
+}
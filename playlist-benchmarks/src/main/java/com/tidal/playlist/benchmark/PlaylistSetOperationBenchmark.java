@@ -0,0 +1,158 @@
+package com.tidal.playlist.benchmark;
+
+import com.tidal.playlist.PlaylistBusinessBean;
+import com.tidal.playlist.dao.PlaylistDaoBean;
+import com.tidal.playlist.data.PlayListTrack;
+import com.tidal.playlist.data.PlaylistSetOperation;
+import com.tidal.playlist.data.TrackPlayList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures combining playlists into a new one: the way it was done before, checking every track against
+ * the playlist built so far and the other inputs and adding it on its own, against
+ * {@link PlaylistSetOperation}, which checks track ids against id sets, with the result added to a new
+ * playlist through a {@link PlaylistBusinessBean} as one modification.
+ * <p>
+ * The inputs are {@code playlists} playlists of {@code size} tracks, with track ids drawn from
+ * {@code 2 * size} ids, so that half of the tracks of one playlist are in any other.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PlaylistSetOperationBenchmark {
+
+    @Param({"1000", "10000"})
+    int size;
+
+    @Param({"8"})
+    int playlists;
+
+    private final Date dateAdded = new Date();
+    private List<TrackPlayList> inputs;
+    private List<Iterable<PlayListTrack>> tracks;
+    private ExecutorService executor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(5);
+        inputs = new ArrayList<TrackPlayList>(playlists);
+        tracks = new ArrayList<Iterable<PlayListTrack>>(playlists);
+        for (int i = 0; i < playlists; i++) {
+            TrackPlayList playList = new TrackPlayList();
+            List<PlayListTrack> playListTracks = new ArrayList<PlayListTrack>(size);
+            for (int j = 0; j < size; j++) {
+                PlayListTrack playListTrack = new PlayListTrack();
+                playListTrack.setId(j + 1);
+                playListTrack.setTrackId(random.nextInt(2 * size));
+                playListTrack.setTrackArtistId(random.nextInt(100));
+                playListTrack.setDateAdded(dateAdded);
+                playListTracks.add(playListTrack);
+            }
+            playList.addPlayListTracks(0, playListTracks);
+            inputs.add(playList);
+            tracks.add(playList.getPlayListTracks());
+        }
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public TrackPlayList unionOneByOne() {
+        TrackPlayList target = new TrackPlayList();
+        for (TrackPlayList input : inputs) {
+            for (PlayListTrack playListTrack : input.getPlayListTracks()) {
+                if (!contains(target, playListTrack.getTrackId())) {
+                    target.addPlayListTrack(copy(target, playListTrack));
+                }
+            }
+        }
+        return target;
+    }
+
+    @Benchmark
+    public TrackPlayList union() {
+        return addToNewPlaylist(PlaylistSetOperation.of(PlaylistSetOperation.Type.UNION, tracks));
+    }
+
+    @Benchmark
+    public TrackPlayList intersectionOneByOne() {
+        TrackPlayList target = new TrackPlayList();
+        for (PlayListTrack playListTrack : inputs.get(0).getPlayListTracks()) {
+            boolean inAll = !contains(target, playListTrack.getTrackId());
+            for (int i = 1; i < inputs.size() && inAll; i++) {
+                inAll = contains(inputs.get(i), playListTrack.getTrackId());
+            }
+            if (inAll) {
+                target.addPlayListTrack(copy(target, playListTrack));
+            }
+        }
+        return target;
+    }
+
+    @Benchmark
+    public TrackPlayList intersection() {
+        return addToNewPlaylist(PlaylistSetOperation.of(PlaylistSetOperation.Type.INTERSECTION, tracks));
+    }
+
+    @Benchmark
+    public TrackPlayList intersectionInParallel() {
+        return addToNewPlaylist(PlaylistSetOperation.of(PlaylistSetOperation.Type.INTERSECTION, tracks).inParallel(executor));
+    }
+
+    private TrackPlayList addToNewPlaylist(PlaylistSetOperation operation) {
+        PlaylistBusinessBean target = new PlaylistBusinessBean(1, UUID.randomUUID().toString(), new PlaylistDaoBean(0, 1),
+                Integer.MAX_VALUE);
+        return target.addPlayListTracks(operation.getPlayListTracks(), 0, dateAdded).getPlayList();
+    }
+
+    /**
+     * Linear search, as a playlist without track id counts has to.
+     */
+    private static boolean contains(TrackPlayList playList, int trackId) {
+        for (PlayListTrack playListTrack : playList.getPlayListTracks()) {
+            if (playListTrack.getTrackId() == trackId) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private PlayListTrack copy(TrackPlayList target, PlayListTrack playListTrack) {
+        PlayListTrack copy = new PlayListTrack();
+        copy.setId(target.nextPlayListTrackId());
+        copy.setIndex(target.getPlayListTracksSize());
+        copy.setTrackId(playListTrack.getTrackId());
+        copy.setTrackArtistId(playListTrack.getTrackArtistId());
+        copy.setDateAdded(dateAdded);
+        copy.setTrackPlaylist(target);
+        return copy;
+    }
+}
@@ -0,0 +1,75 @@
+package com.tidal.playlist.benchmark;
+
+import com.tidal.playlist.dao.PlaylistDaoBean;
+import com.tidal.playlist.data.PlayListTrack;
+import com.tidal.playlist.data.PlayOrder;
+import com.tidal.playlist.data.TrackPlayList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the artist-spread {@link PlayOrder}: shuffling a playlist, reading a page of the shuffled
+ * order, and repairing the order after a track is removed and added back, compared with shuffling
+ * again after each such change.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PlaylistShuffleBenchmark {
+
+    private static final int PAGE_SIZE = 50;
+
+    @Param({"1000", "100000"})
+    int size;
+
+    private TrackPlayList playList;
+    private PlayOrder playOrder;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        playList = new PlaylistDaoBean(size, 1).getPlaylistByUUID(UUID.randomUUID().toString(), 1);
+        playOrder = new PlayOrder(playList, 1);
+    }
+
+    @Benchmark
+    public PlayOrder shuffle() {
+        return new PlayOrder(playList, 1);
+    }
+
+    @Benchmark
+    public List<PlayListTrack> readPage() {
+        return playOrder.getPlayListTracks(ThreadLocalRandom.current().nextInt(size - PAGE_SIZE), PAGE_SIZE);
+    }
+
+    @Benchmark
+    public PlayOrder repairAfterRemoveAndAdd() {
+        List<PlayListTrack> changed = Collections.singletonList(playList.getPlayListTrackAt(ThreadLocalRandom.current().nextInt(size)));
+        playOrder.removed(changed);
+        playOrder.added(changed);
+        return playOrder;
+    }
+
+    @Benchmark
+    public PlayOrder shuffleAgainAfterRemoveAndAdd() {
+        return new PlayOrder(playList, 1);
+    }
+}
@@ -0,0 +1,110 @@
+package com.tidal.playlist.benchmark;
+
+import com.tidal.playlist.PlaylistBusinessBean;
+import com.tidal.playlist.PlaylistLocks;
+import com.tidal.playlist.dao.PlaylistDaoBean;
+import com.tidal.playlist.data.PlayListTrack;
+import com.tidal.playlist.data.Track;
+import com.tidal.playlist.data.TrackPlayList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Measures readers paging through a playlist while a writer keeps adding and deleting a track, with the
+ * readers taking the playlist's lock and reading the playlist itself, and with the readers reading the
+ * published snapshot without locking. The writer publishes a snapshot after every modification in both
+ * groups, so the difference is what readers gain from not waiting for the lock.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Group)
+public class PlaylistSnapshotBenchmark {
+
+    private static final int PAGE_SIZE = 50;
+    private static final List<Track> TRACKS_TO_ADD = Collections.singletonList(PlaylistDaoBean.getTrack());
+
+    @Param({"1000", "100000"})
+    int size;
+
+    @Param({"0", "16"})
+    int versions;
+
+    PlaylistBusinessBean playlistBusinessBean;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        playlistBusinessBean = new PlaylistBusinessBean(1, UUID.randomUUID().toString(), new PlaylistDaoBean(size, 1),
+                Integer.MAX_VALUE);
+        playlistBusinessBean.keepVersions(versions);
+        playlistBusinessBean.getSnapshot();
+    }
+
+    @Benchmark
+    @Group("locked")
+    @GroupThreads(3)
+    public List<PlayListTrack> lockedRead() {
+        Lock lock = PlaylistLocks.shared().lockFor(playlistBusinessBean.getPlayList().getUuid());
+        lock.lock();
+        try {
+            TrackPlayList playList = playlistBusinessBean.getPlayList();
+            return playList.getPlayListTracks(offset(playList.getPlayListTracksSize()), PAGE_SIZE);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Benchmark
+    @Group("locked")
+    @GroupThreads(1)
+    public TrackPlayList lockedWrite() {
+        return addAndDelete();
+    }
+
+    @Benchmark
+    @Group("snapshot")
+    @GroupThreads(3)
+    public List<PlayListTrack> snapshotRead() {
+        return playlistBusinessBean.getSnapshot().getPlayListTracks(offset(size), PAGE_SIZE);
+    }
+
+    @Benchmark
+    @Group("snapshot")
+    @GroupThreads(1)
+    public TrackPlayList snapshotWrite() {
+        return addAndDelete();
+    }
+
+    private TrackPlayList addAndDelete() {
+        TrackPlayList playList = playlistBusinessBean.addTracks(TRACKS_TO_ADD, -1, new Date()).getPlayList();
+        Integer added = playList.getPlayListTrackAt(playList.getPlayListTracksSize() - 1).getId();
+        return playlistBusinessBean.deleteTracks(Collections.singletonList(added)).getPlayList();
+    }
+
+    private static int offset(int size) {
+        return ThreadLocalRandom.current().nextInt(Math.max(1, size - PAGE_SIZE));
+    }
+}
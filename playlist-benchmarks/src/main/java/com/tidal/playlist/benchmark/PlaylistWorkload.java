@@ -0,0 +1,140 @@
+package com.tidal.playlist.benchmark;
+
+import java.util.Random;
+
+/**
+ * Deterministic mix of playlist requests over many users' playlists. Playlist popularity follows a Zipf
+ * distribution, and playlist sizes are spread log-uniformly between a minimum and a maximum.
+ * <p>
+ * Everything is derived from the seed: the playlists, their sizes and owners, and the requests of each
+ * thread. The same seed gives the same requests, whose {@link Generator#getDigest() digest} identifies
+ * the trace. Where a request lands, such as the position of a random add, is a fraction of the playlist
+ * size at the time it runs, so with one thread a run is repeated exactly.
+ */
+final class PlaylistWorkload {
+
+    enum Type {
+        LOAD, READ, ADD_AT_HEAD, ADD_AT_TAIL, ADD_AT_RANDOM, DELETE_BATCH
+    }
+
+    // Share of requests by type, in the order of Type, in percent
+    private static final int[] MIX = {10, 40, 10, 15, 10, 15};
+
+    static final int READ_PAGE_SIZE = 50;
+    private static final int MAX_TRACKS_ADDED = 3;
+    private static final int MAX_TRACKS_DELETED = 7;
+
+    private final long seed;
+    private final int users;
+    private final int[] sizes;
+    private final ZipfDistribution popularity;
+
+    PlaylistWorkload(long seed, int playlists, int users, int minSize, int maxSize, double zipfExponent) {
+        this.seed = seed;
+        this.users = users;
+        this.sizes = new int[playlists];
+        this.popularity = new ZipfDistribution(playlists, zipfExponent);
+        Random random = new Random(seed);
+        double logMin = Math.log(minSize);
+        double logMax = Math.log(maxSize);
+        for (int i = 0; i < playlists; i++) {
+            sizes[i] = (int) Math.round(Math.exp(logMin + random.nextDouble() * (logMax - logMin)));
+        }
+    }
+
+    long getSeed() {
+        return seed;
+    }
+
+    int getPlaylistCount() {
+        return sizes.length;
+    }
+
+    /**
+     * Number of tracks the playlist starts with.
+     */
+    int getSize(int playlist) {
+        return sizes[playlist];
+    }
+
+    String getUuid(int playlist) {
+        return "workload-" + seed + "-" + playlist;
+    }
+
+    int getUserId(int playlist) {
+        return 1 + playlist % users;
+    }
+
+    /**
+     * The requests of one thread, the same for the same seed and thread.
+     */
+    Generator generator(int thread) {
+        return new Generator(new Random(seed * 1000003 + thread + 1));
+    }
+
+    static final class Request {
+
+        final Type type;
+        final int playlist;
+        // Tracks to add or delete, or to read for READ
+        final int count;
+        // Where in the playlist, from 0 to 1
+        final double position;
+        final long trackSeed;
+
+        private Request(Type type, int playlist, int count, double position, long trackSeed) {
+            this.type = type;
+            this.playlist = playlist;
+            this.count = count;
+            this.position = position;
+            this.trackSeed = trackSeed;
+        }
+    }
+
+    final class Generator {
+
+        private final Random random;
+        private long digest = 17;
+
+        private Generator(Random random) {
+            this.random = random;
+        }
+
+        Request next() {
+            Type type = type(random.nextInt(100));
+            int playlist = popularity.sample(random);
+            int count;
+            if (type == Type.READ) {
+                count = READ_PAGE_SIZE;
+            }
+            else if (type == Type.DELETE_BATCH) {
+                count = 2 + random.nextInt(MAX_TRACKS_DELETED - 1);
+            }
+            else {
+                count = 1 + random.nextInt(MAX_TRACKS_ADDED);
+            }
+            double position = random.nextDouble();
+            long trackSeed = random.nextLong();
+            digest = 31 * (31 * (31 * digest + type.ordinal()) + playlist) + count;
+            digest = 31 * (31 * digest + Double.doubleToLongBits(position)) + trackSeed;
+            return new Request(type, playlist, count, position, trackSeed);
+        }
+
+        /**
+         * Hash of the requests generated so far.
+         */
+        long getDigest() {
+            return digest;
+        }
+
+        private Type type(int percent) {
+            for (int i = 0; i < MIX.length; i++) {
+                percent -= MIX[i];
+                if (percent < 0) {
+                    return Type.values()[i];
+                }
+            }
+            throw new IllegalStateException("Request mix does not add up to 100%");
+        }
+    }
+}
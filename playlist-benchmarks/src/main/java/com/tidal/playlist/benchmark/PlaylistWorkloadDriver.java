@@ -0,0 +1,333 @@
+package com.tidal.playlist.benchmark;
+
+import com.tidal.playlist.PlaylistBusinessBean;
+import com.tidal.playlist.PlaylistLocks;
+import com.tidal.playlist.PlaylistShards;
+import com.tidal.playlist.dao.CachingPlaylistDao;
+import com.tidal.playlist.dao.MappedPlaylistStore;
+import com.tidal.playlist.dao.PlaylistDao;
+import com.tidal.playlist.dao.PlaylistDaoBean;
+import com.tidal.playlist.data.PlayListTrack;
+import com.tidal.playlist.data.PlaylistSnapshot;
+import com.tidal.playlist.data.Track;
+import com.tidal.playlist.data.TrackCatalog;
+import com.tidal.playlist.metrics.Histogram;
+import com.tidal.playlist.metrics.PlaylistMetrics;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Runs a seeded {@link PlaylistWorkload} on several threads against {@link PlaylistBusinessBean}, backed by
+ * a {@link CachingPlaylistDao} in front of a {@link MappedPlaylistStore} in a temporary directory, and
+ * prints throughput, latency percentiles by request type, heap growth and the digest of the trace.
+ * <p>
+ * Options are given as name=value, for example
+ * {@code java -cp playlist-benchmarks/target/benchmarks.jar com.tidal.playlist.benchmark.PlaylistWorkloadDriver seed=7 threads=4 requests=200000}
+ * <p>
+ * Runs with the same options generate the same trace, and with one thread perform the same operations.
+ * With {@code shards=N} the requests go to a {@link PlaylistShards} with N shards instead of beans of the
+ * requesting threads.
+ */
+public class PlaylistWorkloadDriver {
+
+    // Dates in the workload count from here, one millisecond per request
+    private static final long START_MILLIS = 1500000000000L;
+    private static final int MAX_NUM_TRACKS = 500000;
+
+    private final PlaylistWorkload workload;
+    private final PlaylistDao dao;
+    // Null when every thread works through its own beans
+    private PlaylistShards shards;
+    private final TrackCatalog trackCatalog = new TrackCatalog();
+    private final PlaylistMetrics metrics = new PlaylistMetrics();
+    private final Map<PlaylistWorkload.Type, Histogram> latencies =
+            new EnumMap<PlaylistWorkload.Type, Histogram>(PlaylistWorkload.Type.class);
+    private final Map<PlaylistWorkload.Type, LongAdder> failures =
+            new EnumMap<PlaylistWorkload.Type, LongAdder>(PlaylistWorkload.Type.class);
+
+    PlaylistWorkloadDriver(PlaylistWorkload workload, PlaylistDao dao) {
+        this.workload = workload;
+        this.dao = dao;
+        for (PlaylistWorkload.Type type : PlaylistWorkload.Type.values()) {
+            latencies.put(type, new Histogram());
+            failures.put(type, new LongAdder());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<String, String>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Expected name=value, got " + arg);
+            }
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        long seed = Long.parseLong(option(options, "seed", "1"));
+        int threads = Integer.parseInt(option(options, "threads", "4"));
+        int requests = Integer.parseInt(option(options, "requests", "100000"));
+        int playlists = Integer.parseInt(option(options, "playlists", "1000"));
+        int users = Integer.parseInt(option(options, "users", "200"));
+        int minSize = Integer.parseInt(option(options, "minSize", "10"));
+        int maxSize = Integer.parseInt(option(options, "maxSize", "10000"));
+        double zipf = Double.parseDouble(option(options, "zipf", "1.0"));
+        int shards = Integer.parseInt(option(options, "shards", "0"));
+        PlaylistWorkload workload = new PlaylistWorkload(seed, playlists, users, minSize, maxSize, zipf);
+        long totalTracks = 0;
+        for (int i = 0; i < playlists; i++) {
+            totalTracks += workload.getSize(i);
+        }
+        long cacheTracks = Long.parseLong(option(options, "cacheTracks", Long.toString(totalTracks / 10)));
+        if (!options.isEmpty()) {
+            throw new IllegalArgumentException("Unknown options " + options.keySet());
+        }
+
+        File directory = Files.createTempDirectory("playlist-workload").toFile();
+        MappedPlaylistStore store = new MappedPlaylistStore(directory);
+        try {
+            CachingPlaylistDao cache = new CachingPlaylistDao(store, cacheTracks, 1, TimeUnit.HOURS);
+            PlaylistWorkloadDriver driver = new PlaylistWorkloadDriver(workload, cache);
+            driver.populate(store);
+            if (shards > 0) {
+                driver.shards = new PlaylistShards(shards, cache, MAX_NUM_TRACKS, playlists, driver.trackCatalog, driver.metrics);
+            }
+            System.out.printf("Workload seed=%d playlists=%d users=%d sizes=%d..%d zipf=%.2f tracks=%,d cacheTracks=%,d shards=%d%n",
+                    seed, playlists, users, minSize, maxSize, zipf, totalTracks, cacheTracks, shards);
+
+            long heapBefore = usedHeap();
+            long started = System.nanoTime();
+            long digest = driver.run(threads, requests);
+            double seconds = (System.nanoTime() - started) / 1e9;
+            long heapAfter = usedHeap();
+
+            System.out.printf("Trace %016x, %d threads, %,d requests in %.2f s, %,.0f requests/s%n",
+                    digest, threads, requests, seconds, requests / seconds);
+            driver.printLatencies();
+            System.out.printf("Heap %,.1f MB before, %,.1f MB after, growth %,.1f MB%n",
+                    heapBefore / 1e6, heapAfter / 1e6, (heapAfter - heapBefore) / 1e6);
+            System.out.printf("Cache hits=%d misses=%d evictions=%d%n",
+                    cache.getHitCount(), cache.getMissCount(), cache.getEvictionCount());
+            if (driver.shards != null) {
+                driver.shards.close();
+                System.out.printf("Shards ran %,d commands, storing %,d modifications%n",
+                        driver.shards.getCommandCount(), driver.shards.getModificationCount());
+            }
+            System.out.println(driver.trackCatalog);
+            System.out.println(driver.metrics.snapshot());
+        }
+        finally {
+            store.close();
+            for (File file : directory.listFiles()) {
+                Files.delete(file.toPath());
+            }
+            Files.delete(directory.toPath());
+        }
+    }
+
+    /**
+     * Stores the playlists of the workload as generated from its seed.
+     */
+    void populate(PlaylistDao store) {
+        LongSupplier clock = new LongSupplier() {
+            public long getAsLong() {
+                return START_MILLIS;
+            }
+        };
+        for (int i = 0; i < workload.getPlaylistCount(); i++) {
+            PlaylistDaoBean generator = new PlaylistDaoBean(workload.getSize(i), 1, trackCatalog, workload.getSeed(), clock);
+            store.savePlaylist(generator.getPlaylistByUUID(workload.getUuid(i), workload.getUserId(i)));
+        }
+    }
+
+    /**
+     * Runs the requests, split evenly over the threads, which start together.
+     *
+     * @return the digest of the trace
+     */
+    long run(int threads, int requests) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            List<Future<Long>> futures = new ArrayList<Future<Long>>();
+            for (int thread = 0; thread < threads; thread++) {
+                final int index = thread;
+                final int count = requests / threads + (thread < requests % threads ? 1 : 0);
+                futures.add(executor.submit(new Callable<Long>() {
+                    public Long call() throws Exception {
+                        start.await();
+                        return runThread(index, count);
+                    }
+                }));
+            }
+            start.countDown();
+            long digest = 0;
+            for (Future<Long> future : futures) {
+                digest = 31 * digest + future.get();
+            }
+            return digest;
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    private long runThread(int thread, int count) {
+        PlaylistWorkload.Generator generator = workload.generator(thread);
+        // Each thread works through its own beans, as requests from different clients would
+        Map<Integer, PlaylistBusinessBean> beans = new HashMap<Integer, PlaylistBusinessBean>();
+        for (int i = 0; i < count; i++) {
+            PlaylistWorkload.Request request = generator.next();
+            long started = System.nanoTime();
+            try {
+                if (shards != null) {
+                    execute(request, new Date(START_MILLIS + i));
+                }
+                else {
+                    execute(request, beans, new Date(START_MILLIS + i));
+                }
+            }
+            catch (RuntimeException e) {
+                failures.get(request.type).increment();
+            }
+            latencies.get(request.type).record(System.nanoTime() - started);
+        }
+        return generator.getDigest();
+    }
+
+    private void execute(PlaylistWorkload.Request request, Map<Integer, PlaylistBusinessBean> beans, Date now) {
+        PlaylistBusinessBean bean = beans.get(request.playlist);
+        if (bean == null || request.type == PlaylistWorkload.Type.LOAD) {
+            bean = new PlaylistBusinessBean(workload.getUserId(request.playlist), workload.getUuid(request.playlist), dao,
+                    MAX_NUM_TRACKS, PlaylistLocks.shared(), trackCatalog, metrics);
+            beans.put(request.playlist, bean);
+        }
+        int size = bean.getPlayList().getNrOfTracks();
+        switch (request.type) {
+            case LOAD:
+                break;
+            case READ:
+                bean.getPlayListTracks((int) (request.position * size), request.count);
+                break;
+            case ADD_AT_HEAD:
+                bean.addTracks(tracks(request), 0, now);
+                break;
+            case ADD_AT_TAIL:
+                bean.addTracks(tracks(request), -1, now);
+                break;
+            case ADD_AT_RANDOM:
+                bean.addTracks(tracks(request), (int) (request.position * (size + 1)), now);
+                break;
+            case DELETE_BATCH:
+                // Tracks spread evenly over the playlist, starting at the request's position
+                List<Integer> ids = new ArrayList<Integer>(request.count);
+                for (int j = 0; j < request.count && size > 0; j++) {
+                    double position = (request.position + (double) j / request.count) % 1;
+                    for (PlayListTrack playListTrack : bean.getPlayListTracks((int) (position * size), 1)) {
+                        ids.add(playListTrack.getId());
+                    }
+                }
+                bean.deleteTracks(ids);
+                break;
+            default:
+                throw new IllegalStateException("Unknown request " + request.type);
+        }
+    }
+
+    /**
+     * Runs the request through the shards, waiting for each command as a client would.
+     */
+    private void execute(PlaylistWorkload.Request request, Date now) {
+        int userId = workload.getUserId(request.playlist);
+        String uuid = workload.getUuid(request.playlist);
+        PlaylistSnapshot snapshot = join(shards.getSnapshot(userId, uuid));
+        int size = snapshot.getNrOfTracks();
+        switch (request.type) {
+            case LOAD:
+                break;
+            case READ:
+                join(shards.getPlayListTracks(userId, uuid, (int) (request.position * size), request.count));
+                break;
+            case ADD_AT_HEAD:
+                join(shards.addTracks(userId, uuid, tracks(request), 0, now));
+                break;
+            case ADD_AT_TAIL:
+                join(shards.addTracks(userId, uuid, tracks(request), -1, now));
+                break;
+            case ADD_AT_RANDOM:
+                join(shards.addTracks(userId, uuid, tracks(request), (int) (request.position * (size + 1)), now));
+                break;
+            case DELETE_BATCH:
+                List<Integer> ids = new ArrayList<Integer>(request.count);
+                for (int j = 0; j < request.count && size > 0; j++) {
+                    double position = (request.position + (double) j / request.count) % 1;
+                    ids.add(snapshot.getPlayListTrackAt((int) (position * size)).getId());
+                }
+                join(shards.deleteTracks(userId, uuid, ids));
+                break;
+            default:
+                throw new IllegalStateException("Unknown request " + request.type);
+        }
+    }
+
+    private static <T> T join(Future<T> future) {
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new IllegalStateException(e);
+        }
+    }
+
+    private static List<Track> tracks(PlaylistWorkload.Request request) {
+        Random random = new Random(request.trackSeed);
+        List<Track> tracks = new ArrayList<Track>(request.count);
+        for (int i = 0; i < request.count; i++) {
+            tracks.add(PlaylistDaoBean.getTrack(random));
+        }
+        return tracks;
+    }
+
+    private void printLatencies() {
+        System.out.printf("%-14s %10s %9s %10s %10s %10s %10s%n", "request", "count", "failures", "p50 us", "p99 us", "p99.9 us", "max us");
+        for (Map.Entry<PlaylistWorkload.Type, Histogram> entry : latencies.entrySet()) {
+            Histogram.Snapshot latency = entry.getValue().snapshot();
+            System.out.printf("%-14s %,10d %,9d %,10.1f %,10.1f %,10.1f %,10.1f%n", entry.getKey(), latency.getCount(),
+                    failures.get(entry.getKey()).sum(), latency.getValueAtPercentile(50) / 1e3,
+                    latency.getValueAtPercentile(99) / 1e3, latency.getValueAtPercentile(99.9) / 1e3, latency.getMax() / 1e3);
+        }
+    }
+
+    private static String option(Map<String, String> options, String name, String defaultValue) {
+        String value = options.remove(name);
+        return value != null ? value : defaultValue;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,33 @@
+package com.tidal.playlist.benchmark;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Ranks 0 to n - 1 drawn with probability proportional to 1 / (rank + 1)^exponent, so that a few ranks
+ * are drawn very often and most rarely. Drawing is a binary search of the cumulative probabilities.
+ */
+final class ZipfDistribution {
+
+    private final double[] cumulative;
+
+    ZipfDistribution(int n, double exponent) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("Invalid number of ranks " + n);
+        }
+        cumulative = new double[n];
+        double sum = 0;
+        for (int rank = 0; rank < n; rank++) {
+            sum += 1 / Math.pow(rank + 1, exponent);
+            cumulative[rank] = sum;
+        }
+        for (int rank = 0; rank < n; rank++) {
+            cumulative[rank] /= sum;
+        }
+    }
+
+    int sample(Random random) {
+        int rank = Arrays.binarySearch(cumulative, random.nextDouble());
+        return Math.min(rank >= 0 ? rank : -rank - 1, cumulative.length - 1);
+    }
+}
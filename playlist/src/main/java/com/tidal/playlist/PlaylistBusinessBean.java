@@ -1,134 +1,657 @@
 package com.tidal.playlist;
 
-import com.tidal.playlist.dao.PlaylistDaoBean;
+import com.tidal.playlist.dao.PlaylistDao;
 import com.tidal.playlist.data.PlayListTrack;
+import com.tidal.playlist.data.PlayOrder;
+import com.tidal.playlist.data.PlaylistOperation;
+import com.tidal.playlist.data.PlaylistSnapshot;
 import com.tidal.playlist.data.Track;
+import com.tidal.playlist.data.TrackCatalog;
 import com.tidal.playlist.data.TrackPlayList;
+import com.tidal.playlist.exception.PlaylistConflictException;
 import com.tidal.playlist.exception.PlaylistException;
+import com.tidal.playlist.metrics.PlaylistMetrics;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Stream;
 
 public class PlaylistBusinessBean {
 
-    private final TrackPlayList playList;
+    /**
+     * What {@link #addTracks(List, int, Date, DuplicateTracks)} does with tracks already in the playlist.
+     */
+    public enum DuplicateTracks {
+        // Adds them anyway, only reporting them
+        ADD,
+        // Leaves them out and adds the others
+        SKIP,
+        // Adds nothing and throws a PlaylistException
+        REJECT
+    }
+
+    // Attempts at a modification before a conflict is passed on to the caller
+    private static final int MAX_ATTEMPTS = 3;
+    // Play orders kept per bean, the least recently used being dropped first
+    private static final int MAX_PLAY_ORDERS = 8;
+
+    private final int userId;
+    private final String uuid;
+    private final PlaylistDao playlistDao;
+    private final PlaylistLocks playlistLocks;
+    private final TrackCatalog trackCatalog;
+    private final PlaylistMetrics metrics;
+    private volatile TrackPlayList playList;
     private int maxNumTracks;
 
-    public PlaylistBusinessBean(int userId, String uuid, PlaylistDaoBean playlistDaoBean, int maxNumTracks) {
+    // Published after every modification, null until first asked for unless versions are kept
+    private volatile PlaylistSnapshot snapshot;
+    // Guarded by the playlist's lock, oldest first
+    private final Deque<PlaylistSnapshot> versions = new ArrayDeque<PlaylistSnapshot>();
+    private int maxVersions;
+    // Version of the playlist the snapshot, versions and play orders were made for, guarded by the playlist's lock
+    private long followedVersion;
+    // Guarded by the playlist's lock, repaired after every modification
+    private final Map<Long, PlayOrder> playOrders = new LinkedHashMap<Long, PlayOrder>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, PlayOrder> eldest) {
+            return size() > MAX_PLAY_ORDERS;
+        }
+    };
+
+    public PlaylistBusinessBean(int userId, String uuid, PlaylistDao playlistDao, int maxNumTracks) {
+        this(userId, uuid, playlistDao, maxNumTracks, PlaylistLocks.shared());
+    }
+
+    public PlaylistBusinessBean(int userId, String uuid, PlaylistDao playlistDao, int maxNumTracks, PlaylistLocks playlistLocks) {
+        this(userId, uuid, playlistDao, maxNumTracks, playlistLocks, TrackCatalog.shared());
+    }
+
+    public PlaylistBusinessBean(int userId, String uuid, PlaylistDao playlistDao, int maxNumTracks, PlaylistLocks playlistLocks,
+                                TrackCatalog trackCatalog) {
+        this(userId, uuid, playlistDao, maxNumTracks, playlistLocks, trackCatalog, PlaylistMetrics.shared());
+    }
+
+    public PlaylistBusinessBean(int userId, String uuid, PlaylistDao playlistDao, int maxNumTracks, PlaylistLocks playlistLocks,
+                                TrackCatalog trackCatalog, PlaylistMetrics metrics) {
+        this.userId = userId;
+        this.uuid = uuid;
+        this.playlistDao = playlistDao;
+        this.playlistLocks = playlistLocks;
+        this.trackCatalog = trackCatalog;
+        this.metrics = metrics;
         this.maxNumTracks = maxNumTracks;
 
-        // This would normally be called for each operation modifying the playlist, .e.g addTracks()
-        // At the end of each such operation, there would also be storing operation.
-        // For now, just load the playlist and modify it in memory.
-        playList = playlistDaoBean.getPlaylistByUUID(uuid, userId);
+        // The playlist is loaded once, and stored again at the end of each operation modifying it.
+        playList = load();
+        followedVersion = playList.getVersion();
     }
 
+    /**
+     * The playlist itself, which modifications change in place. Readers that do not hold the playlist's
+     * lock should use {@link #getSnapshot()}.
+     */
     public TrackPlayList getPlayList() {
         return playList;
     }
 
-    PlaylistBusinessBean addTracks(List<Track> tracksToAdd, int toIndex, Date lastUpdated) throws PlaylistException {
-        if (isPlaylistFull(playList, tracksToAdd, maxNumTracks)) {
-            throw new PlaylistException("Playlist cannot have more than " + maxNumTracks + " tracks");
+    /**
+     * The latest version of the tracks, which never changes once returned. Read without locking, except
+     * for the first call, which takes the snapshot in O(n), and after the playlist was modified other than
+     * through this bean, when it is taken again.
+     */
+    public PlaylistSnapshot getSnapshot() {
+        PlaylistSnapshot current = snapshot;
+        if (current != null && current.getVersion() == playList.getVersion()) {
+            return current;
         }
-        toIndex = handleIndexOutOfBounds(playList, toIndex);
+        Lock lock = playlistLocks.lockFor(uuid);
+        if (current == null) {
+            lock.lock();
+        }
+        else if (!lock.tryLock()) {
+            // A modification is under way, which publishes its own snapshot once it is stored
+            return current;
+        }
+        try {
+            catchUp();
+            if (snapshot == null) {
+                snapshot = PlaylistSnapshot.of(playList);
+            }
+            return snapshot;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
 
-        if (!isValidIndex(playList, toIndex)) {
-            throw new PlaylistException("Playlist index is invalid. Can not add to index " + toIndex);
+    /**
+     * Keeps up to the given number of earlier versions, for {@link #undo()}. From then on every
+     * modification publishes a snapshot, which costs O(k log n) for k changed tracks.
+     */
+    public PlaylistBusinessBean keepVersions(int maxVersions) {
+        if (maxVersions < 0) {
+            throw new IllegalArgumentException("Invalid number of versions " + maxVersions);
+        }
+        Lock lock = playlistLocks.lockFor(uuid);
+        lock.lock();
+        try {
+            catchUp();
+            this.maxVersions = maxVersions;
+            while (versions.size() > maxVersions) {
+                versions.removeFirst();
+            }
+            if (maxVersions > 0 && snapshot == null) {
+                snapshot = PlaylistSnapshot.of(playList);
+            }
+            return this;
+        }
+        finally {
+            lock.unlock();
         }
+    }
 
-        List<PlayListTrack> original = getOriginalPlayListTracksSorted(playList);
-        for (Track track : tracksToAdd) {
-            original.add(toIndex, createPlayListTrack(playList, track, lastUpdated));
-            playList.setDuration(addTrackDurationToPlaylist(playList, track));
-            toIndex++;
+    /**
+     * Versions kept for {@link #undo()}, oldest first, not including the latest.
+     */
+    public List<PlaylistSnapshot> getVersions() {
+        Lock lock = playlistLocks.lockFor(uuid);
+        lock.lock();
+        try {
+            catchUp();
+            return new ArrayList<PlaylistSnapshot>(versions);
+        }
+        finally {
+            lock.unlock();
         }
+    }
 
-        updateAllIndexes(original);
+    /**
+     * Puts the tracks back as they were before the last modification, as a new version stored like any
+     * other modification. Costs O(n log n) to find the edits, which keep the PlayListTrack ids and values
+     * of the earlier version.
+     *
+     * @throws PlaylistException if no earlier version is kept
+     * @throws PlaylistConflictException if the playlist was changed through another copy meanwhile, in
+     *                                   which case the versions kept are dropped
+     */
+    public PlaylistBusinessBean undo() throws PlaylistException {
+        modify(PlaylistMetrics.Operation.UNDO, new Modification() {
+            private boolean prepared;
 
-        playList.getPlayListTracks().clear();
-        playList.getPlayListTracks().addAll(original);
-        playList.setNrOfTracks(original.size());
+            public PlaylistOperation prepare(TrackPlayList playList) {
+                if (prepared) {
+                    // Reloaded after a conflict, the version kept last is no longer the one before this one
+                    throw new PlaylistConflictException("Playlist " + uuid + " was changed while undoing");
+                }
+                prepared = true;
+                PlaylistSnapshot previous = versions.peekLast();
+                if (previous == null) {
+                    throw new PlaylistException("Playlist " + uuid + " has no earlier version kept");
+                }
+                return PlaylistOperation.restoreTracks(playList.getUuid(), getUserId(playList), playList.getVersion() + 1,
+                        previous.getPlayListTracksSorted());
+            }
+        });
         return this;
     }
 
-    PlaylistBusinessBean deleteTracks(List<Integer> playListTrackIdsToDelete) {
-        for (Integer id : playListTrackIdsToDelete) {
-            deleteTrack(playList, id);
+    /**
+     * A page of up to limit tracks from position offset on, read without locking from the latest snapshot,
+     * so that it never sees a modification half done.
+     */
+    public List<PlayListTrack> getPlayListTracks(int offset, int limit) throws PlaylistException {
+        PlaylistMetrics.Sample sample = metrics.start(PlaylistMetrics.Operation.READ_TRACKS);
+        try {
+            if (offset < 0 || limit < 0) {
+                throw new PlaylistException(PlaylistException.Reason.INVALID_INDEX,
+                        "Playlist page is invalid. Can not read " + limit + " tracks from index " + offset);
+            }
+            List<PlayListTrack> page = getSnapshot().getPlayListTracks(offset, limit);
+            sample.succeeded();
+            return page;
+        }
+        catch (RuntimeException e) {
+            sample.failed(e);
+            throw e;
+        }
+    }
+
+    /**
+     * All tracks in position order, read without locking from the latest snapshot. Prefer
+     * {@link #getPlayListTracks(int, int)} for large playlists.
+     */
+    public List<PlayListTrack> getPlayListTracksSorted() {
+        PlaylistMetrics.Sample sample = metrics.start(PlaylistMetrics.Operation.READ_TRACKS);
+        try {
+            List<PlayListTrack> playListTracks = getSnapshot().getPlayListTracksSorted();
+            sample.succeeded();
+            return playListTracks;
+        }
+        catch (RuntimeException e) {
+            sample.failed(e);
+            throw e;
+        }
+    }
+
+    /**
+     * A page of the playlist shuffled with the seed, spreading each artist's tracks apart, see
+     * {@link PlayOrder}. The first page of a seed shuffles the whole playlist in O(n log n); the order is
+     * then kept and repaired by every modification, so the same seed pages through the same order.
+     */
+    public List<PlayListTrack> getShuffledPlayListTracks(long seed, int offset, int limit) throws PlaylistException {
+        PlaylistMetrics.Sample sample = metrics.start(PlaylistMetrics.Operation.READ_TRACKS);
+        try {
+            if (offset < 0 || limit < 0) {
+                throw new PlaylistException(PlaylistException.Reason.INVALID_INDEX,
+                        "Playlist page is invalid. Can not read " + limit + " tracks from index " + offset);
+            }
+            Lock lock = playlistLocks.lockFor(uuid);
+            lock.lock();
+            try {
+                catchUp();
+                PlayOrder playOrder = playOrders.get(seed);
+                if (playOrder == null) {
+                    playOrder = new PlayOrder(playList, seed);
+                    playOrders.put(seed, playOrder);
+                }
+                List<PlayListTrack> page = playOrder.getPlayListTracks(offset, limit);
+                sample.succeeded();
+                return page;
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+        catch (RuntimeException e) {
+            sample.failed(e);
+            throw e;
+        }
+    }
+
+    public PlaylistBusinessBean addTracks(List<Track> tracks, int toIndex, Date lastUpdated) throws PlaylistException {
+        PlaylistMetrics.Sample sample = metrics.start(PlaylistMetrics.Operation.ADD_TRACKS);
+        try {
+            add(tracks, toIndex, lastUpdated);
+            sample.succeeded();
+            return this;
         }
-        updateAllIndexes(playList.getPlayListTracksSorted());
+        catch (RuntimeException e) {
+            sample.failed(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Adds the tracks, checking first which of them are already in the playlist, by track id, or occur
+     * earlier in the same batch. The check costs O(1) per track, whatever the size of the playlist, once
+     * the playlist has been checked for duplicates before. Tracks without an id are never duplicates.
+     *
+     * @return the duplicates, added or not depending on the given mode
+     * @throws PlaylistException with reason DUPLICATE, having added nothing, if there are duplicates and the
+     *                           mode is {@link DuplicateTracks#REJECT}
+     */
+    public List<Track> addTracks(List<Track> tracks, int toIndex, Date lastUpdated, DuplicateTracks duplicateTracks)
+            throws PlaylistException {
+        PlaylistMetrics.Sample sample = metrics.start(PlaylistMetrics.Operation.ADD_TRACKS);
+        try {
+            List<Track> duplicates = new ArrayList<Track>();
+            add(tracks, toIndex, lastUpdated, duplicateTracks, duplicates);
+            sample.succeeded();
+            return duplicates;
+        }
+        catch (RuntimeException e) {
+            sample.failed(e);
+            throw e;
+        }
+    }
+
+    private void add(List<Track> tracks, int toIndex, Date lastUpdated) {
+        add(tracks, toIndex, lastUpdated, DuplicateTracks.ADD, null);
+    }
+
+    /**
+     * @param duplicates receives the duplicates found, or null to skip looking for them
+     */
+    private void add(List<Track> tracks, final int toIndex, final Date lastUpdated, final DuplicateTracks duplicateTracks,
+                     final List<Track> duplicates) {
+        // Tracks already in the catalog are shared rather than kept once more
+        final List<Track> interned = new ArrayList<Track>(tracks.size());
+        for (Track track : tracks) {
+            interned.add(trackCatalog.intern(track));
+        }
+        modify(new Modification() {
+            public PlaylistOperation prepare(TrackPlayList playList) {
+                List<Track> tracksToAdd = interned;
+                if (duplicates != null) {
+                    // Checked again on every attempt, against the playlist as it is now
+                    duplicates.clear();
+                    tracksToAdd = withoutDuplicates(playList, interned, duplicateTracks, duplicates);
+                }
+                if (isPlaylistFull(playList, tracksToAdd.size(), maxNumTracks)) {
+                    throw playlistFull();
+                }
+                int index = handleIndexOutOfBounds(playList, toIndex);
+
+                if (!isValidIndex(playList, index)) {
+                    throw new PlaylistException(PlaylistException.Reason.INVALID_INDEX,
+                            "Playlist index is invalid. Can not add to index " + index);
+                }
+
+                // Indexes come from the track sequence, so the tracks behind index need no renumbering
+                return PlaylistOperation.addTracks(playList.getUuid(), getUserId(playList), playList.getVersion() + 1, index,
+                        playList.nextPlayListTrackId(), lastUpdated, tracksToAdd);
+            }
+        });
+    }
+
+    /**
+     * Adds copies of the PlayListTracks, such as the result of a
+     * {@link com.tidal.playlist.data.PlaylistSetOperation}, keeping their track, description and sharing
+     * level. The copies get new PlayListTrack ids and lastUpdated as the date they were added. Tracks
+     * already in the playlist are added again.
+     */
+    public PlaylistBusinessBean addPlayListTracks(final List<PlayListTrack> playListTracks, final int toIndex, final Date lastUpdated)
+            throws PlaylistException {
+        modify(PlaylistMetrics.Operation.ADD_TRACKS, new Modification() {
+            public PlaylistOperation prepare(TrackPlayList playList) {
+                if (isPlaylistFull(playList, playListTracks.size(), maxNumTracks)) {
+                    throw playlistFull();
+                }
+                int index = handleIndexOutOfBounds(playList, toIndex);
+                if (!isValidIndex(playList, index)) {
+                    throw new PlaylistException(PlaylistException.Reason.INVALID_INDEX,
+                            "Playlist index is invalid. Can not add to index " + index);
+                }
+                return PlaylistOperation.addPlayListTracks(playList.getUuid(), getUserId(playList), playList.getVersion() + 1,
+                        index, playList.nextPlayListTrackId(), lastUpdated, playListTracks);
+            }
+        });
         return this;
     }
 
-    private static void updateAllIndexes(List<PlayListTrack> tracks) {
-        int i = 0;
-        for (PlayListTrack track : tracks) {
-            track.setIndex(i++);
+    /**
+     * Adds the tracks of a source that is read only once, such as a cursor over a large library, in order
+     * from toIndex on, as a single operation: either all of them are added and stored, or none.
+     * <p>
+     * The source is read before the playlist's lock is taken, so a slow source does not hold up other
+     * modifications, and no further than one track past the room left, so a source that does not fit is
+     * not read to its end. It fails with reason PLAYLIST_FULL, having added nothing, if the tracks do not
+     * fit then or when they are added.
+     */
+    public PlaylistBusinessBean importTracks(Iterator<? extends Track> tracksToAdd, int toIndex, Date lastUpdated) throws PlaylistException {
+        PlaylistMetrics.Sample sample = metrics.start(PlaylistMetrics.Operation.ADD_TRACKS);
+        try {
+            // Only a hint, the room is checked again under the lock
+            int room = Math.max(0, maxNumTracks - playList.getNrOfTracks());
+            List<Track> tracks = new ArrayList<Track>();
+            while (tracks.size() <= room && tracksToAdd.hasNext()) {
+                tracks.add(tracksToAdd.next());
+            }
+            if (tracks.size() > room) {
+                throw playlistFull();
+            }
+            add(tracks, toIndex, lastUpdated);
+            sample.succeeded();
+            return this;
+        }
+        catch (RuntimeException e) {
+            sample.failed(e);
+            throw e;
         }
     }
 
-    private static void deleteTrack(TrackPlayList playList, final Integer playListTrackIdsToDelete) {
-        for (PlayListTrack playListTrack : playList.getPlayListTracks()) {
-            if (playListTrack.getId() == playListTrackIdsToDelete) {
-                playList.getPlayListTracks().remove(playListTrack);
-                float duration = subtractTrackDurationToPlaylist(playList, playListTrack.getTrack());
-                playList.setDuration(duration);
-                return;
+    public PlaylistBusinessBean importTracks(Stream<? extends Track> tracksToAdd, int toIndex, Date lastUpdated) throws PlaylistException {
+        return importTracks(tracksToAdd.iterator(), toIndex, lastUpdated);
+    }
+
+    public PlaylistBusinessBean deleteTracks(final List<Integer> playListTrackIdsToDelete) {
+        modify(PlaylistMetrics.Operation.DELETE_TRACKS, new Modification() {
+            public PlaylistOperation prepare(TrackPlayList playList) {
+                // Ids are resolved through the playlist's id index, and the tracks behind a deleted one
+                // move up by themselves, so this costs O(k log n) rather than a scan per id.
+                return PlaylistOperation.deleteTracks(playList.getUuid(), getUserId(playList), playList.getVersion() + 1,
+                        playListTrackIdsToDelete);
             }
+        });
+        return this;
+    }
+
+    /**
+     * Moves the tracks with the given ids, in the given order, so that the first of them ends up at
+     * toIndex in the resulting playlist. The tracks keep their PlayListTrack id, dateAdded and other
+     * values, and unknown ids are ignored. A toIndex of -1 or past the end moves them to the end.
+     */
+    public PlaylistBusinessBean moveTracks(final List<Integer> playListTrackIds, final int toIndex) throws PlaylistException {
+        modify(PlaylistMetrics.Operation.MOVE_TRACKS, new Modification() {
+            public PlaylistOperation prepare(TrackPlayList playList) {
+                int index = handleIndexOutOfBounds(playList, toIndex);
+                if (index < 0) {
+                    throw new PlaylistException(PlaylistException.Reason.INVALID_INDEX,
+                            "Playlist index is invalid. Can not move to index " + index);
+                }
+                // Tracks are taken out and spliced back in at the target, O(k log n) for k tracks
+                return PlaylistOperation.moveTracks(playList.getUuid(), getUserId(playList), playList.getVersion() + 1,
+                        playListTrackIds, index);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Applies and stores a modification while holding the playlist's lock, so modifications of the same
+     * playlist never interleave in this JVM. If the store has a newer version, because the playlist was
+     * changed through another copy, the playlist is reloaded and the modification prepared again. If the
+     * modification fails after it has been applied, the playlist is reloaded, so that the change that was
+     * not stored is neither served nor built on.
+     */
+    private void modify(PlaylistMetrics.Operation operation, Modification modification) {
+        PlaylistMetrics.Sample sample = metrics.start(operation);
+        try {
+            modify(modification);
+            sample.succeeded();
+        }
+        catch (RuntimeException e) {
+            sample.failed(e);
+            throw e;
         }
     }
 
-    private PlayListTrack createPlayListTrack(TrackPlayList playList, Track track, Date lastUpdated) {
-        PlayListTrack playlistTrack = new PlayListTrack();
-        playlistTrack.setTrack(track);
-        playlistTrack.setTrackPlaylist(playList);
-        playlistTrack.setTrackArtistId(track.getArtistId());
-        playlistTrack.setDateAdded(lastUpdated);
-        playlistTrack.setId(track.getId()); // Should use uuid, or incrementing counter for this user
-        return playlistTrack;
+    private void modify(Modification modification) {
+        Lock lock = playlistLocks.lockFor(uuid);
+        lock.lock();
+        // Whether the playlist may hold a change that has not been stored
+        boolean applied = false;
+        try {
+            catchUp();
+            for (int attempt = 1; ; attempt++) {
+                int size = playList.getNrOfTracks();
+                PlaylistOperation operation = modification.prepare(playList);
+                PlaylistSnapshot current = snapshot;
+                PlaylistSnapshot.Edit edit = current != null ? current.edit(playList, operation) : null;
+                applied = true;
+                List<PlayListTrack> changed = operation.applyTo(playList);
+                if (changed.isEmpty()) {
+                    if (operation.getType() == PlaylistOperation.Type.RESTORE_TRACKS) {
+                        // The tracks already are as kept last
+                        versions.pollLast();
+                    }
+                    metrics.recordMutatedPlaylistSize(size);
+                    return;
+                }
+                try {
+                    playlistDao.saveOperation(playList, operation);
+                    applied = false;
+                    followedVersion = playList.getVersion();
+                    // Once per modification, however many attempts it took
+                    metrics.recordMutatedPlaylistSize(size);
+                    if (operation.getType() == PlaylistOperation.Type.RESTORE_TRACKS) {
+                        // Back to the version kept last, which the restored one replaces
+                        versions.pollLast();
+                        snapshot = edit != null ? edit.apply(playList, changed) : null;
+                    }
+                    else {
+                        publish(edit != null ? edit.apply(playList, changed) : null);
+                    }
+                    repairPlayOrders(operation.getType(), changed);
+                    return;
+                }
+                catch (PlaylistConflictException e) {
+                    if (attempt == MAX_ATTEMPTS) {
+                        throw e;
+                    }
+                    playList = load();
+                    applied = false;
+                    followedVersion = playList.getVersion();
+                    playOrders.clear();
+                    // Versions kept so far still hold, the reloaded playlist is one more
+                    publish(current != null ? PlaylistSnapshot.of(playList) : null);
+                }
+            }
+        }
+        catch (RuntimeException e) {
+            if (applied) {
+                // Start over from the stored playlist rather than build on a change that was never stored
+                try {
+                    playList = load();
+                }
+                catch (RuntimeException reloadFailure) {
+                    e.addSuppressed(reloadFailure);
+                }
+            }
+            snapshot = null;
+            versions.clear();
+            playOrders.clear();
+            followedVersion = playList.getVersion();
+            if (maxVersions > 0) {
+                snapshot = PlaylistSnapshot.of(playList);
+            }
+            throw e;
+        }
+        finally {
+            lock.unlock();
+        }
     }
 
-    private static List<PlayListTrack> getOriginalPlayListTracksSorted(TrackPlayList playList) {
-        List<PlayListTrack> original = playList.getPlayListTracksSorted();
-        if (original == null) {
-            return new ArrayList<PlayListTrack>();
+    /**
+     * Takes the snapshot again and drops the versions kept and the play orders, if the playlist was modified
+     * other than through this bean since they were made, such as through another bean holding the same
+     * playlist instance. Must be called holding the playlist's lock.
+     */
+    private void catchUp() {
+        if (playList.getVersion() == followedVersion) {
+            return;
         }
-        else {
-            return original;
+        versions.clear();
+        playOrders.clear();
+        if (snapshot != null || maxVersions > 0) {
+            snapshot = PlaylistSnapshot.of(playList);
         }
+        followedVersion = playList.getVersion();
     }
 
-    private static int handleIndexOutOfBounds(TrackPlayList playList, int index) {
-        // The index is out of bounds, put it in the end of the list.
-        if (index > playList.getPlayListTracksSize() || index == -1) {
-            return playList.getPlayListTracksSize();
+    /**
+     * Makes the snapshot the latest, keeping the one it replaces as an earlier version if asked to.
+     */
+    private void publish(PlaylistSnapshot next) {
+        PlaylistSnapshot replaced = snapshot;
+        if (maxVersions > 0 && replaced != null) {
+            versions.addLast(replaced);
+            if (versions.size() > maxVersions) {
+                versions.removeFirst();
+            }
         }
-        return index;
+        snapshot = next;
     }
 
-    private static boolean isPlaylistFull(TrackPlayList playList, List<Track> tracksToAdd, int maxNumTracks) {
-        return playList.getNrOfTracks() + tracksToAdd.size() > maxNumTracks;
+    private void repairPlayOrders(PlaylistOperation.Type type, List<PlayListTrack> changed) {
+        if (type == PlaylistOperation.Type.RESTORE_TRACKS) {
+            // Shuffled again from the restored tracks when next asked for
+            playOrders.clear();
+            return;
+        }
+        // Moves leave play orders as they are, they do not depend on positions
+        for (PlayOrder playOrder : playOrders.values()) {
+            if (type == PlaylistOperation.Type.ADD_TRACKS) {
+                playOrder.added(changed);
+            }
+            else if (type == PlaylistOperation.Type.DELETE_TRACKS) {
+                playOrder.removed(changed);
+            }
+        }
     }
 
-    private static boolean isValidIndex(TrackPlayList playlist, int index) {
-        return index <= playlist.getNrOfTracks() && index >= 0;
+    private TrackPlayList load() {
+        PlaylistMetrics.Sample sample = metrics.start(PlaylistMetrics.Operation.LOAD);
+        try {
+            TrackPlayList loaded = playlistDao.getPlaylistByUUID(uuid, userId);
+            if (loaded == null) {
+                throw new PlaylistException(PlaylistException.Reason.NOT_FOUND, "Playlist " + uuid + " does not exist");
+            }
+            sample.succeeded();
+            return loaded;
+        }
+        catch (RuntimeException e) {
+            sample.failed(e);
+            throw e;
+        }
+    }
+
+    private static List<Track> withoutDuplicates(TrackPlayList playList, List<Track> tracks, DuplicateTracks duplicateTracks,
+                                                 List<Track> duplicates) {
+        List<Track> tracksToAdd = new ArrayList<Track>(tracks.size());
+        Set<Integer> inBatch = new HashSet<Integer>();
+        for (Track track : tracks) {
+            int trackId = track.getId();
+            if (trackId > 0 && (playList.containsTrack(trackId) || !inBatch.add(trackId))) {
+                duplicates.add(track);
+                if (duplicateTracks == DuplicateTracks.SKIP) {
+                    continue;
+                }
+            }
+            tracksToAdd.add(track);
+        }
+        if (duplicateTracks == DuplicateTracks.REJECT && !duplicates.isEmpty()) {
+            throw new PlaylistException(PlaylistException.Reason.DUPLICATE,
+                    "Playlist already has " + duplicates.size() + " of the tracks, for example track " + duplicates.get(0).getId());
+        }
+        return tracksToAdd;
     }
 
-    private static float addTrackDurationToPlaylist(TrackPlayList playList, Track track) {
-        return getPlayListDuration(playList) + getTrackDuration(track);
+    private PlaylistException playlistFull() {
+        return new PlaylistException(PlaylistException.Reason.PLAYLIST_FULL, "Playlist cannot have more than " + maxNumTracks + " tracks");
     }
 
-    private static float subtractTrackDurationToPlaylist(TrackPlayList playList, Track track) {
-        return getPlayListDuration(playList) - getTrackDuration(track);
+    private static int getUserId(TrackPlayList playList) {
+        return playList.getUserId() != null ? playList.getUserId() : 0;
+    }
 
+    private static int handleIndexOutOfBounds(TrackPlayList playList, int index) {
+        // The index is out of bounds, put it in the end of the list.
+        if (index > playList.getPlayListTracksSize() || index == -1) {
+            return playList.getPlayListTracksSize();
+        }
+        return index;
+    }
+
+    private static boolean isPlaylistFull(TrackPlayList playList, int numTracksToAdd, int maxNumTracks) {
+        return playList.getNrOfTracks() + numTracksToAdd > maxNumTracks;
     }
 
-    private static float getTrackDuration(Track track) {
-        return track != null ? track.getDuration() : 0;
+    private static boolean isValidIndex(TrackPlayList playlist, int index) {
+        return index <= playlist.getNrOfTracks() && index >= 0;
     }
 
-    private static float getPlayListDuration(TrackPlayList playList) {
-        return playList != null && playList.getDuration() != null ? playList.getDuration() : 0;
+    private interface Modification {
+        PlaylistOperation prepare(TrackPlayList playList);
     }
 }
@@ -0,0 +1,40 @@
+package com.tidal.playlist;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Striped locks serializing modifications of the same playlist, picked by playlist UUID. Playlists on
+ * different stripes are modified fully in parallel.
+ */
+public final class PlaylistLocks {
+
+    private static final PlaylistLocks SHARED = new PlaylistLocks(1024);
+
+    private final Lock[] stripes;
+    private final int mask;
+
+    /**
+     * @param stripes number of locks, rounded up to a power of two
+     */
+    public PlaylistLocks(int stripes) {
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.stripes = new Lock[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * The stripes used by every {@link PlaylistBusinessBean} not given its own.
+     */
+    public static PlaylistLocks shared() {
+        return SHARED;
+    }
+
+    public Lock lockFor(String uuid) {
+        int hash = uuid.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & mask];
+    }
+}
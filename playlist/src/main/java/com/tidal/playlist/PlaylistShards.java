@@ -0,0 +1,489 @@
+package com.tidal.playlist;
+
+import com.tidal.playlist.dao.PlaylistDao;
+import com.tidal.playlist.data.PlayListTrack;
+import com.tidal.playlist.data.PlaylistSnapshot;
+import com.tidal.playlist.data.Track;
+import com.tidal.playlist.data.TrackCatalog;
+import com.tidal.playlist.exception.PlaylistException;
+import com.tidal.playlist.metrics.PlaylistMetrics;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs playlist commands on a fixed set of shards, each a single thread that owns the playlists whose
+ * UUID hashes to it. A shard keeps a {@link PlaylistBusinessBean} per playlist it has seen, so a playlist
+ * is loaded once rather than on every request, and no two threads ever modify the same playlist.
+ * <p>
+ * A shard drains its mailbox in batches. Within a batch, commands for the same playlist run in the order
+ * they were submitted, and runs of adds that land next to each other, or of deletes, are merged into one
+ * modification stored once. If a merged modification fails, its commands run again one by one, so each
+ * command fails or succeeds as it would have on its own. After any other failure, such as the store
+ * failing, the shard drops its copy of the playlist and loads it again for the next command.
+ * <p>
+ * Shard beans lock their playlists on the same stripes as other beans, {@link PlaylistLocks#shared()}
+ * unless given others, so a modification made elsewhere never interleaves with one made by a shard. It
+ * does leave the shard's copy of the playlist stale, which only a DAO that checks versions, such as
+ * {@link com.tidal.playlist.dao.JournaledPlaylistDao}, turns into a conflict and a reload. Without one,
+ * the playlists must not be modified other than through these shards while they run.
+ */
+public class PlaylistShards implements Closeable {
+
+    // Commands taken from a mailbox at once
+    private static final int MAX_BATCH = 256;
+    // Put in every mailbox by close(), it ends its shard
+    private static final Command<Void> STOP = new DeleteTracks(0, "", Collections.<Integer>emptyList());
+
+    private final Shard[] shards;
+    private final LongAdder commands = new LongAdder();
+    private final LongAdder modifications = new LongAdder();
+    private volatile boolean closed;
+
+    public PlaylistShards(int shards, PlaylistDao playlistDao, int maxNumTracks) {
+        this(shards, playlistDao, maxNumTracks, 10000, TrackCatalog.shared(), PlaylistMetrics.shared());
+    }
+
+    public PlaylistShards(int shards, PlaylistDao playlistDao, int maxNumTracks, int maxPlaylists, TrackCatalog trackCatalog,
+                          PlaylistMetrics metrics) {
+        this(shards, playlistDao, maxNumTracks, maxPlaylists, PlaylistLocks.shared(), trackCatalog, metrics);
+    }
+
+    /**
+     * @param shards        number of shard threads, usually the number of cores
+     * @param maxPlaylists  playlists each shard keeps loaded, the least recently used being dropped first
+     * @param playlistLocks the locks every bean modifying these playlists takes
+     */
+    public PlaylistShards(int shards, PlaylistDao playlistDao, int maxNumTracks, int maxPlaylists, PlaylistLocks playlistLocks,
+                          TrackCatalog trackCatalog, PlaylistMetrics metrics) {
+        if (shards <= 0) {
+            throw new IllegalArgumentException("Invalid number of shards " + shards);
+        }
+        this.shards = new Shard[shards];
+        for (int i = 0; i < shards; i++) {
+            this.shards[i] = new Shard(i, playlistDao, maxNumTracks, maxPlaylists, playlistLocks, trackCatalog, metrics);
+        }
+        for (Shard shard : this.shards) {
+            shard.thread.start();
+        }
+    }
+
+    /**
+     * Adds the tracks as {@link PlaylistBusinessBean#addTracks(List, int, Date)} does.
+     */
+    public CompletableFuture<Void> addTracks(int userId, String uuid, List<Track> tracks, int toIndex, Date lastUpdated) {
+        return submit(new AddTracks(userId, uuid, new ArrayList<Track>(tracks), toIndex, lastUpdated));
+    }
+
+    public CompletableFuture<Void> deleteTracks(int userId, String uuid, List<Integer> playListTrackIds) {
+        return submit(new DeleteTracks(userId, uuid, new ArrayList<Integer>(playListTrackIds)));
+    }
+
+    public CompletableFuture<List<PlayListTrack>> getPlayListTracks(int userId, String uuid, int offset, int limit) {
+        return submit(new ReadTracks(userId, uuid, offset, limit));
+    }
+
+    /**
+     * The latest version of the playlist, which can be read on any thread.
+     */
+    public CompletableFuture<PlaylistSnapshot> getSnapshot(int userId, String uuid) {
+        return submit(new GetSnapshot(userId, uuid));
+    }
+
+    /**
+     * Commands run so far.
+     */
+    public long getCommandCount() {
+        return commands.sum();
+    }
+
+    /**
+     * Modifications made for the commands run so far, each stored once.
+     */
+    public long getModificationCount() {
+        return modifications.sum();
+    }
+
+    /**
+     * Stops taking commands, and waits for the shards to run those submitted before. Commands submitted
+     * while closing may fail with an IllegalStateException instead.
+     */
+    public void close() {
+        closed = true;
+        for (Shard shard : shards) {
+            shard.mailbox.add(STOP);
+        }
+        boolean interrupted = false;
+        for (Shard shard : shards) {
+            while (shard.thread.isAlive()) {
+                try {
+                    shard.thread.join();
+                }
+                catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            List<Command<?>> left = new ArrayList<Command<?>>();
+            shard.mailbox.drainTo(left);
+            for (Command<?> command : left) {
+                command.result.completeExceptionally(new IllegalStateException("Playlist shards are closed"));
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private <T> CompletableFuture<T> submit(Command<T> command) {
+        if (closed) {
+            throw new IllegalStateException("Playlist shards are closed");
+        }
+        int hash = command.uuid.hashCode();
+        Shard shard = shards[((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % shards.length];
+        shard.mailbox.add(command);
+        // Closed meanwhile, and the shard may have stopped before seeing the command
+        if (closed && !shard.thread.isAlive() && shard.mailbox.remove(command)) {
+            command.result.completeExceptionally(new IllegalStateException("Playlist shards are closed"));
+        }
+        return command.result;
+    }
+
+    /**
+     * Whether the bean turned the command down before changing anything, so that it can run again.
+     */
+    private static boolean isRejection(RuntimeException e) {
+        if (!(e instanceof PlaylistException)) {
+            return false;
+        }
+        PlaylistException.Reason reason = ((PlaylistException) e).getReason();
+        return reason == PlaylistException.Reason.PLAYLIST_FULL || reason == PlaylistException.Reason.INVALID_INDEX
+                || reason == PlaylistException.Reason.DUPLICATE;
+    }
+
+    private final class Shard implements Runnable {
+
+        private final BlockingQueue<Command<?>> mailbox = new LinkedBlockingQueue<Command<?>>();
+        private final Thread thread;
+        private final PlaylistDao playlistDao;
+        private final int maxNumTracks;
+        private final TrackCatalog trackCatalog;
+        private final PlaylistMetrics metrics;
+        private final PlaylistLocks playlistLocks;
+        private final Map<String, PlaylistBusinessBean> beans;
+
+        Shard(int index, PlaylistDao playlistDao, int maxNumTracks, final int maxPlaylists, PlaylistLocks playlistLocks,
+              TrackCatalog trackCatalog, PlaylistMetrics metrics) {
+            this.playlistDao = playlistDao;
+            this.maxNumTracks = maxNumTracks;
+            this.playlistLocks = playlistLocks;
+            this.trackCatalog = trackCatalog;
+            this.metrics = metrics;
+            this.beans = new LinkedHashMap<String, PlaylistBusinessBean>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PlaylistBusinessBean> eldest) {
+                    return size() > maxPlaylists;
+                }
+            };
+            this.thread = new Thread(this, "playlist-shard-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        public void run() {
+            List<Command<?>> batch = new ArrayList<Command<?>>(MAX_BATCH);
+            boolean stopped = false;
+            while (!stopped) {
+                try {
+                    batch.add(mailbox.take());
+                }
+                catch (InterruptedException e) {
+                    // Only close() stops a shard
+                    continue;
+                }
+                mailbox.drainTo(batch, MAX_BATCH - 1);
+                stopped = batch.remove(STOP);
+                run(batch);
+                batch.clear();
+            }
+        }
+
+        /**
+         * Runs the commands of each playlist in the batch in submission order, merging runs of them.
+         */
+        private void run(List<Command<?>> batch) {
+            Map<String, List<Command<?>>> byPlaylist = new LinkedHashMap<String, List<Command<?>>>();
+            for (Command<?> command : batch) {
+                List<Command<?>> playlistCommands = byPlaylist.get(command.uuid);
+                if (playlistCommands == null) {
+                    playlistCommands = new ArrayList<Command<?>>();
+                    byPlaylist.put(command.uuid, playlistCommands);
+                }
+                playlistCommands.add(command);
+            }
+            for (List<Command<?>> playlistCommands : byPlaylist.values()) {
+                PlaylistBusinessBean bean;
+                try {
+                    bean = bean(playlistCommands.get(0));
+                }
+                catch (RuntimeException e) {
+                    for (Command<?> command : playlistCommands) {
+                        command.result.completeExceptionally(e);
+                    }
+                    commands.add(playlistCommands.size());
+                    continue;
+                }
+                int from = 0;
+                while (from < playlistCommands.size()) {
+                    Command<?> first = playlistCommands.get(from);
+                    int to = first instanceof MergingCommand
+                            ? ((MergingCommand) first).merge(bean, playlistCommands, from) : from + 1;
+                    run(bean, playlistCommands.subList(from, to));
+                    from = to;
+                }
+            }
+        }
+
+        private void run(PlaylistBusinessBean bean, List<Command<?>> run) {
+            commands.add(run.size());
+            if (run.size() > 1) {
+                try {
+                    ((MergingCommand) run.get(0)).runMerged(bean, run);
+                    modifications.increment();
+                    for (Command<?> command : run) {
+                        command.result.complete(null);
+                    }
+                    return;
+                }
+                catch (RuntimeException e) {
+                    if (!isRejection(e)) {
+                        fail(bean, run, e);
+                        return;
+                    }
+                    // Whatever was turned down is turned down again below, on its own
+                }
+            }
+            for (int i = 0; i < run.size(); i++) {
+                Command<?> command = run.get(i);
+                try {
+                    command.run(bean);
+                    if (command.modifies()) {
+                        modifications.increment();
+                    }
+                }
+                catch (RuntimeException e) {
+                    if (!isRejection(e)) {
+                        fail(bean, run.subList(i, run.size()), e);
+                        return;
+                    }
+                    command.result.completeExceptionally(e);
+                }
+            }
+        }
+
+        /**
+         * Fails the commands, and drops the bean, whose playlist may no longer be the one stored.
+         */
+        private void fail(PlaylistBusinessBean bean, List<Command<?>> failed, RuntimeException e) {
+            beans.remove(bean.getPlayList().getUuid());
+            for (Command<?> command : failed) {
+                command.result.completeExceptionally(e);
+            }
+        }
+
+        private PlaylistBusinessBean bean(Command<?> command) {
+            PlaylistBusinessBean bean = beans.get(command.uuid);
+            if (bean == null) {
+                bean = new PlaylistBusinessBean(command.userId, command.uuid, playlistDao, maxNumTracks, playlistLocks,
+                        trackCatalog, metrics);
+                beans.put(command.uuid, bean);
+            }
+            return bean;
+        }
+    }
+
+    private abstract static class Command<T> {
+
+        final int userId;
+        final String uuid;
+        final CompletableFuture<T> result = new CompletableFuture<T>();
+
+        Command(int userId, String uuid) {
+            this.userId = userId;
+            this.uuid = uuid;
+        }
+
+        /**
+         * Runs the command and completes its result, unless it throws.
+         */
+        final void run(PlaylistBusinessBean bean) {
+            result.complete(execute(bean));
+        }
+
+        abstract T execute(PlaylistBusinessBean bean);
+
+        boolean modifies() {
+            return true;
+        }
+    }
+
+    /**
+     * A command that can run together with the commands after it as a single modification.
+     */
+    private abstract static class MergingCommand extends Command<Void> {
+
+        MergingCommand(int userId, String uuid) {
+            super(userId, uuid);
+        }
+
+        /**
+         * @return the end of the run of commands from this one on that can be merged with it
+         */
+        abstract int merge(PlaylistBusinessBean bean, List<Command<?>> commands, int from);
+
+        /**
+         * Runs a run of commands found by {@link #merge} as one modification, completing none of them.
+         */
+        abstract void runMerged(PlaylistBusinessBean bean, List<Command<?>> run);
+    }
+
+    private static final class AddTracks extends MergingCommand {
+
+        final List<Track> tracks;
+        final int toIndex;
+        final Date lastUpdated;
+
+        AddTracks(int userId, String uuid, List<Track> tracks, int toIndex, Date lastUpdated) {
+            super(userId, uuid);
+            this.tracks = tracks;
+            this.toIndex = toIndex;
+            this.lastUpdated = lastUpdated;
+        }
+
+        Void execute(PlaylistBusinessBean bean) {
+            bean.addTracks(tracks, toIndex, lastUpdated);
+            return null;
+        }
+
+        /**
+         * Adds merge when each lands inside or right after the tracks added before it, with the same date,
+         * so that together they insert one block of tracks.
+         */
+        int merge(PlaylistBusinessBean bean, List<Command<?>> commands, int from) {
+            int size = bean.getPlayList().getPlayListTracksSize();
+            int start = index(toIndex, size);
+            if (start < 0) {
+                return from + 1;
+            }
+            int added = tracks.size();
+            int to = from + 1;
+            while (to < commands.size() && commands.get(to) instanceof AddTracks) {
+                AddTracks next = (AddTracks) commands.get(to);
+                int index = index(next.toIndex, size + added);
+                if (index < start || index > start + added || !Objects.equals(next.lastUpdated, lastUpdated)) {
+                    break;
+                }
+                added += next.tracks.size();
+                to++;
+            }
+            return to;
+        }
+
+        void runMerged(PlaylistBusinessBean bean, List<Command<?>> run) {
+            int size = bean.getPlayList().getPlayListTracksSize();
+            int start = index(toIndex, size);
+            List<Track> block = new ArrayList<Track>();
+            for (Command<?> command : run) {
+                AddTracks add = (AddTracks) command;
+                block.addAll(index(add.toIndex, size + block.size()) - start, add.tracks);
+            }
+            bean.addTracks(block, start, lastUpdated);
+        }
+
+        /**
+         * Where the bean would add to a playlist of the given size, or -1 if it would refuse to.
+         */
+        private static int index(int toIndex, int size) {
+            if (toIndex == -1 || toIndex > size) {
+                return size;
+            }
+            return toIndex >= 0 ? toIndex : -1;
+        }
+    }
+
+    private static final class DeleteTracks extends MergingCommand {
+
+        final List<Integer> playListTrackIds;
+
+        DeleteTracks(int userId, String uuid, List<Integer> playListTrackIds) {
+            super(userId, uuid);
+            this.playListTrackIds = playListTrackIds;
+        }
+
+        Void execute(PlaylistBusinessBean bean) {
+            bean.deleteTracks(playListTrackIds);
+            return null;
+        }
+
+        int merge(PlaylistBusinessBean bean, List<Command<?>> commands, int from) {
+            int to = from + 1;
+            while (to < commands.size() && commands.get(to) instanceof DeleteTracks) {
+                to++;
+            }
+            return to;
+        }
+
+        void runMerged(PlaylistBusinessBean bean, List<Command<?>> run) {
+            Set<Integer> ids = new LinkedHashSet<Integer>();
+            for (Command<?> command : run) {
+                ids.addAll(((DeleteTracks) command).playListTrackIds);
+            }
+            bean.deleteTracks(new ArrayList<Integer>(ids));
+        }
+    }
+
+    private static final class ReadTracks extends Command<List<PlayListTrack>> {
+
+        final int offset;
+        final int limit;
+
+        ReadTracks(int userId, String uuid, int offset, int limit) {
+            super(userId, uuid);
+            this.offset = offset;
+            this.limit = limit;
+        }
+
+        List<PlayListTrack> execute(PlaylistBusinessBean bean) throws PlaylistException {
+            return Collections.unmodifiableList(bean.getPlayListTracks(offset, limit));
+        }
+
+        boolean modifies() {
+            return false;
+        }
+    }
+
+    private static final class GetSnapshot extends Command<PlaylistSnapshot> {
+
+        GetSnapshot(int userId, String uuid) {
+            super(userId, uuid);
+        }
+
+        PlaylistSnapshot execute(PlaylistBusinessBean bean) {
+            return bean.getSnapshot();
+        }
+
+        boolean modifies() {
+            return false;
+        }
+    }
+}
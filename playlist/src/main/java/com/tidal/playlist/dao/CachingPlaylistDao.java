@@ -0,0 +1,363 @@
+package com.tidal.playlist.dao;
+
+import com.tidal.playlist.data.PlaylistOperation;
+import com.tidal.playlist.data.TrackCatalog;
+import com.tidal.playlist.data.TrackPlayList;
+import com.tidal.playlist.data.TrackStorage;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Read-through cache in front of another playlist DAO, keyed by UUID and userId.
+ * <p>
+ * The cache is bounded by weight, where a playlist weighs as much as its number of tracks, and evicts
+ * the least recently used playlists first. Entries expire after a fixed time. Concurrent misses on the
+ * same key share a single load.
+ * <p>
+ * Entries hold the playlist encoded by {@link PlaylistRecordCodec}, and every load decodes a copy of its
+ * own, so callers may modify what they get without affecting other callers, whatever their userId. Every
+ * save through this DAO writes to the delegate first and then refreshes the cached entries of that UUID,
+ * and loads that were in flight during the save are not cached, so readers never get an older version
+ * than the last save.
+ */
+public class CachingPlaylistDao implements PlaylistDao {
+
+    private final PlaylistDao delegate;
+    private final long maxWeight;
+    private final long ttlNanos;
+    private final LongSupplier nanoClock;
+
+    // Guarded by this
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+    private final Map<String, Set<Integer>> userIdsByUuid = new HashMap<String, Set<Integer>>();
+    private long weight;
+
+    private final ConcurrentHashMap<Key, Load> loading = new ConcurrentHashMap<Key, Load>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param maxWeight maximum number of tracks, summed over all cached playlists
+     */
+    public CachingPlaylistDao(PlaylistDao delegate, long maxWeight, long ttl, TimeUnit ttlUnit) {
+        this(delegate, maxWeight, ttl, ttlUnit, new LongSupplier() {
+            public long getAsLong() {
+                return System.nanoTime();
+            }
+        });
+    }
+
+    CachingPlaylistDao(PlaylistDao delegate, long maxWeight, long ttl, TimeUnit ttlUnit, LongSupplier nanoClock) {
+        this.delegate = delegate;
+        this.maxWeight = maxWeight;
+        this.ttlNanos = ttlUnit.toNanos(ttl);
+        this.nanoClock = nanoClock;
+    }
+
+    public TrackPlayList getPlaylistByUUID(String uuid, int userId) {
+        Key key = new Key(uuid, userId);
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                if (nanoClock.getAsLong() - entry.loadedAt < ttlNanos) {
+                    hits.incrementAndGet();
+                    return entry.record.decode();
+                }
+                remove(key);
+            }
+        }
+        misses.incrementAndGet();
+
+        Load load = new Load();
+        Load running = loading.putIfAbsent(key, load);
+        if (running != null) {
+            Record record = running.await();
+            return record != null ? record.decode() : null;
+        }
+        try {
+            loads.incrementAndGet();
+            TrackPlayList playList = delegate.getPlaylistByUUID(uuid, userId);
+            // Encoded before the playlist is handed out and modified
+            Record record = playList != null ? Record.of(playList) : null;
+            synchronized (this) {
+                if (record != null && !load.stale) {
+                    put(key, record);
+                }
+            }
+            load.result.complete(record);
+            return playList;
+        }
+        catch (RuntimeException e) {
+            load.result.completeExceptionally(e);
+            throw e;
+        }
+        finally {
+            loading.remove(key, load);
+        }
+    }
+
+    /**
+     * If the save fails, the cached copy may hold changes that were never stored, so it is dropped.
+     */
+    public void savePlaylist(TrackPlayList playList) {
+        try {
+            delegate.savePlaylist(playList);
+        }
+        catch (RuntimeException e) {
+            invalidate(playList.getUuid());
+            throw e;
+        }
+        refresh(playList);
+    }
+
+    /**
+     * If the save fails, for a conflict or any other reason, the cached copy has been modified past the
+     * stored version, so it is dropped.
+     */
+    public void saveOperation(TrackPlayList playList, PlaylistOperation operation) {
+        try {
+            delegate.saveOperation(playList, operation);
+        }
+        catch (RuntimeException e) {
+            invalidate(playList.getUuid());
+            throw e;
+        }
+        refresh(playList);
+    }
+
+    public void deletePlaylist(String uuid) {
+        delegate.deletePlaylist(uuid);
+        invalidate(uuid);
+    }
+
+    /**
+     * Drops every cached entry of the playlist, for all users.
+     */
+    public synchronized void invalidate(String uuid) {
+        markLoadsStale(uuid);
+        Set<Integer> userIds = userIdsByUuid.get(uuid);
+        if (userIds != null) {
+            for (Integer userId : new HashSet<Integer>(userIds)) {
+                remove(new Key(uuid, userId));
+            }
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        for (Load load : loading.values()) {
+            load.stale = true;
+        }
+        entries.clear();
+        userIdsByUuid.clear();
+        weight = 0;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Loads from the delegate. Lower than the miss count when concurrent misses shared a load.
+     */
+    public long getLoadCount() {
+        return loads.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Number of tracks held by the cached playlists.
+     */
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    /**
+     * Encodes the saved playlist, in O(n) outside the cache's lock, for the users that have it cached.
+     */
+    private void refresh(TrackPlayList playList) {
+        String uuid = playList.getUuid();
+        synchronized (this) {
+            markLoadsStale(uuid);
+            if (!userIdsByUuid.containsKey(uuid)) {
+                return;
+            }
+        }
+        Record record = Record.of(playList);
+        synchronized (this) {
+            Set<Integer> userIds = userIdsByUuid.get(uuid);
+            if (userIds == null) {
+                return;
+            }
+            for (Integer userId : new HashSet<Integer>(userIds)) {
+                put(new Key(uuid, userId), record);
+            }
+        }
+    }
+
+    private void markLoadsStale(String uuid) {
+        for (Map.Entry<Key, Load> running : loading.entrySet()) {
+            if (running.getKey().uuid.equals(uuid)) {
+                running.getValue().stale = true;
+            }
+        }
+    }
+
+    private void put(Key key, Record record) {
+        remove(key);
+        long entryWeight = Math.max(1, record.size);
+        if (entryWeight > maxWeight) {
+            return;
+        }
+        entries.put(key, new Entry(record, entryWeight, nanoClock.getAsLong()));
+        Set<Integer> userIds = userIdsByUuid.get(key.uuid);
+        if (userIds == null) {
+            userIds = new HashSet<Integer>();
+            userIdsByUuid.put(key.uuid, userIds);
+        }
+        userIds.add(key.userId);
+        weight += entryWeight;
+
+        Iterator<Map.Entry<Key, Entry>> eldest = entries.entrySet().iterator();
+        while (weight > maxWeight && eldest.hasNext()) {
+            Map.Entry<Key, Entry> evicted = eldest.next();
+            eldest.remove();
+            forget(evicted.getKey(), evicted.getValue());
+            evictions.incrementAndGet();
+        }
+    }
+
+    private void remove(Key key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            forget(key, entry);
+        }
+    }
+
+    private void forget(Key key, Entry entry) {
+        weight -= entry.weight;
+        Set<Integer> userIds = userIdsByUuid.get(key.uuid);
+        userIds.remove(key.userId);
+        if (userIds.isEmpty()) {
+            userIdsByUuid.remove(key.uuid);
+        }
+    }
+
+    private static final class Key {
+        final String uuid;
+        final int userId;
+
+        Key(String uuid, int userId) {
+            this.uuid = uuid;
+            this.userId = userId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return userId == key.userId && uuid.equals(key.uuid);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * uuid.hashCode() + userId;
+        }
+    }
+
+    /**
+     * A playlist as it was stored, which is never modified and so may be shared by entries and loads.
+     */
+    private static final class Record {
+        final byte[] bytes;
+        final int size;
+        final boolean columnar;
+
+        private Record(byte[] bytes, int size, boolean columnar) {
+            this.bytes = bytes;
+            this.size = size;
+            this.columnar = columnar;
+        }
+
+        static Record of(TrackPlayList playList) {
+            int size = playList.getPlayListTracksSize();
+            ByteBuffer buffer = ByteBuffer.allocate(Math.max(1024, 32 * size));
+            while (true) {
+                try {
+                    PlaylistRecordCodec.encode(playList, buffer);
+                    break;
+                }
+                catch (BufferOverflowException e) {
+                    buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+                }
+            }
+            return new Record(Arrays.copyOf(buffer.array(), buffer.position()), size,
+                    playList.getTrackStorage() == TrackStorage.COLUMNAR);
+        }
+
+        /**
+         * A new copy of the playlist, in the storage the delegate had given it.
+         */
+        TrackPlayList decode() {
+            return PlaylistRecordCodec.decode(ByteBuffer.wrap(bytes), MappedPlaylistStore.NEVER_LAZY,
+                    columnar ? 0 : MappedPlaylistStore.NEVER_COLUMNAR, TrackCatalog.shared());
+        }
+    }
+
+    private static final class Entry {
+        final Record record;
+        final long weight;
+        final long loadedAt;
+
+        Entry(Record record, long weight, long loadedAt) {
+            this.record = record;
+            this.weight = weight;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    private static final class Load {
+        final CompletableFuture<Record> result = new CompletableFuture<Record>();
+        volatile boolean stale;
+
+        Record await() {
+            try {
+                return result.join();
+            }
+            catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package com.tidal.playlist.dao;
+
+import com.tidal.playlist.data.PlaylistOperation;
+import com.tidal.playlist.data.TrackPlayList;
+import com.tidal.playlist.exception.PlaylistConflictException;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Playlist DAO that records each modification as a compact {@link PlaylistOperation} in an append-only
+ * log, instead of rewriting the whole playlist in the snapshot store behind it.
+ * <p>
+ * A load reads the latest snapshot and replays the logged operations that are newer than it. Every
+ * {@code checkpointInterval} operations a checkpoint folds the logged operations into fresh snapshots,
+ * flushes the snapshot store and drops the log files it has folded. On open, operations left in the log
+ * by a crash or an unclean shutdown are picked up again, and replayed on the next load.
+ */
+public class JournaledPlaylistDao implements PlaylistDao, Closeable {
+
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 10000;
+
+    private final PlaylistDao snapshots;
+    private final PlaylistOperationLog log;
+    private final int checkpointInterval;
+
+    // Appends hold the read lock, so a checkpoint holding the write lock sees every logged operation in pending
+    private final ReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+    private final Object snapshotWrites = new Object();
+    private final Map<String, List<PlaylistOperation>> pending = new HashMap<String, List<PlaylistOperation>>();
+    // Latest version logged or loaded per playlist, for conflict checks
+    private final Map<String, Long> latestVersions = new HashMap<String, Long>();
+    private final AtomicInteger operationsSinceCheckpoint = new AtomicInteger();
+    private final AtomicBoolean checkpointRunning = new AtomicBoolean();
+
+    public JournaledPlaylistDao(PlaylistDao snapshots, File logDirectory) {
+        this(snapshots, logDirectory, DEFAULT_CHECKPOINT_INTERVAL);
+    }
+
+    public JournaledPlaylistDao(PlaylistDao snapshots, File logDirectory, int checkpointInterval) {
+        this.snapshots = snapshots;
+        this.checkpointInterval = checkpointInterval;
+        try {
+            log = new PlaylistOperationLog(logDirectory);
+            for (PlaylistOperation operation : log.readSealed()) {
+                addPending(operation);
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public TrackPlayList getPlaylistByUUID(String uuid, int userId) {
+        TrackPlayList playList = snapshots.getPlaylistByUUID(uuid, userId);
+        if (playList != null) {
+            replay(playList, getPending(uuid));
+            synchronized (latestVersions) {
+                Long latest = latestVersions.get(uuid);
+                if (latest == null || latest < playList.getVersion()) {
+                    latestVersions.put(uuid, playList.getVersion());
+                }
+            }
+        }
+        return playList;
+    }
+
+    public void savePlaylist(TrackPlayList playList) {
+        synchronized (snapshotWrites) {
+            snapshots.savePlaylist(playList);
+            removePending(playList.getUuid(), playList.getVersion());
+            synchronized (latestVersions) {
+                latestVersions.put(playList.getUuid(), playList.getVersion());
+            }
+        }
+    }
+
+    public void deletePlaylist(String uuid) {
+        synchronized (snapshotWrites) {
+            snapshots.deletePlaylist(uuid);
+            removePending(uuid, Long.MAX_VALUE);
+            synchronized (latestVersions) {
+                latestVersions.remove(uuid);
+            }
+        }
+    }
+
+    /**
+     * Logs the operation and returns once it is on disk. Runs a checkpoint on the calling thread when
+     * the interval has been reached.
+     *
+     * @throws PlaylistConflictException if the operation was not made to the latest version of the playlist
+     */
+    public void saveOperation(TrackPlayList playList, PlaylistOperation operation) {
+        reserveVersion(operation);
+        boolean logged = false;
+        checkpointLock.readLock().lock();
+        try {
+            log.append(operation);
+            logged = true;
+            addPending(operation);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        finally {
+            checkpointLock.readLock().unlock();
+            if (!logged) {
+                releaseVersion(operation);
+            }
+        }
+        if (operationsSinceCheckpoint.incrementAndGet() >= checkpointInterval) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * Folds every logged operation into a snapshot and drops the folded log files. Does nothing if a
+     * checkpoint is already running.
+     */
+    public void checkpoint() {
+        if (!checkpointRunning.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            List<File> folded;
+            Map<String, List<PlaylistOperation>> toFold = new HashMap<String, List<PlaylistOperation>>();
+            checkpointLock.writeLock().lock();
+            try {
+                folded = log.roll();
+                operationsSinceCheckpoint.set(0);
+                synchronized (pending) {
+                    for (Map.Entry<String, List<PlaylistOperation>> entry : pending.entrySet()) {
+                        toFold.put(entry.getKey(), new ArrayList<PlaylistOperation>(entry.getValue()));
+                    }
+                }
+            }
+            finally {
+                checkpointLock.writeLock().unlock();
+            }
+
+            for (Map.Entry<String, List<PlaylistOperation>> entry : toFold.entrySet()) {
+                fold(entry.getKey(), entry.getValue());
+            }
+            if (snapshots instanceof Flushable) {
+                ((Flushable) snapshots).flush();
+            }
+            log.delete(folded);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        finally {
+            checkpointRunning.set(false);
+        }
+    }
+
+    /**
+     * Number of fsyncs done by the log, which is lower than the number of logged operations when
+     * concurrent writers share commits.
+     */
+    public long getLogSyncCount() {
+        return log.getSyncCount();
+    }
+
+    public void close() throws IOException {
+        log.close();
+    }
+
+    /**
+     * Claims the operation's version for its playlist, so that a concurrent operation made to the same
+     * version fails. The log append happens after, without holding any lock other writers need, and
+     * gives the version back if it fails. A playlist whose version is not known yet is loaded first,
+     * outside the lock, which records its version.
+     */
+    private void reserveVersion(PlaylistOperation operation) {
+        String uuid = operation.getPlayListUuid();
+        boolean known;
+        synchronized (latestVersions) {
+            known = latestVersions.containsKey(uuid);
+        }
+        if (!known) {
+            getPlaylistByUUID(uuid, operation.getUserId());
+        }
+        synchronized (latestVersions) {
+            Long latest = latestVersions.get(uuid);
+            if (latest == null || latest != operation.getVersion() - 1) {
+                throw new PlaylistConflictException("Playlist " + uuid + " is at version "
+                        + (latest != null ? latest : "none") + ", not " + (operation.getVersion() - 1));
+            }
+            latestVersions.put(uuid, operation.getVersion());
+        }
+    }
+
+    /**
+     * Gives back the version of an operation that could not be logged, unless a later operation has
+     * already been made on top of it.
+     */
+    private void releaseVersion(PlaylistOperation operation) {
+        String uuid = operation.getPlayListUuid();
+        synchronized (latestVersions) {
+            Long latest = latestVersions.get(uuid);
+            if (latest != null && latest == operation.getVersion()) {
+                latestVersions.put(uuid, operation.getVersion() - 1);
+            }
+        }
+    }
+
+    private void fold(String uuid, List<PlaylistOperation> operations) {
+        PlaylistOperation last = operations.get(operations.size() - 1);
+        synchronized (snapshotWrites) {
+            TrackPlayList playList = snapshots.getPlaylistByUUID(uuid, last.getUserId());
+            if (playList == null) {
+                removePending(uuid, last.getVersion());
+                return;
+            }
+            replay(playList, operations);
+            snapshots.savePlaylist(playList);
+            removePending(uuid, playList.getVersion());
+        }
+    }
+
+    private static void replay(TrackPlayList playList, List<PlaylistOperation> operations) {
+        for (PlaylistOperation operation : operations) {
+            if (operation.getVersion() > playList.getVersion()) {
+                operation.applyTo(playList);
+            }
+        }
+    }
+
+    private void addPending(PlaylistOperation operation) {
+        synchronized (pending) {
+            List<PlaylistOperation> operations = pending.get(operation.getPlayListUuid());
+            if (operations == null) {
+                operations = new ArrayList<PlaylistOperation>();
+                pending.put(operation.getPlayListUuid(), operations);
+            }
+            operations.add(operation);
+        }
+    }
+
+    private List<PlaylistOperation> getPending(String uuid) {
+        synchronized (pending) {
+            List<PlaylistOperation> operations = pending.get(uuid);
+            return operations != null ? new ArrayList<PlaylistOperation>(operations) : new ArrayList<PlaylistOperation>();
+        }
+    }
+
+    private void removePending(String uuid, long upToVersion) {
+        synchronized (pending) {
+            List<PlaylistOperation> operations = pending.get(uuid);
+            if (operations == null) {
+                return;
+            }
+            for (Iterator<PlaylistOperation> iterator = operations.iterator(); iterator.hasNext(); ) {
+                if (iterator.next().getVersion() <= upToVersion) {
+                    iterator.remove();
+                }
+            }
+            if (operations.isEmpty()) {
+                pending.remove(uuid);
+            }
+        }
+    }
+}
@@ -0,0 +1,456 @@
+package com.tidal.playlist.dao;
+
+import com.tidal.playlist.data.PlaylistOperation;
+import com.tidal.playlist.data.TrackCatalog;
+import com.tidal.playlist.data.TrackPlayList;
+import com.tidal.playlist.exception.PlaylistConflictException;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Local playlist store backed by memory-mapped, append-only segment files.
+ * <p>
+ * Every save appends the whole playlist as a new record, and every delete appends a tombstone. An
+ * in-memory index maps each UUID to the segment and offset of its latest record, and loads decode
+ * straight from the mapped segment. On open the index is rebuilt by walking the record headers, which
+ * only touches the payload of records in the last segment, where a crash can leave a torn write.
+ * Space taken by overwritten and deleted playlists is reclaimed by {@link #compact()}.
+ * <p>
+ * Operations are only stored on top of the version they were made to, anything else is a
+ * {@link PlaylistConflictException}. A full save always replaces the stored playlist.
+ * <p>
+ * Records are written to the mapping, and so survive a process crash, but only reach the disk on
+ * {@link #flush()}, when a segment fills up, or on {@link #close()}.
+ * <p>
+ * Lazily loaded playlists decode their tracks from the mapping, which stays valid after the store is
+ * compacted or closed, as long as the playlist is referenced. Saving one writes all its tracks and so
+ * loads them; behind a {@link JournaledPlaylistDao} operations are saved without that.
+ */
+public class MappedPlaylistStore implements PlaylistDao, Closeable, Flushable {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    public static final int NEVER_COLUMNAR = Integer.MAX_VALUE;
+    public static final int NEVER_LAZY = Integer.MAX_VALUE;
+
+    // Record: [type:1][body length:4][body crc:4][body: uuid, version, playlist]
+    private static final byte END = 0;
+    private static final byte TOMBSTONE = 2;
+    // 1 and 3 held playlists in earlier layouts
+    private static final byte PLAYLIST = 4;
+    private static final int HEADER_SIZE = 9;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File directory;
+    private final int segmentSize;
+    private final int columnarThreshold;
+    private final int lazyThreshold;
+    private final TreeMap<Integer, Segment> segments = new TreeMap<Integer, Segment>();
+    private final Map<String, Indexed> index = new HashMap<String, Indexed>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private ByteBuffer scratch = ByteBuffer.allocate(64 * 1024);
+    private Segment current;
+
+    public MappedPlaylistStore(File directory) {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public MappedPlaylistStore(File directory, int segmentSize) {
+        this(directory, segmentSize, NEVER_COLUMNAR);
+    }
+
+    /**
+     * @param columnarThreshold playlists with at least this many tracks are loaded in
+     *                          {@link com.tidal.playlist.data.TrackStorage#COLUMNAR} storage
+     */
+    public MappedPlaylistStore(File directory, int segmentSize, int columnarThreshold) {
+        this(directory, segmentSize, columnarThreshold, NEVER_LAZY);
+    }
+
+    /**
+     * @param lazyThreshold playlists with at least this many tracks are loaded with only their header,
+     *                      and their tracks are decoded from the mapped segment on demand, see
+     *                      {@link TrackPlayList#setPlayListTracks(com.tidal.playlist.data.PlayListTrackSegments)}
+     */
+    public MappedPlaylistStore(File directory, int segmentSize, int columnarThreshold, int lazyThreshold) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.columnarThreshold = columnarThreshold;
+        this.lazyThreshold = lazyThreshold;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new UncheckedIOException(new IOException("Can not create playlist store directory " + directory));
+        }
+        try {
+            open();
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * The userId is not part of the key, a playlist is found by its UUID alone.
+     */
+    public TrackPlayList getPlaylistByUUID(String uuid, int userId) {
+        lock.readLock().lock();
+        try {
+            Indexed indexed = index.get(uuid);
+            if (indexed == null) {
+                return null;
+            }
+            ByteBuffer record = segments.get(segmentOf(indexed.location)).buffer.duplicate();
+            int offset = offsetOf(indexed.location);
+            record.position(offset + HEADER_SIZE);
+            skipString(record);
+            record.getLong();
+            return PlaylistRecordCodec.decode(record, lazyThreshold, columnarThreshold, TrackCatalog.shared());
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void savePlaylist(TrackPlayList playList) {
+        lock.writeLock().lock();
+        try {
+            write(playList);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Saves the playlist if the stored version is the one the operation was made to.
+     *
+     * @throws PlaylistConflictException if the playlist is not stored, or stored in another version
+     */
+    public void saveOperation(TrackPlayList playList, PlaylistOperation operation) {
+        lock.writeLock().lock();
+        try {
+            Indexed stored = index.get(playList.getUuid());
+            if (stored == null || stored.version != operation.getVersion() - 1) {
+                throw new PlaylistConflictException("Playlist " + playList.getUuid() + " is stored in version "
+                        + (stored != null ? stored.version : "none") + ", not " + (operation.getVersion() - 1));
+            }
+            write(playList);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void deletePlaylist(String uuid) {
+        lock.writeLock().lock();
+        try {
+            if (index.remove(uuid) == null) {
+                return;
+            }
+            ByteBuffer body = ByteBuffer.allocate(4 + uuid.length() * 4);
+            putString(body, uuid);
+            body.flip();
+            append(TOMBSTONE, body);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean contains(String uuid) {
+        lock.readLock().lock();
+        try {
+            return index.containsKey(uuid);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return index.size();
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Copies the latest record of every playlist into fresh segments and deletes the old ones, dropping
+     * overwritten versions and tombstones. Records are copied as raw bytes, nothing is decoded.
+     */
+    public void compact() {
+        lock.writeLock().lock();
+        try {
+            List<Segment> old = new ArrayList<Segment>(segments.values());
+            current = newSegment(segments.lastKey() + 1, segmentSize);
+            for (Map.Entry<String, Indexed> entry : index.entrySet()) {
+                long location = entry.getValue().location;
+                ByteBuffer record = segments.get(segmentOf(location)).buffer.duplicate();
+                int offset = offsetOf(location);
+                int bodyLength = record.getInt(offset + 1);
+                record.position(offset + HEADER_SIZE).limit(offset + HEADER_SIZE + bodyLength);
+                entry.setValue(new Indexed(append(record.get(offset), record.slice()), entry.getValue().version));
+            }
+            current.buffer.force();
+            for (Segment segment : old) {
+                segments.remove(segment.number);
+                segment.close();
+                if (!segment.file.delete()) {
+                    throw new IOException("Can not delete compacted segment " + segment.file);
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Forces everything written so far to disk.
+     */
+    public void flush() {
+        lock.writeLock().lock();
+        try {
+            current.buffer.force();
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            current.buffer.force();
+            for (Segment segment : segments.values()) {
+                segment.close();
+            }
+            segments.clear();
+            index.clear();
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void write(TrackPlayList playList) throws IOException {
+        while (true) {
+            try {
+                scratch.clear();
+                putString(scratch, playList.getUuid());
+                scratch.putLong(playList.getVersion());
+                PlaylistRecordCodec.encode(playList, scratch);
+                break;
+            }
+            catch (BufferOverflowException e) {
+                scratch = ByteBuffer.allocate(scratch.capacity() * 2);
+            }
+        }
+        scratch.flip();
+        index.put(playList.getUuid(), new Indexed(append(PLAYLIST, scratch), playList.getVersion()));
+    }
+
+    private void open() throws IOException {
+        File[] files = directory.listFiles();
+        List<Integer> numbers = new ArrayList<Integer>();
+        for (File file : files != null ? files : new File[0]) {
+            String name = file.getName();
+            if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                numbers.add(Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+            }
+        }
+        if (numbers.isEmpty()) {
+            current = newSegment(1, segmentSize);
+            return;
+        }
+        Integer[] sorted = numbers.toArray(new Integer[numbers.size()]);
+        Arrays.sort(sorted);
+        for (int i = 0; i < sorted.length; i++) {
+            Segment segment = mapSegment(sorted[i], segmentFile(sorted[i]).length());
+            segments.put(segment.number, segment);
+            scan(segment, i == sorted.length - 1);
+            current = segment;
+        }
+    }
+
+    /**
+     * Replays the record headers of a segment into the index. Only the last segment can end in a torn
+     * write, so only its bodies are checked against their CRC, and anything after the first bad record
+     * is wiped so it can never be mistaken for a record later.
+     */
+    private void scan(Segment segment, boolean verify) throws IOException {
+        ByteBuffer buffer = segment.buffer.duplicate();
+        int position = 0;
+        boolean torn = false;
+        while (position + HEADER_SIZE <= buffer.capacity()) {
+            byte type = buffer.get(position);
+            if (type == END) {
+                break;
+            }
+            if (type != PLAYLIST && type != TOMBSTONE) {
+                // The type is written last, so this is no torn write but a record this store can not read
+                throw new IOException("Unknown record type " + type + " in " + segment.file);
+            }
+            int bodyLength = buffer.getInt(position + 1);
+            if (bodyLength < 0 || position + HEADER_SIZE + bodyLength > buffer.capacity()) {
+                torn = true;
+                break;
+            }
+            buffer.limit(position + HEADER_SIZE + bodyLength).position(position + HEADER_SIZE);
+            if (verify && crc(buffer.slice()) != buffer.getInt(position + 5)) {
+                torn = true;
+                break;
+            }
+            String uuid = getString(buffer);
+            if (type != TOMBSTONE) {
+                index.put(uuid, new Indexed(location(segment.number, position), buffer.getLong()));
+            }
+            else {
+                index.remove(uuid);
+            }
+            buffer.limit(buffer.capacity());
+            position += HEADER_SIZE + bodyLength;
+        }
+        segment.writePosition = position;
+        if (torn) {
+            for (int i = position; i < segment.buffer.capacity(); i++) {
+                segment.buffer.put(i, END);
+            }
+        }
+    }
+
+    private long append(byte type, ByteBuffer body) throws IOException {
+        int recordLength = HEADER_SIZE + body.remaining();
+        if (current.writePosition + recordLength > current.buffer.capacity()) {
+            current.buffer.force();
+            current = newSegment(current.number + 1, Math.max(segmentSize, recordLength));
+        }
+        int position = current.writePosition;
+        ByteBuffer buffer = current.buffer.duplicate();
+        buffer.position(position + 1);
+        buffer.putInt(body.remaining());
+        buffer.putInt(crc(body.duplicate()));
+        buffer.put(body);
+        // The type goes in last, a record without it reads as the end of the segment
+        buffer.put(position, type);
+        current.writePosition = position + recordLength;
+        return location(current.number, position);
+    }
+
+    private Segment newSegment(int number, int size) throws IOException {
+        Segment segment = mapSegment(number, size);
+        segments.put(number, segment);
+        return segment;
+    }
+
+    private Segment mapSegment(int number, long size) throws IOException {
+        File file = segmentFile(number);
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.setLength(size);
+        FileChannel channel = randomAccessFile.getChannel();
+        return new Segment(number, file, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+    }
+
+    private File segmentFile(int number) {
+        return new File(directory, SEGMENT_PREFIX + String.format("%08d", number) + SEGMENT_SUFFIX);
+    }
+
+    private static int crc(ByteBuffer body) {
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        return (int) crc.getValue();
+    }
+
+    private static long location(int segment, int offset) {
+        return ((long) segment << 32) | (offset & 0xFFFFFFFFL);
+    }
+
+    private static int segmentOf(long location) {
+        return (int) (location >>> 32);
+    }
+
+    private static int offsetOf(long location) {
+        return (int) location;
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        byte[] bytes = value.getBytes(UTF_8);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static void skipString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        buffer.position(buffer.position() + length);
+    }
+
+    private static final class Indexed {
+        final long location;
+        final long version;
+
+        Indexed(long location, long version) {
+            this.location = location;
+            this.version = version;
+        }
+    }
+
+    private static final class Segment {
+        final int number;
+        final File file;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        int writePosition;
+
+        Segment(int number, File file, FileChannel channel, MappedByteBuffer buffer) {
+            this.number = number;
+            this.file = file;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.tidal.playlist.dao;
+
+import com.tidal.playlist.data.PlaylistOperation;
+import com.tidal.playlist.data.TrackPlayList;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * Loads the playlists of a batch concurrently on an executor, so that a batch takes about as long as
+ * its slowest load rather than the sum of them. Everything else goes straight to the delegate.
+ * <p>
+ * The executor bounds how many loads run at once across all batches, and belongs to the caller. Loads
+ * going through {@link com.tidal.playlist.data.TrackCatalog#shared()} share the tracks they have in
+ * common.
+ */
+public class ParallelPlaylistDao implements PlaylistDao {
+
+    private final PlaylistDao delegate;
+    private final Executor executor;
+
+    public ParallelPlaylistDao(PlaylistDao delegate, Executor executor) {
+        this.delegate = delegate;
+        this.executor = executor;
+    }
+
+    public TrackPlayList getPlaylistByUUID(String uuid, int userId) {
+        return delegate.getPlaylistByUUID(uuid, userId);
+    }
+
+    /**
+     * The calling thread loads the first playlist itself, while the others are loaded on the executor.
+     * If loads fail, the exception of the first failed one in UUID order is thrown once all have ended.
+     */
+    public Map<String, TrackPlayList> getPlaylistsByUUIDs(Collection<String> uuids, final int userId) {
+        Map<String, CompletableFuture<TrackPlayList>> loads = new LinkedHashMap<String, CompletableFuture<TrackPlayList>>();
+        String first = null;
+        for (final String uuid : new LinkedHashSet<String>(uuids)) {
+            if (first == null) {
+                first = uuid;
+                continue;
+            }
+            loads.put(uuid, CompletableFuture.supplyAsync(new Supplier<TrackPlayList>() {
+                public TrackPlayList get() {
+                    return delegate.getPlaylistByUUID(uuid, userId);
+                }
+            }, executor));
+        }
+        Map<String, TrackPlayList> playLists = new LinkedHashMap<String, TrackPlayList>();
+        if (first == null) {
+            return playLists;
+        }
+
+        RuntimeException failure = null;
+        try {
+            put(playLists, first, delegate.getPlaylistByUUID(first, userId));
+        }
+        catch (RuntimeException e) {
+            failure = e;
+        }
+        for (Map.Entry<String, CompletableFuture<TrackPlayList>> load : loads.entrySet()) {
+            try {
+                put(playLists, load.getKey(), load.getValue().join());
+            }
+            catch (CompletionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return playLists;
+    }
+
+    public void savePlaylist(TrackPlayList playList) {
+        delegate.savePlaylist(playList);
+    }
+
+    public void saveOperation(TrackPlayList playList, PlaylistOperation operation) {
+        delegate.saveOperation(playList, operation);
+    }
+
+    public void deletePlaylist(String uuid) {
+        delegate.deletePlaylist(uuid);
+    }
+
+    private static void put(Map<String, TrackPlayList> playLists, String uuid, TrackPlayList playList) {
+        if (playList != null) {
+            playLists.put(uuid, playList);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.tidal.playlist.dao;
+
+import com.tidal.playlist.data.PlaylistOperation;
+import com.tidal.playlist.data.TrackPlayList;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Data layer for playlists, keyed by playlist UUID.
+ */
+public interface PlaylistDao {
+
+    /**
+     * @return the playlist, or null if there is no playlist with this UUID
+     */
+    TrackPlayList getPlaylistByUUID(String uuid, int userId);
+
+    /**
+     * Loads several playlists, one after the other unless the store can do better.
+     *
+     * @return the playlists by UUID, in the order of the given UUIDs, leaving out those that do not exist
+     */
+    default Map<String, TrackPlayList> getPlaylistsByUUIDs(Collection<String> uuids, int userId) {
+        Map<String, TrackPlayList> playLists = new LinkedHashMap<String, TrackPlayList>();
+        for (String uuid : uuids) {
+            if (!playLists.containsKey(uuid)) {
+                TrackPlayList playList = getPlaylistByUUID(uuid, userId);
+                if (playList != null) {
+                    playLists.put(uuid, playList);
+                }
+            }
+        }
+        return playLists;
+    }
+
+    /**
+     * Stores the playlist with its tracks, replacing any earlier version with the same UUID.
+     */
+    void savePlaylist(TrackPlayList playList);
+
+    /**
+     * Stores a modification that has just been applied to the playlist. Stores that can not record single
+     * operations save the whole playlist.
+     * <p>
+     * Stores that keep versions throw {@link com.tidal.playlist.exception.PlaylistConflictException} if the
+     * operation was not made to the version they hold.
+     */
+    default void saveOperation(TrackPlayList playList, PlaylistOperation operation) {
+        savePlaylist(playList);
+    }
+
+    void deletePlaylist(String uuid);
+}
@@ -9,24 +9,62 @@ package com.tidal.playlist.dao;
 import com.tidal.playlist.data.PlayListTrack;
 import com.tidal.playlist.data.SharingLevel;
 import com.tidal.playlist.data.Track;
+import com.tidal.playlist.data.TrackCatalog;
 import com.tidal.playlist.data.TrackPlayList;
 
 import java.util.Date;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongSupplier;
 
 /**
- * Class faking the data layer, and returning fake playlists
+ * Class faking the data layer, and returning fake playlists. Nothing is ever stored.
+ * <p>
+ * Given a seed and a clock, the playlist generated for a UUID is the same in every run and on every
+ * load, whatever the order of the loads.
  */
-public class PlaylistDaoBean {
+public class PlaylistDaoBean implements PlaylistDao {
+
+    // Number of distinct tracks generated playlists pick from
+    private static final int CATALOG_SIZE = 1000000;
 
     private final int numTracksToGenerate;
     private int playListTrackIdToStartFrom;
+    private final TrackCatalog trackCatalog;
+    private final boolean seeded;
+    private final long seed;
+    private final LongSupplier clock;
 
     public PlaylistDaoBean(int numTracksToGenerate, int playListTrackIdToStartFrom) {
+        this(numTracksToGenerate, playListTrackIdToStartFrom, TrackCatalog.shared());
+    }
+
+    public PlaylistDaoBean(int numTracksToGenerate, int playListTrackIdToStartFrom, TrackCatalog trackCatalog) {
+        this(numTracksToGenerate, playListTrackIdToStartFrom, trackCatalog, false, 0, new LongSupplier() {
+            public long getAsLong() {
+                return System.currentTimeMillis();
+            }
+        });
+    }
+
+    /**
+     * @param clock current time in milliseconds, used for every date set on the playlists
+     */
+    public PlaylistDaoBean(int numTracksToGenerate, int playListTrackIdToStartFrom, TrackCatalog trackCatalog, long seed,
+                           LongSupplier clock) {
+        this(numTracksToGenerate, playListTrackIdToStartFrom, trackCatalog, true, seed, clock);
+    }
+
+    private PlaylistDaoBean(int numTracksToGenerate, int playListTrackIdToStartFrom, TrackCatalog trackCatalog, boolean seeded,
+                            long seed, LongSupplier clock) {
         this.numTracksToGenerate = numTracksToGenerate;
         this.playListTrackIdToStartFrom = playListTrackIdToStartFrom;
+        this.trackCatalog = trackCatalog;
+        this.seeded = seeded;
+        this.seed = seed;
+        this.clock = clock;
     }
 
     public TrackPlayList getPlaylistByUUID(String uuid, int userId) {
@@ -34,12 +72,12 @@ public class PlaylistDaoBean {
 
         trackPlayList.setDeleted(false);
         trackPlayList.setDescription("The mother of all playlists");
-        trackPlayList.setDuration((float) (60 * 60 * 2));
         trackPlayList.setId(49834);
-        trackPlayList.setLastUpdated(new Date());
-        trackPlayList.setNrOfTracks(numTracksToGenerate);
+        Date now = new Date(clock.getAsLong());
+        trackPlayList.setRegisteredDate(now);
+        trackPlayList.setLastUpdated(now);
         trackPlayList.setPlayListName("Collection of great songs");
-        trackPlayList.setPlayListTracks(getPlaylistTracks(numTracksToGenerate, playListTrackIdToStartFrom));
+        trackPlayList.setPlayListTracks(getPlaylistTracks(numTracksToGenerate, playListTrackIdToStartFrom, random(uuid), now));
         trackPlayList.setUserId(userId);
         trackPlayList.setSharingLevel(SharingLevel.PUBLIC);
         trackPlayList.setUuid(uuid);
@@ -47,31 +85,60 @@ public class PlaylistDaoBean {
         return trackPlayList;
     }
 
-    private static Set<PlayListTrack> getPlaylistTracks(int numTracksToGenerate, int playListTrackIdToStartFrom) {
+    public void savePlaylist(TrackPlayList playList) {
+    }
+
+    public void deletePlaylist(String uuid) {
+    }
+
+    private Set<PlayListTrack> getPlaylistTracks(int numTracksToGenerate, int playListTrackIdToStartFrom, Random random, Date dateAdded) {
 
-        Set<PlayListTrack> playListTracks = new HashSet<PlayListTrack>();
+        Set<PlayListTrack> playListTracks = new LinkedHashSet<PlayListTrack>(numTracksToGenerate);
         for (int i = 0; i < numTracksToGenerate; i++) {
             PlayListTrack playListTrack = new PlayListTrack();
-            playListTrack.setDateAdded(new Date());
+            playListTrack.setDateAdded(new Date(dateAdded.getTime()));
             playListTrack.setDescription("A description");
             playListTrack.setId(playListTrackIdToStartFrom + i);
             playListTrack.setIndex(i);
             playListTrack.setSharingLevel(SharingLevel.PUBLIC);
-            playListTrack.setTrack(getTrack());
+            Track track = trackCatalog.intern(getTrack(random));
+            playListTrack.setTrack(track);
+            playListTrack.setTrackId(track.getId());
+            playListTrack.setTrackArtistId(track.getArtistId());
             playListTracks.add(playListTrack);
         }
 
         return playListTracks;
     }
 
+    private Random random(String uuid) {
+        return seeded ? new Random(seed * 31 + (uuid != null ? uuid.hashCode() : 0)) : ThreadLocalRandom.current();
+    }
+
+    /**
+     * A random track of the catalog.
+     */
     public static Track getTrack() {
-        Random randomGenerator = new Random();
+        return getTrack(ThreadLocalRandom.current());
+    }
+
+    /**
+     * A track of the catalog picked by the given random, for generating the same tracks from a seed.
+     */
+    public static Track getTrack(Random random) {
+        return getTrack(1 + random.nextInt(CATALOG_SIZE));
+    }
 
+    /**
+     * The track with the given id, which always has the same values.
+     */
+    public static Track getTrack(int id) {
         Track track = new Track();
-        track.setArtistId(randomGenerator.nextInt(10000));
+        track.setId(id);
+        track.setArtistId(id % 10000);
         track.setDuration(60 * 3);
 
-        int trackNumber = randomGenerator.nextInt(15);
+        int trackNumber = id % 15;
         track.setTitle("Track no: " + trackNumber);
         track.setTrackNumberIdx(trackNumber);
 
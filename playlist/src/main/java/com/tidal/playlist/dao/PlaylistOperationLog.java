@@ -0,0 +1,355 @@
+package com.tidal.playlist.dao;
+
+import com.tidal.playlist.data.PlaylistOperation;
+import com.tidal.playlist.data.Track;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of {@link PlaylistOperation}s with group commit.
+ * <p>
+ * An append only returns once its record is on disk. Records appended while an fsync is running are
+ * collected in a batch, and the first of their writers to get the log writes and syncs the whole batch
+ * for everyone, so concurrent writers share one fsync. A failed write or sync leaves the log unusable,
+ * since it can no longer tell which records made it to disk.
+ * <p>
+ * Each time the log is opened or rolled it starts a new file. Reading stops at the first torn or
+ * corrupt record of a file.
+ */
+final class PlaylistOperationLog implements Closeable {
+
+    // Record: [body length:4][body crc:4][body]
+    private static final int HEADER_SIZE = 8;
+    private static final String FILE_PREFIX = "operations-";
+    private static final String FILE_SUFFIX = ".log";
+
+    private final File directory;
+    private final Object monitor = new Object();
+
+    private int currentNumber;
+    private FileChannel channel;
+
+    private ByteBuffer batch = ByteBuffer.allocate(64 * 1024);
+    private ByteBuffer spare = ByteBuffer.allocate(64 * 1024);
+    private long appended;
+    private long durable;
+    private boolean syncing;
+    private IOException failure;
+    private long syncs;
+
+    PlaylistOperationLog(File directory) throws IOException {
+        this.directory = directory;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can not create operation log directory " + directory);
+        }
+        int[] numbers = fileNumbers();
+        open(numbers.length > 0 ? numbers[numbers.length - 1] + 1 : 1);
+    }
+
+    /**
+     * Reads every operation in the files before the current one, in the order they were appended.
+     */
+    List<PlaylistOperation> readSealed() throws IOException {
+        List<PlaylistOperation> operations = new ArrayList<PlaylistOperation>();
+        for (int number : fileNumbers()) {
+            if (number < currentNumber) {
+                read(file(number), operations);
+            }
+        }
+        return operations;
+    }
+
+    /**
+     * Appends the operation and waits until it is on disk.
+     */
+    void append(PlaylistOperation operation) throws IOException {
+        long sequence;
+        synchronized (monitor) {
+            checkNotFailed();
+            int start = batch.position();
+            while (true) {
+                try {
+                    encode(operation, batch);
+                    break;
+                }
+                catch (BufferOverflowException e) {
+                    ByteBuffer larger = ByteBuffer.allocate(batch.capacity() * 2);
+                    batch.flip().limit(start);
+                    larger.put(batch);
+                    batch = larger;
+                }
+            }
+            sequence = ++appended;
+        }
+        commit(sequence);
+    }
+
+    /**
+     * Starts a new file. Must not run concurrently with {@link #append}.
+     *
+     * @return the files before the new one, which will not be written to again
+     */
+    List<File> roll() throws IOException {
+        synchronized (monitor) {
+            checkNotFailed();
+            channel.close();
+            open(currentNumber + 1);
+            List<File> sealed = new ArrayList<File>();
+            for (int number : fileNumbers()) {
+                if (number < currentNumber) {
+                    sealed.add(file(number));
+                }
+            }
+            return sealed;
+        }
+    }
+
+    void delete(List<File> files) throws IOException {
+        for (File file : files) {
+            if (!file.delete()) {
+                throw new IOException("Can not delete operation log file " + file);
+            }
+        }
+    }
+
+    long getSyncCount() {
+        synchronized (monitor) {
+            return syncs;
+        }
+    }
+
+    public void close() throws IOException {
+        synchronized (monitor) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Waits until the record with the sequence number is on disk, writing and syncing the batch itself
+     * if no one else is. Interrupts do not end the wait, since the record is in the batch and will be
+     * written anyway; the interrupt flag is cleared while waiting and writing, so the channel is not
+     * closed by it, and restored before returning.
+     */
+    private void commit(long sequence) throws IOException {
+        boolean interrupted = Thread.interrupted();
+        try {
+            while (true) {
+                ByteBuffer toWrite;
+                long upTo;
+                FileChannel target;
+                synchronized (monitor) {
+                    while (syncing && durable < sequence) {
+                        try {
+                            monitor.wait();
+                        }
+                        catch (InterruptedException e) {
+                            interrupted = true;
+                        }
+                    }
+                    if (durable >= sequence) {
+                        return;
+                    }
+                    checkNotFailed();
+                    syncing = true;
+                    toWrite = batch;
+                    batch = spare;
+                    upTo = appended;
+                    target = channel;
+                }
+
+                IOException error = null;
+                try {
+                    toWrite.flip();
+                    while (toWrite.hasRemaining()) {
+                        target.write(toWrite);
+                    }
+                    target.force(false);
+                }
+                catch (IOException e) {
+                    error = e;
+                }
+
+                synchronized (monitor) {
+                    syncing = false;
+                    syncs++;
+                    toWrite.clear();
+                    spare = toWrite;
+                    if (error != null) {
+                        failure = error;
+                    }
+                    else {
+                        durable = upTo;
+                    }
+                    monitor.notifyAll();
+                }
+                if (error != null) {
+                    throw error;
+                }
+            }
+        }
+        finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void checkNotFailed() throws IOException {
+        if (failure != null) {
+            throw new IOException("Operation log failed earlier", failure);
+        }
+    }
+
+    private void open(int number) throws IOException {
+        currentNumber = number;
+        channel = new RandomAccessFile(file(number), "rw").getChannel();
+        channel.position(channel.size());
+    }
+
+    private int[] fileNumbers() {
+        File[] files = directory.listFiles();
+        List<Integer> numbers = new ArrayList<Integer>();
+        for (File file : files != null ? files : new File[0]) {
+            String name = file.getName();
+            if (name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX)) {
+                numbers.add(Integer.parseInt(name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length())));
+            }
+        }
+        int[] sorted = new int[numbers.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = numbers.get(i);
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private File file(int number) {
+        return new File(directory, FILE_PREFIX + String.format("%08d", number) + FILE_SUFFIX);
+    }
+
+    private static void read(File file, List<PlaylistOperation> operations) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel fileChannel = randomAccessFile.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate((int) fileChannel.size());
+            while (buffer.hasRemaining() && fileChannel.read(buffer) >= 0) {
+                // keep reading
+            }
+            buffer.flip();
+            while (buffer.remaining() >= HEADER_SIZE) {
+                int bodyLength = buffer.getInt();
+                int crc = buffer.getInt();
+                if (bodyLength <= 0 || bodyLength > buffer.remaining()) {
+                    return;
+                }
+                ByteBuffer body = buffer.slice();
+                body.limit(bodyLength);
+                if (crc(body.duplicate()) != crc) {
+                    return;
+                }
+                operations.add(decode(body));
+                buffer.position(buffer.position() + bodyLength);
+            }
+        }
+        finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private static void encode(PlaylistOperation operation, ByteBuffer buffer) {
+        int start = buffer.position();
+        buffer.position(start + HEADER_SIZE);
+        PlaylistRecordCodec.putString(buffer, operation.getPlayListUuid());
+        buffer.put((byte) operation.getType().ordinal());
+        buffer.putLong(operation.getVersion());
+        buffer.putInt(operation.getUserId());
+        if (operation.getType() == PlaylistOperation.Type.ADD_TRACKS) {
+            buffer.putInt(operation.getToIndex());
+            buffer.putInt(operation.getFirstPlayListTrackId());
+            PlaylistRecordCodec.putDate(buffer, operation.getDateAdded());
+            buffer.putInt(operation.getTracks().size());
+            for (Track track : operation.getTracks()) {
+                PlaylistRecordCodec.encodeTrack(track, buffer);
+            }
+            if (!operation.getPlayListTracks().isEmpty()) {
+                PlaylistRecordCodec.encodePlayListTracks(operation.getPlayListTracks(), buffer);
+            }
+        }
+        else if (operation.getType() == PlaylistOperation.Type.RESTORE_TRACKS) {
+            PlaylistRecordCodec.encodePlayListTracks(operation.getPlayListTracks(), buffer);
+        }
+        else {
+            if (operation.getType() == PlaylistOperation.Type.MOVE_TRACKS) {
+                buffer.putInt(operation.getToIndex());
+            }
+            int countPosition = buffer.position();
+            buffer.putInt(0);
+            int count = 0;
+            for (Integer id : operation.getPlayListTrackIds()) {
+                if (id != null) {
+                    buffer.putInt(id);
+                    count++;
+                }
+            }
+            buffer.putInt(countPosition, count);
+        }
+        int end = buffer.position();
+        ByteBuffer body = buffer.duplicate();
+        body.position(start + HEADER_SIZE).limit(end);
+        buffer.putInt(start, end - start - HEADER_SIZE);
+        buffer.putInt(start + 4, crc(body));
+    }
+
+    private static PlaylistOperation decode(ByteBuffer body) {
+        String uuid = PlaylistRecordCodec.getString(body);
+        PlaylistOperation.Type type = PlaylistOperation.Type.values()[body.get()];
+        long version = body.getLong();
+        int userId = body.getInt();
+        if (type == PlaylistOperation.Type.ADD_TRACKS) {
+            int toIndex = body.getInt();
+            int firstPlayListTrackId = body.getInt();
+            Date dateAdded = PlaylistRecordCodec.getDate(body);
+            int count = body.getInt();
+            List<Track> tracks = new ArrayList<Track>(count);
+            for (int i = 0; i < count; i++) {
+                tracks.add(PlaylistRecordCodec.decodeTrack(body));
+            }
+            if (body.hasRemaining()) {
+                // Copies of PlayListTracks, which records written before they could be added never hold
+                return PlaylistOperation.addPlayListTracks(uuid, userId, version, toIndex, firstPlayListTrackId, dateAdded,
+                        PlaylistRecordCodec.decodePlayListTracks(body));
+            }
+            return PlaylistOperation.addTracks(uuid, userId, version, toIndex, firstPlayListTrackId, dateAdded, tracks);
+        }
+        if (type == PlaylistOperation.Type.RESTORE_TRACKS) {
+            return PlaylistOperation.restoreTracks(uuid, userId, version, PlaylistRecordCodec.decodePlayListTracks(body));
+        }
+        int toIndex = type == PlaylistOperation.Type.MOVE_TRACKS ? body.getInt() : 0;
+        int count = body.getInt();
+        List<Integer> ids = new ArrayList<Integer>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(body.getInt());
+        }
+        if (type == PlaylistOperation.Type.MOVE_TRACKS) {
+            return PlaylistOperation.moveTracks(uuid, userId, version, ids, toIndex);
+        }
+        return PlaylistOperation.deleteTracks(uuid, userId, version, ids);
+    }
+
+    private static int crc(ByteBuffer body) {
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        return (int) crc.getValue();
+    }
+}
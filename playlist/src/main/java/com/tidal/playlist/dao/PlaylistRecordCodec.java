@@ -0,0 +1,626 @@
+package com.tidal.playlist.dao;
+
+import com.tidal.playlist.data.PlayListTrack;
+import com.tidal.playlist.data.PlayListTrackSegments;
+import com.tidal.playlist.data.PlayListType;
+import com.tidal.playlist.data.SharingLevel;
+import com.tidal.playlist.data.Track;
+import com.tidal.playlist.data.TrackCatalog;
+import com.tidal.playlist.data.TrackPlayList;
+import com.tidal.playlist.data.TrackStorage;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary layout of a playlist record in {@link MappedPlaylistStore}: the playlist header followed by
+ * its tracks in position order. Decoding reads straight from the given buffer, which for the store is
+ * a view of the mapped segment.
+ * <p>
+ * Tracks are written compactly: ids as varints, PlayListTrack ids and dates as the difference to the
+ * previous track, enums as a byte, and a string once in full and by its number from then on. Indexes
+ * are not written, they follow from the order of the tracks. What a track refers back to starts over
+ * at every segment, so each segment decodes on its own.
+ * <p>
+ * Between header and tracks, records hold the exact duration, the highest PlayListTrack id and a table
+ * with the offset and id range of every {@link #SEGMENT_SIZE} tracks, so that their tracks can be loaded
+ * lazily one segment at a time.
+ * <p>
+ * Playlists decoded into {@link TrackStorage#COLUMNAR} storage reuse a single PlayListTrack and Track
+ * for all their tracks, since the storage copies them into its columns.
+ */
+public final class PlaylistRecordCodec {
+
+    static final int SEGMENT_SIZE = 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int NULL = -1;
+    // Offset, lowest and highest PlayListTrack id of a segment
+    private static final int SEGMENT_ENTRY_SIZE = 12;
+
+    // Flags of an encoded PlayListTrack
+    private static final int HAS_ID = 1;
+    private static final int HAS_DATE = 1 << 1;
+    private static final int HAS_TRACK = 1 << 2;
+
+    // Strings of tracks are null, new, or the number of a new one before plus FIRST_STRING_REFERENCE
+    private static final int NULL_STRING = 0;
+    private static final int NEW_STRING = 1;
+    private static final int FIRST_STRING_REFERENCE = 2;
+
+    private PlaylistRecordCodec() {
+    }
+
+    /**
+     * Writes a record, reading the tracks as they are written.
+     *
+     * @throws java.nio.BufferOverflowException if the playlist does not fit in the remaining buffer
+     */
+    public static void encode(TrackPlayList playList, ByteBuffer buffer) {
+        putInteger(buffer, playList.getId());
+        putString(buffer, playList.getUuid());
+        putString(buffer, playList.getPlayListName());
+        putEnum(buffer, playList.getPlayListType());
+        putString(buffer, playList.getDescription());
+        putDate(buffer, playList.getRegisteredDate());
+        putDate(buffer, playList.getLastUpdated());
+        buffer.putInt(playList.getCreatedByArtistId());
+        putString(buffer, playList.getCreatedByArtistName());
+        buffer.putInt(playList.getNrOfTracks());
+        buffer.put((byte) (playList.isDeleted() ? 1 : 0));
+        putEnum(buffer, playList.getSharingLevel());
+        putString(buffer, playList.getCreatedByNickName());
+        putFloat(buffer, playList.getDuration());
+        putInteger(buffer, playList.getUserId());
+        putString(buffer, playList.getImageSources());
+        buffer.putLong(playList.getVersion());
+
+        int size = playList.getPlayListTracksSize();
+        buffer.putLong(playList.getDurationMillis());
+        buffer.putInt(playList.nextPlayListTrackId() - 1);
+        buffer.putInt(size);
+        int table = buffer.position();
+        buffer.position(table + segmentCount(size) * SEGMENT_ENTRY_SIZE);
+        int tracks = buffer.position();
+        TrackWriter writer = new TrackWriter(buffer);
+        int position = 0;
+        int minId = Integer.MAX_VALUE;
+        int maxId = Integer.MIN_VALUE;
+        for (PlayListTrack playListTrack : playList.getPlayListTracks()) {
+            if (position % SEGMENT_SIZE == 0) {
+                buffer.putInt(table + position / SEGMENT_SIZE * SEGMENT_ENTRY_SIZE, buffer.position() - tracks);
+                writer.startSegment();
+            }
+            Integer id = playListTrack.getId();
+            if (id != null) {
+                minId = Math.min(minId, id);
+                maxId = Math.max(maxId, id);
+            }
+            writer.write(playListTrack);
+            position++;
+            if (position % SEGMENT_SIZE == 0 || position == size) {
+                int entry = table + (position - 1) / SEGMENT_SIZE * SEGMENT_ENTRY_SIZE;
+                buffer.putInt(entry + 4, minId);
+                buffer.putInt(entry + 8, maxId);
+                minId = Integer.MAX_VALUE;
+                maxId = Integer.MIN_VALUE;
+            }
+        }
+    }
+
+    /**
+     * Reads a record written by {@link #encode}, with all its tracks.
+     */
+    public static TrackPlayList decode(ByteBuffer buffer) {
+        return decode(buffer, MappedPlaylistStore.NEVER_LAZY, MappedPlaylistStore.NEVER_COLUMNAR, TrackCatalog.shared());
+    }
+
+    /**
+     * @param lazyThreshold     playlists with at least this many tracks are loaded lazily, from a
+     *                          view of the buffer that has to stay valid as long as the playlist is used
+     * @param columnarThreshold other playlists with at least this many tracks are decoded into columnar
+     *                          storage
+     * @param trackCatalog      shares the tracks of playlists decoded into object storage
+     */
+    static TrackPlayList decode(ByteBuffer buffer, int lazyThreshold, int columnarThreshold,
+                                TrackCatalog trackCatalog) {
+        TrackPlayList playList = new TrackPlayList();
+        playList.setId(getInteger(buffer));
+        playList.setUuid(getString(buffer));
+        playList.setPlayListName(getString(buffer));
+        playList.setPlayListType(getEnum(buffer, PlayListType.values()));
+        playList.setDescription(getString(buffer));
+        playList.setRegisteredDate(getDate(buffer));
+        playList.setLastUpdated(getDate(buffer));
+        playList.setCreatedByArtistId(buffer.getInt());
+        playList.setCreatedByArtistName(getString(buffer));
+        // nrOfTracks, which follows the decoded tracks
+        buffer.getInt();
+        playList.setDeleted(buffer.get() == 1);
+        playList.setSharingLevel(getEnum(buffer, SharingLevel.values()));
+        playList.setCreatedByNickName(getString(buffer));
+        // duration, which follows the decoded tracks
+        getFloat(buffer);
+        playList.setUserId(getInteger(buffer));
+        playList.setImageSources(getString(buffer));
+        playList.setVersion(buffer.getLong());
+
+        long durationMillis = buffer.getLong();
+        int maxPlayListTrackId = buffer.getInt();
+        int size = buffer.getInt();
+        int table = buffer.position();
+        buffer.position(table + segmentCount(size) * SEGMENT_ENTRY_SIZE);
+        if (size >= lazyThreshold) {
+            playList.setPlayListTracks(new RecordSegments(buffer.duplicate(), table, buffer.position(), size,
+                    durationMillis, maxPlayListTrackId, trackCatalog));
+            return playList;
+        }
+        TrackReader reader = new TrackReader(buffer);
+        if (size >= columnarThreshold) {
+            playList.setTrackStorage(TrackStorage.COLUMNAR);
+            PlayListTrack scratch = new PlayListTrack();
+            Track scratchTrack = new Track();
+            List<PlayListTrack> single = Collections.singletonList(scratch);
+            for (int i = 0; i < size; i++) {
+                if (i % SEGMENT_SIZE == 0) {
+                    reader.startSegment();
+                }
+                reader.read(scratch, scratchTrack);
+                playList.addPlayListTracks(i, single);
+            }
+        }
+        else {
+            List<PlayListTrack> playListTracks = new ArrayList<PlayListTrack>(size);
+            for (int i = 0; i < size; i++) {
+                if (i % SEGMENT_SIZE == 0) {
+                    reader.startSegment();
+                }
+                PlayListTrack playListTrack = new PlayListTrack();
+                reader.read(playListTrack, new Track());
+                playListTrack.setTrack(trackCatalog.intern(playListTrack.getTrack()));
+                playListTrack.setTrackPlaylist(playList);
+                playListTracks.add(playListTrack);
+            }
+            playList.addPlayListTracks(0, playListTracks);
+        }
+        return playList;
+    }
+
+    private static int segmentCount(int size) {
+        return (size + SEGMENT_SIZE - 1) / SEGMENT_SIZE;
+    }
+
+    /**
+     * Writes tracks outside of a record, the way a record writes one segment of them.
+     */
+    static void encodePlayListTracks(List<PlayListTrack> playListTracks, ByteBuffer buffer) {
+        buffer.putInt(playListTracks.size());
+        TrackWriter writer = new TrackWriter(buffer);
+        writer.startSegment();
+        for (PlayListTrack playListTrack : playListTracks) {
+            writer.write(playListTrack);
+        }
+    }
+
+    static List<PlayListTrack> decodePlayListTracks(ByteBuffer buffer) {
+        int size = buffer.getInt();
+        List<PlayListTrack> playListTracks = new ArrayList<PlayListTrack>(Math.min(size, SEGMENT_SIZE));
+        TrackReader reader = new TrackReader(buffer);
+        reader.startSegment();
+        for (int i = 0; i < size; i++) {
+            PlayListTrack playListTrack = new PlayListTrack();
+            reader.read(playListTrack, new Track());
+            playListTracks.add(playListTrack);
+        }
+        return playListTracks;
+    }
+
+    static void encodeTrack(Track track, ByteBuffer buffer) {
+        if (track == null) {
+            buffer.put((byte) 0);
+            return;
+        }
+        buffer.put((byte) 1);
+        buffer.putInt(track.getId());
+        buffer.putInt(track.getArtistId());
+        buffer.putInt(track.getTrackNumberIdx());
+        buffer.putFloat(track.getDuration());
+        putString(buffer, track.getTitle());
+    }
+
+    static Track decodeTrack(ByteBuffer buffer) {
+        return decodeTrack(buffer, new Track());
+    }
+
+    /**
+     * Decodes into the given track, returning it, or null if no track was encoded.
+     */
+    private static Track decodeTrack(ByteBuffer buffer, Track track) {
+        if (buffer.get() == 0) {
+            return null;
+        }
+        track.setId(buffer.getInt());
+        track.setArtistId(buffer.getInt());
+        track.setTrackNumberIdx(buffer.getInt());
+        track.setDuration(buffer.getFloat());
+        track.setTitle(getString(buffer));
+        return track;
+    }
+
+    static void putString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            buffer.putInt(NULL);
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF_8);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length == NULL) {
+            return null;
+        }
+        if (buffer.hasArray()) {
+            String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, UTF_8);
+            buffer.position(buffer.position() + length);
+            return value;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static void putInteger(ByteBuffer buffer, Integer value) {
+        buffer.put((byte) (value != null ? 1 : 0));
+        buffer.putInt(value != null ? value : 0);
+    }
+
+    private static Integer getInteger(ByteBuffer buffer) {
+        boolean present = buffer.get() == 1;
+        int value = buffer.getInt();
+        return present ? value : null;
+    }
+
+    private static void putFloat(ByteBuffer buffer, Float value) {
+        buffer.put((byte) (value != null ? 1 : 0));
+        buffer.putFloat(value != null ? value : 0);
+    }
+
+    private static Float getFloat(ByteBuffer buffer) {
+        boolean present = buffer.get() == 1;
+        float value = buffer.getFloat();
+        return present ? value : null;
+    }
+
+    static void putDate(ByteBuffer buffer, Date value) {
+        buffer.put((byte) (value != null ? 1 : 0));
+        buffer.putLong(value != null ? value.getTime() : 0);
+    }
+
+    static Date getDate(ByteBuffer buffer) {
+        boolean present = buffer.get() == 1;
+        long value = buffer.getLong();
+        return present ? new Date(value) : null;
+    }
+
+    private static void putEnum(ByteBuffer buffer, Enum<?> value) {
+        buffer.put((byte) (value != null ? value.ordinal() : NULL));
+    }
+
+    private static <E extends Enum<E>> E getEnum(ByteBuffer buffer, E[] values) {
+        byte ordinal = buffer.get();
+        return ordinal == NULL ? null : values[ordinal];
+    }
+
+    /**
+     * Zigzag encodes the value, so that small negative values stay short too.
+     */
+    static void putSigned(ByteBuffer buffer, long value) {
+        putUnsigned(buffer, (value << 1) ^ (value >> 63));
+    }
+
+    static long getSigned(ByteBuffer buffer, int bits) {
+        long value = getUnsigned(buffer, bits);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static void putUnsigned(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Reads a varint holding at most the given number of bits.
+     *
+     * @throws IllegalArgumentException if the varint holds more bits
+     */
+    static long getUnsigned(ByteBuffer buffer, int bits) {
+        long value = 0;
+        for (int shift = 0; shift < bits; shift += 7) {
+            byte b = buffer.get();
+            if (shift + 7 > bits && (b & 0x7F) >>> (bits - shift) != 0) {
+                break;
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Varint longer than " + bits + " bits at " + buffer.position());
+    }
+
+    /**
+     * Writes the tracks of a record.
+     */
+    private static final class TrackWriter {
+
+        private final ByteBuffer buffer;
+        private final Map<String, Integer> strings = new HashMap<String, Integer>();
+        private int previousId;
+        private long previousDate;
+
+        TrackWriter(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        void startSegment() {
+            strings.clear();
+            previousId = 0;
+            previousDate = 0;
+        }
+
+        void write(PlayListTrack playListTrack) {
+            Integer id = playListTrack.getId();
+            Date dateAdded = playListTrack.getDateAdded();
+            Track track = playListTrack.getTrack();
+            buffer.put((byte) ((id != null ? HAS_ID : 0) | (dateAdded != null ? HAS_DATE : 0) | (track != null ? HAS_TRACK : 0)));
+            if (id != null) {
+                putSigned(buffer, (long) id - previousId);
+                previousId = id;
+            }
+            if (dateAdded != null) {
+                putSigned(buffer, dateAdded.getTime() - previousDate);
+                previousDate = dateAdded.getTime();
+            }
+            putSigned(buffer, playListTrack.getTrackId());
+            putSigned(buffer, playListTrack.getTrackArtistId());
+            putEnum(buffer, playListTrack.getSharingLevel());
+            putString(playListTrack.getDescription());
+            if (track != null) {
+                putSigned(buffer, track.getId());
+                putSigned(buffer, track.getArtistId());
+                putSigned(buffer, track.getTrackNumberIdx());
+                buffer.putFloat(track.getDuration());
+                putString(track.getTitle());
+            }
+        }
+
+        private void putString(String value) {
+            if (value == null) {
+                putUnsigned(buffer, NULL_STRING);
+                return;
+            }
+            Integer number = strings.get(value);
+            if (number != null) {
+                putUnsigned(buffer, FIRST_STRING_REFERENCE + number);
+                return;
+            }
+            strings.put(value, strings.size());
+            byte[] bytes = value.getBytes(UTF_8);
+            putUnsigned(buffer, NEW_STRING);
+            putUnsigned(buffer, bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    /**
+     * Reads the tracks of a record, from the start of a segment on.
+     */
+    private static final class TrackReader {
+
+        private final ByteBuffer buffer;
+        private final List<String> strings = new ArrayList<String>();
+        private int previousId;
+        private long previousDate;
+
+        TrackReader(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        void startSegment() {
+            strings.clear();
+            previousId = 0;
+            previousDate = 0;
+        }
+
+        /**
+         * Decodes into the given PlayListTrack, setting the given track on it unless none was encoded.
+         */
+        void read(PlayListTrack playListTrack, Track track) {
+            int flags = buffer.get();
+            playListTrack.setId((flags & HAS_ID) != 0 ? readId() : null);
+            if ((flags & HAS_DATE) != 0) {
+                previousDate += getSigned(buffer, 64);
+                playListTrack.setDateAdded(new Date(previousDate));
+            }
+            else {
+                playListTrack.setDateAdded(null);
+            }
+            playListTrack.setTrackId((int) getSigned(buffer, 32));
+            playListTrack.setTrackArtistId((int) getSigned(buffer, 32));
+            playListTrack.setSharingLevel(getEnum(buffer, SharingLevel.values()));
+            playListTrack.setDescription(getString());
+            if ((flags & HAS_TRACK) == 0) {
+                playListTrack.setTrack(null);
+                return;
+            }
+            track.setId((int) getSigned(buffer, 32));
+            track.setArtistId((int) getSigned(buffer, 32));
+            track.setTrackNumberIdx((int) getSigned(buffer, 32));
+            track.setDuration(buffer.getFloat());
+            track.setTitle(getString());
+            playListTrack.setTrack(track);
+        }
+
+        /**
+         * Skips a track, returning only its PlayListTrack id. A reader that skipped can not read any more
+         * tracks of the segment, since it does not keep the strings it skips.
+         */
+        Integer skip() {
+            int flags = buffer.get();
+            Integer id = (flags & HAS_ID) != 0 ? readId() : null;
+            if ((flags & HAS_DATE) != 0) {
+                getUnsigned(buffer, 64);
+            }
+            // trackId, trackArtistId and sharingLevel
+            getUnsigned(buffer, 32);
+            getUnsigned(buffer, 32);
+            buffer.get();
+            skipString();
+            if ((flags & HAS_TRACK) != 0) {
+                // id, artistId, trackNumberIdx and duration
+                getUnsigned(buffer, 32);
+                getUnsigned(buffer, 32);
+                getUnsigned(buffer, 32);
+                buffer.position(buffer.position() + 4);
+                skipString();
+            }
+            return id;
+        }
+
+        private int readId() {
+            // The difference of two ints takes up to 33 bits zigzag encoded
+            previousId += (int) getSigned(buffer, 33);
+            return previousId;
+        }
+
+        private String getString() {
+            long number = getUnsigned(buffer, 32);
+            if (number == NULL_STRING) {
+                return null;
+            }
+            if (number != NEW_STRING) {
+                if (number - FIRST_STRING_REFERENCE >= strings.size()) {
+                    throw new IllegalArgumentException("Unknown string " + number + " at " + buffer.position());
+                }
+                return strings.get((int) number - FIRST_STRING_REFERENCE);
+            }
+            int length = getLength();
+            String value;
+            if (buffer.hasArray()) {
+                value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, UTF_8);
+                buffer.position(buffer.position() + length);
+            }
+            else {
+                byte[] bytes = new byte[length];
+                buffer.get(bytes);
+                value = new String(bytes, UTF_8);
+            }
+            strings.add(value);
+            return value;
+        }
+
+        private void skipString() {
+            if (getUnsigned(buffer, 32) == NEW_STRING) {
+                int length = getLength();
+                buffer.position(buffer.position() + length);
+            }
+        }
+
+        private int getLength() {
+            long length = getUnsigned(buffer, 32);
+            if (length > buffer.remaining()) {
+                throw new IllegalArgumentException("String of " + length + " bytes at " + buffer.position()
+                        + " runs past the record");
+            }
+            return (int) length;
+        }
+    }
+
+    /**
+     * The segments of a record, decoded from their own view of the buffer on every load.
+     */
+    private static final class RecordSegments implements PlayListTrackSegments {
+
+        private final ByteBuffer buffer;
+        private final int table;
+        private final int tracks;
+        private final int size;
+        private final long durationMillis;
+        private final int maxPlayListTrackId;
+        private final TrackCatalog trackCatalog;
+
+        RecordSegments(ByteBuffer buffer, int table, int tracks, int size, long durationMillis, int maxPlayListTrackId,
+                       TrackCatalog trackCatalog) {
+            this.buffer = buffer;
+            this.table = table;
+            this.tracks = tracks;
+            this.size = size;
+            this.durationMillis = durationMillis;
+            this.maxPlayListTrackId = maxPlayListTrackId;
+            this.trackCatalog = trackCatalog;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public int getSegmentSize() {
+            return SEGMENT_SIZE;
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        public int getMaxPlayListTrackId() {
+            return maxPlayListTrackId;
+        }
+
+        public List<PlayListTrack> loadSegment(int segment) {
+            TrackReader reader = new TrackReader(start(segment));
+            int count = Math.min(SEGMENT_SIZE, size - segment * SEGMENT_SIZE);
+            List<PlayListTrack> playListTracks = new ArrayList<PlayListTrack>(count);
+            for (int i = 0; i < count; i++) {
+                PlayListTrack playListTrack = new PlayListTrack();
+                reader.read(playListTrack, new Track());
+                playListTrack.setTrack(trackCatalog.intern(playListTrack.getTrack()));
+                playListTracks.add(playListTrack);
+            }
+            return playListTracks;
+        }
+
+        public boolean containsId(int segment, int playListTrackId) {
+            int entry = table + segment * SEGMENT_ENTRY_SIZE;
+            if (playListTrackId < buffer.getInt(entry + 4) || playListTrackId > buffer.getInt(entry + 8)) {
+                return false;
+            }
+            TrackReader reader = new TrackReader(start(segment));
+            int count = Math.min(SEGMENT_SIZE, size - segment * SEGMENT_SIZE);
+            for (int i = 0; i < count; i++) {
+                Integer id = reader.skip();
+                if (id != null && id == playListTrackId) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private ByteBuffer start(int segment) {
+            ByteBuffer view = buffer.duplicate();
+            view.position(tracks + view.getInt(table + segment * SEGMENT_ENTRY_SIZE));
+            return view;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.tidal.playlist.data;
+
+import java.util.Date;
+
+/**
+ * View of one entry of a {@link ColumnarPlayListTrackStorage}. Reads and writes go straight to the
+ * columns, and {@link #getTrack()} builds a new Track from them on every call.
+ * <p>
+ * A view stays bound to its entry when other entries are inserted or removed, by finding it again
+ * through its PlayListTrack id. Using a view whose entry has been removed, or that has no id and has
+ * moved, throws IllegalStateException.
+ */
+final class ColumnarPlayListTrack extends PlayListTrack {
+
+    private static final long serialVersionUID = -3311582306120151346L;
+
+    private final transient ColumnarPlayListTrackStorage storage;
+    private int position;
+    private int modCount;
+    // Raw id of the entry, to find it again after positions have moved
+    private int id;
+
+    ColumnarPlayListTrack(ColumnarPlayListTrackStorage storage, int position) {
+        super(null);
+        this.storage = storage;
+        this.position = position;
+        this.modCount = storage.getModCount();
+        this.id = storage.getRawId(position);
+    }
+
+    @Override
+    public Integer getId() {
+        return storage.getId(currentPosition());
+    }
+
+    @Override
+    public void setId(Integer id) {
+        int position = currentPosition();
+        storage.setId(position, id);
+        this.id = storage.getRawId(position);
+    }
+
+    @Override
+    public int getTrackId() {
+        return storage.getTrackId(currentPosition());
+    }
+
+    @Override
+    public void setTrackId(int trackId) {
+        storage.setTrackId(currentPosition(), trackId);
+    }
+
+    @Override
+    public TrackPlayList getTrackPlayList() {
+        return storage.getPlayList();
+    }
+
+    @Override
+    public void setTrackPlaylist(TrackPlayList profileTrackPlayList) {
+        if (profileTrackPlayList != storage.getPlayList()) {
+            throw new UnsupportedOperationException("A columnar PlayListTrack can not be moved to another playlist");
+        }
+    }
+
+    @Override
+    public Track getTrack() {
+        return storage.getTrack(currentPosition());
+    }
+
+    @Override
+    public void setTrack(Track track) {
+        storage.setTrack(currentPosition(), track);
+    }
+
+    @Override
+    public int getIndex() {
+        return currentPosition();
+    }
+
+    /**
+     * Ignored, the index is the position in the storage.
+     */
+    @Override
+    public void setIndex(int index) {
+    }
+
+    @Override
+    public int getTrackArtistId() {
+        return storage.getTrackArtistId(currentPosition());
+    }
+
+    @Override
+    public void setTrackArtistId(int trackArtistId) {
+        storage.setTrackArtistId(currentPosition(), trackArtistId);
+    }
+
+    @Override
+    public Date getDateAdded() {
+        return storage.getDateAdded(currentPosition());
+    }
+
+    @Override
+    public void setDateAdded(Date dateAdded) {
+        storage.setDateAdded(currentPosition(), dateAdded);
+    }
+
+    @Override
+    public SharingLevel getSharingLevel() {
+        return storage.getSharingLevel(currentPosition());
+    }
+
+    @Override
+    public void setSharingLevel(SharingLevel sharingLevel) {
+        storage.setSharingLevel(currentPosition(), sharingLevel);
+    }
+
+    @Override
+    public String getDescription() {
+        return storage.getDescription(currentPosition());
+    }
+
+    @Override
+    public void setDescription(String description) {
+        storage.setDescription(currentPosition(), description);
+    }
+
+    /**
+     * Serialized as a plain PlayListTrack, since the columns stay behind.
+     */
+    private Object writeReplace() {
+        return copy();
+    }
+
+    ColumnarPlayListTrackStorage getStorage() {
+        return storage;
+    }
+
+    /**
+     * A plain PlayListTrack with the values of this entry.
+     */
+    PlayListTrack copy() {
+        return storage.copy(currentPosition());
+    }
+
+    /**
+     * Position of the entry, found again through its id if positions have moved since it was last used.
+     */
+    int currentPosition() {
+        if (modCount != storage.getModCount()) {
+            int found = id != ColumnarPlayListTrackStorage.NO_ID ? storage.positionOf(id) : -1;
+            if (found < 0) {
+                throw new IllegalStateException("PlayListTrack at position " + position + " is no longer part of the playlist");
+            }
+            position = found;
+            modCount = storage.getModCount();
+        }
+        return position;
+    }
+}
@@ -0,0 +1,426 @@
+package com.tidal.playlist.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * {@link TrackStorage#COLUMNAR} storage: every attribute of the tracks in its own primitive array, in
+ * position order. Descriptions and titles are dictionary-encoded, dates are kept as epoch milliseconds.
+ * <p>
+ * An entry takes about 45 bytes in one set of arrays, against a PlayListTrack, a Track, a Date, an
+ * Integer, a tree node and an index entry per track for {@link ObjectPlayListTrackStorage}. Tracks are
+ * handed out as {@link ColumnarPlayListTrack} views, and inserted tracks are copied into the columns.
+ * <p>
+ * Appends are amortized O(1). Inserts and removals before the end shift the columns behind them, and
+ * update the id index for the entries that moved. The index is built on the first lookup by id.
+ */
+final class ColumnarPlayListTrackStorage implements PlayListTrackStorage {
+
+    static final int NO_ID = Integer.MIN_VALUE;
+    private static final long NO_DATE = Long.MIN_VALUE;
+    private static final int NULL = -1;
+    private static final int NO_TRACK = -2;
+
+    private final TrackPlayList playList;
+    private final StringDictionary strings = new StringDictionary();
+
+    private int size;
+    private int[] ids = new int[0];
+    private int[] trackIds = new int[0];
+    private int[] trackArtistIds = new int[0];
+    private long[] datesAdded = new long[0];
+    private byte[] sharingLevels = new byte[0];
+    private int[] descriptions = new int[0];
+
+    // Track columns, titles is NO_TRACK for entries without one
+    private int[] trackTrackIds = new int[0];
+    private int[] artistIds = new int[0];
+    private int[] trackNumbers = new int[0];
+    private float[] durations = new float[0];
+    private int[] titles = new int[0];
+
+    // Bumped whenever positions move, so views know to find their entry again
+    private int modCount;
+
+    // Id to position, built on the first lookup
+    private IntIntMap index;
+
+    ColumnarPlayListTrackStorage(TrackPlayList playList) {
+        this.playList = playList;
+    }
+
+    public TrackStorage getType() {
+        return TrackStorage.COLUMNAR;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public PlayListTrack get(int position) {
+        checkPosition(position, size - 1);
+        return new ColumnarPlayListTrack(this, position);
+    }
+
+    /**
+     * Only views of this storage are contained in it, since inserted tracks are copied.
+     */
+    public boolean contains(PlayListTrack track) {
+        return positionOf(track) >= 0;
+    }
+
+    public void insertAll(int position, List<PlayListTrack> tracks) {
+        checkPosition(position, size);
+        int count = tracks.size();
+        if (count == 0) {
+            return;
+        }
+        ensureCapacity(size + count);
+        if (position < size) {
+            shift(position, position + count, size - position);
+        }
+        int row = position;
+        for (PlayListTrack track : tracks) {
+            write(row++, track);
+        }
+        size += count;
+        modCount++;
+        reindexFrom(position);
+    }
+
+    /**
+     * Removes a view of this storage. Other tracks are never contained, see {@link #contains}.
+     */
+    public boolean remove(PlayListTrack track) {
+        int position = positionOf(track);
+        if (position < 0) {
+            return false;
+        }
+        unindex(ids[position]);
+        shift(position + 1, position, size - position - 1);
+        size--;
+        modCount++;
+        reindexFrom(position);
+        return true;
+    }
+
+    /**
+     * Resolves the ids through the index and compacts the columns behind the first removed track in a
+     * single pass, O(k log k + n - first).
+     */
+    public List<PlayListTrack> removeAllById(Collection<Integer> playListTrackIds) {
+        int[] positions = new int[playListTrackIds.size()];
+        int distinct = 0;
+        List<PlayListTrack> removed = new ArrayList<PlayListTrack>(positions.length);
+        for (Integer id : playListTrackIds) {
+            int position = id != null ? positionOf(id) : -1;
+            if (position >= 0) {
+                // Unindexed right away, so a repeated id is not found again
+                unindex(id);
+                positions[distinct++] = position;
+                removed.add(copy(position));
+            }
+        }
+        if (distinct == 0) {
+            return removed;
+        }
+        Arrays.sort(positions, 0, distinct);
+        // Moves each run of kept entries, between two removed ones, down over the removed ones
+        int kept = positions[0];
+        for (int i = 0; i < distinct; i++) {
+            int runStart = positions[i] + 1;
+            int runEnd = i + 1 < distinct ? positions[i + 1] : size;
+            shift(runStart, kept, runEnd - runStart);
+            kept += runEnd - runStart;
+        }
+        size = kept;
+        modCount++;
+        reindexFrom(positions[0]);
+        return removed;
+    }
+
+    public PlayListTrack getById(Integer playListTrackId) {
+        int position = playListTrackId != null ? positionOf(playListTrackId) : -1;
+        return position >= 0 ? new ColumnarPlayListTrack(this, position) : null;
+    }
+
+    public PlayListTrack getByTrackId(int trackId) {
+        for (int i = 0; i < size; i++) {
+            if (trackIds[i] == trackId) {
+                return new ColumnarPlayListTrack(this, i);
+            }
+        }
+        return null;
+    }
+
+    public Iterator<PlayListTrack> iterator() {
+        return iterator(0);
+    }
+
+    public Iterator<PlayListTrack> iterator(final int fromPosition) {
+        checkPosition(fromPosition, size);
+        final int expectedModCount = modCount;
+        return new Iterator<PlayListTrack>() {
+            private int next = fromPosition;
+
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            public PlayListTrack next() {
+                if (modCount != expectedModCount) {
+                    throw new ConcurrentModificationException();
+                }
+                if (next >= size) {
+                    throw new NoSuchElementException();
+                }
+                return new ColumnarPlayListTrack(ColumnarPlayListTrackStorage.this, next++);
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    public void clear() {
+        size = 0;
+        modCount++;
+        index = null;
+    }
+
+    TrackPlayList getPlayList() {
+        return playList;
+    }
+
+    int getModCount() {
+        return modCount;
+    }
+
+    /**
+     * Current position of the entry with the given id, or -1.
+     */
+    int positionOf(int playListTrackId) {
+        if (index == null) {
+            index = new IntIntMap(size);
+            reindexFrom(0);
+        }
+        return index.get(playListTrackId, -1);
+    }
+
+    int getRawId(int position) {
+        return ids[position];
+    }
+
+    Integer getId(int position) {
+        return ids[position] != NO_ID ? ids[position] : null;
+    }
+
+    void setId(int position, Integer id) {
+        unindex(ids[position]);
+        ids[position] = id != null ? id : NO_ID;
+        reindexFrom(position, position + 1);
+    }
+
+    int getTrackId(int position) {
+        return trackIds[position];
+    }
+
+    void setTrackId(int position, int trackId) {
+        trackIds[position] = trackId;
+    }
+
+    int getTrackArtistId(int position) {
+        return trackArtistIds[position];
+    }
+
+    void setTrackArtistId(int position, int trackArtistId) {
+        trackArtistIds[position] = trackArtistId;
+    }
+
+    Date getDateAdded(int position) {
+        return datesAdded[position] != NO_DATE ? new Date(datesAdded[position]) : null;
+    }
+
+    void setDateAdded(int position, Date dateAdded) {
+        datesAdded[position] = dateAdded != null ? dateAdded.getTime() : NO_DATE;
+    }
+
+    SharingLevel getSharingLevel(int position) {
+        return sharingLevels[position] != NULL ? SharingLevel.values()[sharingLevels[position]] : null;
+    }
+
+    void setSharingLevel(int position, SharingLevel sharingLevel) {
+        sharingLevels[position] = (byte) (sharingLevel != null ? sharingLevel.ordinal() : NULL);
+    }
+
+    String getDescription(int position) {
+        return strings.get(descriptions[position]);
+    }
+
+    void setDescription(int position, String description) {
+        descriptions[position] = strings.code(description);
+    }
+
+    /**
+     * A new Track with the stored values, or null if the entry has none.
+     */
+    Track getTrack(int position) {
+        if (titles[position] == NO_TRACK) {
+            return null;
+        }
+        Track track = new Track();
+        track.setId(trackTrackIds[position]);
+        track.setArtistId(artistIds[position]);
+        track.setTrackNumberIdx(trackNumbers[position]);
+        track.setDuration(durations[position]);
+        track.setTitle(strings.get(titles[position]));
+        return track;
+    }
+
+    float getTrackDuration(int position) {
+        return titles[position] != NO_TRACK ? durations[position] : 0;
+    }
+
+    void setTrack(int position, Track track) {
+        if (track == null) {
+            titles[position] = NO_TRACK;
+            return;
+        }
+        trackTrackIds[position] = track.getId();
+        artistIds[position] = track.getArtistId();
+        trackNumbers[position] = track.getTrackNumberIdx();
+        durations[position] = track.getDuration();
+        titles[position] = strings.code(track.getTitle());
+    }
+
+    /**
+     * A plain PlayListTrack with the values of the entry, detached from this storage.
+     */
+    PlayListTrack copy(int position) {
+        PlayListTrack track = new PlayListTrack(getDateAdded(position));
+        track.setId(getId(position));
+        track.setIndex(position);
+        track.setTrackId(trackIds[position]);
+        track.setTrackArtistId(trackArtistIds[position]);
+        track.setSharingLevel(getSharingLevel(position));
+        track.setDescription(getDescription(position));
+        track.setTrack(getTrack(position));
+        track.setTrackPlaylist(playList);
+        return track;
+    }
+
+    private int positionOf(PlayListTrack track) {
+        if (!(track instanceof ColumnarPlayListTrack)) {
+            return -1;
+        }
+        ColumnarPlayListTrack view = (ColumnarPlayListTrack) track;
+        return view.getStorage() == this ? view.currentPosition() : -1;
+    }
+
+    private void write(int position, PlayListTrack track) {
+        ids[position] = track.getId() != null ? track.getId() : NO_ID;
+        trackIds[position] = track.getTrackId();
+        trackArtistIds[position] = track.getTrackArtistId();
+        setDateAdded(position, track.getDateAdded());
+        setSharingLevel(position, track.getSharingLevel());
+        setDescription(position, track.getDescription());
+        setTrack(position, track.getTrack());
+    }
+
+    private void shift(int from, int to, int length) {
+        System.arraycopy(ids, from, ids, to, length);
+        System.arraycopy(trackIds, from, trackIds, to, length);
+        System.arraycopy(trackArtistIds, from, trackArtistIds, to, length);
+        System.arraycopy(datesAdded, from, datesAdded, to, length);
+        System.arraycopy(sharingLevels, from, sharingLevels, to, length);
+        System.arraycopy(descriptions, from, descriptions, to, length);
+        System.arraycopy(trackTrackIds, from, trackTrackIds, to, length);
+        System.arraycopy(artistIds, from, artistIds, to, length);
+        System.arraycopy(trackNumbers, from, trackNumbers, to, length);
+        System.arraycopy(durations, from, durations, to, length);
+        System.arraycopy(titles, from, titles, to, length);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= ids.length) {
+            return;
+        }
+        int grown = Math.max(capacity, ids.length + (ids.length >> 1) + 16);
+        ids = Arrays.copyOf(ids, grown);
+        trackIds = Arrays.copyOf(trackIds, grown);
+        trackArtistIds = Arrays.copyOf(trackArtistIds, grown);
+        datesAdded = Arrays.copyOf(datesAdded, grown);
+        sharingLevels = Arrays.copyOf(sharingLevels, grown);
+        descriptions = Arrays.copyOf(descriptions, grown);
+        trackTrackIds = Arrays.copyOf(trackTrackIds, grown);
+        artistIds = Arrays.copyOf(artistIds, grown);
+        trackNumbers = Arrays.copyOf(trackNumbers, grown);
+        durations = Arrays.copyOf(durations, grown);
+        titles = Arrays.copyOf(titles, grown);
+    }
+
+    /**
+     * Updates the index for entries from the given position on, after they moved or were added.
+     */
+    private void reindexFrom(int position) {
+        reindexFrom(position, size);
+    }
+
+    private void reindexFrom(int from, int to) {
+        if (index == null) {
+            return;
+        }
+        for (int i = from; i < to; i++) {
+            if (ids[i] != NO_ID) {
+                index.put(ids[i], i);
+            }
+        }
+    }
+
+    private void unindex(int id) {
+        if (index != null && id != NO_ID) {
+            index.remove(id);
+        }
+    }
+
+    private static void checkPosition(int position, int max) {
+        if (position < 0 || position > max) {
+            throw new IndexOutOfBoundsException("Position " + position + " is outside [0, " + max + "]");
+        }
+    }
+
+    /**
+     * Strings stored once and referred to by code. Codes are never reused, so a playlist that keeps
+     * changing its descriptions should be copied to a fresh storage now and then.
+     */
+    private static final class StringDictionary {
+        private final Map<String, Integer> codes = new HashMap<String, Integer>();
+        private final List<String> values = new ArrayList<String>();
+
+        int code(String value) {
+            if (value == null) {
+                return NULL;
+            }
+            Integer code = codes.get(value);
+            if (code == null) {
+                code = values.size();
+                codes.put(value, code);
+                values.add(value);
+            }
+            return code;
+        }
+
+        String get(int code) {
+            return code >= 0 ? values.get(code) : null;
+        }
+    }
+}
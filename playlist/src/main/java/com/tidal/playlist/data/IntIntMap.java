@@ -0,0 +1,132 @@
+package com.tidal.playlist.data;
+
+import java.util.Arrays;
+
+/**
+ * Map from int to int without boxing, using open addressing with linear probing. Removal shifts back
+ * the entries probed past the removed one, so the table never fills up with tombstones.
+ */
+final class IntIntMap {
+
+    // Marks a free slot, the key with this value is kept aside
+    private static final int FREE = Integer.MIN_VALUE;
+
+    private int[] keys;
+    private int[] values;
+    private int size;
+    private boolean hasFreeKey;
+    private int freeKeyValue;
+
+    IntIntMap(int expectedSize) {
+        allocate(Math.max(16, Integer.highestOneBit(Math.max(1, expectedSize)) << 2));
+    }
+
+    int size() {
+        return size + (hasFreeKey ? 1 : 0);
+    }
+
+    int get(int key, int missing) {
+        if (key == FREE) {
+            return hasFreeKey ? freeKeyValue : missing;
+        }
+        int mask = keys.length - 1;
+        for (int slot = mix(key) & mask; keys[slot] != FREE; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return values[slot];
+            }
+        }
+        return missing;
+    }
+
+    void put(int key, int value) {
+        if (key == FREE) {
+            hasFreeKey = true;
+            freeKeyValue = value;
+            return;
+        }
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        while (keys[slot] != FREE) {
+            if (keys[slot] == key) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size * 2 > keys.length) {
+            grow();
+        }
+    }
+
+    /**
+     * Adds delta to the value of the key, starting from 0, and removes the key once its value is 0.
+     *
+     * @return the new value
+     */
+    int add(int key, int delta) {
+        int value = get(key, 0) + delta;
+        if (value == 0) {
+            remove(key);
+        }
+        else {
+            put(key, value);
+        }
+        return value;
+    }
+
+    void remove(int key) {
+        if (key == FREE) {
+            hasFreeKey = false;
+            return;
+        }
+        int mask = keys.length - 1;
+        int hole = mix(key) & mask;
+        while (keys[hole] != key) {
+            if (keys[hole] == FREE) {
+                return;
+            }
+            hole = (hole + 1) & mask;
+        }
+        for (int next = (hole + 1) & mask; keys[next] != FREE; next = (next + 1) & mask) {
+            int home = mix(keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+        }
+        keys[hole] = FREE;
+        size--;
+    }
+
+    void clear() {
+        Arrays.fill(keys, FREE);
+        size = 0;
+        hasFreeKey = false;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(oldKeys.length * 2);
+        size = 0;
+        for (int slot = 0; slot < oldKeys.length; slot++) {
+            if (oldKeys[slot] != FREE) {
+                put(oldKeys[slot], oldValues[slot]);
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, FREE);
+    }
+
+    private static int mix(int key) {
+        int hash = key * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
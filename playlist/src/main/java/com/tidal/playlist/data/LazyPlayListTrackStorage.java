@@ -0,0 +1,217 @@
+package com.tidal.playlist.data;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Object storage whose tracks are loaded from {@link PlayListTrackSegments} the first time a position
+ * or id inside a segment is needed. Until then a segment is a single placeholder node in the sequence,
+ * weighing as many positions as it has tracks, so positions and indexes stay exact.
+ * <p>
+ * Inserting on a segment boundary, at the tail in particular, loads nothing. Inserting inside a segment
+ * or reading a position in it loads that segment. Removing by id loads only the segments holding the
+ * ids, found through {@link PlayListTrackSegments#containsId(int, int)}. Looking up a trackId loads
+ * every segment.
+ */
+final class LazyPlayListTrackStorage implements PlayListTrackStorage {
+
+    private final TrackPlayList playList;
+    private final PlayListTrackSegments segments;
+    private final PlayListTrackSequence sequence = new PlayListTrackSequence();
+    private final Map<Integer, PlayListTrack> byId = new HashMap<Integer, PlayListTrack>();
+    private final Set<Placeholder> unloaded = new LinkedHashSet<Placeholder>();
+
+    LazyPlayListTrackStorage(TrackPlayList playList, PlayListTrackSegments segments) {
+        this.playList = playList;
+        this.segments = segments;
+        int size = segments.size();
+        int segmentSize = segments.getSegmentSize();
+        for (int segment = 0; segment * segmentSize < size; segment++) {
+            Placeholder placeholder = new Placeholder(segment);
+            sequence.insert(sequence.size(), placeholder, Math.min(segmentSize, size - segment * segmentSize));
+            unloaded.add(placeholder);
+        }
+    }
+
+    public TrackStorage getType() {
+        return TrackStorage.OBJECTS;
+    }
+
+    public int size() {
+        return sequence.size();
+    }
+
+    /**
+     * Number of segments not loaded yet.
+     */
+    int getUnloadedSegmentCount() {
+        return unloaded.size();
+    }
+
+    public PlayListTrack get(int position) {
+        PlayListTrack track = sequence.get(position);
+        if (track instanceof Placeholder) {
+            load((Placeholder) track);
+            track = sequence.get(position);
+        }
+        return track;
+    }
+
+    public boolean contains(PlayListTrack track) {
+        return !(track instanceof Placeholder) && sequence.contains(track);
+    }
+
+    public void insertAll(int position, List<PlayListTrack> tracks) {
+        if (position < sequence.size()) {
+            PlayListTrack at = sequence.get(position);
+            if (at instanceof Placeholder && at.getIndex() != position) {
+                load((Placeholder) at);
+            }
+        }
+        List<PlayListTrack> toInsert = new ArrayList<PlayListTrack>(tracks.size());
+        for (PlayListTrack track : tracks) {
+            toInsert.add(track instanceof ColumnarPlayListTrack ? ((ColumnarPlayListTrack) track).copy() : track);
+        }
+        sequence.insertAll(position, toInsert.iterator());
+        for (PlayListTrack track : toInsert) {
+            if (track.getId() != null) {
+                byId.put(track.getId(), track);
+            }
+        }
+    }
+
+    public boolean remove(PlayListTrack track) {
+        if (!contains(track) || !sequence.remove(track)) {
+            return false;
+        }
+        if (byId.get(track.getId()) == track) {
+            byId.remove(track.getId());
+        }
+        return true;
+    }
+
+    public List<PlayListTrack> removeAllById(Collection<Integer> playListTrackIds) {
+        List<PlayListTrack> removed = new ArrayList<PlayListTrack>(playListTrackIds.size());
+        for (Integer id : playListTrackIds) {
+            PlayListTrack track = getById(id);
+            if (track != null) {
+                byId.remove(id);
+                sequence.remove(track);
+                removed.add(track);
+            }
+        }
+        return removed;
+    }
+
+    public PlayListTrack getById(Integer playListTrackId) {
+        PlayListTrack track = byId.get(playListTrackId);
+        if (track != null || playListTrackId == null) {
+            return track;
+        }
+        for (Placeholder placeholder : new ArrayList<Placeholder>(unloaded)) {
+            if (segments.containsId(placeholder.segment, playListTrackId)) {
+                load(placeholder);
+                return byId.get(playListTrackId);
+            }
+        }
+        return null;
+    }
+
+    public PlayListTrack getByTrackId(int trackId) {
+        for (PlayListTrack track : this) {
+            if (track.getTrackId() == trackId) {
+                return track;
+            }
+        }
+        return null;
+    }
+
+    public Iterator<PlayListTrack> iterator() {
+        return iterator(0);
+    }
+
+    /**
+     * Loads segments as the iteration reaches them.
+     */
+    public Iterator<PlayListTrack> iterator(final int fromPosition) {
+        return new Iterator<PlayListTrack>() {
+            private int position = fromPosition;
+            private Iterator<PlayListTrack> tracks = sequence.iterator(fromPosition);
+
+            public boolean hasNext() {
+                return tracks.hasNext();
+            }
+
+            public PlayListTrack next() {
+                if (!tracks.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                PlayListTrack track = tracks.next();
+                if (track instanceof Placeholder) {
+                    load((Placeholder) track);
+                    tracks = sequence.iterator(position);
+                    track = tracks.next();
+                }
+                position++;
+                return track;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    public void clear() {
+        sequence.clear();
+        byId.clear();
+        unloaded.clear();
+    }
+
+    private void load(Placeholder placeholder) {
+        int position = placeholder.getIndex();
+        sequence.remove(placeholder);
+        unloaded.remove(placeholder);
+        List<PlayListTrack> tracks = segments.loadSegment(placeholder.segment);
+        for (PlayListTrack track : tracks) {
+            track.setTrackPlaylist(playList);
+            if (track.getId() != null) {
+                byId.put(track.getId(), track);
+            }
+        }
+        sequence.insertAll(position, tracks.iterator());
+    }
+
+    /**
+     * Stands for the tracks of a segment that has not been loaded.
+     */
+    private static final class Placeholder extends PlayListTrack {
+
+        private static final long serialVersionUID = 1L;
+
+        final int segment;
+
+        Placeholder(int segment) {
+            super(null);
+            this.segment = segment;
+        }
+
+        // Placeholders are identified by their node, not by their values
+        @Override
+        public boolean equals(Object o) {
+            return this == o;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(this);
+        }
+    }
+}
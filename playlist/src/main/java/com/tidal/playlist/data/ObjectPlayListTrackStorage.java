@@ -0,0 +1,104 @@
+package com.tidal.playlist.data;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link TrackStorage#OBJECTS} storage: the tracks themselves in a {@link PlayListTrackSequence}, with
+ * an index on PlayListTrack id.
+ */
+final class ObjectPlayListTrackStorage implements PlayListTrackStorage {
+
+    private final PlayListTrackSequence sequence = new PlayListTrackSequence();
+    private final Map<Integer, PlayListTrack> byId = new HashMap<Integer, PlayListTrack>();
+
+    public TrackStorage getType() {
+        return TrackStorage.OBJECTS;
+    }
+
+    public int size() {
+        return sequence.size();
+    }
+
+    public PlayListTrack get(int position) {
+        return sequence.get(position);
+    }
+
+    public boolean contains(PlayListTrack track) {
+        return sequence.contains(track);
+    }
+
+    /**
+     * Views of a columnar playlist are copied, any other track is inserted itself.
+     */
+    public void insertAll(int position, List<PlayListTrack> tracks) {
+        List<PlayListTrack> toInsert = tracks;
+        for (int i = 0; i < tracks.size(); i++) {
+            if (tracks.get(i) instanceof ColumnarPlayListTrack) {
+                toInsert = new ArrayList<PlayListTrack>(tracks.size());
+                for (PlayListTrack track : tracks) {
+                    toInsert.add(track instanceof ColumnarPlayListTrack ? ((ColumnarPlayListTrack) track).copy() : track);
+                }
+                break;
+            }
+        }
+        sequence.insertAll(position, toInsert.iterator());
+        for (PlayListTrack track : toInsert) {
+            if (track.getId() != null) {
+                byId.put(track.getId(), track);
+            }
+        }
+    }
+
+    public boolean remove(PlayListTrack track) {
+        if (!sequence.remove(track)) {
+            return false;
+        }
+        if (byId.get(track.getId()) == track) {
+            byId.remove(track.getId());
+        }
+        return true;
+    }
+
+    public List<PlayListTrack> removeAllById(Collection<Integer> playListTrackIds) {
+        List<PlayListTrack> removed = new ArrayList<PlayListTrack>(playListTrackIds.size());
+        for (Integer id : playListTrackIds) {
+            PlayListTrack track = byId.remove(id);
+            if (track != null) {
+                sequence.remove(track);
+                removed.add(track);
+            }
+        }
+        return removed;
+    }
+
+    public PlayListTrack getById(Integer playListTrackId) {
+        return byId.get(playListTrackId);
+    }
+
+    public PlayListTrack getByTrackId(int trackId) {
+        for (PlayListTrack track : sequence) {
+            if (track.getTrackId() == trackId) {
+                return track;
+            }
+        }
+        return null;
+    }
+
+    public Iterator<PlayListTrack> iterator() {
+        return sequence.iterator();
+    }
+
+    public Iterator<PlayListTrack> iterator(int fromPosition) {
+        return sequence.iterator(fromPosition);
+    }
+
+    public void clear() {
+        sequence.clear();
+        byId.clear();
+    }
+}
@@ -24,10 +24,17 @@ public class PlayListTrack implements Serializable, Comparable<PlayListTrack> {
 
     private Track track;
 
+    // Set while the track is part of a playlist, its position is then the rank of this node
+    transient PlayListTrackSequence.Node node;
+
     public PlayListTrack() {
         dateAdded = new Date();
     }
 
+    PlayListTrack(Date dateAdded) {
+        this.dateAdded = dateAdded;
+    }
+
     public Integer getId() {
         return id;
     }
@@ -60,8 +67,12 @@ public class PlayListTrack implements Serializable, Comparable<PlayListTrack> {
         this.track = track;
     }
 
+    /**
+     * Position in the playlist. Derived from the playlist's track sequence while the track is part of one,
+     * otherwise the last index that was set.
+     */
     public int getIndex() {
-        return index;
+        return node != null ? node.rank() : index;
     }
 
     public void setIndex(int index) {
@@ -84,6 +95,10 @@ public class PlayListTrack implements Serializable, Comparable<PlayListTrack> {
         this.dateAdded = dateAdded;
     }
 
+    /**
+     * By position. Each call finds both positions, in O(log n) for tracks in tree storage, so sorting many
+     * tracks is better done on positions looked up once per track.
+     */
     public int compareTo(PlayListTrack o) {
         return this.getIndex() - o.getIndex();
     }
@@ -107,31 +122,35 @@ public class PlayListTrack implements Serializable, Comparable<PlayListTrack> {
     }
 
 
+    /**
+     * Equal when all values but the position are. The position is left out, since it changes whenever
+     * tracks before it are added or removed, and costs O(log n) to find in tree storage. The hash only
+     * covers the PlayListTrack id and the track id, so it stays the same while the track is edited.
+     */
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
+        // Columnar views compare equal to plain tracks with the same values
+        if (!(o instanceof PlayListTrack)) return false;
 
         PlayListTrack that = (PlayListTrack) o;
 
-        if (index != that.index) return false;
-        if (trackArtistId != that.trackArtistId) return false;
-        if (trackId != that.trackId) return false;
-        if (dateAdded != null ? !dateAdded.equals(that.dateAdded) : that.dateAdded != null) return false;
-        if (description != null ? !description.equals(that.description) : that.description != null) return false;
-        return !(id != null ? !id.equals(that.id) : that.id != null) && sharingLevel == that.sharingLevel;
+        if (getTrackArtistId() != that.getTrackArtistId()) return false;
+        if (getTrackId() != that.getTrackId()) return false;
+        Date dateAdded = getDateAdded();
+        if (dateAdded != null ? !dateAdded.equals(that.getDateAdded()) : that.getDateAdded() != null) return false;
+        String description = getDescription();
+        if (description != null ? !description.equals(that.getDescription()) : that.getDescription() != null) return false;
+        Integer id = getId();
+        return !(id != null ? !id.equals(that.getId()) : that.getId() != null) && getSharingLevel() == that.getSharingLevel();
 
     }
 
     @Override
     public int hashCode() {
+        Integer id = getId();
         int result = id != null ? id.hashCode() : 0;
-        result = 31 * result + trackArtistId;
-        result = 31 * result + index;
-        result = 31 * result + (dateAdded != null ? dateAdded.hashCode() : 0);
-        result = 31 * result + (sharingLevel != null ? sharingLevel.hashCode() : 0);
-        result = 31 * result + (description != null ? description.hashCode() : 0);
-        result = 31 * result + trackId;
+        result = 31 * result + getTrackId();
         return result;
     }
 
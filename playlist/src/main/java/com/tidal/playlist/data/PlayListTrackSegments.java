@@ -0,0 +1,32 @@
+package com.tidal.playlist.data;
+
+import java.util.List;
+
+/**
+ * The tracks of a stored playlist, split into segments of {@link #getSegmentSize()} tracks that can be
+ * loaded one at a time. Only the last segment may be shorter. See
+ * {@link TrackPlayList#setPlayListTracks(PlayListTrackSegments)}.
+ */
+public interface PlayListTrackSegments {
+
+    /**
+     * Number of tracks over all segments.
+     */
+    int size();
+
+    int getSegmentSize();
+
+    long getDurationMillis();
+
+    int getMaxPlayListTrackId();
+
+    /**
+     * Decodes the tracks of a segment, as new PlayListTracks that are not part of any playlist.
+     */
+    List<PlayListTrack> loadSegment(int segment);
+
+    /**
+     * Whether the segment holds a track with the given PlayListTrack id, ideally without decoding it.
+     */
+    boolean containsId(int segment, int playListTrackId);
+}
@@ -0,0 +1,337 @@
+package com.tidal.playlist.data;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Ordered sequence of tracks in a playlist, kept as an implicit treap (order-statistic tree).
+ * <p>
+ * A track's position is not stored anywhere, it is the rank of its node in the tree. Inserting,
+ * removing and looking up a position therefore costs O(log n) and no write has to renumber
+ * the tracks behind it.
+ * <p>
+ * A node can stand in for several positions, which lets {@link LazyPlayListTrackStorage} keep a whole
+ * unloaded segment of tracks as one placeholder. Positions inside such a node can be looked up but not
+ * split, so a placeholder has to be replaced by its tracks before inserting inside it.
+ */
+final class PlayListTrackSequence implements Iterable<PlayListTrack> {
+
+    static final class Node {
+        final PlayListTrack track;
+        final int priority;
+        // Number of positions the node stands for, 1 for everything but placeholders
+        final int weight;
+        Node left;
+        Node right;
+        Node parent;
+        int size;
+
+        Node(PlayListTrack track, int priority, int weight) {
+            this.track = track;
+            this.priority = priority;
+            this.weight = weight;
+            this.size = weight;
+        }
+
+        /**
+         * Position of this node in the sequence, found by walking up to the root.
+         */
+        int rank() {
+            int rank = size(left);
+            Node node = this;
+            while (node.parent != null) {
+                if (node.parent.right == node) {
+                    rank += size(node.parent.left) + node.parent.weight;
+                }
+                node = node.parent;
+            }
+            return rank;
+        }
+    }
+
+    private Node root;
+    private int seed = 0x2545F491;
+
+    // Results of the last split, to avoid allocating a pair per call
+    private Node splitLeft;
+    private Node splitRight;
+
+    int size() {
+        return size(root);
+    }
+
+    /**
+     * The track at the position, or the placeholder standing for it.
+     */
+    PlayListTrack get(int position) {
+        checkPosition(position, size() - 1);
+        Node node = root;
+        while (true) {
+            int leftSize = size(node.left);
+            if (position < leftSize) {
+                node = node.left;
+            }
+            else if (position < leftSize + node.weight) {
+                return node.track;
+            }
+            else {
+                position -= leftSize + node.weight;
+                node = node.right;
+            }
+        }
+    }
+
+    boolean contains(PlayListTrack track) {
+        return track.node != null && root(track.node) == root;
+    }
+
+    void insert(int position, PlayListTrack track) {
+        insert(position, track, 1);
+    }
+
+    /**
+     * Inserts a track standing for weight positions, such as a placeholder for tracks not loaded yet.
+     */
+    void insert(int position, PlayListTrack track, int weight) {
+        checkPosition(position, size());
+        splice(position, attach(track, weight));
+    }
+
+    /**
+     * Inserts the tracks, in iteration order, starting at the given position. The run is built into
+     * a treap in linear time and spliced in with a single split and two merges.
+     *
+     * @return the number of tracks inserted
+     */
+    int insertAll(int position, Iterator<PlayListTrack> tracks) {
+        checkPosition(position, size());
+        int inserted = 0;
+        List<Node> rightSpine = new ArrayList<Node>();
+        while (tracks.hasNext()) {
+            Node node = attach(tracks.next(), 1);
+            Node last = null;
+            while (!rightSpine.isEmpty() && rightSpine.get(rightSpine.size() - 1).priority < node.priority) {
+                last = rightSpine.remove(rightSpine.size() - 1);
+                update(last);
+            }
+            node.left = last;
+            if (last != null) {
+                last.parent = node;
+            }
+            if (!rightSpine.isEmpty()) {
+                Node top = rightSpine.get(rightSpine.size() - 1);
+                top.right = node;
+                node.parent = top;
+            }
+            rightSpine.add(node);
+            inserted++;
+        }
+        if (rightSpine.isEmpty()) {
+            return 0;
+        }
+        for (int i = rightSpine.size() - 1; i >= 0; i--) {
+            update(rightSpine.get(i));
+        }
+        splice(position, rightSpine.get(0));
+        return inserted;
+    }
+
+    boolean remove(PlayListTrack track) {
+        if (!contains(track)) {
+            return false;
+        }
+        Node node = track.node;
+        track.setIndex(node.rank());
+        Node replacement = merge(node.left, node.right);
+        Node parent = node.parent;
+        if (replacement != null) {
+            replacement.parent = parent;
+        }
+        if (parent == null) {
+            root = replacement;
+        }
+        else {
+            if (parent.left == node) {
+                parent.left = replacement;
+            }
+            else {
+                parent.right = replacement;
+            }
+            for (Node n = parent; n != null; n = n.parent) {
+                n.size -= node.weight;
+            }
+        }
+        track.node = null;
+        return true;
+    }
+
+    /**
+     * Removes every track, leaving each of them with its last position as stored index.
+     */
+    void clear() {
+        int position = 0;
+        for (Node node = first(root); node != null; node = successor(node)) {
+            node.track.setIndex(position);
+            position += node.weight;
+            node.track.node = null;
+        }
+        root = null;
+    }
+
+    public Iterator<PlayListTrack> iterator() {
+        return iterator(0);
+    }
+
+    Iterator<PlayListTrack> iterator(int fromPosition) {
+        final Node start = fromPosition < size() ? get(fromPosition).node : null;
+        return new Iterator<PlayListTrack>() {
+            private Node next = start;
+
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            public PlayListTrack next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                PlayListTrack track = next.track;
+                next = successor(next);
+                return track;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private Node attach(PlayListTrack track, int weight) {
+        if (track.node != null) {
+            throw new IllegalStateException("PlayListTrack " + track.getId() + " is already part of a playlist");
+        }
+        Node node = new Node(track, nextPriority(), weight);
+        track.node = node;
+        return node;
+    }
+
+    private void splice(int position, Node run) {
+        split(root, position);
+        Node left = splitLeft;
+        Node right = splitRight;
+        splitLeft = null;
+        splitRight = null;
+        root = merge(merge(detachParent(left), run), detachParent(right));
+        root.parent = null;
+    }
+
+    /**
+     * Splits the tree into its first k nodes (splitLeft) and the rest (splitRight).
+     */
+    private void split(Node node, int k) {
+        if (node == null) {
+            splitLeft = null;
+            splitRight = null;
+            return;
+        }
+        if (size(node.left) < k) {
+            split(node.right, k - size(node.left) - node.weight);
+            node.right = splitLeft;
+            if (splitLeft != null) {
+                splitLeft.parent = node;
+            }
+            update(node);
+            splitLeft = node;
+        }
+        else {
+            split(node.left, k);
+            node.left = splitRight;
+            if (splitRight != null) {
+                splitRight.parent = node;
+            }
+            update(node);
+            splitRight = node;
+        }
+    }
+
+    private static Node merge(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            Node merged = merge(left.right, right);
+            left.right = merged;
+            merged.parent = left;
+            update(left);
+            return left;
+        }
+        else {
+            Node merged = merge(left, right.left);
+            right.left = merged;
+            merged.parent = right;
+            update(right);
+            return right;
+        }
+    }
+
+    private static Node detachParent(Node node) {
+        if (node != null) {
+            node.parent = null;
+        }
+        return node;
+    }
+
+    private static Node first(Node node) {
+        if (node == null) {
+            return null;
+        }
+        while (node.left != null) {
+            node = node.left;
+        }
+        return node;
+    }
+
+    private static Node successor(Node node) {
+        if (node.right != null) {
+            return first(node.right);
+        }
+        while (node.parent != null && node.parent.right == node) {
+            node = node.parent;
+        }
+        return node.parent;
+    }
+
+    private static Node root(Node node) {
+        while (node.parent != null) {
+            node = node.parent;
+        }
+        return node;
+    }
+
+    private static void update(Node node) {
+        node.size = size(node.left) + size(node.right) + node.weight;
+    }
+
+    private static int size(Node node) {
+        return node != null ? node.size : 0;
+    }
+
+    private int nextPriority() {
+        // xorshift, deterministic per sequence
+        seed ^= seed << 13;
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+        return seed;
+    }
+
+    private static void checkPosition(int position, int max) {
+        if (position < 0 || position > max) {
+            throw new IndexOutOfBoundsException("Position " + position + " is outside [0, " + max + "]");
+        }
+    }
+}
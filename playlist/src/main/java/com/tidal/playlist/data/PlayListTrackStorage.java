@@ -0,0 +1,44 @@
+package com.tidal.playlist.data;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The tracks of a {@link TrackPlayList} in position order, in one of the {@link TrackStorage} layouts.
+ */
+interface PlayListTrackStorage extends Iterable<PlayListTrack> {
+
+    TrackStorage getType();
+
+    int size();
+
+    PlayListTrack get(int position);
+
+    boolean contains(PlayListTrack track);
+
+    /**
+     * Inserts the tracks, in order, starting at the given position.
+     */
+    void insertAll(int position, List<PlayListTrack> tracks);
+
+    boolean remove(PlayListTrack track);
+
+    /**
+     * Removes the tracks with the given ids, ignoring unknown ids.
+     *
+     * @return the removed tracks in the order of the given ids, no longer backed by this storage
+     */
+    List<PlayListTrack> removeAllById(Collection<Integer> playListTrackIds);
+
+    PlayListTrack getById(Integer playListTrackId);
+
+    /**
+     * First track, in position order, with the given trackId.
+     */
+    PlayListTrack getByTrackId(int trackId);
+
+    Iterator<PlayListTrack> iterator(int fromPosition);
+
+    void clear();
+}
@@ -0,0 +1,282 @@
+package com.tidal.playlist.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A shuffled play order of a playlist's tracks, the same for the same seed and tracks, that spreads the
+ * tracks of each artist evenly over the order.
+ * <p>
+ * Every artist with k tracks gets a random offset, and its tracks, in a random order of their own, are
+ * placed at (i + offset) / k for i from 0 to k - 1, give or take a little. Sorting all tracks by place
+ * interleaves the artists, so that an artist with k of n tracks comes around every n / k tracks rather
+ * than in clumps. Everything random is a hash of the seed with a PlayListTrack id or artist id, so the
+ * order depends only on the seed and which tracks are in the playlist, not on their positions.
+ * <p>
+ * The order keeps the PlayListTrack ids only, sorted by place, and tracks are looked up by id a page at
+ * a time. Adding or removing tracks repairs the places of the artists involved, leaving every other
+ * track where it was relative to the rest, and gives the same order as shuffling the playlist again.
+ * <p>
+ * Tracks without a PlayListTrack id are left out. Not thread safe, and must be told of every track added
+ * to or removed from the playlist.
+ */
+public final class PlayOrder {
+
+    // Largest share of the gap between two tracks of an artist that a track moves off its place
+    private static final double JITTER = 0.1;
+
+    private final TrackPlayList playList;
+    private final long seed;
+    // Sorted members of each artist, see member()
+    private final Map<Integer, long[]> artists = new HashMap<Integer, long[]>();
+    // Sorted order keys, see keys(), in the first size slots
+    private long[] order;
+    private int size;
+    // Where repairs write the next order, swapped with it afterwards
+    private long[] spare = new long[0];
+
+    /**
+     * Shuffles the playlist in O(n log n), reading every track once.
+     */
+    public PlayOrder(TrackPlayList playList, long seed) {
+        this.playList = playList;
+        this.seed = seed;
+        Map<Integer, List<Integer>> idsByArtist = new HashMap<Integer, List<Integer>>();
+        for (PlayListTrack playListTrack : playList.getPlayListTracks()) {
+            if (playListTrack.getId() != null) {
+                List<Integer> ids = idsByArtist.get(playListTrack.getTrackArtistId());
+                if (ids == null) {
+                    ids = new ArrayList<Integer>();
+                    idsByArtist.put(playListTrack.getTrackArtistId(), ids);
+                }
+                ids.add(playListTrack.getId());
+            }
+        }
+        for (Map.Entry<Integer, List<Integer>> entry : idsByArtist.entrySet()) {
+            long[] members = new long[entry.getValue().size()];
+            for (int i = 0; i < members.length; i++) {
+                members[i] = member(entry.getValue().get(i));
+            }
+            Arrays.sort(members);
+            artists.put(entry.getKey(), members);
+            size += members.length;
+        }
+        order = new long[size];
+        int count = 0;
+        for (Map.Entry<Integer, long[]> entry : artists.entrySet()) {
+            for (long key : keys(entry.getKey(), entry.getValue())) {
+                order[count++] = key;
+            }
+        }
+        Arrays.sort(order);
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Up to limit tracks from position offset on in the play order, looked up by id in the playlist.
+     */
+    public List<PlayListTrack> getPlayListTracks(int offset, int limit) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("Invalid page, offset " + offset + " and limit " + limit);
+        }
+        int end = (int) Math.min(size, (long) offset + limit);
+        List<PlayListTrack> page = new ArrayList<PlayListTrack>(Math.max(0, end - offset));
+        for (int i = offset; i < end; i++) {
+            page.add(playList.getPlayListTrackById((int) order[i]));
+        }
+        return page;
+    }
+
+    /**
+     * Places tracks just added to the playlist, in O(n + k log n) for the k tracks of their artists. The
+     * O(n) part is copying the order, without allocating once the order stops growing.
+     */
+    public void added(Collection<PlayListTrack> playListTracks) {
+        repair(playListTracks, true);
+    }
+
+    /**
+     * Takes out tracks just removed from the playlist, in O(n + k log n) for the k tracks of their artists.
+     */
+    public void removed(Collection<PlayListTrack> playListTracks) {
+        repair(playListTracks, false);
+    }
+
+    /**
+     * Places the tracks of the artists of the given tracks again, with the tracks added or removed.
+     */
+    private void repair(Collection<PlayListTrack> playListTracks, boolean add) {
+        Map<Integer, List<Long>> changedByArtist = new HashMap<Integer, List<Long>>();
+        for (PlayListTrack playListTrack : playListTracks) {
+            if (playListTrack.getId() != null) {
+                List<Long> changed = changedByArtist.get(playListTrack.getTrackArtistId());
+                if (changed == null) {
+                    changed = new ArrayList<Long>();
+                    changedByArtist.put(playListTrack.getTrackArtistId(), changed);
+                }
+                changed.add(member(playListTrack.getId()));
+            }
+        }
+        if (changedByArtist.isEmpty()) {
+            return;
+        }
+        long[] oldKeys = new long[0];
+        long[] newKeys = new long[0];
+        for (Map.Entry<Integer, List<Long>> entry : changedByArtist.entrySet()) {
+            long[] members = artists.get(entry.getKey());
+            if (members == null) {
+                members = new long[0];
+            }
+            long[] changed = new long[entry.getValue().size()];
+            for (int i = 0; i < changed.length; i++) {
+                changed[i] = entry.getValue().get(i);
+            }
+            Arrays.sort(changed);
+            long[] repaired = add ? union(members, changed) : difference(members, changed);
+            oldKeys = concat(oldKeys, keys(entry.getKey(), members));
+            newKeys = concat(newKeys, keys(entry.getKey(), repaired));
+            if (repaired.length > 0) {
+                artists.put(entry.getKey(), repaired);
+            }
+            else {
+                artists.remove(entry.getKey());
+            }
+        }
+        Arrays.sort(oldKeys);
+        Arrays.sort(newKeys);
+        replace(oldKeys, newKeys);
+    }
+
+    /**
+     * Takes the sorted old keys out of the order and merges the sorted new keys in, copying the runs of
+     * keys between them as they are.
+     */
+    private void replace(long[] oldKeys, long[] newKeys) {
+        int capacity = size - oldKeys.length + newKeys.length;
+        if (spare.length < capacity) {
+            spare = new long[Math.max(capacity, capacity + (capacity >> 3))];
+        }
+        int from = 0;
+        int count = 0;
+        int o = 0;
+        int n = 0;
+        while (o < oldKeys.length || n < newKeys.length) {
+            boolean remove = n == newKeys.length || (o < oldKeys.length && oldKeys[o] <= newKeys[n]);
+            long key = remove ? oldKeys[o++] : newKeys[n++];
+            int position = Arrays.binarySearch(order, from, size, key);
+            int to = position >= 0 ? position : -position - 1;
+            System.arraycopy(order, from, spare, count, to - from);
+            count += to - from;
+            from = to;
+            if (remove) {
+                from++;
+            }
+            else {
+                spare[count++] = key;
+            }
+        }
+        System.arraycopy(order, from, spare, count, size - from);
+        count += size - from;
+        long[] replaced = order;
+        order = spare;
+        spare = replaced;
+        size = count;
+    }
+
+    /**
+     * Order keys of an artist's sorted members: the place in the high 32 bits, the id in the low ones.
+     */
+    private long[] keys(int artistId, long[] members) {
+        long[] keys = new long[members.length];
+        int k = members.length;
+        double offset = unit(mix(seed ^ 0x5DEECE66DL, artistId));
+        for (int i = 0; i < k; i++) {
+            int id = (int) members[i];
+            double jitter = (unit(mix(seed, ~id)) - 0.5) * 2 * JITTER;
+            double place = (i + offset + jitter) / k;
+            // Places run from -JITTER to 1 + JITTER, scaled into the non-negative ints
+            long scaled = (long) ((place + 1) * (1 << 29));
+            keys[i] = scaled << 32 | (id & 0xFFFFFFFFL);
+        }
+        return keys;
+    }
+
+    /**
+     * Sorting key of a track among its artist's tracks: a hash in the high 32 bits, the id in the low ones.
+     */
+    private long member(int id) {
+        return (long) (int) mix(seed, id) << 32 | (id & 0xFFFFFFFFL);
+    }
+
+    private static long mix(long seed, int value) {
+        // SplitMix64 finalizer
+        long z = seed + (value + 1L) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Uniform in [0, 1) from the top 53 bits.
+     */
+    private static double unit(long hash) {
+        return (hash >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * Merges two sorted arrays.
+     */
+    private static long[] union(long[] a, long[] b) {
+        long[] result = new long[a.length + b.length];
+        int i = 0;
+        int j = 0;
+        int count = 0;
+        while (i < a.length || j < b.length) {
+            if (j == b.length || (i < a.length && a[i] <= b[j])) {
+                result[count++] = a[i++];
+            }
+            else {
+                result[count++] = b[j++];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The sorted array without the values of the other sorted array.
+     */
+    private static long[] difference(long[] a, long[] b) {
+        long[] result = new long[a.length];
+        int j = 0;
+        int count = 0;
+        for (long value : a) {
+            while (j < b.length && b[j] < value) {
+                j++;
+            }
+            if (j < b.length && b[j] == value) {
+                j++;
+            }
+            else {
+                result[count++] = value;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private static long[] concat(long[] a, long[] b) {
+        long[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+}
@@ -0,0 +1,104 @@
+package com.tidal.playlist.data;
+
+/**
+ * Totals over the tracks of a {@link TrackPlayList}, updated by the playlist on every add and remove so
+ * that each of them is answered in O(1).
+ * <p>
+ * Durations are summed as whole milliseconds, so no rounding error builds up over edits. A track is
+ * counted for the artist in {@link PlayListTrack#getTrackArtistId()}, with the values it had when it was
+ * added; tracks must not be changed in place while they are part of the playlist.
+ * <p>
+ * A playlist whose tracks are not all loaded starts from a known duration, and counts its artists the
+ * first time they are asked for.
+ * <p>
+ * Tracks are counted by {@link PlayListTrack#getTrackId()} only once that is first asked for, since
+ * most playlists are never checked for duplicates, and kept up to date from then on.
+ */
+final class PlaylistAggregates {
+
+    private long durationMillis;
+    private final IntIntMap tracksByArtist = new IntIntMap(16);
+    private boolean artistsCounted = true;
+    // Null until tracks are first counted by track id
+    private IntIntMap tracksByTrackId;
+
+    void add(PlayListTrack playListTrack) {
+        durationMillis += durationMillis(playListTrack.getTrack());
+        if (artistsCounted) {
+            tracksByArtist.add(playListTrack.getTrackArtistId(), 1);
+        }
+        if (tracksByTrackId != null) {
+            tracksByTrackId.add(playListTrack.getTrackId(), 1);
+        }
+    }
+
+    void remove(PlayListTrack playListTrack) {
+        durationMillis -= durationMillis(playListTrack.getTrack());
+        if (artistsCounted) {
+            tracksByArtist.add(playListTrack.getTrackArtistId(), -1);
+        }
+        if (tracksByTrackId != null) {
+            tracksByTrackId.add(playListTrack.getTrackId(), -1);
+        }
+    }
+
+    void clear() {
+        durationMillis = 0;
+        tracksByArtist.clear();
+        artistsCounted = true;
+        tracksByTrackId = null;
+    }
+
+    /**
+     * Starts over from the given duration, leaving the artists to be counted.
+     */
+    void clearArtists(long durationMillis) {
+        this.durationMillis = durationMillis;
+        tracksByArtist.clear();
+        artistsCounted = false;
+        tracksByTrackId = null;
+    }
+
+    boolean hasTrackIdCounts() {
+        return tracksByTrackId != null;
+    }
+
+    void countTrackIds(Iterable<PlayListTrack> playListTracks, int size) {
+        tracksByTrackId = new IntIntMap(size);
+        for (PlayListTrack playListTrack : playListTracks) {
+            tracksByTrackId.add(playListTrack.getTrackId(), 1);
+        }
+    }
+
+    int getTrackCountByTrackId(int trackId) {
+        return tracksByTrackId.get(trackId, 0);
+    }
+
+    boolean hasArtistCounts() {
+        return artistsCounted;
+    }
+
+    void countArtists(Iterable<PlayListTrack> playListTracks) {
+        tracksByArtist.clear();
+        for (PlayListTrack playListTrack : playListTracks) {
+            tracksByArtist.add(playListTrack.getTrackArtistId(), 1);
+        }
+        artistsCounted = true;
+    }
+
+    long getDurationMillis() {
+        return durationMillis;
+    }
+
+    int getTrackCount(int artistId) {
+        return tracksByArtist.get(artistId, 0);
+    }
+
+    int getDistinctArtistCount() {
+        return tracksByArtist.size();
+    }
+
+    static long durationMillis(Track track) {
+        return track != null ? Math.round(track.getDuration() * 1000d) : 0;
+    }
+}
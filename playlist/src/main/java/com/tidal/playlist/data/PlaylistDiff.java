@@ -0,0 +1,268 @@
+package com.tidal.playlist.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The edits turning one version of a playlist's tracks into another, matched by PlayListTrack id, so
+ * that a client holding the older version can catch up without loading the whole playlist again.
+ * <p>
+ * Tracks only in the older version are deleted and tracks only in the newer one are inserted. Of the
+ * tracks in both, the longest run that kept its relative order stays in place and the others are moved.
+ * Computing the edits costs O(n log n), and applying them O(k log n) for k edited tracks in object
+ * storage.
+ */
+public final class PlaylistDiff {
+
+    public static final class Edit {
+
+        public enum Type {
+            DELETE, MOVE, INSERT
+        }
+
+        private final Type type;
+        private final int index;
+        private final List<Integer> playListTrackIds;
+        private final List<PlayListTrack> playListTracks;
+
+        private Edit(Type type, int index, List<Integer> playListTrackIds, List<PlayListTrack> playListTracks) {
+            this.type = type;
+            this.index = index;
+            this.playListTrackIds = Collections.unmodifiableList(playListTrackIds);
+            this.playListTracks = Collections.unmodifiableList(playListTracks);
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        /**
+         * Position of the first moved or inserted track in the newer version. Not used by DELETE.
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * The deleted or moved ids, in the order of the newer version for MOVE.
+         */
+        public List<Integer> getPlayListTrackIds() {
+            return playListTrackIds;
+        }
+
+        /**
+         * The inserted tracks, for INSERT only.
+         */
+        public List<PlayListTrack> getPlayListTracks() {
+            return playListTracks;
+        }
+
+        @Override
+        public String toString() {
+            return type + " at " + index + " " + (type == Type.INSERT ? playListTracks.size() + " tracks" : playListTrackIds);
+        }
+    }
+
+    private final long fromVersion;
+    private final long toVersion;
+    private final List<Edit> edits;
+
+    private PlaylistDiff(long fromVersion, long toVersion, List<Edit> edits) {
+        this.fromVersion = fromVersion;
+        this.toVersion = toVersion;
+        this.edits = Collections.unmodifiableList(edits);
+    }
+
+    /**
+     * @throws IllegalArgumentException if a track has no id, or an id is used twice in one version
+     */
+    public static PlaylistDiff between(TrackPlayList older, TrackPlayList newer) {
+        IntIntMap olderPositions = new IntIntMap(older.getPlayListTracksSize());
+        int position = 0;
+        for (PlayListTrack playListTrack : older.getPlayListTracks()) {
+            if (olderPositions.get(idOf(playListTrack), -1) >= 0) {
+                throw new IllegalArgumentException("PlayListTrack id " + playListTrack.getId() + " is used twice");
+            }
+            olderPositions.put(idOf(playListTrack), position++);
+        }
+
+        // Older positions of the tracks kept, in the order of the newer version, -1 for new tracks
+        int size = newer.getPlayListTracksSize();
+        int[] fromPositions = new int[size];
+        boolean[] inOlder = new boolean[older.getPlayListTracksSize()];
+        List<PlayListTrack> newerTracks = new ArrayList<PlayListTrack>(size);
+        for (PlayListTrack playListTrack : newer.getPlayListTracks()) {
+            int from = olderPositions.get(idOf(playListTrack), -1);
+            if (from >= 0) {
+                if (inOlder[from]) {
+                    throw new IllegalArgumentException("PlayListTrack id " + playListTrack.getId() + " is used twice");
+                }
+                inOlder[from] = true;
+            }
+            fromPositions[newerTracks.size()] = from;
+            newerTracks.add(playListTrack);
+        }
+
+        List<Edit> edits = new ArrayList<Edit>();
+        List<Integer> deleted = new ArrayList<Integer>();
+        Iterator<PlayListTrack> olderTracks = older.getPlayListTracks().iterator();
+        for (int i = 0; i < inOlder.length; i++) {
+            PlayListTrack playListTrack = olderTracks.next();
+            if (!inOlder[i]) {
+                deleted.add(playListTrack.getId());
+            }
+        }
+        if (!deleted.isEmpty()) {
+            edits.add(new Edit(Edit.Type.DELETE, 0, deleted, Collections.<PlayListTrack>emptyList()));
+        }
+
+        boolean[] stays = longestIncreasingRun(fromPositions);
+        for (int i = 0; i < size; ) {
+            if (stays[i]) {
+                i++;
+                continue;
+            }
+            boolean moved = fromPositions[i] >= 0;
+            int start = i;
+            List<Integer> ids = new ArrayList<Integer>();
+            List<PlayListTrack> inserted = new ArrayList<PlayListTrack>();
+            for (; i < size && !stays[i] && (fromPositions[i] >= 0) == moved; i++) {
+                if (moved) {
+                    ids.add(newerTracks.get(i).getId());
+                }
+                else {
+                    inserted.add(copy(newerTracks.get(i)));
+                }
+            }
+            edits.add(moved
+                    ? new Edit(Edit.Type.MOVE, start, ids, Collections.<PlayListTrack>emptyList())
+                    : new Edit(Edit.Type.INSERT, start, Collections.<Integer>emptyList(), inserted));
+        }
+        return new PlaylistDiff(older.getVersion(), newer.getVersion(), edits);
+    }
+
+    public long getFromVersion() {
+        return fromVersion;
+    }
+
+    public long getToVersion() {
+        return toVersion;
+    }
+
+    /**
+     * The DELETE edit, if any, followed by MOVE and INSERT edits by ascending index.
+     */
+    public List<Edit> getEdits() {
+        return edits;
+    }
+
+    public boolean isEmpty() {
+        return edits.isEmpty();
+    }
+
+    /**
+     * Turns a copy of the older version into the newer one, and sets the newer version on it.
+     *
+     * @throws IllegalStateException if the playlist is not at the version the edits were made from
+     */
+    public void applyTo(TrackPlayList playList) {
+        if (playList.getVersion() != fromVersion) {
+            throw new IllegalStateException("Edits from version " + fromVersion + " can not be applied to version " + playList.getVersion());
+        }
+        // Moved tracks are all taken out first, so the positions they are put back at are final
+        List<Integer> movedIds = new ArrayList<Integer>();
+        for (Edit edit : edits) {
+            if (edit.type == Edit.Type.DELETE) {
+                playList.removePlayListTracksById(edit.playListTrackIds);
+            }
+            else if (edit.type == Edit.Type.MOVE) {
+                movedIds.addAll(edit.playListTrackIds);
+            }
+        }
+        Map<Integer, PlayListTrack> moved = new HashMap<Integer, PlayListTrack>();
+        for (PlayListTrack playListTrack : playList.removePlayListTracksById(movedIds)) {
+            moved.put(playListTrack.getId(), playListTrack);
+        }
+        for (Edit edit : edits) {
+            if (edit.type == Edit.Type.MOVE) {
+                List<PlayListTrack> playListTracks = new ArrayList<PlayListTrack>(edit.playListTrackIds.size());
+                for (Integer id : edit.playListTrackIds) {
+                    playListTracks.add(moved.get(id));
+                }
+                playList.addPlayListTracks(edit.index, playListTracks);
+            }
+            else if (edit.type == Edit.Type.INSERT) {
+                List<PlayListTrack> playListTracks = new ArrayList<PlayListTrack>(edit.playListTracks.size());
+                for (PlayListTrack playListTrack : edit.playListTracks) {
+                    PlayListTrack copy = copy(playListTrack);
+                    copy.setTrackPlaylist(playList);
+                    playListTracks.add(copy);
+                }
+                playList.addPlayListTracks(edit.index, playListTracks);
+            }
+        }
+        playList.setVersion(toVersion);
+    }
+
+    @Override
+    public String toString() {
+        return "PlaylistDiff{" + fromVersion + " -> " + toVersion + ", " + edits + "}";
+    }
+
+    /**
+     * Marks a longest strictly increasing subsequence of the non-negative values, by patience sorting.
+     */
+    private static boolean[] longestIncreasingRun(int[] values) {
+        int[] tails = new int[values.length];
+        int[] previous = new int[values.length];
+        int length = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] < 0) {
+                continue;
+            }
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (values[tails[middle]] < values[i]) {
+                    low = middle + 1;
+                }
+                else {
+                    high = middle;
+                }
+            }
+            previous[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+            if (low == length) {
+                length++;
+            }
+        }
+        boolean[] marked = new boolean[values.length];
+        for (int i = length > 0 ? tails[length - 1] : -1; i >= 0; i = previous[i]) {
+            marked[i] = true;
+        }
+        return marked;
+    }
+
+    private static int idOf(PlayListTrack playListTrack) {
+        if (playListTrack.getId() == null) {
+            throw new IllegalArgumentException("PlayListTrack without id at position " + playListTrack.getIndex());
+        }
+        return playListTrack.getId();
+    }
+
+    static PlayListTrack copy(PlayListTrack playListTrack) {
+        PlayListTrack copy = new PlayListTrack(playListTrack.getDateAdded());
+        copy.setId(playListTrack.getId());
+        copy.setTrackId(playListTrack.getTrackId());
+        copy.setTrackArtistId(playListTrack.getTrackArtistId());
+        copy.setSharingLevel(playListTrack.getSharingLevel());
+        copy.setDescription(playListTrack.getDescription());
+        copy.setTrack(playListTrack.getTrack());
+        return copy;
+    }
+}
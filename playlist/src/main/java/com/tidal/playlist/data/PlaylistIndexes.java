@@ -0,0 +1,243 @@
+package com.tidal.playlist.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Secondary indexes over the tracks of a {@link TrackPlayList}, from track id, artist id and the words of
+ * the title to the PlayListTrack ids of the tracks. The playlist keeps them up to date on every add and
+ * remove; moves need nothing, since PlayListTrack ids do not change. Positions are looked up by id when a
+ * query is answered, in O(log n) each.
+ * <p>
+ * Titles are split into lower case words of letters and digits, and a word in a query matches every word
+ * of a title it is a prefix of. Tracks without a PlayListTrack id are left out, and the PlayListTrack ids of
+ * the others are taken to be unique.
+ */
+final class PlaylistIndexes {
+
+    private final Map<Integer, Postings> byTrackId = new HashMap<Integer, Postings>();
+    private final Map<Integer, Postings> byArtist = new HashMap<Integer, Postings>();
+    private final NavigableMap<String, Postings> byTitleWord = new TreeMap<String, Postings>();
+
+    PlaylistIndexes(Iterable<PlayListTrack> playListTracks) {
+        for (PlayListTrack playListTrack : playListTracks) {
+            add(playListTrack);
+        }
+    }
+
+    void add(PlayListTrack playListTrack) {
+        Integer id = playListTrack.getId();
+        if (id == null) {
+            return;
+        }
+        add(byTrackId, playListTrack.getTrackId(), id);
+        add(byArtist, playListTrack.getTrackArtistId(), id);
+        for (String word : distinctWords(title(playListTrack))) {
+            add(byTitleWord, word, id);
+        }
+    }
+
+    void remove(PlayListTrack playListTrack) {
+        Integer id = playListTrack.getId();
+        if (id == null) {
+            return;
+        }
+        remove(byTrackId, playListTrack.getTrackId(), id);
+        remove(byArtist, playListTrack.getTrackArtistId(), id);
+        for (String word : distinctWords(title(playListTrack))) {
+            remove(byTitleWord, word, id);
+        }
+    }
+
+    int[] getIdsByTrackId(int trackId) {
+        return ids(byTrackId.get(trackId));
+    }
+
+    int[] getIdsByArtist(int artistId) {
+        return ids(byArtist.get(artistId));
+    }
+
+    /**
+     * Tracks whose title has, for every word of the query, a word starting with it, in no particular
+     * order. A query without words matches nothing. Candidates come from the query word with the fewest
+     * tracks, and are checked against the other words by their title.
+     */
+    List<PlayListTrack> findByTitle(String query, PlayListTrackStorage playListTracks) {
+        List<String> words = words(query);
+        List<PlayListTrack> found = new ArrayList<PlayListTrack>();
+        if (words.isEmpty()) {
+            return found;
+        }
+        Collection<Postings> fewest = null;
+        int fewestCount = Integer.MAX_VALUE;
+        for (String word : words) {
+            Collection<Postings> matching = byTitleWord.subMap(word, true, word + Character.MAX_VALUE, false).values();
+            int count = 0;
+            for (Postings postings : matching) {
+                count += postings.size;
+            }
+            if (count < fewestCount) {
+                fewest = matching;
+                fewestCount = count;
+            }
+        }
+        IntIntMap seen = new IntIntMap(fewestCount);
+        for (Postings postings : fewest) {
+            for (int i = 0; i < postings.size; i++) {
+                int id = postings.ids[i];
+                if (seen.get(id, 0) == 0) {
+                    seen.put(id, 1);
+                    PlayListTrack playListTrack = playListTracks.getById(id);
+                    if (words.size() == 1 || matches(title(playListTrack), words)) {
+                        found.add(playListTrack);
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Whether every query word starts a word of the title, checked in place rather than splitting the
+     * title again.
+     */
+    private static boolean matches(String title, List<String> queryWords) {
+        for (String queryWord : queryWords) {
+            boolean found = false;
+            for (int i = 0; i < title.length() && !found; i++) {
+                boolean wordStart = Character.isLetterOrDigit(title.charAt(i))
+                        && (i == 0 || !Character.isLetterOrDigit(title.charAt(i - 1)));
+                found = wordStart && title.regionMatches(true, i, queryWord, 0, queryWord.length());
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Lower case words of letters and digits, in order.
+     */
+    static List<String> words(String text) {
+        List<String> words = new ArrayList<String>();
+        if (text == null) {
+            return words;
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean inWord = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (inWord && start < 0) {
+                start = i;
+            }
+            else if (!inWord && start >= 0) {
+                words.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    /**
+     * Words of the text, each once, so that a title repeating a word holds its id once in the postings.
+     */
+    private static Collection<String> distinctWords(String text) {
+        List<String> words = words(text);
+        return words.size() < 2 ? words : new HashSet<String>(words);
+    }
+
+    private static String title(PlayListTrack playListTrack) {
+        Track track = playListTrack.getTrack();
+        return track != null ? track.getTitle() : null;
+    }
+
+    private static <K> void add(Map<K, Postings> index, K key, int id) {
+        Postings postings = index.get(key);
+        if (postings == null) {
+            postings = new Postings();
+            index.put(key, postings);
+        }
+        postings.add(id);
+    }
+
+    private static <K> void remove(Map<K, Postings> index, K key, int id) {
+        Postings postings = index.get(key);
+        if (postings != null && postings.remove(id) && postings.size == 0) {
+            index.remove(key);
+        }
+    }
+
+    private static int[] ids(Postings postings) {
+        return postings != null ? Arrays.copyOf(postings.ids, postings.size) : new int[0];
+    }
+
+    /**
+     * PlayListTrack ids under one key, in no particular order. Once there are more than
+     * {@link #SCAN_LIMIT} ids, the slot of every id is kept in a map, so that removing one costs O(1)
+     * rather than a scan of the ids, and deleting k tracks from a key with n costs O(k) rather than O(k * n).
+     */
+    private static final class Postings {
+
+        static final int SCAN_LIMIT = 8;
+
+        int[] ids = new int[2];
+        int size;
+        // Slot of every id, null while there are no more than SCAN_LIMIT
+        private IntIntMap slots;
+
+        void add(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            if (slots == null && size == SCAN_LIMIT) {
+                slots = new IntIntMap(size * 2);
+                for (int i = 0; i < size; i++) {
+                    slots.put(ids[i], i);
+                }
+            }
+            if (slots != null) {
+                slots.put(id, size);
+            }
+            ids[size++] = id;
+        }
+
+        /**
+         * Removes the id, moving the last id into its place.
+         */
+        boolean remove(int id) {
+            int slot = slotOf(id);
+            if (slot < 0) {
+                return false;
+            }
+            int last = ids[--size];
+            ids[slot] = last;
+            if (slots != null) {
+                slots.remove(id);
+                if (slot != size) {
+                    slots.put(last, slot);
+                }
+            }
+            return true;
+        }
+
+        private int slotOf(int id) {
+            if (slots != null) {
+                return slots.get(id, -1);
+            }
+            for (int i = 0; i < size; i++) {
+                if (ids[i] == id) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}
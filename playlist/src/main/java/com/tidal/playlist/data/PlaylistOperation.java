@@ -0,0 +1,226 @@
+package com.tidal.playlist.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A single modification of a playlist's tracks, small enough to be logged on its own and replayed on
+ * top of an older copy of the playlist.
+ * <p>
+ * Each operation carries the playlist version it produces. Applying it sets that version on the
+ * playlist, which lets a replay skip operations a stored copy already contains.
+ */
+public final class PlaylistOperation {
+
+    public enum Type {
+        ADD_TRACKS, DELETE_TRACKS, MOVE_TRACKS, RESTORE_TRACKS
+    }
+
+    private final Type type;
+    private final String playListUuid;
+    private final int userId;
+    private final long version;
+
+    // ADD_TRACKS and MOVE_TRACKS
+    private final int toIndex;
+    private final int firstPlayListTrackId;
+    private final Date dateAdded;
+    private final List<Track> tracks;
+
+    // DELETE_TRACKS and MOVE_TRACKS
+    private final List<Integer> playListTrackIds;
+
+    // ADD_TRACKS in place of tracks, and RESTORE_TRACKS
+    private final List<PlayListTrack> playListTracks;
+
+    private PlaylistOperation(Type type, String playListUuid, int userId, long version, int toIndex, int firstPlayListTrackId,
+                              Date dateAdded, List<Track> tracks, List<Integer> playListTrackIds, List<PlayListTrack> playListTracks) {
+        this.type = type;
+        this.playListUuid = playListUuid;
+        this.userId = userId;
+        this.version = version;
+        this.toIndex = toIndex;
+        this.firstPlayListTrackId = firstPlayListTrackId;
+        this.dateAdded = dateAdded;
+        this.tracks = tracks;
+        this.playListTrackIds = playListTrackIds;
+        this.playListTracks = playListTracks;
+    }
+
+    /**
+     * Inserts the tracks at toIndex, giving them consecutive PlayListTrack ids from firstPlayListTrackId.
+     */
+    public static PlaylistOperation addTracks(String playListUuid, int userId, long version, int toIndex, int firstPlayListTrackId,
+                                              Date dateAdded, List<Track> tracks) {
+        return new PlaylistOperation(Type.ADD_TRACKS, playListUuid, userId, version, toIndex, firstPlayListTrackId,
+                dateAdded, Collections.unmodifiableList(new ArrayList<Track>(tracks)), Collections.<Integer>emptyList(),
+                Collections.<PlayListTrack>emptyList());
+    }
+
+    /**
+     * Inserts copies of the PlayListTracks at toIndex, keeping their values but for the PlayListTrack ids,
+     * which are consecutive from firstPlayListTrackId, and dateAdded.
+     */
+    public static PlaylistOperation addPlayListTracks(String playListUuid, int userId, long version, int toIndex,
+                                                      int firstPlayListTrackId, Date dateAdded, List<PlayListTrack> playListTracks) {
+        return new PlaylistOperation(Type.ADD_TRACKS, playListUuid, userId, version, toIndex, firstPlayListTrackId,
+                dateAdded, Collections.<Track>emptyList(), Collections.<Integer>emptyList(), copies(playListTracks));
+    }
+
+    public static PlaylistOperation deleteTracks(String playListUuid, int userId, long version, List<Integer> playListTrackIds) {
+        return new PlaylistOperation(Type.DELETE_TRACKS, playListUuid, userId, version, 0, 0,
+                null, Collections.<Track>emptyList(), Collections.unmodifiableList(new ArrayList<Integer>(playListTrackIds)),
+                Collections.<PlayListTrack>emptyList());
+    }
+
+    /**
+     * Moves the tracks, in the given order, so that the first of them ends up at toIndex, counted after
+     * taking them out of the playlist.
+     */
+    public static PlaylistOperation moveTracks(String playListUuid, int userId, long version, List<Integer> playListTrackIds,
+                                               int toIndex) {
+        return new PlaylistOperation(Type.MOVE_TRACKS, playListUuid, userId, version, toIndex, 0,
+                null, Collections.<Track>emptyList(), Collections.unmodifiableList(new ArrayList<Integer>(playListTrackIds)),
+                Collections.<PlayListTrack>emptyList());
+    }
+
+    /**
+     * Puts the tracks back as given, with their PlayListTrack ids and values, by deleting, moving and
+     * inserting only the tracks that differ, see {@link PlaylistDiff}. The tracks are copied, so they can
+     * come from a {@link PlaylistSnapshot}.
+     */
+    public static PlaylistOperation restoreTracks(String playListUuid, int userId, long version, List<PlayListTrack> playListTracks) {
+        return new PlaylistOperation(Type.RESTORE_TRACKS, playListUuid, userId, version, 0, 0,
+                null, Collections.<Track>emptyList(), Collections.<Integer>emptyList(), copies(playListTracks));
+    }
+
+    private static List<PlayListTrack> copies(List<PlayListTrack> playListTracks) {
+        List<PlayListTrack> copies = new ArrayList<PlayListTrack>(playListTracks.size());
+        for (PlayListTrack playListTrack : playListTracks) {
+            copies.add(PlaylistDiff.copy(playListTrack));
+        }
+        return Collections.unmodifiableList(copies);
+    }
+
+    /**
+     * Applies the operation and sets its version on the playlist, whose totals follow by themselves.
+     * Nothing changes, not even the version, if the operation turns out to have no effect.
+     *
+     * @return the added, deleted or moved tracks, and for a restore the tracks it deleted, moved or
+     * inserted
+     */
+    public List<PlayListTrack> applyTo(TrackPlayList playList) {
+        List<PlayListTrack> changed;
+        if (type == Type.ADD_TRACKS) {
+            changed = new ArrayList<PlayListTrack>(tracks.size() + playListTracks.size());
+            int playListTrackId = firstPlayListTrackId;
+            for (Track track : tracks) {
+                changed.add(createPlayListTrack(playList, track, playListTrackId++));
+            }
+            for (PlayListTrack playListTrack : playListTracks) {
+                PlayListTrack copy = PlaylistDiff.copy(playListTrack);
+                copy.setId(playListTrackId++);
+                copy.setDateAdded(dateAdded);
+                copy.setTrackPlaylist(playList);
+                changed.add(copy);
+            }
+            playList.addPlayListTracks(Math.min(toIndex, playList.getPlayListTracksSize()), changed);
+        }
+        else if (type == Type.DELETE_TRACKS) {
+            changed = playList.removePlayListTracksById(playListTrackIds);
+        }
+        else if (type == Type.MOVE_TRACKS) {
+            changed = playList.movePlayListTracksById(playListTrackIds, toIndex);
+        }
+        else {
+            changed = restore(playList);
+        }
+        if (!changed.isEmpty()) {
+            playList.setVersion(version);
+        }
+        return changed;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getPlayListUuid() {
+        return playListUuid;
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int getToIndex() {
+        return toIndex;
+    }
+
+    public int getFirstPlayListTrackId() {
+        return firstPlayListTrackId;
+    }
+
+    public Date getDateAdded() {
+        return dateAdded;
+    }
+
+    public List<Track> getTracks() {
+        return tracks;
+    }
+
+    public List<Integer> getPlayListTrackIds() {
+        return playListTrackIds;
+    }
+
+    /**
+     * The tracks to restore, or the tracks to add copies of if the operation was made by
+     * {@link #addPlayListTracks}.
+     */
+    public List<PlayListTrack> getPlayListTracks() {
+        return playListTracks;
+    }
+
+    private List<PlayListTrack> restore(TrackPlayList playList) {
+        TrackPlayList restored = new TrackPlayList();
+        restored.addPlayListTracks(0, new ArrayList<PlayListTrack>(copies(playListTracks)));
+        restored.setVersion(version);
+        PlaylistDiff diff = PlaylistDiff.between(playList, restored);
+        List<PlayListTrack> changed = new ArrayList<PlayListTrack>();
+        for (PlaylistDiff.Edit edit : diff.getEdits()) {
+            if (edit.getType() == PlaylistDiff.Edit.Type.INSERT) {
+                changed.addAll(edit.getPlayListTracks());
+            }
+            else {
+                for (Integer id : edit.getPlayListTrackIds()) {
+                    changed.add(playList.getPlayListTrackById(id));
+                }
+            }
+        }
+        if (!changed.isEmpty()) {
+            diff.applyTo(playList);
+        }
+        return changed;
+    }
+
+    private PlayListTrack createPlayListTrack(TrackPlayList playList, Track track, int playListTrackId) {
+        PlayListTrack playlistTrack = new PlayListTrack();
+        playlistTrack.setTrack(track);
+        playlistTrack.setTrackId(track.getId());
+        playlistTrack.setTrackPlaylist(playList);
+        playlistTrack.setTrackArtistId(track.getArtistId());
+        playlistTrack.setDateAdded(dateAdded);
+        playlistTrack.setId(playListTrackId);
+        return playlistTrack;
+    }
+
+    public String toString() {
+        return "PlaylistOperation " + type + " playlist[" + playListUuid + "], version[" + version + "]";
+    }
+}
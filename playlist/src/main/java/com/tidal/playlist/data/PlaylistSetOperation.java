@@ -0,0 +1,232 @@
+package com.tidal.playlist.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * Combines the tracks of several playlists by track id. Every result holds each track id at most once, at
+ * its first occurrence, except that tracks without a known track id, 0 or less, are never taken for the
+ * same track: they are all kept, and found in no other input.
+ * <p>
+ * The inputs are read once each, in order, as they stream by: from {@link TrackPlayList#getPlayListTracks()}
+ * of loaded playlists, or from {@link PlaylistSnapshot}s of playlists others may be modifying. Besides the
+ * inputs themselves, memory holds the track ids seen, for intersection and difference the track ids of
+ * the other inputs, and the result. The result is a list of detached copies, to be added to a playlist
+ * through {@link com.tidal.playlist.PlaylistBusinessBean#addPlayListTracks}, which stores it as one
+ * modification.
+ * <p>
+ * For intersection and difference, the track ids of the inputs after the first can be collected on an
+ * executor, one input per task, while the calling thread waits. Load the inputs concurrently with
+ * {@link com.tidal.playlist.dao.ParallelPlaylistDao}.
+ */
+public final class PlaylistSetOperation {
+
+    public enum Type {
+        /**
+         * The tracks of all inputs, input after input.
+         */
+        UNION,
+        /**
+         * The tracks of the first input found in every other input.
+         */
+        INTERSECTION,
+        /**
+         * The tracks of the first input found in no other input.
+         */
+        DIFFERENCE,
+        /**
+         * One track of each input in turn, until all inputs run out.
+         */
+        INTERLEAVE
+    }
+
+    private final Type type;
+    private final List<? extends Iterable<PlayListTrack>> inputs;
+    private final Executor executor;
+
+    private PlaylistSetOperation(Type type, List<? extends Iterable<PlayListTrack>> inputs, Executor executor) {
+        if (inputs.isEmpty()) {
+            throw new IllegalArgumentException("No playlists to combine");
+        }
+        this.type = type;
+        this.inputs = inputs;
+        this.executor = executor;
+    }
+
+    public static PlaylistSetOperation of(Type type, List<? extends Iterable<PlayListTrack>> inputs) {
+        return new PlaylistSetOperation(type, new ArrayList<Iterable<PlayListTrack>>(inputs), null);
+    }
+
+    /**
+     * The tracks of the playlist without repeated track ids.
+     */
+    public static PlaylistSetOperation dedupe(Iterable<PlayListTrack> input) {
+        return of(Type.UNION, Collections.singletonList(input));
+    }
+
+    /**
+     * The same operation, collecting the track ids of the inputs on the executor.
+     */
+    public PlaylistSetOperation inParallel(Executor executor) {
+        return new PlaylistSetOperation(type, inputs, executor);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * The result, as copies of the tracks that keep all their values but the PlayListTrack id and the
+     * playlist they belong to.
+     */
+    public List<PlayListTrack> getPlayListTracks() {
+        return getPlayListTracks(Integer.MAX_VALUE);
+    }
+
+    /**
+     * At most limit tracks of the result, reading no further into the inputs than needed.
+     */
+    public List<PlayListTrack> getPlayListTracks(int limit) {
+        Collector collector = new Collector(limit);
+        if (type == Type.UNION) {
+            for (Iterable<PlayListTrack> input : inputs) {
+                if (!collector.collectAll(input.iterator(), null, false)) {
+                    break;
+                }
+            }
+        }
+        else if (type == Type.INTERLEAVE) {
+            List<Iterator<PlayListTrack>> iterators = new ArrayList<Iterator<PlayListTrack>>(inputs.size());
+            for (Iterable<PlayListTrack> input : inputs) {
+                iterators.add(input.iterator());
+            }
+            boolean more = true;
+            while (more) {
+                more = false;
+                for (Iterator<PlayListTrack> iterator : iterators) {
+                    if (iterator.hasNext()) {
+                        more = true;
+                        if (!collector.collect(iterator.next())) {
+                            more = false;
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+        else {
+            collector.collectAll(inputs.get(0).iterator(), trackIdsOfOthers(), type == Type.INTERSECTION);
+        }
+        return collector.collected;
+    }
+
+    /**
+     * Track ids of the inputs after the first, one set per input.
+     */
+    private List<IntIntMap> trackIdsOfOthers() {
+        List<? extends Iterable<PlayListTrack>> others = inputs.subList(1, inputs.size());
+        List<IntIntMap> trackIds = new ArrayList<IntIntMap>(others.size());
+        if (executor == null) {
+            for (Iterable<PlayListTrack> other : others) {
+                trackIds.add(trackIds(other));
+            }
+            return trackIds;
+        }
+        List<CompletableFuture<IntIntMap>> collected = new ArrayList<CompletableFuture<IntIntMap>>(others.size());
+        for (final Iterable<PlayListTrack> other : others) {
+            collected.add(CompletableFuture.supplyAsync(new Supplier<IntIntMap>() {
+                public IntIntMap get() {
+                    return trackIds(other);
+                }
+            }, executor));
+        }
+        for (CompletableFuture<IntIntMap> future : collected) {
+            try {
+                trackIds.add(future.join());
+            }
+            catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+        return trackIds;
+    }
+
+    private static IntIntMap trackIds(Iterable<PlayListTrack> input) {
+        IntIntMap trackIds = new IntIntMap(16);
+        for (PlayListTrack playListTrack : input) {
+            if (playListTrack.getTrackId() > 0) {
+                trackIds.put(playListTrack.getTrackId(), 1);
+            }
+        }
+        return trackIds;
+    }
+
+    /**
+     * Copies the tracks of the result, skipping track ids it has collected before.
+     */
+    private static final class Collector {
+
+        private final int limit;
+        private final IntIntMap collectedTrackIds = new IntIntMap(16);
+        private final List<PlayListTrack> collected = new ArrayList<PlayListTrack>();
+
+        Collector(int limit) {
+            this.limit = limit;
+        }
+
+        /**
+         * Collects the tracks whose track id is in every one of the sets, or in none of them.
+         *
+         * @return whether there is room for more
+         */
+        boolean collectAll(Iterator<PlayListTrack> tracks, List<IntIntMap> trackIds, boolean inEvery) {
+            while (tracks.hasNext()) {
+                PlayListTrack playListTrack = tracks.next();
+                if (trackIds == null || matches(playListTrack.getTrackId(), trackIds, inEvery)) {
+                    if (!collect(playListTrack)) {
+                        return false;
+                    }
+                }
+            }
+            return collected.size() < limit;
+        }
+
+        /**
+         * @return whether there is room for more
+         */
+        boolean collect(PlayListTrack playListTrack) {
+            if (collected.size() == limit) {
+                return false;
+            }
+            int trackId = playListTrack.getTrackId();
+            if (trackId > 0) {
+                if (collectedTrackIds.get(trackId, 0) != 0) {
+                    return true;
+                }
+                collectedTrackIds.put(trackId, 1);
+            }
+            PlayListTrack copy = PlaylistDiff.copy(playListTrack);
+            copy.setId(null);
+            collected.add(copy);
+            return collected.size() < limit;
+        }
+
+        /**
+         * A track without a known track id is in none of the sets.
+         */
+        private static boolean matches(int trackId, List<IntIntMap> trackIds, boolean inEvery) {
+            for (IntIntMap other : trackIds) {
+                if ((trackId > 0 && other.get(trackId, 0) != 0) != inEvery) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
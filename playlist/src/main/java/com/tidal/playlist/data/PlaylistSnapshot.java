@@ -0,0 +1,368 @@
+package com.tidal.playlist.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Immutable version of a playlist's tracks, safe to read from any thread without locking.
+ * <p>
+ * The tracks are kept in a persistent implicit treap: a new version copies only the O(log n) nodes on
+ * the paths to the positions it changes, and shares all other nodes, and the tracks in them, with the
+ * version it was made from. Keeping many versions therefore costs little more than keeping one.
+ * <p>
+ * The tracks held are copies, detached from any playlist, and reads hand out copies of them again with
+ * their position set as index, so nothing a reader does can change a version.
+ */
+public final class PlaylistSnapshot implements Iterable<PlayListTrack> {
+
+    private static final class Node {
+        final PlayListTrack track;
+        final int priority;
+        final Node left;
+        final Node right;
+        final int size;
+
+        Node(PlayListTrack track, int priority, Node left, Node right) {
+            this.track = track;
+            this.priority = priority;
+            this.left = left;
+            this.right = right;
+            this.size = size(left) + size(right) + 1;
+        }
+
+        Node with(Node left, Node right) {
+            return new Node(track, priority, left, right);
+        }
+    }
+
+    private final String uuid;
+    private final long version;
+    private final long durationMillis;
+    private final Node root;
+
+    private PlaylistSnapshot(String uuid, long version, long durationMillis, Node root) {
+        this.uuid = uuid;
+        this.version = version;
+        this.durationMillis = durationMillis;
+        this.root = root;
+    }
+
+    /**
+     * A snapshot of the playlist as it is now, in O(n). The playlist must not change meanwhile.
+     */
+    public static PlaylistSnapshot of(TrackPlayList playList) {
+        List<PlayListTrack> copies = new ArrayList<PlayListTrack>(playList.getPlayListTracksSize());
+        // Positions are counted rather than asked for, which costs O(log n) a track in tree storage
+        int position = 0;
+        for (PlayListTrack playListTrack : playList.getPlayListTracks()) {
+            copies.add(copyAt(playListTrack, position++));
+        }
+        return new PlaylistSnapshot(playList.getUuid(), playList.getVersion(), playList.getDurationMillis(), build(copies));
+    }
+
+    public String getUuid() {
+        return uuid;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    public int getNrOfTracks() {
+        return size(root);
+    }
+
+    /**
+     * Copy of the track at the position, in O(log n).
+     */
+    public PlayListTrack getPlayListTrackAt(int position) {
+        if (position < 0 || position >= size(root)) {
+            throw new IndexOutOfBoundsException("Position " + position + " of " + size(root));
+        }
+        Node node = root;
+        int offset = 0;
+        while (true) {
+            int leftSize = size(node.left);
+            if (position < leftSize) {
+                node = node.left;
+            }
+            else if (position == leftSize) {
+                return copyAt(node.track, offset + position);
+            }
+            else {
+                offset += leftSize + 1;
+                position -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    /**
+     * Copies of up to limit tracks from position offset on, in O(log n + limit).
+     */
+    public List<PlayListTrack> getPlayListTracks(int offset, int limit) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("Invalid page, offset " + offset + " and limit " + limit);
+        }
+        int count = Math.max(0, Math.min(limit, size(root) - offset));
+        List<PlayListTrack> page = new ArrayList<PlayListTrack>(count);
+        if (count > 0) {
+            Iterator<PlayListTrack> iterator = iterator(offset);
+            for (int i = 0; i < count; i++) {
+                page.add(iterator.next());
+            }
+        }
+        return page;
+    }
+
+    public List<PlayListTrack> getPlayListTracksSorted() {
+        return getPlayListTracks(0, size(root));
+    }
+
+    public Iterator<PlayListTrack> iterator() {
+        return iterator(0);
+    }
+
+    /**
+     * Copies of the tracks in position order from the given position on.
+     */
+    public Iterator<PlayListTrack> iterator(final int fromPosition) {
+        if (fromPosition < 0 || fromPosition > size(root)) {
+            throw new IndexOutOfBoundsException("Position " + fromPosition + " of " + size(root));
+        }
+        final List<Node> path = new ArrayList<Node>();
+        Node node = root;
+        int position = fromPosition;
+        while (node != null) {
+            int leftSize = size(node.left);
+            if (position <= leftSize) {
+                path.add(node);
+                node = node.left;
+            }
+            else {
+                position -= leftSize + 1;
+                node = node.right;
+            }
+        }
+        return new Iterator<PlayListTrack>() {
+            private int next = fromPosition;
+
+            public boolean hasNext() {
+                return !path.isEmpty();
+            }
+
+            public PlayListTrack next() {
+                if (path.isEmpty()) {
+                    throw new NoSuchElementException();
+                }
+                Node node = path.remove(path.size() - 1);
+                for (Node child = node.right; child != null; child = child.left) {
+                    path.add(child);
+                }
+                return copyAt(node.track, next++);
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Prepares the snapshot following this one by the operation, by noting where the operation is about
+     * to take tracks out of the playlist. Must be called before the operation is applied to the
+     * playlist, which must be the one this snapshot was taken of.
+     */
+    public Edit edit(TrackPlayList playList, PlaylistOperation operation) {
+        List<Integer> ids = operation.getPlayListTrackIds();
+        int[] positions = new int[ids.size()];
+        int count = 0;
+        for (Integer id : ids) {
+            PlayListTrack playListTrack = playList.getPlayListTrackById(id);
+            if (playListTrack != null) {
+                positions[count++] = playListTrack.getIndex();
+            }
+        }
+        Arrays.sort(positions, 0, count);
+        // An id given twice is still taken out once
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || positions[distinct - 1] != positions[i]) {
+                positions[distinct++] = positions[i];
+            }
+        }
+        return new Edit(this, operation, Arrays.copyOf(positions, distinct));
+    }
+
+    /**
+     * The same tracks, with another version.
+     */
+    public PlaylistSnapshot withVersion(long version) {
+        return new PlaylistSnapshot(uuid, version, durationMillis, root);
+    }
+
+    @Override
+    public String toString() {
+        return "PlaylistSnapshot{" + uuid + ", version " + version + ", " + size(root) + " tracks}";
+    }
+
+    /**
+     * An operation under way, turned into the next snapshot once it has been applied.
+     */
+    public static final class Edit {
+
+        private final PlaylistSnapshot from;
+        private final PlaylistOperation operation;
+        private final int[] takenOut;
+
+        private Edit(PlaylistSnapshot from, PlaylistOperation operation, int[] takenOut) {
+            this.from = from;
+            this.operation = operation;
+            this.takenOut = takenOut;
+        }
+
+        /**
+         * The snapshot after the operation, in O(k log n) for k changed tracks.
+         * <p>
+         * Storages may return detached copies as the changed tracks, whose index says nothing about
+         * where they are now, so positions are looked up in the playlist by id, and moved tracks are
+         * taken from this snapshot by the ids the operation asked for.
+         *
+         * @param changed the tracks the operation returned
+         */
+        public PlaylistSnapshot apply(TrackPlayList playList, List<PlayListTrack> changed) {
+            if (operation.getType() == PlaylistOperation.Type.RESTORE_TRACKS) {
+                // Edits anywhere in the playlist, taken again in O(n)
+                return of(playList);
+            }
+            Node root = from.root;
+            Map<Integer, PlayListTrack> takenOutCopies = new HashMap<Integer, PlayListTrack>();
+            // Highest position first, so the lower ones stay where they were
+            for (int i = takenOut.length - 1; i >= 0; i--) {
+                Node[] parts = split(root, takenOut[i]);
+                Node[] taken = split(parts[1], 1);
+                takenOutCopies.put(taken[0].track.getId(), taken[0].track);
+                root = merge(parts[0], taken[1]);
+            }
+            List<PlayListTrack> copies = new ArrayList<PlayListTrack>(changed.size());
+            if (operation.getType() == PlaylistOperation.Type.ADD_TRACKS) {
+                for (PlayListTrack playListTrack : changed) {
+                    copies.add(copyAt(playListTrack, 0));
+                }
+            }
+            else if (operation.getType() == PlaylistOperation.Type.MOVE_TRACKS) {
+                // In the order asked for, an id given twice moved once
+                for (Integer id : operation.getPlayListTrackIds()) {
+                    PlayListTrack moved = takenOutCopies.remove(id);
+                    if (moved != null) {
+                        copies.add(moved);
+                    }
+                }
+            }
+            if (!copies.isEmpty()) {
+                // Added and moved tracks end up next to each other, from where the first of them is now
+                int position = playList.getPlayListTrackById(copies.get(0).getId()).getIndex();
+                Node[] parts = split(root, position);
+                root = merge(merge(parts[0], build(copies)), parts[1]);
+            }
+            return new PlaylistSnapshot(from.uuid, playList.getVersion(), playList.getDurationMillis(), root);
+        }
+    }
+
+    /**
+     * Builds a treap of the tracks in list order in O(n), keeping the right spine on a stack as in
+     * {@link PlayListTrackSequence}, then creating the immutable nodes bottom up.
+     */
+    private static Node build(List<PlayListTrack> tracks) {
+        int n = tracks.size();
+        if (n == 0) {
+            return null;
+        }
+        int[] priorities = new int[n];
+        int[] lefts = new int[n];
+        int[] rights = new int[n];
+        int[] spine = new int[n];
+        int top = 0;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < n; i++) {
+            priorities[i] = random.nextInt();
+            lefts[i] = -1;
+            rights[i] = -1;
+            int last = -1;
+            while (top > 0 && priorities[spine[top - 1]] < priorities[i]) {
+                last = spine[--top];
+            }
+            lefts[i] = last;
+            if (top > 0) {
+                rights[spine[top - 1]] = i;
+            }
+            spine[top++] = i;
+        }
+        return node(spine[0], tracks, priorities, lefts, rights);
+    }
+
+    private static Node node(int i, List<PlayListTrack> tracks, int[] priorities, int[] lefts, int[] rights) {
+        if (i < 0) {
+            return null;
+        }
+        return new Node(tracks.get(i), priorities[i], node(lefts[i], tracks, priorities, lefts, rights),
+                node(rights[i], tracks, priorities, lefts, rights));
+    }
+
+    /**
+     * The first k positions and the rest, copying the nodes on the path.
+     */
+    private static Node[] split(Node node, int k) {
+        if (node == null) {
+            return new Node[2];
+        }
+        int leftSize = size(node.left);
+        if (k <= leftSize) {
+            Node[] parts = split(node.left, k);
+            parts[1] = node.with(parts[1], node.right);
+            return parts;
+        }
+        Node[] parts = split(node.right, k - leftSize - 1);
+        parts[0] = node.with(node.left, parts[0]);
+        return parts;
+    }
+
+    private static Node merge(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            return left.with(left.left, merge(left.right, right));
+        }
+        return right.with(merge(left, right.left), right.right);
+    }
+
+    private static int size(Node node) {
+        return node != null ? node.size : 0;
+    }
+
+    private static PlayListTrack copyAt(PlayListTrack playListTrack, int index) {
+        PlayListTrack copy = new PlayListTrack(playListTrack.getDateAdded());
+        copy.setId(playListTrack.getId());
+        copy.setIndex(index);
+        copy.setTrackId(playListTrack.getTrackId());
+        copy.setTrackArtistId(playListTrack.getTrackArtistId());
+        copy.setSharingLevel(playListTrack.getSharingLevel());
+        copy.setDescription(playListTrack.getDescription());
+        copy.setTrack(playListTrack.getTrack());
+        return copy;
+    }
+}
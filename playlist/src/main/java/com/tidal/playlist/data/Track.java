@@ -1,7 +1,11 @@
 package com.tidal.playlist.data;
 
+import java.io.Serializable;
 
-public class Track{
+
+public class Track implements Serializable {
+
+    private static final long serialVersionUID = 2906154522123085409L;
 
     private String title;
     private float duration;
@@ -0,0 +1,128 @@
+package com.tidal.playlist.data;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One shared Track instance per track id, so a track in many playlists is on the heap once. Tracks are
+ * held weakly and leave the catalog once no playlist refers to them.
+ * <p>
+ * Shared tracks must be treated as immutable. Tracks without an id (id 0 or less) are never shared, and
+ * neither is a track whose values differ from the shared track with its id.
+ */
+public final class TrackCatalog {
+
+    private static final TrackCatalog SHARED = new TrackCatalog();
+
+    private final ConcurrentMap<Integer, Entry> tracks = new ConcurrentHashMap<Integer, Entry>();
+    private final ReferenceQueue<Track> collected = new ReferenceQueue<Track>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * The catalog used by default in this JVM.
+     */
+    public static TrackCatalog shared() {
+        return SHARED;
+    }
+
+    /**
+     * The shared track with the id of the given one, which becomes the shared track if there is none.
+     *
+     * @return the given track if it has no id or is null
+     */
+    public Track intern(Track track) {
+        if (track == null || track.getId() <= 0) {
+            return track;
+        }
+        expungeCollected();
+        Integer id = track.getId();
+        while (true) {
+            Entry entry = tracks.get(id);
+            Track shared = entry != null ? entry.get() : null;
+            if (shared != null) {
+                if (!sameValues(shared, track)) {
+                    misses.increment();
+                    return track;
+                }
+                hits.increment();
+                return shared;
+            }
+            Entry added = new Entry(id, track, collected);
+            if (entry == null ? tracks.putIfAbsent(id, added) == null : tracks.replace(id, entry, added)) {
+                misses.increment();
+                return track;
+            }
+        }
+    }
+
+    /**
+     * @return the shared track with the given id, or null if there is none
+     */
+    public Track get(int id) {
+        Entry entry = tracks.get(id);
+        return entry != null ? entry.get() : null;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Share of {@link #intern(Track)} calls with an id that found a shared track, 0 before any call.
+     */
+    public double getHitRate() {
+        long hits = getHits();
+        long total = hits + getMisses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Number of tracks held, not counting those already collected.
+     */
+    public int getRetainedTracks() {
+        expungeCollected();
+        return tracks.size();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TrackCatalog{retained=%d, hits=%d, misses=%d, hitRate=%.3f}",
+                getRetainedTracks(), getHits(), getMisses(), getHitRate());
+    }
+
+    private static boolean sameValues(Track shared, Track track) {
+        if (shared == track) {
+            return true;
+        }
+        String title = shared.getTitle();
+        return shared.getArtistId() == track.getArtistId()
+                && shared.getTrackNumberIdx() == track.getTrackNumberIdx()
+                && Float.compare(shared.getDuration(), track.getDuration()) == 0
+                && (title != null ? title.equals(track.getTitle()) : track.getTitle() == null);
+    }
+
+    private void expungeCollected() {
+        for (Object reference = collected.poll(); reference != null; reference = collected.poll()) {
+            Entry entry = (Entry) reference;
+            tracks.remove(entry.id, entry);
+        }
+    }
+
+    private static final class Entry extends WeakReference<Track> {
+
+        private final Integer id;
+
+        Entry(Integer id, Track track, ReferenceQueue<Track> queue) {
+            super(track, queue);
+            this.id = id;
+        }
+    }
+}
@@ -12,7 +12,11 @@ public class TrackPlayList {
 
     private Integer id;
     private String playListName;
-    private Set<PlayListTrack> playListTracks = new HashSet<PlayListTrack>();
+    private PlayListTrackStorage playListTracks = new ObjectPlayListTrackStorage();
+    private final PlaylistAggregates aggregates = new PlaylistAggregates();
+    // Null until first queried
+    private PlaylistIndexes indexes;
+    private int maxPlayListTrackId;
     private PlayListType playListType;
     private String description;
     private Date registeredDate;
@@ -20,21 +24,24 @@ public class TrackPlayList {
     private int createdByArtistId;
     private String createdByArtistName;
     private String uuid;
-    private int nrOfTracks;
     private boolean deleted;
     private SharingLevel sharingLevel;
     private String createdByNickName;
-    private Float duration;
     private Integer userId;
 
     private String imageSources;
+    private long version;
 
     public TrackPlayList() {
         this.uuid = UUID.randomUUID().toString();
         Date d = new Date();
         this.registeredDate = d;
         this.lastUpdated = d;
-        this.playListTracks = new HashSet<PlayListTrack>();
+    }
+
+    public TrackPlayList(TrackStorage trackStorage) {
+        this();
+        setTrackStorage(trackStorage);
     }
 
 
@@ -79,12 +86,83 @@ public class TrackPlayList {
         this.playListName = playListName;
     }
 
+    /**
+     * Read-only view of the tracks, iterating in position order.
+     */
     public Set<PlayListTrack> getPlayListTracks() {
-        return playListTracks;
+        return new AbstractSet<PlayListTrack>() {
+            @Override
+            public Iterator<PlayListTrack> iterator() {
+                return playListTracks.iterator();
+            }
+
+            @Override
+            public int size() {
+                return playListTracks.size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return o instanceof PlayListTrack && playListTracks.contains((PlayListTrack) o);
+            }
+        };
     }
 
+    /**
+     * Replaces all tracks, ordering the new ones by their index.
+     */
     public void setPlayListTracks(Set<PlayListTrack> playListTracks) {
-        this.playListTracks = playListTracks;
+        List<PlayListTrack> sorted = byPosition(new ArrayList<PlayListTrack>(playListTracks));
+        this.playListTracks.clear();
+        if (this.playListTracks instanceof LazyPlayListTrackStorage) {
+            this.playListTracks = new ObjectPlayListTrackStorage();
+        }
+        aggregates.clear();
+        indexes = null;
+        maxPlayListTrackId = 0;
+        addPlayListTracks(0, sorted);
+    }
+
+    /**
+     * Replaces all tracks with the stored segments, which are only loaded once a position or id inside
+     * them is needed. Until then the number of tracks, the duration and the next PlayListTrack id come
+     * from the segments alone, while counting tracks by artist loads every segment.
+     */
+    public void setPlayListTracks(PlayListTrackSegments segments) {
+        playListTracks.clear();
+        playListTracks = new LazyPlayListTrackStorage(this, segments);
+        aggregates.clearArtists(segments.getDurationMillis());
+        indexes = null;
+        maxPlayListTrackId = segments.getMaxPlayListTrackId();
+    }
+
+    /**
+     * Whether some tracks are still to be loaded from the segments given to
+     * {@link #setPlayListTracks(PlayListTrackSegments)}.
+     */
+    public boolean isPartiallyLoaded() {
+        return playListTracks instanceof LazyPlayListTrackStorage
+                && ((LazyPlayListTrackStorage) playListTracks).getUnloadedSegmentCount() > 0;
+    }
+
+    public TrackStorage getTrackStorage() {
+        return playListTracks.getType();
+    }
+
+    /**
+     * Moves the tracks to the given storage. In {@link TrackStorage#COLUMNAR} storage the tracks are
+     * copied in, and PlayListTrack objects obtained before are no longer part of the playlist.
+     */
+    public void setTrackStorage(TrackStorage trackStorage) {
+        if (trackStorage == playListTracks.getType()) {
+            return;
+        }
+        PlayListTrackStorage storage = trackStorage == TrackStorage.COLUMNAR
+                ? new ColumnarPlayListTrackStorage(this)
+                : new ObjectPlayListTrackStorage();
+        storage.insertAll(0, getPlayListTracksSorted());
+        playListTracks.clear();
+        playListTracks = storage;
     }
 
     public Date getRegisteredDate() {
@@ -136,37 +214,201 @@ public class TrackPlayList {
         this.deleted = deleted;
     }
 
+    /**
+     * Inserts the track at its index, or last if the index is beyond the end of the playlist.
+     */
     public void addPlayListTrack(PlayListTrack pa) {
-        if (getPlayListTracks() == null || getPlayListTracks().size() == 0)
-            playListTracks = new HashSet<PlayListTrack>();
-        playListTracks.add(pa);
-        nrOfTracks++;
+        addPlayListTracks(Math.max(0, Math.min(pa.getIndex(), playListTracks.size())), Collections.singletonList(pa));
+    }
+
+    /**
+     * Inserts the tracks, in order, starting at the given position. Tracks behind them shift without
+     * being renumbered.
+     */
+    public void addPlayListTracks(int position, List<PlayListTrack> tracks) {
+        playListTracks.insertAll(position, tracks);
+        for (PlayListTrack playListTrack : tracks) {
+            aggregates.add(playListTrack);
+            if (indexes != null) {
+                indexes.add(playListTrack);
+            }
+            Integer id = playListTrack.getId();
+            if (id != null && id > maxPlayListTrackId) {
+                maxPlayListTrackId = id;
+            }
+        }
+    }
+
+    public boolean removePlayListTrack(PlayListTrack playListTrack) {
+        if (!playListTracks.contains(playListTrack)) {
+            return false;
+        }
+        // Counted out first, a columnar view can no longer be read once removed
+        aggregates.remove(playListTrack);
+        if (indexes != null) {
+            indexes.remove(playListTrack);
+        }
+        return playListTracks.remove(playListTrack);
+    }
+
+    /**
+     * Removes the tracks with the given ids, resolving each id through the id index. Unknown ids are
+     * ignored. Costs O(k log n) for k ids in object storage, independent of where the tracks are in the
+     * playlist, and O(n + k) in columnar storage.
+     *
+     * @return the removed tracks
+     */
+    public List<PlayListTrack> removePlayListTracksById(Collection<Integer> playListTrackIds) {
+        List<PlayListTrack> removed = playListTracks.removeAllById(playListTrackIds);
+        for (PlayListTrack playListTrack : removed) {
+            aggregates.remove(playListTrack);
+            if (indexes != null) {
+                indexes.remove(playListTrack);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Moves the tracks with the given ids, in the given order, so that the first of them ends up at
+     * position, counted after taking the tracks out. Unknown ids are ignored. The tracks keep their id
+     * and all other values. Costs O(k log n) for k ids in object storage, where the moved objects
+     * themselves are reinserted, and O(n + k) in columnar storage.
+     *
+     * @return the moved tracks
+     */
+    public List<PlayListTrack> movePlayListTracksById(List<Integer> playListTrackIds, int position) {
+        List<PlayListTrack> moved = playListTracks.removeAllById(playListTrackIds);
+        playListTracks.insertAll(Math.max(0, Math.min(position, playListTracks.size())), moved);
+        return moved;
+    }
+
+    public PlayListTrack getPlayListTrackById(Integer playListTrackId) {
+        return playListTracks.getById(playListTrackId);
+    }
+
+    /**
+     * Next unused PlayListTrack id in this playlist.
+     */
+    public int nextPlayListTrackId() {
+        return maxPlayListTrackId + 1;
+    }
+
+    public PlayListTrack getPlayListTrackAt(int position) {
+        return playListTracks.get(position);
     }
 
+    /**
+     * The first track with the given track id. Answered in O(1) if the track is not in the playlist and
+     * the playlist has been checked for a track before, through the indexes once they are built, and
+     * otherwise by a scan.
+     */
     public PlayListTrack getPlayListTrack(int trackId) {
-        if (getPlayListTracks() == null || getPlayListTracks().size() == 0)
+        if (aggregates.hasTrackIdCounts() && aggregates.getTrackCountByTrackId(trackId) == 0) {
             return null;
+        }
+        if (indexes != null) {
+            List<PlayListTrack> found = byPosition(byId(indexes.getIdsByTrackId(trackId)));
+            return found.isEmpty() ? null : found.get(0);
+        }
+        return playListTracks.getByTrackId(trackId);
+    }
 
-        for (PlayListTrack playListTrack : getPlayListTracks()) {
-            if (playListTrack.getTrackId() == trackId)
-                return playListTrack;
+    /**
+     * Tracks with the given track id, in position order. The first query of the indexes builds them in
+     * O(n), and every add and remove keeps them up to date from then on. A query costs O(k log n) for k
+     * tracks found.
+     */
+    public List<PlayListTrack> getPlayListTracksByTrackId(int trackId) {
+        return byPosition(byId(indexes().getIdsByTrackId(trackId)));
+    }
+
+    /**
+     * Tracks by the artist in {@link PlayListTrack#getTrackArtistId()}, in position order, through the
+     * indexes.
+     */
+    public List<PlayListTrack> getPlayListTracksByArtist(int artistId) {
+        return byPosition(byId(indexes().getIdsByArtist(artistId)));
+    }
+
+    /**
+     * Tracks whose title has, for every word of the query, a word starting with it, ignoring case, in
+     * position order, through the indexes. "love yo" finds "You Love Me".
+     */
+    public List<PlayListTrack> findPlayListTracksByTitle(String query) {
+        return byPosition(indexes().findByTitle(query, playListTracks));
+    }
+
+    /**
+     * Drops the indexes, to be built again by the next query.
+     */
+    public void dropIndexes() {
+        indexes = null;
+    }
+
+    private PlaylistIndexes indexes() {
+        if (indexes == null) {
+            indexes = new PlaylistIndexes(playListTracks);
+        }
+        return indexes;
+    }
+
+    private List<PlayListTrack> byId(int[] playListTrackIds) {
+        List<PlayListTrack> found = new ArrayList<PlayListTrack>(playListTrackIds.length);
+        for (int playListTrackId : playListTrackIds) {
+            found.add(playListTracks.getById(playListTrackId));
+        }
+        return found;
+    }
+
+    /**
+     * Sorts the tracks by position, looking each position up once.
+     */
+    private static List<PlayListTrack> byPosition(List<PlayListTrack> found) {
+        if (found.size() < 2) {
+            return found;
+        }
+        long[] keys = new long[found.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = (long) found.get(i).getIndex() << 32 | i;
+        }
+        Arrays.sort(keys);
+        List<PlayListTrack> sorted = new ArrayList<PlayListTrack>(keys.length);
+        for (long key : keys) {
+            sorted.add(found.get((int) key));
         }
-        return null;
+        return sorted;
+    }
+
+    /**
+     * Whether a track with the given track id is in the playlist. The first call counts all tracks by
+     * track id, and every call after that costs O(1).
+     */
+    public boolean containsTrack(int trackId) {
+        if (!aggregates.hasTrackIdCounts()) {
+            aggregates.countTrackIds(playListTracks, playListTracks.size());
+        }
+        return aggregates.getTrackCountByTrackId(trackId) > 0;
     }
 
     public int getPlayListTracksSize() {
-        if (getPlayListTracks() == null)
-            return 0;
-        else
-            return getPlayListTracks().size();
+        return playListTracks.size();
     }
 
+    /**
+     * Number of tracks, always equal to {@link #getPlayListTracksSize()}.
+     */
     public int getNrOfTracks() {
-        return nrOfTracks;
+        return playListTracks.size();
     }
 
+    /**
+     * @deprecated the number of tracks is derived from the tracks themselves and cannot be set
+     * @throws UnsupportedOperationException always
+     */
+    @Deprecated
     public void setNrOfTracks(int nrOfTracks) {
-        this.nrOfTracks = nrOfTracks;
+        throw new UnsupportedOperationException("The number of tracks is derived from the tracks");
     }
 
     public String getCreatedByArtistName() {
@@ -177,17 +419,49 @@ public class TrackPlayList {
         this.createdByArtistName = createdByArtistName;
     }
 
+    /**
+     * Duration in seconds, the sum of the track durations.
+     */
     public Float getDuration() {
-        return duration;
+        return aggregates.getDurationMillis() / 1000f;
     }
 
     /**
-     * Duration in seconds
-     *
-     * @param duration
+     * @deprecated the duration is derived from the track durations and cannot be set
+     * @throws UnsupportedOperationException always
      */
+    @Deprecated
     public void setDuration(Float duration) {
-        this.duration = duration;
+        throw new UnsupportedOperationException("The duration is derived from the track durations");
+    }
+
+    /**
+     * Exact sum of the track durations, in milliseconds.
+     */
+    public long getDurationMillis() {
+        return aggregates.getDurationMillis();
+    }
+
+    /**
+     * Number of tracks by the artist, in O(1) once the tracks are loaded.
+     */
+    public int getTrackCountByArtist(int artistId) {
+        countArtists();
+        return aggregates.getTrackCount(artistId);
+    }
+
+    /**
+     * Number of different artists among the tracks, in O(1) once the tracks are loaded.
+     */
+    public int getDistinctArtistCount() {
+        countArtists();
+        return aggregates.getDistinctArtistCount();
+    }
+
+    private void countArtists() {
+        if (!aggregates.hasArtistCounts()) {
+            aggregates.countArtists(playListTracks);
+        }
     }
 
 
@@ -210,14 +484,60 @@ public class TrackPlayList {
         this.imageSources = imageSources;
     }
 
-    public List<PlayListTrack> getPlayListTracksSorted() {
-        if (getPlayListTracks() == null) {
-            return null;
+    /**
+     * Number of modifications made to the tracks, bumped by every applied {@link PlaylistOperation}.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    /**
+     * Up to limit tracks from position offset on, in position order. Costs O(log n + limit) in object
+     * storage and O(limit) in columnar storage, and allocates only the returned page.
+     *
+     * @return an empty list if offset is at or past the end
+     */
+    public List<PlayListTrack> getPlayListTracks(int offset, int limit) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("Invalid page, offset " + offset + " and limit " + limit);
+        }
+        int size = playListTracks.size();
+        if (offset >= size) {
+            return new ArrayList<PlayListTrack>(0);
+        }
+        int count = Math.min(limit, size - offset);
+        List<PlayListTrack> page = new ArrayList<PlayListTrack>(count);
+        Iterator<PlayListTrack> iterator = playListTracks.iterator(offset);
+        for (int i = 0; i < count; i++) {
+            page.add(iterator.next());
+        }
+        return page;
+    }
+
+    /**
+     * Streams the tracks in position order from position offset on, without copying them. The playlist
+     * must not be modified while iterating.
+     */
+    public Iterator<PlayListTrack> iteratePlayListTracks(int offset) {
+        if (offset < 0) {
+            throw new IllegalArgumentException("Invalid offset " + offset);
         }
-        else {
-            ArrayList<PlayListTrack> playListTracks = new ArrayList<PlayListTrack>(getPlayListTracks());
-            Collections.sort(playListTracks);
-            return playListTracks;
+        return playListTracks.iterator(Math.min(offset, playListTracks.size()));
+    }
+
+    /**
+     * The tracks in position order. The sequence is already ordered, so this is a plain copy. Prefer
+     * {@link #getPlayListTracks(int, int)} or {@link #iteratePlayListTracks(int)} for large playlists.
+     */
+    public List<PlayListTrack> getPlayListTracksSorted() {
+        List<PlayListTrack> sorted = new ArrayList<PlayListTrack>(playListTracks.size());
+        for (PlayListTrack playListTrack : playListTracks) {
+            sorted.add(playListTrack);
         }
+        return sorted;
     }
 }
\ No newline at end of file
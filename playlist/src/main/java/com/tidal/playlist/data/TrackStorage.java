@@ -0,0 +1,20 @@
+package com.tidal.playlist.data;
+
+/**
+ * How a {@link TrackPlayList} keeps its tracks in memory.
+ */
+public enum TrackStorage {
+
+    /**
+     * One {@link PlayListTrack} and {@link Track} object per entry, in an order-statistic tree. Edits
+     * anywhere in the playlist cost O(log n).
+     */
+    OBJECTS,
+
+    /**
+     * Primitive arrays with one column per attribute and dictionary-encoded strings, for very large
+     * playlists. Tracks are read through short-lived views. Uses a fraction of the heap of
+     * {@link #OBJECTS}, but edits before the end of the playlist shift the columns in O(n).
+     */
+    COLUMNAR
+}
@@ -0,0 +1,13 @@
+package com.tidal.playlist.exception;
+
+/**
+ * Thrown when a modification was made to an older version of a playlist than the one stored.
+ */
+public class PlaylistConflictException extends PlaylistException {
+
+    private static final long serialVersionUID = -1842773905312250517L;
+
+    public PlaylistConflictException(String s) {
+        super(Reason.CONFLICT, s);
+    }
+}
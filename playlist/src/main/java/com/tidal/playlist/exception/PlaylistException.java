@@ -6,7 +6,28 @@ package com.tidal.playlist.exception;
  * Time: 12.52
  */
 public class PlaylistException extends RuntimeException {
+
+    private static final long serialVersionUID = 3071569124638841274L;
+
+    /**
+     * Why a request was turned down, for counting failures without parsing messages.
+     */
+    public enum Reason {
+        PLAYLIST_FULL, INVALID_INDEX, DUPLICATE, NOT_FOUND, CONFLICT, OTHER
+    }
+
+    private final Reason reason;
+
     public PlaylistException(String s) {
+        this(Reason.OTHER, s);
+    }
+
+    public PlaylistException(Reason reason, String s) {
         super(s);
+        this.reason = reason;
+    }
+
+    public Reason getReason() {
+        return reason;
     }
 }
@@ -0,0 +1,124 @@
+package com.tidal.playlist.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of non-negative values, recorded lock-free into log-linear buckets in the manner of an
+ * HDR histogram. Values below 64 are counted exactly, larger ones in 32 buckets per power of two, so
+ * a reported value is at most about 3% above the recorded one.
+ * <p>
+ * Recording is an increment of one array slot and of the totals, and never allocates.
+ */
+public final class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int EXACT = SUB_BUCKETS << 1;
+    private static final int BUCKETS = EXACT + (63 - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Counts the value, clamping negative values to 0.
+     */
+    public void record(long value) {
+        counts.incrementAndGet(indexOf(Math.max(0, value)));
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+    }
+
+    /**
+     * Copy of the counts. Values recorded while copying may or may not be included.
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+        }
+        return new Snapshot(copy);
+    }
+
+    static int indexOf(long value) {
+        if (value < EXACT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return EXACT + (shift - 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * Largest value counted in the bucket.
+     */
+    static long highestValueAt(int index) {
+        if (index < EXACT) {
+            return index;
+        }
+        int shift = (index - EXACT) / SUB_BUCKETS + 1;
+        long subBucket = (index - EXACT) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    public static final class Snapshot {
+
+        private final long[] counts;
+        private final long count;
+        private final double mean;
+
+        private Snapshot(long[] counts) {
+            this.counts = counts;
+            long count = 0;
+            double sum = 0;
+            for (int i = 0; i < counts.length; i++) {
+                count += counts[i];
+                sum += (double) counts[i] * highestValueAt(i);
+            }
+            this.count = count;
+            this.mean = count == 0 ? 0 : sum / count;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Mean of the bucket values, so within the precision of the buckets.
+         */
+        public double getMean() {
+            return mean;
+        }
+
+        /**
+         * @param percentile between 0 and 100
+         * @return the smallest bucket value that at least percentile % of the values are at or below, 0
+         * if nothing was recorded
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("Invalid percentile " + percentile);
+            }
+            long target = Math.max(1, (long) Math.ceil(count * percentile / 100));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= target) {
+                    return highestValueAt(i);
+                }
+            }
+            return 0;
+        }
+
+        public long getMax() {
+            return getValueAtPercentile(100);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d, mean=%.1f, p50=%d, p99=%d, max=%d",
+                    count, mean, getValueAtPercentile(50), getValueAtPercentile(99), getMax());
+        }
+    }
+}
@@ -0,0 +1,350 @@
+package com.tidal.playlist.metrics;
+
+import com.tidal.playlist.exception.PlaylistException;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency, allocation and failure counts of playlist operations, and the sizes of the playlists being
+ * modified. Recording is lock-free, and costs two clock reads and a few increments per operation.
+ * Counting allocations reads the thread's allocation counter twice more, which is about as costly again,
+ * and is only done when asked for and where the JVM has such a counter.
+ * <p>
+ * Recording can be switched off at any time, after which an operation costs a volatile read. Counts
+ * already recorded are kept.
+ */
+public final class PlaylistMetrics {
+
+    public enum Operation {
+        LOAD, READ_TRACKS, ADD_TRACKS, DELETE_TRACKS, MOVE_TRACKS, UNDO
+    }
+
+    private static final PlaylistMetrics SHARED = new PlaylistMetrics();
+
+    // Handed out while disabled, so callers need no check of their own
+    private static final Sample IGNORED = new Sample(null, null, 0, 0) {
+        @Override
+        public void succeeded() {
+        }
+
+        @Override
+        public void failed(Throwable failure) {
+        }
+    };
+
+    private final Map<Operation, OperationMetrics> operations = new EnumMap<Operation, OperationMetrics>(Operation.class);
+    private final Map<PlaylistException.Reason, LongAdder> failures =
+            new EnumMap<PlaylistException.Reason, LongAdder>(PlaylistException.Reason.class);
+    private final Histogram mutatedPlaylistSizes = new Histogram();
+    private final com.sun.management.ThreadMXBean allocations;
+    private volatile boolean enabled = true;
+
+    public PlaylistMetrics() {
+        this(false);
+    }
+
+    /**
+     * @param countAllocations whether to count the bytes allocated by each operation
+     */
+    public PlaylistMetrics(boolean countAllocations) {
+        for (Operation operation : Operation.values()) {
+            operations.put(operation, new OperationMetrics());
+        }
+        for (PlaylistException.Reason reason : PlaylistException.Reason.values()) {
+            failures.put(reason, new LongAdder());
+        }
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        allocations = countAllocations && threads instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()
+                ? (com.sun.management.ThreadMXBean) threads
+                : null;
+    }
+
+    /**
+     * The metrics recorded by every {@link com.tidal.playlist.PlaylistBusinessBean} not given its own.
+     */
+    public static PlaylistMetrics shared() {
+        return SHARED;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Starts timing an operation on the calling thread. Exactly one of {@link Sample#succeeded()} and
+     * {@link Sample#failed(Throwable)} must be called on the same thread when it ends.
+     */
+    public Sample start(Operation operation) {
+        if (!enabled) {
+            return IGNORED;
+        }
+        return new Sample(this, operations.get(operation), allocatedBytes(), System.nanoTime());
+    }
+
+    /**
+     * Counts the number of tracks a playlist had before a modification that succeeded.
+     */
+    public void recordMutatedPlaylistSize(int size) {
+        if (enabled) {
+            mutatedPlaylistSizes.record(size);
+        }
+    }
+
+    public Snapshot snapshot() {
+        Map<Operation, OperationSnapshot> operationSnapshots = new LinkedHashMap<Operation, OperationSnapshot>();
+        for (Map.Entry<Operation, OperationMetrics> entry : operations.entrySet()) {
+            operationSnapshots.put(entry.getKey(), entry.getValue().snapshot(entry.getKey()));
+        }
+        Map<PlaylistException.Reason, Long> failureCounts = new LinkedHashMap<PlaylistException.Reason, Long>();
+        for (Map.Entry<PlaylistException.Reason, LongAdder> entry : failures.entrySet()) {
+            failureCounts.put(entry.getKey(), entry.getValue().sum());
+        }
+        return new Snapshot(operationSnapshots, failureCounts, mutatedPlaylistSizes.snapshot());
+    }
+
+    /**
+     * Clears all counts. Operations in progress may still be counted once they end.
+     */
+    public void reset() {
+        for (OperationMetrics operation : operations.values()) {
+            operation.reset();
+        }
+        for (LongAdder failure : failures.values()) {
+            failure.reset();
+        }
+        mutatedPlaylistSizes.reset();
+    }
+
+    /**
+     * Exposes the metrics through the platform MBean server under the given name, such as
+     * {@code com.tidal.playlist:type=PlaylistMetrics}.
+     */
+    public ObjectName registerMBean(String name) throws JMException {
+        ObjectName objectName = new ObjectName(name);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        server.registerMBean(new MBean(this), objectName);
+        return objectName;
+    }
+
+    private long allocatedBytes() {
+        return allocations != null ? allocations.getThreadAllocatedBytes(Thread.currentThread().getId()) : 0;
+    }
+
+    /**
+     * One operation in progress.
+     */
+    public static class Sample {
+
+        private final PlaylistMetrics metrics;
+        private final OperationMetrics operation;
+        private final long startBytes;
+        private final long startNanos;
+
+        private Sample(PlaylistMetrics metrics, OperationMetrics operation, long startBytes, long startNanos) {
+            this.metrics = metrics;
+            this.operation = operation;
+            this.startBytes = startBytes;
+            this.startNanos = startNanos;
+        }
+
+        public void succeeded() {
+            end();
+        }
+
+        /**
+         * Counts the operation as failed, by the reason of a {@link PlaylistException} and as
+         * {@link PlaylistException.Reason#OTHER} for anything else.
+         */
+        public void failed(Throwable failure) {
+            end();
+            operation.failures.increment();
+            PlaylistException.Reason reason = failure instanceof PlaylistException
+                    ? ((PlaylistException) failure).getReason()
+                    : PlaylistException.Reason.OTHER;
+            metrics.failures.get(reason).increment();
+        }
+
+        private void end() {
+            operation.latencyNanos.record(System.nanoTime() - startNanos);
+            if (metrics.allocations != null) {
+                operation.allocatedBytes.record(metrics.allocatedBytes() - startBytes);
+            }
+        }
+    }
+
+    private static final class OperationMetrics {
+
+        private final Histogram latencyNanos = new Histogram();
+        private final Histogram allocatedBytes = new Histogram();
+        private final LongAdder failures = new LongAdder();
+
+        OperationSnapshot snapshot(Operation operation) {
+            return new OperationSnapshot(operation, latencyNanos.snapshot(), allocatedBytes.snapshot(), failures.sum());
+        }
+
+        void reset() {
+            latencyNanos.reset();
+            allocatedBytes.reset();
+            failures.reset();
+        }
+    }
+
+    public static final class OperationSnapshot {
+
+        private final Operation operation;
+        private final Histogram.Snapshot latencyNanos;
+        private final Histogram.Snapshot allocatedBytes;
+        private final long failures;
+
+        private OperationSnapshot(Operation operation, Histogram.Snapshot latencyNanos, Histogram.Snapshot allocatedBytes,
+                                  long failures) {
+            this.operation = operation;
+            this.latencyNanos = latencyNanos;
+            this.allocatedBytes = allocatedBytes;
+            this.failures = failures;
+        }
+
+        public Operation getOperation() {
+            return operation;
+        }
+
+        /**
+         * Number of operations, failed ones included.
+         */
+        public long getCount() {
+            return latencyNanos.getCount();
+        }
+
+        public long getFailures() {
+            return failures;
+        }
+
+        public Histogram.Snapshot getLatencyNanos() {
+            return latencyNanos;
+        }
+
+        /**
+         * Bytes allocated by the calling thread during each operation, empty if allocations are not counted.
+         */
+        public Histogram.Snapshot getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return operation + "{failures=" + failures + ", latencyNanos={" + latencyNanos
+                    + "}, allocatedBytes={" + allocatedBytes + "}}";
+        }
+    }
+
+    public static final class Snapshot {
+
+        private final Map<Operation, OperationSnapshot> operations;
+        private final Map<PlaylistException.Reason, Long> failures;
+        private final Histogram.Snapshot mutatedPlaylistSizes;
+
+        private Snapshot(Map<Operation, OperationSnapshot> operations, Map<PlaylistException.Reason, Long> failures,
+                         Histogram.Snapshot mutatedPlaylistSizes) {
+            this.operations = operations;
+            this.failures = failures;
+            this.mutatedPlaylistSizes = mutatedPlaylistSizes;
+        }
+
+        public OperationSnapshot getOperation(Operation operation) {
+            return operations.get(operation);
+        }
+
+        public long getFailures(PlaylistException.Reason reason) {
+            return failures.get(reason);
+        }
+
+        /**
+         * Number of tracks in each playlist when a modification of it started.
+         */
+        public Histogram.Snapshot getMutatedPlaylistSizes() {
+            return mutatedPlaylistSizes;
+        }
+
+        @Override
+        public String toString() {
+            return "PlaylistMetrics{" + operations.values() + ", failures=" + failures
+                    + ", mutatedPlaylistSizes={" + mutatedPlaylistSizes + "}}";
+        }
+    }
+
+    private static final class MBean implements PlaylistMetricsMXBean {
+
+        private final PlaylistMetrics metrics;
+
+        MBean(PlaylistMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        public boolean isEnabled() {
+            return metrics.isEnabled();
+        }
+
+        public void setEnabled(boolean enabled) {
+            metrics.setEnabled(enabled);
+        }
+
+        public Map<String, Long> getCounts() {
+            Map<String, Long> counts = new LinkedHashMap<String, Long>();
+            for (OperationSnapshot operation : metrics.snapshot().operations.values()) {
+                counts.put(operation.getOperation().name(), operation.getCount());
+            }
+            return counts;
+        }
+
+        public Map<String, Long> getFailures() {
+            Map<String, Long> failures = new LinkedHashMap<String, Long>();
+            Snapshot snapshot = metrics.snapshot();
+            for (OperationSnapshot operation : snapshot.operations.values()) {
+                failures.put(operation.getOperation().name(), operation.getFailures());
+            }
+            for (Map.Entry<PlaylistException.Reason, Long> reason : snapshot.failures.entrySet()) {
+                failures.put(reason.getKey().name(), reason.getValue());
+            }
+            return failures;
+        }
+
+        public Map<String, Long> getLatencyPercentilesMicros() {
+            Map<String, Long> percentiles = new LinkedHashMap<String, Long>();
+            for (OperationSnapshot operation : metrics.snapshot().operations.values()) {
+                Histogram.Snapshot latency = operation.getLatencyNanos();
+                percentiles.put(operation.getOperation() + " p50", latency.getValueAtPercentile(50) / 1000);
+                percentiles.put(operation.getOperation() + " p99", latency.getValueAtPercentile(99) / 1000);
+                percentiles.put(operation.getOperation() + " max", latency.getMax() / 1000);
+            }
+            return percentiles;
+        }
+
+        public List<Long> getMutatedPlaylistSizePercentiles() {
+            Histogram.Snapshot sizes = metrics.mutatedPlaylistSizes.snapshot();
+            List<Long> percentiles = new ArrayList<Long>(3);
+            percentiles.add(sizes.getValueAtPercentile(50));
+            percentiles.add(sizes.getValueAtPercentile(99));
+            percentiles.add(sizes.getMax());
+            return percentiles;
+        }
+
+        public void reset() {
+            metrics.reset();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.tidal.playlist.metrics;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * JMX view of {@link PlaylistMetrics}, registered through {@link PlaylistMetrics#registerMBean(String)}.
+ */
+public interface PlaylistMetricsMXBean {
+
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    /**
+     * Number of operations by operation.
+     */
+    Map<String, Long> getCounts();
+
+    /**
+     * Number of failed operations by operation, followed by the number of failures by reason.
+     */
+    Map<String, Long> getFailures();
+
+    /**
+     * p50, p99 and max latency of each operation, in microseconds.
+     */
+    Map<String, Long> getLatencyPercentilesMicros();
+
+    /**
+     * p50, p99 and max number of tracks in playlists being modified.
+     */
+    List<Long> getMutatedPlaylistSizePercentiles();
+
+    void reset();
+}
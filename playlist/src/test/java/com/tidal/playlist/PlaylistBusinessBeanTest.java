@@ -1,24 +1,47 @@
 package com.tidal.playlist;
 
+import com.tidal.playlist.dao.CachingPlaylistDao;
+import com.tidal.playlist.dao.MappedPlaylistStore;
 import com.tidal.playlist.dao.PlaylistDaoBean;
 import com.tidal.playlist.data.PlayListTrack;
+import com.tidal.playlist.data.PlayOrder;
+import com.tidal.playlist.data.PlaylistOperation;
+import com.tidal.playlist.data.PlaylistSnapshot;
 import com.tidal.playlist.data.Track;
+import com.tidal.playlist.data.TrackCatalog;
 import com.tidal.playlist.data.TrackPlayList;
+import com.tidal.playlist.exception.PlaylistConflictException;
 import com.tidal.playlist.exception.PlaylistException;
+import com.tidal.playlist.metrics.PlaylistMetrics;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 import static java.util.Arrays.asList;
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 
 public class PlaylistBusinessBeanTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Test
     public void addsSingleTrackToEmptyPlaylist() {
         Track track = track();
@@ -112,6 +135,23 @@ public class PlaylistBusinessBeanTest {
         assertThat(playListTracks.get(2).getIndex(), is(2));
     }
 
+    @Test
+    public void shiftsIndexesOfTracksAfterInsertedTracks() {
+        List<Track> tracks = asList(track(), track());
+
+        int maxNumTracks = 10;
+        int numTracksToGenerate = 4;
+        int toIndex = 1;
+        List<PlayListTrack> playListTracks = playlistBusinessBean(maxNumTracks, numTracksToGenerate)
+                .addTracks(tracks, toIndex, new Date()).getPlayList().getPlayListTracksSorted();
+
+        assertThat(playListTracks.size(), is(6));
+        for (int i = 0; i < playListTracks.size(); i++) {
+            assertThat(playListTracks.get(i).getIndex(), is(i));
+        }
+        assertThat(playListTracks.get(3).getId(), is(2));
+    }
+
     @Test
     public void addsToEndOfPlaylistWhenIndexIsLargerThanMaxNumTracks() throws Exception {
         Track track = track();
@@ -264,6 +304,190 @@ public class PlaylistBusinessBeanTest {
         assertThat(playListTracks.get(4).getIndex(), is(4));
     }
 
+    @Test
+    public void deletesTracksByIdAndIgnoresUnknownIds() throws Exception {
+        List<Integer> trackIds = asList(2, 4, 4, 42);
+
+        int maxNumTracks = 10;
+        int numTracksToGenerate = 5;
+        TrackPlayList playList = playlistBusinessBean(maxNumTracks, numTracksToGenerate)
+                .deleteTracks(trackIds)
+                .getPlayList();
+        List<PlayListTrack> playListTracks = playList.getPlayListTracksSorted();
+
+        assertThat(playList.getNrOfTracks(), is(3));
+        assertThat(playListTracks.get(0).getId(), is(1));
+        assertThat(playListTracks.get(1).getId(), is(3));
+        assertThat(playListTracks.get(2).getId(), is(5));
+        assertThat(playListTracks.get(2).getIndex(), is(2));
+    }
+
+    @Test
+    public void givesAddedTracksUniquePlayListTrackIds() throws Exception {
+        List<Track> tracks = asList(track(), track());
+
+        int maxNumTracks = 10;
+        int numTracksToGenerate = 2;
+        PlaylistBusinessBean playListBean = playlistBusinessBean(maxNumTracks, numTracksToGenerate)
+                .addTracks(tracks, 0, new Date());
+        List<PlayListTrack> playListTracks = playListBean.getPlayList().getPlayListTracksSorted();
+
+        assertThat(playListTracks.get(0).getId(), is(3));
+        assertThat(playListTracks.get(1).getId(), is(4));
+
+        List<PlayListTrack> afterDelete = playListBean.deleteTracks(asList(3))
+                .getPlayList()
+                .getPlayListTracksSorted();
+        assertThat(afterDelete.size(), is(3));
+        assertThat(afterDelete.get(0).getId(), is(4));
+    }
+
+    @Test
+    public void movesTracksKeepingIdentityAndMetadata() throws Exception {
+        int maxNumTracks = 10;
+        int numTracksToGenerate = 6;
+        PlaylistBusinessBean playListBean = playlistBusinessBean(maxNumTracks, numTracksToGenerate);
+        PlayListTrack fifth = playListBean.getPlayList().getPlayListTrackById(5);
+        Date dateAdded = fifth.getDateAdded();
+        Float duration = playListBean.getPlayList().getDuration();
+
+        TrackPlayList playList = playListBean.moveTracks(asList(5, 2, 42), 1).getPlayList();
+        List<PlayListTrack> playListTracks = playList.getPlayListTracksSorted();
+
+        assertThat(ids(playListTracks), is(asList(1, 5, 2, 3, 4, 6)));
+        for (int i = 0; i < playListTracks.size(); i++) {
+            assertThat(playListTracks.get(i).getIndex(), is(i));
+        }
+        assertThat(playListTracks.get(1) == fifth, is(true));
+        assertThat(fifth.getDateAdded(), is(dateAdded));
+        assertThat(playList.getNrOfTracks(), is(6));
+        assertThat(playList.getDuration(), is(duration));
+        assertThat(playList.getVersion(), is(1L));
+    }
+
+    @Test
+    public void movesTracksToEndWhenIndexIsOutOfBounds() throws Exception {
+        int maxNumTracks = 10;
+        int numTracksToGenerate = 4;
+        List<PlayListTrack> playListTracks = playlistBusinessBean(maxNumTracks, numTracksToGenerate)
+                .moveTracks(asList(1, 2), -1)
+                .moveTracks(asList(3), 20)
+                .getPlayList()
+                .getPlayListTracksSorted();
+
+        assertThat(ids(playListTracks), is(asList(4, 1, 2, 3)));
+    }
+
+    @Test(expected = PlaylistException.class)
+    public void throwsExceptionWhenMovingToNegativeIndex() throws Exception {
+        playlistBusinessBean(10, 4).moveTracks(asList(1), -2);
+    }
+
+    @Test
+    public void readsPageOfTracks() throws Exception {
+        List<PlayListTrack> page = playlistBusinessBean(20, 10).getPlayListTracks(8, 5);
+
+        assertThat(ids(page), is(asList(9, 10)));
+    }
+
+    @Test(expected = PlaylistException.class)
+    public void throwsExceptionWhenPageLimitIsNegative() throws Exception {
+        playlistBusinessBean(10, 4).getPlayListTracks(0, -1);
+    }
+
+    @Test
+    public void importsTracksFromStreamInOneOperation() throws Exception {
+        PlaylistBusinessBean playlistBusinessBean = playlistBusinessBean(10, 4);
+        Track first = new Track();
+        first.setId(501);
+        Track second = new Track();
+        second.setId(502);
+
+        playlistBusinessBean.importTracks(Stream.of(first, second), 1, new Date());
+
+        TrackPlayList playList = playlistBusinessBean.getPlayList();
+        assertThat(playList.getNrOfTracks(), is(6));
+        assertThat(playList.getPlayListTrackAt(1).getTrack(), is(first));
+        assertThat(playList.getPlayListTrackAt(2).getTrack(), is(second));
+        assertThat(playList.getVersion(), is(1L));
+    }
+
+    @Test
+    public void stopsReadingImportSourceWhenPlaylistIsFull() throws Exception {
+        PlaylistBusinessBean playlistBusinessBean = playlistBusinessBean(10, 4);
+        final int[] read = {0};
+        Iterator<Track> endless = new Iterator<Track>() {
+            public boolean hasNext() {
+                return true;
+            }
+
+            public Track next() {
+                read[0]++;
+                return new Track();
+            }
+        };
+
+        try {
+            playlistBusinessBean.importTracks(endless, 0, new Date());
+            fail("Expected PlaylistException");
+        }
+        catch (PlaylistException e) {
+            // One past the room left, to find out that it does not fit
+            assertThat(read[0], is(7));
+            assertThat(playlistBusinessBean.getPlayList().getNrOfTracks(), is(4));
+        }
+    }
+
+    @Test
+    public void reloadsPlaylistWhenStoringModificationFails() throws Exception {
+        final boolean[] failing = {true};
+        PlaylistDaoBean dao = new PlaylistDaoBean(4, 1) {
+            @Override
+            public void saveOperation(TrackPlayList playList, PlaylistOperation operation) {
+                if (failing[0]) {
+                    throw new IllegalStateException("Store unavailable");
+                }
+            }
+        };
+        PlaylistBusinessBean playlistBusinessBean = new PlaylistBusinessBean(1, UUID.randomUUID().toString(), dao, 10);
+
+        try {
+            playlistBusinessBean.addTracks(asList(track()), 0, new Date());
+            fail("Expected IllegalStateException");
+        }
+        catch (IllegalStateException e) {
+            assertThat(playlistBusinessBean.getPlayList().getNrOfTracks(), is(4));
+            assertThat(playlistBusinessBean.getPlayList().getVersion(), is(0L));
+            assertThat(playlistBusinessBean.getPlayListTracksSorted().size(), is(4));
+        }
+        failing[0] = false;
+        playlistBusinessBean.addTracks(asList(track()), 0, new Date());
+
+        assertThat(playlistBusinessBean.getPlayList().getNrOfTracks(), is(5));
+        assertThat(playlistBusinessBean.getPlayList().getVersion(), is(1L));
+    }
+
+    @Test
+    public void importsLargeSourceAsOneOperation() throws Exception {
+        PlaylistBusinessBean playlistBusinessBean = playlistBusinessBean(3000, 4);
+        int count = 2058;
+        List<Track> tracks = new ArrayList<Track>();
+        for (int i = 0; i < count; i++) {
+            Track track = new Track();
+            track.setId(10000 + i);
+            tracks.add(track);
+        }
+
+        playlistBusinessBean.importTracks(tracks.iterator(), 1, new Date());
+
+        TrackPlayList playList = playlistBusinessBean.getPlayList();
+        assertThat(playList.getNrOfTracks(), is(count + 4));
+        assertThat(playList.getPlayListTrackAt(1).getTrackId(), is(10000));
+        assertThat(playList.getPlayListTrackAt(count).getTrackId(), is(10000 + count - 1));
+        assertThat(playList.getPlayListTrackAt(count + 1).getId(), is(2));
+        assertThat(playList.getVersion(), is(1L));
+    }
+
     @Test
     public void setsAttributesOnPlayListTrack() throws Exception {
         Track track = new Track();
@@ -299,6 +523,309 @@ public class PlaylistBusinessBeanTest {
                 .addTracks(tracks, toIndex, new Date()).getPlayList().getPlayListTracksSorted();
     }
 
+    @Test
+    public void storesPlaylistAfterEachModification() throws Exception {
+        TrackPlayList generated = playlistDaoBean(3).getPlaylistByUUID(UUID.randomUUID().toString(), 1);
+        MappedPlaylistStore store = new MappedPlaylistStore(folder.getRoot());
+        store.savePlaylist(generated);
+
+        new PlaylistBusinessBean(1, generated.getUuid(), store, 10)
+                .addTracks(asList(track()), 0, new Date())
+                .deleteTracks(asList(2));
+        store.close();
+
+        MappedPlaylistStore reopened = new MappedPlaylistStore(folder.getRoot());
+        List<PlayListTrack> playListTracks = reopened.getPlaylistByUUID(generated.getUuid(), 1).getPlayListTracksSorted();
+        reopened.close();
+
+        assertThat(playListTracks.size(), is(3));
+        assertThat(playListTracks.get(0).getTrack().getId(), is(100));
+        assertThat(playListTracks.get(1).getId(), is(1));
+        assertThat(playListTracks.get(2).getId(), is(3));
+    }
+
+    @Test(expected = PlaylistException.class)
+    public void throwsExceptionWhenPlaylistDoesNotExist() throws Exception {
+        MappedPlaylistStore store = new MappedPlaylistStore(folder.getRoot());
+        try {
+            new PlaylistBusinessBean(1, "missing", store, 10);
+        }
+        finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void concurrentModificationsOfSamePlaylistAreNotLost() throws Exception {
+        final int threads = 8;
+        final int addsPerThread = 200;
+        TrackPlayList generated = playlistDaoBean(10).getPlaylistByUUID(UUID.randomUUID().toString(), 1);
+        MappedPlaylistStore store = new MappedPlaylistStore(folder.getRoot());
+        store.savePlaylist(generated);
+        final String uuid = generated.getUuid();
+        final CachingPlaylistDao dao = new CachingPlaylistDao(store, 100000, 1, TimeUnit.HOURS);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (int i = 0; i < threads; i++) {
+            final int generatedIdToDelete = i + 1;
+            futures.add(executor.submit(new Callable<Void>() {
+                public Void call() {
+                    // Every bean gets the same cached instance, so this races on a single TrackPlayList
+                    PlaylistBusinessBean playlistBusinessBean = new PlaylistBusinessBean(1, uuid, dao, 10000);
+                    for (int j = 0; j < addsPerThread; j++) {
+                        playlistBusinessBean.addTracks(asList(track()), j % 2 == 0 ? 0 : -1, new Date());
+                        if (j == addsPerThread / 2) {
+                            playlistBusinessBean.deleteTracks(asList(generatedIdToDelete));
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        int expected = 10 + threads * (addsPerThread - 1);
+        TrackPlayList playList = dao.getPlaylistByUUID(uuid, 1);
+        assertThat(playList.getNrOfTracks(), is(expected));
+        assertThat(playList.getPlayListTracksSize(), is(expected));
+        HashSet<Integer> ids = new HashSet<Integer>();
+        for (PlayListTrack playListTrack : playList.getPlayListTracksSorted()) {
+            ids.add(playListTrack.getId());
+        }
+        assertThat(ids.size(), is(expected));
+        store.close();
+
+        MappedPlaylistStore reopened = new MappedPlaylistStore(folder.getRoot());
+        TrackPlayList stored = reopened.getPlaylistByUUID(uuid, 1);
+        reopened.close();
+        assertThat(stored.getPlayListTracksSize(), is(expected));
+        assertThat(stored.getVersion(), is((long) threads * (addsPerThread + 1)));
+    }
+
+    @Test
+    public void skipsOrRejectsTracksAlreadyInPlaylist() {
+        PlaylistBusinessBean playlistBusinessBean = playlistBusinessBean(20, 0);
+        playlistBusinessBean.addTracks(asList(track(1), track(2)), 0, new Date());
+
+        List<Track> skipped = playlistBusinessBean.addTracks(asList(track(2), track(3), track(3), track(4)), -1, new Date(),
+                PlaylistBusinessBean.DuplicateTracks.SKIP);
+        assertThat(skipped.size(), is(2));
+        assertThat(skipped.get(0).getId(), is(2));
+        assertThat(skipped.get(1).getId(), is(3));
+        assertThat(trackIds(playlistBusinessBean.getPlayListTracksSorted()), is(asList(1, 2, 3, 4)));
+
+        try {
+            playlistBusinessBean.addTracks(asList(track(5), track(1)), 0, new Date(), PlaylistBusinessBean.DuplicateTracks.REJECT);
+            fail();
+        }
+        catch (PlaylistException e) {
+            assertThat(e.getReason(), is(PlaylistException.Reason.DUPLICATE));
+        }
+        assertThat(playlistBusinessBean.getPlayList().getNrOfTracks(), is(4));
+
+        List<Track> added = playlistBusinessBean.addTracks(asList(track(4), track(5)), -1, new Date(),
+                PlaylistBusinessBean.DuplicateTracks.ADD);
+        assertThat(added.size(), is(1));
+        assertThat(trackIds(playlistBusinessBean.getPlayListTracksSorted()), is(asList(1, 2, 3, 4, 4, 5)));
+
+        playlistBusinessBean.deleteTracks(asList(playlistBusinessBean.getPlayList().getPlayListTrackAt(0).getId()));
+        assertThat(playlistBusinessBean.addTracks(asList(track(1)), 0, new Date(),
+                PlaylistBusinessBean.DuplicateTracks.REJECT).isEmpty(), is(true));
+    }
+
+    @Test
+    public void recordsOperationsAndFailuresByReason() {
+        PlaylistMetrics metrics = new PlaylistMetrics();
+        PlaylistBusinessBean playlistBusinessBean = new PlaylistBusinessBean(1, UUID.randomUUID().toString(), playlistDaoBean(5),
+                6, PlaylistLocks.shared(), TrackCatalog.shared(), metrics);
+        playlistBusinessBean.addTracks(asList(track()), 0, new Date());
+        playlistBusinessBean.moveTracks(asList(1), 3);
+        playlistBusinessBean.getPlayListTracks(0, 2);
+        try {
+            playlistBusinessBean.addTracks(asList(track()), 0, new Date());
+            fail();
+        }
+        catch (PlaylistException e) {
+            assertThat(e.getReason(), is(PlaylistException.Reason.PLAYLIST_FULL));
+        }
+        try {
+            playlistBusinessBean.getPlayListTracks(-1, 2);
+            fail();
+        }
+        catch (PlaylistException e) {
+            assertThat(e.getReason(), is(PlaylistException.Reason.INVALID_INDEX));
+        }
+        metrics.setEnabled(false);
+        playlistBusinessBean.deleteTracks(asList(1));
+
+        PlaylistMetrics.Snapshot snapshot = metrics.snapshot();
+        assertThat(snapshot.getOperation(PlaylistMetrics.Operation.LOAD).getCount(), is(1L));
+        assertThat(snapshot.getOperation(PlaylistMetrics.Operation.ADD_TRACKS).getCount(), is(2L));
+        assertThat(snapshot.getOperation(PlaylistMetrics.Operation.ADD_TRACKS).getFailures(), is(1L));
+        assertThat(snapshot.getOperation(PlaylistMetrics.Operation.MOVE_TRACKS).getCount(), is(1L));
+        assertThat(snapshot.getOperation(PlaylistMetrics.Operation.READ_TRACKS).getCount(), is(2L));
+        assertThat(snapshot.getOperation(PlaylistMetrics.Operation.DELETE_TRACKS).getCount(), is(0L));
+        assertThat(snapshot.getFailures(PlaylistException.Reason.PLAYLIST_FULL), is(1L));
+        assertThat(snapshot.getFailures(PlaylistException.Reason.INVALID_INDEX), is(1L));
+        // The add that failed modified nothing
+        assertThat(snapshot.getMutatedPlaylistSizes().getCount(), is(2L));
+        assertThat(snapshot.getMutatedPlaylistSizes().getMax(), is(6L));
+    }
+
+    @Test
+    public void recordsMutatedPlaylistSizeOnceAcrossRetries() {
+        final int[] conflicts = {2};
+        PlaylistDaoBean dao = new PlaylistDaoBean(5, 1) {
+            @Override
+            public void saveOperation(TrackPlayList playList, PlaylistOperation operation) {
+                if (conflicts[0]-- > 0) {
+                    throw new PlaylistConflictException("Stored version is newer");
+                }
+            }
+        };
+        PlaylistMetrics metrics = new PlaylistMetrics();
+        PlaylistBusinessBean playlistBusinessBean = new PlaylistBusinessBean(1, UUID.randomUUID().toString(), dao, 10,
+                PlaylistLocks.shared(), TrackCatalog.shared(), metrics);
+
+        playlistBusinessBean.addTracks(asList(track()), 0, new Date());
+
+        assertThat(metrics.snapshot().getMutatedPlaylistSizes().getCount(), is(1L));
+        assertThat(playlistBusinessBean.getPlayList().getNrOfTracks(), is(6));
+    }
+
+    @Test
+    public void undoesModificationsWhileOlderSnapshotsStayUnchanged() {
+        PlaylistBusinessBean playlistBusinessBean = playlistBusinessBean(20, 5).keepVersions(2);
+        PlaylistSnapshot original = playlistBusinessBean.getSnapshot();
+        playlistBusinessBean.addTracks(asList(track(1), track(2)), 1, new Date());
+        PlaylistSnapshot added = playlistBusinessBean.getSnapshot();
+        playlistBusinessBean.moveTracks(asList(5), 0);
+        playlistBusinessBean.deleteTracks(asList(1, 2));
+
+        assertThat(ids(playlistBusinessBean.getPlayListTracks(0, 10)), is(asList(5, 6, 7, 3, 4)));
+        assertThat(playlistBusinessBean.getVersions().size(), is(2));
+        assertThat(ids(original.getPlayListTracksSorted()), is(asList(1, 2, 3, 4, 5)));
+        assertThat(ids(added.getPlayListTracksSorted()), is(asList(1, 6, 7, 2, 3, 4, 5)));
+
+        playlistBusinessBean.undo();
+        assertThat(ids(playlistBusinessBean.getPlayList().getPlayListTracksSorted()), is(asList(5, 1, 6, 7, 2, 3, 4)));
+        playlistBusinessBean.undo();
+        assertThat(ids(playlistBusinessBean.getPlayListTracksSorted()), is(asList(1, 6, 7, 2, 3, 4, 5)));
+        assertThat(playlistBusinessBean.getSnapshot().getVersion(), is(playlistBusinessBean.getPlayList().getVersion()));
+        assertThat(playlistBusinessBean.getPlayList().getNrOfTracks(), is(7));
+        try {
+            playlistBusinessBean.undo();
+            fail();
+        }
+        catch (PlaylistException e) {
+            assertThat(playlistBusinessBean.getVersions().isEmpty(), is(true));
+        }
+    }
+
+    @Test
+    public void takesSnapshotAgainWhenAnotherBeanModifiedTheSamePlaylist() {
+        final TrackPlayList shared = new PlaylistDaoBean(5, 1).getPlaylistByUUID("shared", 1);
+        PlaylistDaoBean dao = new PlaylistDaoBean(0, 1) {
+            @Override
+            public TrackPlayList getPlaylistByUUID(String uuid, int userId) {
+                return shared;
+            }
+        };
+        PlaylistBusinessBean a = new PlaylistBusinessBean(1, "shared", dao, 20);
+        PlaylistBusinessBean b = new PlaylistBusinessBean(1, "shared", dao, 20).keepVersions(2);
+        List<Integer> shuffled = ids(b.getShuffledPlayListTracks(5, 0, 100));
+        b.moveTracks(asList(1), 4);
+        assertThat(b.getVersions().size(), is(1));
+
+        a.addTracks(asList(track(7)), 0, new Date());
+        a.deleteTracks(asList(shuffled.get(0)));
+
+        assertThat(b.getSnapshot().getVersion(), is(shared.getVersion()));
+        assertThat(ids(b.getPlayListTracksSorted()), is(ids(shared.getPlayListTracksSorted())));
+        assertThat(b.getVersions().isEmpty(), is(true));
+        List<Integer> reshuffled = ids(b.getShuffledPlayListTracks(5, 0, 100));
+        assertThat(reshuffled, is(ids(new PlayOrder(shared, 5).getPlayListTracks(0, 100))));
+        assertThat(reshuffled.contains(shuffled.get(0)), is(false));
+
+        b.moveTracks(asList(6), 5);
+        assertThat(ids(b.getPlayListTracksSorted()), is(ids(shared.getPlayListTracksSorted())));
+        assertThat(b.getPlayListTracksSorted().get(4).getId(), is(6));
+    }
+
+    @Test
+    public void reloadsPlaylistWhenStoringUndoFails() {
+        final boolean[] failing = {false};
+        PlaylistDaoBean dao = new PlaylistDaoBean(4, 1) {
+            @Override
+            public void saveOperation(TrackPlayList playList, PlaylistOperation operation) {
+                if (failing[0]) {
+                    throw new IllegalStateException("Store unavailable");
+                }
+            }
+        };
+        PlaylistMetrics metrics = new PlaylistMetrics();
+        PlaylistBusinessBean playlistBusinessBean = new PlaylistBusinessBean(1, UUID.randomUUID().toString(), dao, 10,
+                PlaylistLocks.shared(), TrackCatalog.shared(), metrics).keepVersions(2);
+        playlistBusinessBean.deleteTracks(asList(1, 2));
+        failing[0] = true;
+
+        try {
+            playlistBusinessBean.undo();
+            fail("Expected IllegalStateException");
+        }
+        catch (IllegalStateException e) {
+            assertThat(playlistBusinessBean.getPlayList().getNrOfTracks(), is(4));
+            assertThat(playlistBusinessBean.getPlayList().getVersion(), is(0L));
+            assertThat(playlistBusinessBean.getVersions().isEmpty(), is(true));
+        }
+        assertThat(metrics.snapshot().getOperation(PlaylistMetrics.Operation.UNDO).getCount(), is(1L));
+        assertThat(metrics.snapshot().getOperation(PlaylistMetrics.Operation.UNDO).getFailures(), is(1L));
+    }
+
+    @Test
+    public void keepsShuffledOrderAcrossModifications() {
+        PlaylistBusinessBean playlistBusinessBean = playlistBusinessBean(100, 30);
+        List<Integer> shuffled = ids(playlistBusinessBean.getShuffledPlayListTracks(5, 0, 100));
+        assertThat(new HashSet<Integer>(shuffled).size(), is(30));
+
+        playlistBusinessBean.moveTracks(asList(1), 20);
+        assertThat(ids(playlistBusinessBean.getShuffledPlayListTracks(5, 0, 100)), is(shuffled));
+
+        playlistBusinessBean.deleteTracks(asList(shuffled.get(3)));
+        playlistBusinessBean.addTracks(asList(track(7)), 0, new Date());
+        List<Integer> repaired = ids(playlistBusinessBean.getShuffledPlayListTracks(5, 0, 100));
+        assertThat(repaired.size(), is(30));
+        assertThat(repaired.contains(shuffled.get(3)), is(false));
+        assertThat(repaired.contains(31), is(true));
+        assertThat(ids(new PlayOrder(playlistBusinessBean.getPlayList(), 5).getPlayListTracks(0, 100)), is(repaired));
+    }
+
+    private static List<Integer> trackIds(List<PlayListTrack> playListTracks) {
+        List<Integer> trackIds = new ArrayList<Integer>();
+        for (PlayListTrack playListTrack : playListTracks) {
+            trackIds.add(playListTrack.getTrackId());
+        }
+        return trackIds;
+    }
+
+    private static List<Integer> ids(List<PlayListTrack> playListTracks) {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (PlayListTrack playListTrack : playListTracks) {
+            ids.add(playListTrack.getId());
+        }
+        return ids;
+    }
+
+    private Track track(int id) {
+        Track track = track();
+        track.setId(id);
+        return track;
+    }
+
     private Track track() {
         Track track = new Track();
         track.setArtistId(4);
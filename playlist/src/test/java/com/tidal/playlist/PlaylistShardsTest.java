@@ -0,0 +1,193 @@
+package com.tidal.playlist;
+
+import com.tidal.playlist.dao.PlaylistDao;
+import com.tidal.playlist.dao.PlaylistDaoBean;
+import com.tidal.playlist.data.PlayListTrack;
+import com.tidal.playlist.data.PlaylistOperation;
+import com.tidal.playlist.data.Track;
+import com.tidal.playlist.data.TrackCatalog;
+import com.tidal.playlist.data.TrackPlayList;
+import com.tidal.playlist.exception.PlaylistException;
+import com.tidal.playlist.metrics.PlaylistMetrics;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+
+public class PlaylistShardsTest {
+
+    @Test
+    public void mergesQueuedCommandsForTheSamePlaylist() throws Exception {
+        final CountDownLatch loading = new CountDownLatch(1);
+        HeldDao dao = new HeldDao(loading);
+        PlaylistShards shards = new PlaylistShards(1, dao, 15, 100, TrackCatalog.shared(), new PlaylistMetrics());
+        Date date = new Date();
+        // The shard takes this on its own and waits for the load, while the rest queue behind it
+        CompletableFuture<List<PlayListTrack>> first = shards.getPlayListTracks(1, "b", 0, 1);
+        List<CompletableFuture<Void>> adds = new ArrayList<CompletableFuture<Void>>();
+        adds.add(shards.addTracks(1, "a", asList(track(1)), 0, date));
+        adds.add(shards.addTracks(1, "a", asList(track(2)), 1, date));
+        adds.add(shards.addTracks(1, "a", asList(track(3)), 1, date));
+        adds.add(shards.addTracks(1, "a", asList(track(4), track(5)), -1, date));
+        CompletableFuture<Void> delete = shards.deleteTracks(1, "a", asList(1, 2));
+        CompletableFuture<Void> otherDelete = shards.deleteTracks(1, "a", asList(3));
+        CompletableFuture<Void> tooMany = shards.addTracks(1, "a", asList(track(6), track(7), track(8), track(9)), 0, date);
+        CompletableFuture<Void> fits = shards.addTracks(1, "a", asList(track(10)), 0, date);
+        CompletableFuture<List<PlayListTrack>> read = shards.getPlayListTracks(1, "a", 0, 20);
+        loading.countDown();
+
+        assertThat(first.get().size(), is(1));
+        for (CompletableFuture<Void> add : adds) {
+            add.get();
+        }
+        delete.get();
+        otherDelete.get();
+        fits.get();
+        try {
+            tooMany.get();
+            fail();
+        }
+        catch (ExecutionException e) {
+            assertThat(((PlaylistException) e.getCause()).getReason(), is(PlaylistException.Reason.PLAYLIST_FULL));
+        }
+        List<Integer> trackIds = new ArrayList<Integer>();
+        for (PlayListTrack playListTrack : read.get()) {
+            trackIds.add(playListTrack.getTrackId());
+        }
+        shards.close();
+
+        assertThat(trackIds.size(), is(13));
+        assertThat(trackIds.subList(0, 4), is(asList(10, 1, 3, 2)));
+        assertThat(trackIds.subList(11, 13), is(asList(4, 5)));
+        assertThat(shards.getCommandCount(), is(10L));
+        // The first three adds merged, the add at the tail on its own, the deletes merged and the add
+        // that fits, while the add that does not fit is not stored
+        assertThat(shards.getModificationCount(), is(4L));
+        assertThat(dao.stores.get(), is(4));
+    }
+
+    @Test
+    public void mergesAddsWithoutDateAndRunsInvalidIndexOnItsOwn() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        PlaylistShards shards = new PlaylistShards(1, new HeldDao(loading), 100, 100, TrackCatalog.shared(), new PlaylistMetrics());
+        CompletableFuture<List<PlayListTrack>> first = shards.getPlayListTracks(1, "b", 0, 1);
+        CompletableFuture<Void> add = shards.addTracks(1, "a", asList(track(1)), 0, null);
+        CompletableFuture<Void> merged = shards.addTracks(1, "a", asList(track(2)), 1, null);
+        CompletableFuture<Void> invalid = shards.addTracks(1, "a", asList(track(3)), -5, null);
+        CompletableFuture<Void> last = shards.addTracks(1, "a", asList(track(4)), -1, null);
+        CompletableFuture<List<PlayListTrack>> read = shards.getPlayListTracks(1, "a", 0, 20);
+        loading.countDown();
+
+        first.get();
+        add.get();
+        merged.get();
+        last.get();
+        try {
+            invalid.get();
+            fail();
+        }
+        catch (ExecutionException e) {
+            assertThat(((PlaylistException) e.getCause()).getReason(), is(PlaylistException.Reason.INVALID_INDEX));
+        }
+        List<PlayListTrack> playListTracks = read.get();
+        shards.close();
+
+        assertThat(playListTracks.size(), is(13));
+        assertThat(playListTracks.get(0).getTrackId(), is(1));
+        assertThat(playListTracks.get(1).getTrackId(), is(2));
+        assertThat(playListTracks.get(12).getTrackId(), is(4));
+        assertThat(shards.getModificationCount(), is(2L));
+    }
+
+    @Test
+    public void takesTheSameLocksAsOtherBeans() throws Exception {
+        PlaylistLocks playlistLocks = new PlaylistLocks(4);
+        PlaylistShards shards = new PlaylistShards(1, new PlaylistDaoBean(5, 1), 100, 100, playlistLocks,
+                TrackCatalog.shared(), new PlaylistMetrics());
+        Lock lock = playlistLocks.lockFor("a");
+        CompletableFuture<Void> add;
+        lock.lock();
+        try {
+            add = shards.addTracks(1, "a", asList(track(1)), 0, new Date());
+            Thread.sleep(100);
+            assertThat(add.isDone(), is(false));
+        }
+        finally {
+            lock.unlock();
+        }
+
+        add.get();
+        assertThat(shards.getPlayListTracks(1, "a", 0, 10).get().size(), is(6));
+        shards.close();
+    }
+
+    @Test
+    public void rejectsCommandsOnceClosed() {
+        PlaylistShards shards = new PlaylistShards(1, new PlaylistDaoBean(5, 1), 100);
+        shards.close();
+        try {
+            shards.deleteTracks(1, "a", asList(1));
+            fail();
+        }
+        catch (IllegalStateException e) {
+            assertThat(shards.getCommandCount(), is(0L));
+        }
+    }
+
+    private static Track track(int id) {
+        Track track = new Track();
+        track.setId(id);
+        track.setArtistId(4);
+        track.setTitle("Track " + id);
+        track.setDuration(1.f);
+        return track;
+    }
+
+    /**
+     * Generated playlists, loaded only once the latch is released, counting the stores.
+     */
+    private static final class HeldDao implements PlaylistDao {
+
+        private final PlaylistDaoBean generator = new PlaylistDaoBean(10, 1);
+        private final CountDownLatch loading;
+        final AtomicInteger stores = new AtomicInteger();
+
+        HeldDao(CountDownLatch loading) {
+            this.loading = loading;
+        }
+
+        public TrackPlayList getPlaylistByUUID(String uuid, int userId) {
+            try {
+                // Holds the shard up while the commands queue
+                loading.await();
+            }
+            catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return generator.getPlaylistByUUID(uuid, userId);
+        }
+
+        public void savePlaylist(TrackPlayList playList) {
+            stores.incrementAndGet();
+        }
+
+        public void saveOperation(TrackPlayList playList, PlaylistOperation operation) {
+            stores.incrementAndGet();
+        }
+
+        public void deletePlaylist(String uuid) {
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.tidal.playlist.dao;
+
+import com.tidal.playlist.PlaylistBusinessBean;
+import com.tidal.playlist.data.PlayListTrack;
+import com.tidal.playlist.data.PlaylistOperation;
+import com.tidal.playlist.data.Track;
+import com.tidal.playlist.data.TrackPlayList;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+
+public class CachingPlaylistDaoTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final CountingDao delegate = new CountingDao(10);
+    private long now;
+    private final LongSupplier clock = new LongSupplier() {
+        public long getAsLong() {
+            return now;
+        }
+    };
+
+    @Test
+    public void servesRepeatedLoadsFromCache() {
+        CachingPlaylistDao dao = new CachingPlaylistDao(delegate, 1000, 1, TimeUnit.MINUTES, clock);
+
+        TrackPlayList first = dao.getPlaylistByUUID("uuid-1", 1);
+        TrackPlayList second = dao.getPlaylistByUUID("uuid-1", 1);
+        dao.getPlaylistByUUID("uuid-1", 2);
+
+        assertThat(second == first, is(false));
+        assertThat(second.getPlayListTracksSorted(), is(first.getPlayListTracksSorted()));
+        assertThat(delegate.loads.get(), is(2));
+        assertThat(dao.getHitCount(), is(1L));
+        assertThat(dao.getMissCount(), is(2L));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedByTrackCount() {
+        CachingPlaylistDao dao = new CachingPlaylistDao(delegate, 25, 1, TimeUnit.MINUTES, clock);
+
+        dao.getPlaylistByUUID("uuid-1", 1);
+        dao.getPlaylistByUUID("uuid-2", 1);
+        dao.getPlaylistByUUID("uuid-1", 1);
+        dao.getPlaylistByUUID("uuid-3", 1);
+
+        assertThat(dao.size(), is(2));
+        assertThat(dao.getWeight(), is(20L));
+        assertThat(dao.getEvictionCount(), is(1L));
+        dao.getPlaylistByUUID("uuid-1", 1);
+        assertThat(delegate.loads.get(), is(3));
+    }
+
+    @Test
+    public void reloadsAfterTtl() {
+        CachingPlaylistDao dao = new CachingPlaylistDao(delegate, 1000, 1, TimeUnit.SECONDS, clock);
+
+        dao.getPlaylistByUUID("uuid-1", 1);
+        now += TimeUnit.SECONDS.toNanos(2);
+        dao.getPlaylistByUUID("uuid-1", 1);
+
+        assertThat(delegate.loads.get(), is(2));
+    }
+
+    @Test
+    public void invalidatesAllUsersOfPlaylist() {
+        CachingPlaylistDao dao = new CachingPlaylistDao(delegate, 1000, 1, TimeUnit.MINUTES, clock);
+
+        dao.getPlaylistByUUID("uuid-1", 1);
+        dao.getPlaylistByUUID("uuid-1", 2);
+        dao.invalidate("uuid-1");
+
+        assertThat(dao.size(), is(0));
+        assertThat(dao.getWeight(), is(0L));
+    }
+
+    @Test
+    public void refreshesWeightOnMutation() {
+        CachingPlaylistDao dao = new CachingPlaylistDao(delegate, 1000, 1, TimeUnit.MINUTES, clock);
+
+        new PlaylistBusinessBean(1, "uuid-1", dao, 100).addTracks(asList(track(), track()), 0, new Date());
+        TrackPlayList cached = dao.getPlaylistByUUID("uuid-1", 1);
+
+        assertThat(cached.getPlayListTracksSize(), is(12));
+        assertThat(dao.getWeight(), is(12L));
+        assertThat(delegate.saves.get(), is(1));
+        assertThat(delegate.loads.get(), is(1));
+    }
+
+    @Test
+    public void dropsCachedPlaylistWhenSaveFails() {
+        CountingDao failing = new CountingDao(10) {
+            @Override
+            public void saveOperation(TrackPlayList playList, PlaylistOperation operation) {
+                throw new IllegalStateException("Disk full");
+            }
+        };
+        CachingPlaylistDao dao = new CachingPlaylistDao(failing, 1000, 1, TimeUnit.MINUTES, clock);
+        TrackPlayList cached = dao.getPlaylistByUUID("uuid-1", 1);
+        PlaylistOperation operation = PlaylistOperation.deleteTracks("uuid-1", 1, 1, asList(1));
+        operation.applyTo(cached);
+
+        try {
+            dao.saveOperation(cached, operation);
+            fail("Expected IllegalStateException");
+        }
+        catch (IllegalStateException e) {
+            TrackPlayList reloaded = dao.getPlaylistByUUID("uuid-1", 1);
+            assertThat(reloaded == cached, is(false));
+            assertThat(reloaded.getPlayListTracksSize(), is(10));
+            assertThat(failing.loads.get(), is(2));
+        }
+    }
+
+    @Test
+    public void concurrentMissesShareOneLoad() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        CountingDao slow = new CountingDao(10) {
+            @Override
+            public TrackPlayList getPlaylistByUUID(String uuid, int userId) {
+                try {
+                    release.await();
+                }
+                catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return super.getPlaylistByUUID(uuid, userId);
+            }
+        };
+        final CachingPlaylistDao dao = new CachingPlaylistDao(slow, 1000, 1, TimeUnit.MINUTES, clock);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<TrackPlayList>> futures = new ArrayList<Future<TrackPlayList>>();
+        for (int i = 0; i < 4; i++) {
+            futures.add(executor.submit(new Callable<TrackPlayList>() {
+                public TrackPlayList call() {
+                    return dao.getPlaylistByUUID("uuid-1", 1);
+                }
+            }));
+        }
+        while (dao.getMissCount() < 4) {
+            Thread.sleep(1);
+        }
+        // Let the last miss get from the counter to the shared load
+        Thread.sleep(100);
+        release.countDown();
+        for (Future<TrackPlayList> future : futures) {
+            assertThat(future.get().getPlayListTracksSize(), is(10));
+        }
+        assertThat(futures.get(1).get() == futures.get(0).get(), is(false));
+        executor.shutdown();
+
+        assertThat(slow.loads.get(), is(1));
+        assertThat(dao.getLoadCount(), is(1L));
+    }
+
+    @Test
+    public void givesEveryLoadItsOwnCopy() throws Exception {
+        MappedPlaylistStore store = new MappedPlaylistStore(folder.newFolder("store"), 1024 * 1024);
+        JournaledPlaylistDao journal = new JournaledPlaylistDao(store, folder.newFolder("log"));
+        try {
+            store.savePlaylist(new PlaylistDaoBean(3, 1).getPlaylistByUUID("uuid-1", 1));
+            CachingPlaylistDao dao = new CachingPlaylistDao(journal, 1000, 1, TimeUnit.MINUTES, clock);
+            PlaylistBusinessBean first = new PlaylistBusinessBean(1, "uuid-1", dao, 100);
+            PlaylistBusinessBean second = new PlaylistBusinessBean(2, "uuid-1", dao, 100);
+
+            first.addTracks(asList(track()), 0, new Date());
+            assertThat(second.getPlayList().getPlayListTracksSize(), is(3));
+            // Stored on top of the version it was loaded at, which conflicts and reloads the first change
+            second.deleteTracks(asList(1));
+
+            assertThat(second.getPlayList() == first.getPlayList(), is(false));
+            assertThat(first.getPlayList().getPlayListTracksSize(), is(4));
+            List<Integer> ids = new ArrayList<Integer>();
+            for (PlayListTrack playListTrack : dao.getPlaylistByUUID("uuid-1", 1).getPlayListTracksSorted()) {
+                ids.add(playListTrack.getId());
+            }
+            assertThat(ids, is(asList(4, 2, 3)));
+            assertThat(dao.getPlaylistByUUID("uuid-1", 2).getVersion(), is(2L));
+        }
+        finally {
+            journal.close();
+            store.close();
+        }
+    }
+
+    private static Track track() {
+        Track track = new Track();
+        track.setId(100);
+        track.setDuration(1.f);
+        return track;
+    }
+
+    private static class CountingDao extends PlaylistDaoBean {
+        final AtomicInteger loads = new AtomicInteger();
+        final AtomicInteger saves = new AtomicInteger();
+
+        CountingDao(int numTracksToGenerate) {
+            super(numTracksToGenerate, 1);
+        }
+
+        @Override
+        public TrackPlayList getPlaylistByUUID(String uuid, int userId) {
+            loads.incrementAndGet();
+            return super.getPlaylistByUUID(uuid, userId);
+        }
+
+        @Override
+        public void savePlaylist(TrackPlayList playList) {
+            saves.incrementAndGet();
+        }
+    }
+}
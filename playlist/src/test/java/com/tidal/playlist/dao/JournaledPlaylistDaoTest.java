@@ -0,0 +1,266 @@
+package com.tidal.playlist.dao;
+
+import com.tidal.playlist.PlaylistBusinessBean;
+import com.tidal.playlist.PlaylistLocks;
+import com.tidal.playlist.data.PlayListTrack;
+import com.tidal.playlist.data.SharingLevel;
+import com.tidal.playlist.data.Track;
+import com.tidal.playlist.data.TrackPlayList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+
+public class JournaledPlaylistDaoTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File storeDirectory;
+    private File logDirectory;
+    private MappedPlaylistStore store;
+    private JournaledPlaylistDao dao;
+
+    @Before
+    public void setUp() throws Exception {
+        storeDirectory = folder.newFolder("store");
+        logDirectory = folder.newFolder("log");
+        open(1000);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        close();
+    }
+
+    @Test
+    public void replaysLoggedOperationsAfterRestart() throws Exception {
+        dao.savePlaylist(playList("uuid-1", 3));
+        new PlaylistBusinessBean(1, "uuid-1", dao, 100)
+                .addTracks(asList(track(100), track(101)), 1, new Date())
+                .deleteTracks(asList(3));
+
+        assertThat(store.getPlaylistByUUID("uuid-1", 1).getPlayListTracksSize(), is(3));
+
+        close();
+        open(1000);
+
+        TrackPlayList playList = dao.getPlaylistByUUID("uuid-1", 1);
+        assertThat(trackIds(playList), is(asList(0, 100, 101, 0)));
+        assertThat(playList.getNrOfTracks(), is(4));
+        assertThat(playList.getVersion(), is(2L));
+    }
+
+    @Test
+    public void replaysMovedTracksAfterRestart() throws Exception {
+        dao.savePlaylist(playList("uuid-1", 4));
+        new PlaylistBusinessBean(1, "uuid-1", dao, 100)
+                .addTracks(asList(track(100)), -1, new Date())
+                .moveTracks(asList(5, 2), 0);
+
+        close();
+        open(1000);
+
+        List<PlayListTrack> playListTracks = dao.getPlaylistByUUID("uuid-1", 1).getPlayListTracksSorted();
+        assertThat(playListTracks.get(0).getTrack().getId(), is(100));
+        assertThat(playListTracks.get(0).getId(), is(5));
+        assertThat(playListTracks.get(1).getId(), is(2));
+        assertThat(playListTracks.size(), is(5));
+    }
+
+    @Test
+    public void logsOperationOfInterruptedWriterAndKeepsItsInterrupt() throws Exception {
+        dao.savePlaylist(playList("uuid-1", 2));
+        PlaylistBusinessBean bean = new PlaylistBusinessBean(1, "uuid-1", dao, 100);
+
+        Thread.currentThread().interrupt();
+        try {
+            bean.addTracks(asList(track(100)), -1, new Date());
+        }
+        finally {
+            assertThat(Thread.interrupted(), is(true));
+        }
+
+        close();
+        open(1000);
+        assertThat(trackIds(dao.getPlaylistByUUID("uuid-1", 1)), is(asList(0, 0, 100)));
+    }
+
+    @Test
+    public void checkpointFoldsLogIntoSnapshot() throws Exception {
+        dao.savePlaylist(playList("uuid-1", 2));
+        PlaylistBusinessBean playlistBusinessBean = new PlaylistBusinessBean(1, "uuid-1", dao, 100);
+        playlistBusinessBean.addTracks(asList(track(100)), 0, new Date());
+        dao.checkpoint();
+        playlistBusinessBean.addTracks(asList(track(101)), 0, new Date());
+
+        assertThat(trackIds(store.getPlaylistByUUID("uuid-1", 1)), is(asList(100, 0, 0)));
+        assertThat(logDirectory.listFiles().length, is(1));
+
+        close();
+        open(1000);
+        assertThat(trackIds(dao.getPlaylistByUUID("uuid-1", 1)), is(asList(101, 100, 0, 0)));
+    }
+
+    @Test
+    public void checkpointsEveryInterval() throws Exception {
+        close();
+        open(3);
+        dao.savePlaylist(playList("uuid-1", 0));
+        PlaylistBusinessBean playlistBusinessBean = new PlaylistBusinessBean(1, "uuid-1", dao, 100);
+        for (int i = 0; i < 3; i++) {
+            playlistBusinessBean.addTracks(asList(track(i)), -1, new Date());
+        }
+
+        assertThat(trackIds(store.getPlaylistByUUID("uuid-1", 1)), is(asList(0, 1, 2)));
+    }
+
+    @Test
+    public void concurrentWritersShareCommits() throws Exception {
+        final int threads = 8;
+        final int operationsPerThread = 50;
+        for (int i = 0; i < threads; i++) {
+            dao.savePlaylist(playList("uuid-" + i, 0));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (int i = 0; i < threads; i++) {
+            final String uuid = "uuid-" + i;
+            futures.add(executor.submit(new Callable<Void>() {
+                public Void call() {
+                    PlaylistBusinessBean playlistBusinessBean = new PlaylistBusinessBean(1, uuid, dao, 1000);
+                    for (int j = 0; j < operationsPerThread; j++) {
+                        playlistBusinessBean.addTracks(asList(track(j)), -1, new Date());
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        assertTrue(dao.getLogSyncCount() <= threads * operationsPerThread);
+        close();
+        open(1000);
+        for (int i = 0; i < threads; i++) {
+            assertThat(dao.getPlaylistByUUID("uuid-" + i, 1).getPlayListTracksSize(), is(operationsPerThread));
+        }
+    }
+
+    @Test
+    public void reloadsStaleCopyOnConflict() throws Exception {
+        dao.savePlaylist(playList("uuid-1", 2));
+        // Separate locks, as if the two beans lived in different JVMs
+        PlaylistBusinessBean first = new PlaylistBusinessBean(1, "uuid-1", dao, 100, new PlaylistLocks(1));
+        PlaylistBusinessBean second = new PlaylistBusinessBean(1, "uuid-1", dao, 100, new PlaylistLocks(1));
+
+        first.addTracks(asList(track(100)), 0, new Date());
+        second.addTracks(asList(track(101)), 0, new Date());
+
+        assertThat(trackIds(second.getPlayList()), is(asList(101, 100, 0, 0)));
+        assertThat(second.getPlayList().getVersion(), is(2L));
+        close();
+        open(1000);
+        assertThat(trackIds(dao.getPlaylistByUUID("uuid-1", 1)), is(asList(101, 100, 0, 0)));
+    }
+
+    @Test
+    public void replaysAddedCopiesOfTracksAfterRestart() throws Exception {
+        dao.savePlaylist(playList("uuid-1", 2));
+        PlayListTrack playListTrack = new PlayListTrack();
+        playListTrack.setTrack(track(100));
+        playListTrack.setTrackId(100);
+        playListTrack.setDescription("Encore");
+        playListTrack.setSharingLevel(SharingLevel.PUBLIC);
+        new PlaylistBusinessBean(1, "uuid-1", dao, 100).addPlayListTracks(asList(playListTrack), 1, new Date());
+
+        close();
+        open(1000);
+
+        PlayListTrack added = dao.getPlaylistByUUID("uuid-1", 1).getPlayListTrackAt(1);
+        assertThat(added.getId(), is(3));
+        assertThat(added.getTrackId(), is(100));
+        assertThat(added.getTrack().getId(), is(100));
+        assertThat(added.getDescription(), is("Encore"));
+        assertThat(added.getSharingLevel(), is(SharingLevel.PUBLIC));
+    }
+
+    @Test
+    public void replaysUndoneModificationsAfterRestart() throws Exception {
+        dao.savePlaylist(playList("uuid-1", 3));
+        new PlaylistBusinessBean(1, "uuid-1", dao, 100).keepVersions(2)
+                .addTracks(asList(track(100)), 0, new Date())
+                .deleteTracks(asList(2))
+                .undo();
+
+        close();
+        open(1000);
+
+        TrackPlayList playList = dao.getPlaylistByUUID("uuid-1", 1);
+        assertThat(trackIds(playList), is(asList(100, 0, 0, 0)));
+        assertThat(playList.getPlayListTrackAt(2).getId(), is(2));
+        assertThat(playList.getVersion(), is(3L));
+    }
+
+    private void open(int checkpointInterval) {
+        store = new MappedPlaylistStore(storeDirectory, 1024 * 1024);
+        dao = new JournaledPlaylistDao(store, logDirectory, checkpointInterval);
+    }
+
+    private void close() throws Exception {
+        dao.close();
+        store.close();
+    }
+
+    private static List<Integer> trackIds(TrackPlayList playList) {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (PlayListTrack playListTrack : playList.getPlayListTracksSorted()) {
+            ids.add(playListTrack.getTrack().getId());
+        }
+        return ids;
+    }
+
+    /**
+     * A playlist of tracks without a track id, telling them apart from the tracks added by a test.
+     */
+    private static TrackPlayList playList(String uuid, int numTracks) {
+        TrackPlayList playList = new PlaylistDaoBean(0, 1).getPlaylistByUUID(uuid, 1);
+        List<PlayListTrack> playListTracks = new ArrayList<PlayListTrack>(numTracks);
+        for (int i = 0; i < numTracks; i++) {
+            PlayListTrack playListTrack = new PlayListTrack();
+            playListTrack.setId(i + 1);
+            playListTrack.setTrack(track(0));
+            playListTracks.add(playListTrack);
+        }
+        playList.addPlayListTracks(0, playListTracks);
+        return playList;
+    }
+
+    private static Track track(int id) {
+        Track track = new Track();
+        track.setId(id);
+        track.setArtistId(4);
+        track.setTitle("Track " + id);
+        track.setDuration(60);
+        return track;
+    }
+}
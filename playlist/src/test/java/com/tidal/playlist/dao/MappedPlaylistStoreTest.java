@@ -0,0 +1,204 @@
+package com.tidal.playlist.dao;
+
+import com.tidal.playlist.data.PlayListTrack;
+import com.tidal.playlist.data.PlaylistOperation;
+import com.tidal.playlist.data.SharingLevel;
+import com.tidal.playlist.data.TrackPlayList;
+import com.tidal.playlist.data.TrackStorage;
+import com.tidal.playlist.exception.PlaylistConflictException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+
+public class MappedPlaylistStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void loadsSavedPlaylist() throws Exception {
+        TrackPlayList saved = playList("uuid-1", 3);
+        MappedPlaylistStore store = new MappedPlaylistStore(folder.getRoot());
+        store.savePlaylist(saved);
+
+        TrackPlayList loaded = store.getPlaylistByUUID("uuid-1", 1);
+
+        assertThat(loaded.getUuid(), is("uuid-1"));
+        assertThat(loaded.getPlayListName(), is(saved.getPlayListName()));
+        assertThat(loaded.getSharingLevel(), is(SharingLevel.PUBLIC));
+        assertThat(loaded.getNrOfTracks(), is(3));
+        assertThat(loaded.getDuration(), is(saved.getDuration()));
+        assertSameTracks(loaded, saved);
+        store.close();
+    }
+
+    @Test
+    public void returnsNullForUnknownPlaylist() throws Exception {
+        MappedPlaylistStore store = new MappedPlaylistStore(folder.getRoot());
+
+        assertThat(store.getPlaylistByUUID("missing", 1), is(nullValue()));
+        store.close();
+    }
+
+    @Test
+    public void keepsLatestVersionAndDeletesAcrossReopen() throws Exception {
+        MappedPlaylistStore store = new MappedPlaylistStore(folder.getRoot(), 4096);
+        store.savePlaylist(playList("uuid-1", 5));
+        store.savePlaylist(playList("uuid-2", 5));
+        store.savePlaylist(playList("uuid-1", 50));
+        store.deletePlaylist("uuid-2");
+        store.close();
+
+        MappedPlaylistStore reopened = new MappedPlaylistStore(folder.getRoot(), 4096);
+
+        assertThat(reopened.size(), is(1));
+        assertThat(reopened.getPlaylistByUUID("uuid-1", 1).getPlayListTracksSize(), is(50));
+        assertThat(reopened.getPlaylistByUUID("uuid-2", 1), is(nullValue()));
+        reopened.close();
+    }
+
+    @Test
+    public void ignoresTornRecordAtEndOfLastSegment() throws Exception {
+        MappedPlaylistStore store = new MappedPlaylistStore(folder.getRoot());
+        store.savePlaylist(playList("uuid-1", 2));
+        store.savePlaylist(playList("uuid-2", 2));
+        store.close();
+
+        File segment = folder.getRoot().listFiles()[0];
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        long lastRecordBody = recordLength(file, 0) + 9 + 9;
+        file.seek(lastRecordBody + 20);
+        file.write(0x7F);
+        file.close();
+
+        MappedPlaylistStore reopened = new MappedPlaylistStore(folder.getRoot());
+
+        assertThat(reopened.getPlaylistByUUID("uuid-1", 1).getPlayListTracksSize(), is(2));
+        assertThat(reopened.getPlaylistByUUID("uuid-2", 1), is(nullValue()));
+        reopened.close();
+    }
+
+    @Test
+    public void compactionKeepsOnlyLivePlaylists() throws Exception {
+        MappedPlaylistStore store = new MappedPlaylistStore(folder.getRoot(), 4096);
+        for (int i = 0; i < 20; i++) {
+            store.savePlaylist(playList("uuid-" + (i % 3), i));
+        }
+        store.deletePlaylist("uuid-0");
+        store.compact();
+
+        assertThat(store.getPlaylistByUUID("uuid-1", 1).getPlayListTracksSize(), is(19));
+        assertThat(store.getPlaylistByUUID("uuid-2", 1).getPlayListTracksSize(), is(17));
+        store.close();
+
+        MappedPlaylistStore reopened = new MappedPlaylistStore(folder.getRoot(), 4096);
+        assertThat(reopened.size(), is(2));
+        assertThat(reopened.getPlaylistByUUID("uuid-1", 1).getPlayListTracksSize(), is(19));
+        reopened.close();
+    }
+
+    @Test
+    public void loadsLargePlaylistsIntoColumnarStorage() throws Exception {
+        TrackPlayList large = playList("uuid-1", 50);
+        MappedPlaylistStore store = new MappedPlaylistStore(folder.getRoot(), 1024 * 1024, 10);
+        store.savePlaylist(large);
+        store.savePlaylist(playList("uuid-2", 5));
+
+        TrackPlayList loaded = store.getPlaylistByUUID("uuid-1", 1);
+        assertThat(loaded.getTrackStorage(), is(TrackStorage.COLUMNAR));
+        assertThat(loaded.getNrOfTracks(), is(50));
+        assertSameTracks(loaded, large);
+        assertThat(store.getPlaylistByUUID("uuid-2", 1).getTrackStorage(), is(TrackStorage.OBJECTS));
+
+        loaded.removePlayListTracksById(Arrays.asList(1, 2));
+        store.savePlaylist(loaded);
+        assertSameTracks(store.getPlaylistByUUID("uuid-1", 1), loaded);
+        store.close();
+    }
+
+    @Test
+    public void loadsLargePlaylistsLazily() throws Exception {
+        TrackPlayList large = playList("uuid-1", 3000);
+        MappedPlaylistStore store = new MappedPlaylistStore(folder.getRoot(), 1024 * 1024, MappedPlaylistStore.NEVER_COLUMNAR, 1000);
+        store.savePlaylist(large);
+
+        TrackPlayList loaded = store.getPlaylistByUUID("uuid-1", 1);
+        assertThat(loaded.isPartiallyLoaded(), is(true));
+        assertThat(loaded.getNrOfTracks(), is(3000));
+        assertThat(loaded.getDurationMillis(), is(large.getDurationMillis()));
+        assertThat(loaded.nextPlayListTrackId(), is(large.nextPlayListTrackId()));
+        assertThat(loaded.getPlayListTrackById(2500).getIndex(), is(2499));
+
+        loaded.removePlayListTracksById(Arrays.asList(1, 2999));
+        assertThat(loaded.isPartiallyLoaded(), is(true));
+        large.removePlayListTracksById(Arrays.asList(1, 2999));
+        assertSameTracks(loaded, large);
+        store.savePlaylist(loaded);
+        store.close();
+
+        store = new MappedPlaylistStore(folder.getRoot(), 1024 * 1024, MappedPlaylistStore.NEVER_COLUMNAR, 1000);
+        assertSameTracks(store.getPlaylistByUUID("uuid-1", 1), large);
+        store.close();
+    }
+
+    @Test
+    public void rejectsOperationMadeToOlderVersion() throws Exception {
+        MappedPlaylistStore store = new MappedPlaylistStore(folder.getRoot());
+        store.savePlaylist(playList("uuid-1", 3));
+
+        TrackPlayList first = store.getPlaylistByUUID("uuid-1", 1);
+        TrackPlayList second = store.getPlaylistByUUID("uuid-1", 1);
+        PlaylistOperation deleteFirst = PlaylistOperation.deleteTracks("uuid-1", 1, 1, Collections.singletonList(1));
+        deleteFirst.applyTo(first);
+        store.saveOperation(first, deleteFirst);
+
+        PlaylistOperation deleteSecond = PlaylistOperation.deleteTracks("uuid-1", 1, 1, Collections.singletonList(2));
+        deleteSecond.applyTo(second);
+        try {
+            store.saveOperation(second, deleteSecond);
+            throw new AssertionError("Expected a conflict");
+        }
+        catch (PlaylistConflictException expected) {
+            // the first operation stays stored
+        }
+        store.close();
+
+        MappedPlaylistStore reopened = new MappedPlaylistStore(folder.getRoot());
+        TrackPlayList stored = reopened.getPlaylistByUUID("uuid-1", 1);
+        assertThat(stored.getVersion(), is(1L));
+        assertThat(stored.getPlayListTrackById(1), is(nullValue()));
+        assertThat(stored.getPlayListTracksSize(), is(2));
+        reopened.close();
+    }
+
+    private static long recordLength(RandomAccessFile file, long position) throws Exception {
+        file.seek(position + 1);
+        return file.readInt();
+    }
+
+    private static void assertSameTracks(TrackPlayList loaded, TrackPlayList saved) {
+        List<PlayListTrack> loadedTracks = loaded.getPlayListTracksSorted();
+        List<PlayListTrack> savedTracks = saved.getPlayListTracksSorted();
+        assertThat(loadedTracks.size(), is(savedTracks.size()));
+        for (int i = 0; i < savedTracks.size(); i++) {
+            assertThat(loadedTracks.get(i), is(savedTracks.get(i)));
+            assertThat(loadedTracks.get(i).getTrack().getTitle(), is(savedTracks.get(i).getTrack().getTitle()));
+            assertThat(loadedTracks.get(i).getTrack().getArtistId(), is(savedTracks.get(i).getTrack().getArtistId()));
+        }
+    }
+
+    private static TrackPlayList playList(String uuid, int numTracks) {
+        return new PlaylistDaoBean(numTracks, 1).getPlaylistByUUID(uuid, 1);
+    }
+}
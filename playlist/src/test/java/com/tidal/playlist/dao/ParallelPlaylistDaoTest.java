@@ -0,0 +1,88 @@
+package com.tidal.playlist.dao;
+
+import com.tidal.playlist.data.TrackPlayList;
+import com.tidal.playlist.exception.PlaylistException;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+
+public class ParallelPlaylistDaoTest {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void loadsPlaylistsOfBatchConcurrently() {
+        final CountDownLatch allLoading = new CountDownLatch(5);
+        PlaylistDaoBean generating = new PlaylistDaoBean(3, 1) {
+            @Override
+            public TrackPlayList getPlaylistByUUID(String uuid, int userId) {
+                allLoading.countDown();
+                try {
+                    // Only returns once every load of the batch has started
+                    if (!allLoading.await(10, TimeUnit.SECONDS)) {
+                        return null;
+                    }
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+                return super.getPlaylistByUUID(uuid, userId);
+            }
+        };
+
+        Map<String, TrackPlayList> playLists = new ParallelPlaylistDao(generating, executor)
+                .getPlaylistsByUUIDs(asList("a", "b", "c", "b", "d", "e"), 1);
+
+        assertThat(new ArrayList<String>(playLists.keySet()), is(asList("a", "b", "c", "d", "e")));
+        assertThat(playLists.get("d").getUuid(), is("d"));
+        assertThat(playLists.get("d").getNrOfTracks(), is(3));
+    }
+
+    @Test
+    public void leavesOutMissingPlaylists() {
+        PlaylistDaoBean generating = new PlaylistDaoBean(1, 1) {
+            @Override
+            public TrackPlayList getPlaylistByUUID(String uuid, int userId) {
+                return uuid.startsWith("missing") ? null : super.getPlaylistByUUID(uuid, userId);
+            }
+        };
+
+        Map<String, TrackPlayList> playLists = new ParallelPlaylistDao(generating, executor)
+                .getPlaylistsByUUIDs(asList("missing-1", "a", "missing-2"), 1);
+
+        assertThat(new ArrayList<String>(playLists.keySet()), is(asList("a")));
+        assertThat(generating.getPlaylistsByUUIDs(asList("missing-1", "a"), 1).keySet().size(), is(1));
+    }
+
+    @Test(expected = PlaylistException.class)
+    public void throwsExceptionOfFailedLoad() {
+        PlaylistDaoBean failing = new PlaylistDaoBean(1, 1) {
+            @Override
+            public TrackPlayList getPlaylistByUUID(String uuid, int userId) {
+                if (uuid.equals("broken")) {
+                    throw new PlaylistException("Can not load " + uuid);
+                }
+                return super.getPlaylistByUUID(uuid, userId);
+            }
+        };
+
+        new ParallelPlaylistDao(failing, executor).getPlaylistsByUUIDs(asList("a", "broken", "c"), 1);
+    }
+}
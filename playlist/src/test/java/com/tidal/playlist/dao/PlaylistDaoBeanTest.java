@@ -0,0 +1,47 @@
+package com.tidal.playlist.dao;
+
+import com.tidal.playlist.data.PlayListTrack;
+import com.tidal.playlist.data.TrackCatalog;
+import com.tidal.playlist.data.TrackPlayList;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNot.not;
+import static org.junit.Assert.assertThat;
+
+
+public class PlaylistDaoBeanTest {
+
+    private static final LongSupplier CLOCK = new LongSupplier() {
+        public long getAsLong() {
+            return 1500000000000L;
+        }
+    };
+
+    @Test
+    public void generatesSamePlaylistForUuidFromSeed() {
+        PlaylistDaoBean dao = new PlaylistDaoBean(50, 1, new TrackCatalog(), 7, CLOCK);
+        TrackPlayList other = dao.getPlaylistByUUID("uuid-2", 1);
+        TrackPlayList playList = dao.getPlaylistByUUID("uuid-1", 1);
+        TrackPlayList again = new PlaylistDaoBean(50, 1, new TrackCatalog(), 7, CLOCK).getPlaylistByUUID("uuid-1", 1);
+
+        assertThat(trackIds(again), is(trackIds(playList)));
+        assertThat(again.getLastUpdated(), is(playList.getLastUpdated()));
+        assertThat(again.getPlayListTrackAt(10).getDateAdded().getTime(), is(1500000000000L));
+        assertThat(trackIds(other), is(not(trackIds(playList))));
+        assertThat(trackIds(new PlaylistDaoBean(50, 1, new TrackCatalog(), 8, CLOCK).getPlaylistByUUID("uuid-1", 1)),
+                is(not(trackIds(playList))));
+    }
+
+    private static List<Integer> trackIds(TrackPlayList playList) {
+        List<Integer> trackIds = new ArrayList<Integer>();
+        for (PlayListTrack playListTrack : playList.getPlayListTracks()) {
+            trackIds.add(playListTrack.getTrackId());
+        }
+        return trackIds;
+    }
+}
@@ -0,0 +1,105 @@
+package com.tidal.playlist.dao;
+
+import com.tidal.playlist.data.PlayListTrack;
+import com.tidal.playlist.data.SharingLevel;
+import com.tidal.playlist.data.Track;
+import com.tidal.playlist.data.TrackPlayList;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class PlaylistRecordCodecTest {
+
+    @Test
+    public void decodesWhatWasEncoded() {
+        TrackPlayList playList = new PlaylistDaoBean(2500, 7).getPlaylistByUUID("uuid-1", 3);
+        playList.setVersion(12);
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 17);
+
+        PlaylistRecordCodec.encode(playList, buffer);
+        buffer.flip();
+        TrackPlayList decoded = PlaylistRecordCodec.decode(buffer);
+
+        assertThat(buffer.hasRemaining(), is(false));
+        assertThat(decoded.getUuid(), is("uuid-1"));
+        assertThat(decoded.getUserId(), is(3));
+        assertThat(decoded.getId(), is(playList.getId()));
+        assertThat(decoded.getPlayListName(), is(playList.getPlayListName()));
+        assertThat(decoded.getLastUpdated(), is(playList.getLastUpdated()));
+        assertThat(decoded.getSharingLevel(), is(SharingLevel.PUBLIC));
+        assertThat(decoded.getVersion(), is(12L));
+        assertThat(decoded.getPlayListTracksSorted(), is(playList.getPlayListTracksSorted()));
+        for (int i = 0; i < 2500; i++) {
+            Track expected = playList.getPlayListTrackAt(i).getTrack();
+            Track actual = decoded.getPlayListTrackAt(i).getTrack();
+            assertThat(actual.getArtistId(), is(expected.getArtistId()));
+            assertThat(actual.getTitle(), is(expected.getTitle()));
+            assertThat(actual.getDuration(), is(expected.getDuration()));
+        }
+    }
+
+    @Test
+    public void keepsNullValues() {
+        TrackPlayList playList = new TrackPlayList();
+        playList.setRegisteredDate(null);
+        PlayListTrack playListTrack = new PlayListTrack();
+        playListTrack.setDateAdded(null);
+        List<PlayListTrack> playListTracks = new ArrayList<PlayListTrack>();
+        playListTracks.add(playListTrack);
+        playList.addPlayListTracks(0, playListTracks);
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+
+        PlaylistRecordCodec.encode(playList, buffer);
+        buffer.flip();
+        TrackPlayList decoded = PlaylistRecordCodec.decode(buffer);
+
+        assertThat(decoded.getId(), is(nullValue()));
+        assertThat(decoded.getRegisteredDate(), is(nullValue()));
+        assertThat(decoded.getLastUpdated(), is(playList.getLastUpdated()));
+        PlayListTrack decodedTrack = decoded.getPlayListTrackAt(0);
+        assertThat(decodedTrack.getId(), is(nullValue()));
+        assertThat(decodedTrack.getDateAdded(), is(nullValue()));
+        assertThat(decodedTrack.getTrack(), is(nullValue()));
+        assertThat(decodedTrack.getDescription(), is(nullValue()));
+    }
+
+    @Test
+    public void rejectsVarintLongerThanItsType() {
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x1F});
+        try {
+            PlaylistRecordCodec.getUnsigned(buffer, 32);
+            fail();
+        }
+        catch (IllegalArgumentException e) {
+            assertThat(buffer.position(), is(5));
+        }
+
+        buffer.put(4, (byte) 0x0F).rewind();
+        assertThat(PlaylistRecordCodec.getUnsigned(buffer, 32), is(0xFFFFFFFFL));
+    }
+
+    @Test
+    public void isMuchSmallerThanJavaSerialization() throws Exception {
+        TrackPlayList playList = new PlaylistDaoBean(1000, 1).getPlaylistByUUID("uuid-3", 1);
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        PlaylistRecordCodec.encode(playList, buffer);
+
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(serialized);
+        out.writeObject(new ArrayList<PlayListTrack>(playList.getPlayListTracksSorted()));
+        out.close();
+
+        assertTrue(buffer.position() + " bytes against " + serialized.size(), buffer.position() * 4 < serialized.size());
+    }
+}
@@ -0,0 +1,100 @@
+package com.tidal.playlist.data;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+
+public class PlayListTrackSequenceTest {
+
+    @Test
+    public void derivesIndexFromPosition() {
+        PlayListTrackSequence sequence = new PlayListTrackSequence();
+        PlayListTrack first = playListTrack(1);
+        PlayListTrack second = playListTrack(2);
+        sequence.insert(0, second);
+        sequence.insert(0, first);
+
+        assertThat(first.getIndex(), is(0));
+        assertThat(second.getIndex(), is(1));
+        assertThat(sequence.get(1), is(second));
+    }
+
+    @Test
+    public void insertsRunInOrder() {
+        PlayListTrackSequence sequence = new PlayListTrackSequence();
+        sequence.insertAll(0, asList(playListTrack(1), playListTrack(4)).iterator());
+        sequence.insertAll(1, asList(playListTrack(2), playListTrack(3)).iterator());
+
+        assertThat(ids(sequence), is(asList(1, 2, 3, 4)));
+    }
+
+    @Test
+    public void keepsLastIndexOnRemovedTrack() {
+        PlayListTrackSequence sequence = new PlayListTrackSequence();
+        PlayListTrack removed = playListTrack(2);
+        sequence.insertAll(0, asList(playListTrack(1), removed, playListTrack(3)).iterator());
+
+        assertThat(sequence.remove(removed), is(true));
+        assertThat(sequence.remove(removed), is(false));
+        assertThat(removed.getIndex(), is(1));
+        assertThat(ids(sequence), is(asList(1, 3)));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsTrackFromAnotherSequence() {
+        PlayListTrack track = playListTrack(1);
+        new PlayListTrackSequence().insert(0, track);
+        new PlayListTrackSequence().insert(0, track);
+    }
+
+    @Test
+    public void matchesListUnderRandomEdits() {
+        Random random = new Random(42);
+        PlayListTrackSequence sequence = new PlayListTrackSequence();
+        List<PlayListTrack> expected = new ArrayList<PlayListTrack>();
+        int nextId = 0;
+        for (int i = 0; i < 5000; i++) {
+            if (expected.isEmpty() || random.nextInt(3) > 0) {
+                int position = random.nextInt(expected.size() + 1);
+                PlayListTrack track = playListTrack(nextId++);
+                sequence.insert(position, track);
+                expected.add(position, track);
+            }
+            else {
+                PlayListTrack track = expected.remove(random.nextInt(expected.size()));
+                sequence.remove(track);
+            }
+        }
+
+        assertThat(sequence.size(), is(expected.size()));
+        Iterator<PlayListTrack> iterator = sequence.iterator();
+        for (int i = 0; i < expected.size(); i++) {
+            assertThat(iterator.next(), is(expected.get(i)));
+            assertThat(expected.get(i).getIndex(), is(i));
+            assertThat(sequence.get(i), is(expected.get(i)));
+        }
+        assertThat(iterator.hasNext(), is(false));
+    }
+
+    private static List<Integer> ids(PlayListTrackSequence sequence) {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (PlayListTrack track : sequence) {
+            ids.add(track.getId());
+        }
+        return ids;
+    }
+
+    private static PlayListTrack playListTrack(int id) {
+        PlayListTrack playListTrack = new PlayListTrack();
+        playListTrack.setId(id);
+        return playListTrack;
+    }
+}
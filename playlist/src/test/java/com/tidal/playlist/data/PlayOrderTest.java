@@ -0,0 +1,103 @@
+package com.tidal.playlist.data;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+
+public class PlayOrderTest {
+
+    @Test
+    public void shufflesTheSameWayForTheSameSeed() {
+        TrackPlayList playList = playList(200, 10);
+
+        List<Integer> order = ids(new PlayOrder(playList, 42).getPlayListTracks(0, 200));
+
+        assertThat(ids(new PlayOrder(playList, 42).getPlayListTracks(0, 200)), is(order));
+        assertThat(ids(new PlayOrder(playList, 43).getPlayListTracks(0, 200)).equals(order), is(false));
+        assertThat(new HashSet<Integer>(order).size(), is(200));
+        assertThat(ids(new PlayOrder(playList, 42).getPlayListTracks(190, 50)), is(order.subList(190, 200)));
+    }
+
+    @Test
+    public void spreadsTheTracksOfEachArtist() {
+        // Five artists with 20 tracks each, added artist by artist
+        TrackPlayList playList = playList(100, 5);
+        for (long seed = 0; seed < 20; seed++) {
+            PlayOrder playOrder = new PlayOrder(playList, seed);
+            List<PlayListTrack> order = playOrder.getPlayListTracks(0, 100);
+            int[] lastSeen = {-100, -100, -100, -100, -100};
+            for (int i = 0; i < order.size(); i++) {
+                int artistId = order.get(i).getTrackArtistId();
+                // Every artist comes around about every fifth track
+                assertThat("seed " + seed + " position " + i, i - lastSeen[artistId] >= 2, is(true));
+                lastSeen[artistId] = i;
+            }
+        }
+    }
+
+    @Test
+    public void repairsToTheOrderOfShufflingAgain() {
+        Random random = new Random(9);
+        TrackPlayList playList = playList(300, 12);
+        PlayOrder playOrder = new PlayOrder(playList, 7);
+        int nextId = 1000;
+        for (int round = 0; round < 50; round++) {
+            int size = playList.getPlayListTracksSize();
+            if (random.nextBoolean()) {
+                List<PlayListTrack> added = asList(playListTrack(nextId, random.nextInt(15)), playListTrack(nextId + 1, 3));
+                nextId += 2;
+                playList.addPlayListTracks(random.nextInt(size + 1), added);
+                playOrder.added(added);
+            }
+            else {
+                List<Integer> ids = asList(playList.getPlayListTrackAt(random.nextInt(size)).getId(),
+                        playList.getPlayListTrackAt(random.nextInt(size)).getId());
+                playOrder.removed(playList.removePlayListTracksById(ids));
+            }
+            playList.movePlayListTracksById(asList(playList.getPlayListTrackAt(0).getId()), size / 2);
+        }
+
+        assertThat(playOrder.size(), is(playList.getPlayListTracksSize()));
+        assertThat(ids(playOrder.getPlayListTracks(0, 1000)), is(ids(new PlayOrder(playList, 7).getPlayListTracks(0, 1000))));
+    }
+
+    private static TrackPlayList playList(int size, int artists) {
+        TrackPlayList playList = new TrackPlayList();
+        List<PlayListTrack> playListTracks = new ArrayList<PlayListTrack>(size);
+        for (int id = 1; id <= size; id++) {
+            playListTracks.add(playListTrack(id, (id - 1) * artists / size));
+        }
+        playList.addPlayListTracks(0, playListTracks);
+        return playList;
+    }
+
+    private static PlayListTrack playListTrack(int id, int artistId) {
+        Track track = new Track();
+        track.setId(id);
+        track.setArtistId(artistId);
+        PlayListTrack playListTrack = new PlayListTrack();
+        playListTrack.setId(id);
+        playListTrack.setTrackId(id);
+        playListTrack.setTrackArtistId(artistId);
+        playListTrack.setDateAdded(new Date(1000L * id));
+        playListTrack.setTrack(track);
+        return playListTrack;
+    }
+
+    private static List<Integer> ids(List<PlayListTrack> playListTracks) {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (PlayListTrack playListTrack : playListTracks) {
+            ids.add(playListTrack.getId());
+        }
+        return ids;
+    }
+}
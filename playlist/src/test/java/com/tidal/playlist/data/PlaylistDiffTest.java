@@ -0,0 +1,115 @@
+package com.tidal.playlist.data;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+
+public class PlaylistDiffTest {
+
+    @Test
+    public void turnsOlderVersionIntoNewerUnderRandomEdits() {
+        Random random = new Random(11);
+        for (int round = 0; round < 50; round++) {
+            TrackStorage storage = TrackStorage.values()[round % 2];
+            TrackPlayList older = playList(TrackStorage.OBJECTS, 1, 200);
+            TrackPlayList newer = playList(TrackStorage.OBJECTS, 1, 200);
+            int nextId = 1000;
+            for (int edit = 0; edit < 30; edit++) {
+                int size = newer.getPlayListTracksSize();
+                int kind = random.nextInt(3);
+                if (kind == 0 && size > 0) {
+                    newer.removePlayListTracksById(Collections.singletonList(newer.getPlayListTrackAt(random.nextInt(size)).getId()));
+                }
+                else if (kind == 1 && size > 0) {
+                    List<Integer> ids = asList(newer.getPlayListTrackAt(random.nextInt(size)).getId());
+                    newer.movePlayListTracksById(ids, random.nextInt(size));
+                }
+                else {
+                    newer.addPlayListTracks(random.nextInt(size + 1), Collections.singletonList(playListTrack(nextId++)));
+                }
+            }
+            newer.setVersion(7);
+            TrackPlayList copy = playList(storage, 1, 200);
+
+            PlaylistDiff diff = PlaylistDiff.between(older, newer);
+            diff.applyTo(copy);
+
+            assertThat(ids(copy), is(ids(newer)));
+            assertThat(copy.getVersion(), is(7L));
+        }
+    }
+
+    @Test
+    public void movesOnlyTheTracksThatLeftTheirOrder() {
+        TrackPlayList older = playList(TrackStorage.OBJECTS, 1, 100);
+        TrackPlayList newer = playList(TrackStorage.OBJECTS, 1, 100);
+        newer.movePlayListTracksById(asList(100), 0);
+        newer.removePlayListTracksById(asList(50));
+        newer.addPlayListTracks(10, asList(playListTrack(500), playListTrack(501)));
+
+        List<PlaylistDiff.Edit> edits = PlaylistDiff.between(older, newer).getEdits();
+
+        assertThat(edits.size(), is(3));
+        assertThat(edits.get(0).getType(), is(PlaylistDiff.Edit.Type.DELETE));
+        assertThat(edits.get(0).getPlayListTrackIds(), is(asList(50)));
+        assertThat(edits.get(1).getType(), is(PlaylistDiff.Edit.Type.MOVE));
+        assertThat(edits.get(1).getIndex(), is(0));
+        assertThat(edits.get(1).getPlayListTrackIds(), is(asList(100)));
+        assertThat(edits.get(2).getType(), is(PlaylistDiff.Edit.Type.INSERT));
+        assertThat(edits.get(2).getIndex(), is(10));
+        assertThat(edits.get(2).getPlayListTracks().size(), is(2));
+    }
+
+    @Test
+    public void findsNoEditsBetweenEqualVersions() {
+        assertThat(PlaylistDiff.between(playList(TrackStorage.OBJECTS, 1, 10), playList(TrackStorage.COLUMNAR, 1, 10)).isEmpty(), is(true));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsPlaylistAtOtherVersion() {
+        TrackPlayList newer = playList(TrackStorage.OBJECTS, 1, 10);
+        newer.setVersion(2);
+        TrackPlayList stale = playList(TrackStorage.OBJECTS, 1, 10);
+        stale.setVersion(1);
+
+        PlaylistDiff.between(playList(TrackStorage.OBJECTS, 1, 10), newer).applyTo(stale);
+    }
+
+    private static TrackPlayList playList(TrackStorage storage, int firstId, int size) {
+        TrackPlayList playList = new TrackPlayList(storage);
+        List<PlayListTrack> playListTracks = new ArrayList<PlayListTrack>(size);
+        for (int id = firstId; id < firstId + size; id++) {
+            playListTracks.add(playListTrack(id));
+        }
+        playList.addPlayListTracks(0, playListTracks);
+        return playList;
+    }
+
+    private static PlayListTrack playListTrack(int id) {
+        Track track = new Track();
+        track.setId(id);
+        track.setTitle("Title " + id);
+        PlayListTrack playListTrack = new PlayListTrack();
+        playListTrack.setId(id);
+        playListTrack.setDateAdded(new Date(1000L * id));
+        playListTrack.setTrack(track);
+        return playListTrack;
+    }
+
+    private static List<Integer> ids(TrackPlayList playList) {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (PlayListTrack playListTrack : playList.getPlayListTracks()) {
+            ids.add(playListTrack.getId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,158 @@
+package com.tidal.playlist.data;
+
+import com.tidal.playlist.PlaylistBusinessBean;
+import com.tidal.playlist.dao.PlaylistDaoBean;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+
+public class PlaylistSetOperationTest {
+
+    private static final Date DATE_ADDED = new Date(5000L);
+
+    @Test
+    public void combinesPlaylistsByTrackIdKeepingFirstOccurrences() {
+        TrackPlayList a = playList(1, 2, 3, 2, 4);
+        TrackPlayList b = playList(4, 5, 2, 6);
+        TrackPlayList c = playList(2, 7, 4, 4);
+
+        assertThat(trackIds(combine(PlaylistSetOperation.Type.UNION, a, b, c)), is(asList(1, 2, 3, 4, 5, 6, 7)));
+        assertThat(trackIds(combine(PlaylistSetOperation.Type.INTERSECTION, a, b, c)), is(asList(2, 4)));
+        assertThat(trackIds(combine(PlaylistSetOperation.Type.DIFFERENCE, a, b, c)), is(asList(1, 3)));
+        assertThat(trackIds(combine(PlaylistSetOperation.Type.INTERLEAVE, a, b, c)), is(asList(1, 4, 2, 5, 7, 3, 6)));
+
+        assertThat(trackIds(PlaylistSetOperation.dedupe(c.getPlayListTracks()).getPlayListTracks()), is(asList(2, 7, 4)));
+    }
+
+    @Test
+    public void neverTakesTracksWithoutKnownTrackIdForTheSameTrack() {
+        TrackPlayList a = playList(0, 1, 0, 2);
+        TrackPlayList b = playList(0, 2);
+
+        assertThat(trackIds(combine(PlaylistSetOperation.Type.UNION, a, b)), is(asList(0, 1, 0, 2, 0)));
+        assertThat(trackIds(combine(PlaylistSetOperation.Type.INTERSECTION, a, b)), is(asList(2)));
+        assertThat(trackIds(combine(PlaylistSetOperation.Type.DIFFERENCE, a, b)), is(asList(0, 1, 0)));
+    }
+
+    @Test
+    public void copiesTracksWithAllTheirValues() {
+        TrackPlayList a = playList(3, 4);
+        PlayListTrack first = a.getPlayListTrackAt(0);
+        first.setDescription("Opener");
+        first.setSharingLevel(SharingLevel.PUBLIC);
+        first.setTrack(new Track());
+
+        PlayListTrack copy = PlaylistSetOperation.dedupe(a.getPlayListTracks()).getPlayListTracks().get(0);
+
+        assertThat(copy == first, is(false));
+        assertThat(copy.getId() == null, is(true));
+        assertThat(copy.getTrackPlayList() == null, is(true));
+        assertThat(copy.getTrackId(), is(3));
+        assertThat(copy.getTrackArtistId(), is(3));
+        assertThat(copy.getDescription(), is("Opener"));
+        assertThat(copy.getSharingLevel(), is(SharingLevel.PUBLIC));
+        assertThat(copy.getTrack() == first.getTrack(), is(true));
+        assertThat(copy.getDateAdded(), is(first.getDateAdded()));
+    }
+
+    @Test
+    public void addsResultThroughBusinessBean() {
+        PlaylistBusinessBean target = new PlaylistBusinessBean(1, "target", new PlaylistDaoBean(2, 1), 3002);
+        List<TrackPlayList> playLists = new ArrayList<TrackPlayList>();
+        List<Iterable<PlayListTrack>> inputs = new ArrayList<Iterable<PlayListTrack>>();
+        for (int i = 0; i < 3; i++) {
+            int[] trackIds = new int[1500];
+            for (int j = 0; j < trackIds.length; j++) {
+                trackIds[j] = i * 1000 + j;
+            }
+            playLists.add(playList(trackIds));
+            inputs.add(playLists.get(i).getPlayListTracks());
+        }
+
+        playLists.get(0).getPlayListTrackAt(0).setDescription("First");
+        List<PlayListTrack> union = PlaylistSetOperation.of(PlaylistSetOperation.Type.UNION, inputs).getPlayListTracks(3000);
+        target.addPlayListTracks(union, -1, DATE_ADDED);
+
+        TrackPlayList playList = target.getPlayList();
+        assertThat(union.size(), is(3000));
+        assertThat(playList.getPlayListTracksSize(), is(3002));
+        assertThat(playList.getVersion(), is(1L));
+        PlayListTrack first = playList.getPlayListTrackAt(2);
+        assertThat(first.getId(), is(3));
+        assertThat(first.getTrackId(), is(0));
+        assertThat(first.getDescription(), is("First"));
+        assertThat(first.getDateAdded(), is(DATE_ADDED));
+        assertThat(first.getTrackPlayList() == playList, is(true));
+        assertThat(playList.getPlayListTrackAt(3001).getTrackId(), is(2999));
+        assertThat(playList.nextPlayListTrackId(), is(3003));
+        // Tracks of the inputs stay with the inputs
+        assertThat(playLists.get(0).getPlayListTrackAt(0).getId(), is(1));
+        assertThat(union.get(0).getId() == null, is(true));
+    }
+
+    @Test
+    public void collectsTrackIdsInParallelWithTheSameResult() {
+        List<PlaylistSnapshot> snapshots = new ArrayList<PlaylistSnapshot>();
+        for (int i = 0; i < 8; i++) {
+            int[] trackIds = new int[400];
+            for (int j = 0; j < trackIds.length; j++) {
+                trackIds[j] = (j * (i + 3)) % 500;
+            }
+            snapshots.add(PlaylistSnapshot.of(playList(trackIds)));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (PlaylistSetOperation.Type type : asList(PlaylistSetOperation.Type.INTERSECTION, PlaylistSetOperation.Type.DIFFERENCE)) {
+                PlaylistSetOperation operation = PlaylistSetOperation.of(type, snapshots);
+                List<PlayListTrack> sequential = operation.getPlayListTracks();
+                List<PlayListTrack> parallel = operation.inParallel(executor).getPlayListTracks();
+
+                assertThat(type.toString(), trackIds(parallel), is(trackIds(sequential)));
+                assertThat(type.toString(), sequential.size() > 0, is(true));
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    private static List<PlayListTrack> combine(PlaylistSetOperation.Type type, TrackPlayList... playLists) {
+        List<Iterable<PlayListTrack>> inputs = new ArrayList<Iterable<PlayListTrack>>();
+        for (TrackPlayList playList : playLists) {
+            inputs.add(playList.getPlayListTracks());
+        }
+        return PlaylistSetOperation.of(type, inputs).getPlayListTracks();
+    }
+
+    private static TrackPlayList playList(int... trackIds) {
+        TrackPlayList playList = new TrackPlayList();
+        List<PlayListTrack> playListTracks = new ArrayList<PlayListTrack>(trackIds.length);
+        for (int i = 0; i < trackIds.length; i++) {
+            PlayListTrack playListTrack = new PlayListTrack();
+            playListTrack.setId(i + 1);
+            playListTrack.setTrackId(trackIds[i]);
+            playListTrack.setTrackArtistId(trackIds[i] % 7);
+            playListTrack.setDateAdded(new Date(1000L * i));
+            playListTracks.add(playListTrack);
+        }
+        playList.addPlayListTracks(0, playListTracks);
+        return playList;
+    }
+
+    private static List<Integer> trackIds(List<PlayListTrack> playListTracks) {
+        List<Integer> trackIds = new ArrayList<Integer>();
+        for (PlayListTrack playListTrack : playListTracks) {
+            trackIds.add(playListTrack.getTrackId());
+        }
+        return trackIds;
+    }
+}
@@ -0,0 +1,198 @@
+package com.tidal.playlist.data;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+
+public class PlaylistSnapshotTest {
+
+    @Test
+    public void followsPlaylistUnderRandomOperations() {
+        followsUnderRandomOperations(playList(300));
+    }
+
+    @Test
+    public void followsColumnarPlaylistUnderRandomOperations() {
+        TrackPlayList playList = playList(300);
+        playList.setTrackStorage(TrackStorage.COLUMNAR);
+        followsUnderRandomOperations(playList);
+    }
+
+    @Test
+    public void followsLazilyLoadedPlaylistUnderRandomOperations() {
+        TrackPlayList playList = new TrackPlayList();
+        playList.setUuid("uuid");
+        playList.setPlayListTracks(new ListSegments(playList(300).getPlayListTracksSorted(), 32));
+        followsUnderRandomOperations(playList);
+    }
+
+    private static void followsUnderRandomOperations(TrackPlayList playList) {
+        Random random = new Random(5);
+        PlaylistSnapshot snapshot = PlaylistSnapshot.of(playList);
+        List<PlaylistSnapshot> versions = new ArrayList<PlaylistSnapshot>();
+        List<List<Integer>> expected = new ArrayList<List<Integer>>();
+        int nextId = 1000;
+        for (int version = 1; version <= 200; version++) {
+            versions.add(snapshot);
+            expected.add(ids(playList.getPlayListTracksSorted()));
+            int size = playList.getPlayListTracksSize();
+            List<Integer> ids = new ArrayList<Integer>();
+            for (int i = random.nextInt(4); i >= 0 && size > 0; i--) {
+                ids.add(playList.getPlayListTrackAt(random.nextInt(size)).getId());
+            }
+            PlaylistOperation operation;
+            int kind = random.nextInt(3);
+            if (kind == 0) {
+                operation = PlaylistOperation.deleteTracks("uuid", 1, version, ids);
+            }
+            else if (kind == 1) {
+                operation = PlaylistOperation.moveTracks("uuid", 1, version, ids, random.nextInt(size + 1));
+            }
+            else {
+                operation = PlaylistOperation.addTracks("uuid", 1, version, random.nextInt(size + 1), nextId, new Date(),
+                        asList(track(nextId), track(nextId + 1)));
+                nextId += 2;
+            }
+
+            PlaylistSnapshot.Edit edit = snapshot.edit(playList, operation);
+            List<PlayListTrack> changed = operation.applyTo(playList);
+            if (!changed.isEmpty()) {
+                snapshot = edit.apply(playList, changed);
+            }
+
+            assertThat(ids(snapshot.getPlayListTracksSorted()), is(ids(playList.getPlayListTracksSorted())));
+            assertThat(snapshot.getVersion(), is(playList.getVersion()));
+            assertThat(snapshot.getDurationMillis(), is(playList.getDurationMillis()));
+        }
+        for (int i = 0; i < versions.size(); i++) {
+            assertThat(ids(versions.get(i).getPlayListTracksSorted()), is(expected.get(i)));
+        }
+    }
+
+    @Test
+    public void readsPagesWithPositionsAsIndexes() {
+        PlaylistSnapshot snapshot = PlaylistSnapshot.of(playList(100));
+
+        List<PlayListTrack> page = snapshot.getPlayListTracks(95, 10);
+
+        assertThat(page.size(), is(5));
+        assertThat(page.get(0).getIndex(), is(95));
+        assertThat(page.get(0).getId(), is(96));
+        assertThat(snapshot.getPlayListTrackAt(42).getId(), is(43));
+        assertThat(snapshot.getPlayListTracks(100, 10).isEmpty(), is(true));
+    }
+
+    @Test
+    public void isNotChangedThroughTracksItHandsOut() {
+        TrackPlayList playList = playList(10);
+        PlaylistSnapshot snapshot = PlaylistSnapshot.of(playList);
+
+        snapshot.getPlayListTrackAt(0).setId(500);
+        playList.getPlayListTrackAt(1).setId(501);
+
+        assertThat(snapshot.getPlayListTrackAt(0).getId(), is(1));
+        assertThat(snapshot.getPlayListTrackAt(1).getId(), is(2));
+    }
+
+    private static TrackPlayList playList(int size) {
+        TrackPlayList playList = new TrackPlayList();
+        playList.setUuid("uuid");
+        List<PlayListTrack> playListTracks = new ArrayList<PlayListTrack>(size);
+        for (int id = 1; id <= size; id++) {
+            PlayListTrack playListTrack = new PlayListTrack();
+            playListTrack.setId(id);
+            playListTrack.setDateAdded(new Date(1000L * id));
+            playListTrack.setTrack(track(id));
+            playListTracks.add(playListTrack);
+        }
+        playList.addPlayListTracks(0, playListTracks);
+        return playList;
+    }
+
+    private static PlayListTrack copy(PlayListTrack playListTrack) {
+        PlayListTrack copy = new PlayListTrack();
+        copy.setId(playListTrack.getId());
+        copy.setDateAdded(playListTrack.getDateAdded());
+        copy.setTrack(playListTrack.getTrack());
+        return copy;
+    }
+
+    private static Track track(int id) {
+        Track track = new Track();
+        track.setId(id);
+        track.setTitle("Title " + id);
+        track.setDuration(id % 7);
+        return track;
+    }
+
+    private static List<Integer> ids(List<PlayListTrack> playListTracks) {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (PlayListTrack playListTrack : playListTracks) {
+            ids.add(playListTrack.getId());
+        }
+        return ids;
+    }
+
+    /**
+     * Segments of a list of tracks, handing out copies.
+     */
+    private static final class ListSegments implements PlayListTrackSegments {
+
+        private final List<PlayListTrack> tracks;
+        private final int segmentSize;
+
+        ListSegments(List<PlayListTrack> tracks, int segmentSize) {
+            this.tracks = tracks;
+            this.segmentSize = segmentSize;
+        }
+
+        public int size() {
+            return tracks.size();
+        }
+
+        public int getSegmentSize() {
+            return segmentSize;
+        }
+
+        public long getDurationMillis() {
+            long durationMillis = 0;
+            for (PlayListTrack track : tracks) {
+                durationMillis += Math.round(track.getTrack().getDuration() * 1000d);
+            }
+            return durationMillis;
+        }
+
+        public int getMaxPlayListTrackId() {
+            return tracks.size();
+        }
+
+        public List<PlayListTrack> loadSegment(int segment) {
+            List<PlayListTrack> loaded = new ArrayList<PlayListTrack>();
+            for (PlayListTrack track : segment(segment)) {
+                loaded.add(copy(track));
+            }
+            return loaded;
+        }
+
+        public boolean containsId(int segment, int playListTrackId) {
+            for (PlayListTrack track : segment(segment)) {
+                if (track.getId() == playListTrackId) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private List<PlayListTrack> segment(int segment) {
+            return tracks.subList(segment * segmentSize, Math.min(tracks.size(), (segment + 1) * segmentSize));
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.tidal.playlist.data;
+
+import org.junit.Test;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsSame.sameInstance;
+import static org.junit.Assert.assertThat;
+
+
+public class TrackCatalogTest {
+
+    @Test
+    public void sharesOneTrackPerId() {
+        TrackCatalog catalog = new TrackCatalog();
+        Track first = track(7, "Seven");
+
+        assertThat(catalog.intern(first), is(sameInstance(first)));
+        assertThat(catalog.intern(track(7, "Seven")), is(sameInstance(first)));
+        assertThat(catalog.get(7), is(sameInstance(first)));
+        assertThat(catalog.getRetainedTracks(), is(1));
+        assertThat(catalog.getHits(), is(1L));
+        assertThat(catalog.getMisses(), is(1L));
+        assertThat(catalog.getHitRate(), is(0.5));
+    }
+
+    @Test
+    public void doesNotShareTracksWithOtherValuesOrWithoutId() {
+        TrackCatalog catalog = new TrackCatalog();
+        catalog.intern(track(7, "Seven"));
+        Track renamed = track(7, "Eight");
+        Track withoutId = track(0, "Seven");
+
+        assertThat(catalog.intern(renamed), is(sameInstance(renamed)));
+        assertThat(catalog.intern(withoutId), is(sameInstance(withoutId)));
+        assertThat(catalog.getRetainedTracks(), is(1));
+        assertThat(catalog.getMisses(), is(2L));
+    }
+
+    private static Track track(int id, String title) {
+        Track track = new Track();
+        track.setId(id);
+        track.setTitle(title);
+        track.setArtistId(3);
+        track.setDuration(120);
+        return track;
+    }
+}
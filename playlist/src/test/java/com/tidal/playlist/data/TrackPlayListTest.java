@@ -0,0 +1,460 @@
+package com.tidal.playlist.data;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+
+public class TrackPlayListTest {
+
+    @Test
+    public void columnarStorageMatchesObjectStorageUnderRandomEdits() {
+        Random random = new Random(7);
+        TrackPlayList objects = new TrackPlayList(TrackStorage.OBJECTS);
+        TrackPlayList columnar = new TrackPlayList(TrackStorage.COLUMNAR);
+        List<Integer> ids = new ArrayList<Integer>();
+        int nextId = 1;
+        for (int i = 0; i < 2000; i++) {
+            if (!ids.isEmpty() && random.nextInt(4) == 0) {
+                List<Integer> toMove = asList(ids.get(random.nextInt(ids.size())), ids.get(random.nextInt(ids.size())));
+                objects.movePlayListTracksById(toMove, random.nextInt(ids.size()));
+                columnar.movePlayListTracksById(toMove, objects.getPlayListTrackById(toMove.get(0)).getIndex());
+                ids.clear();
+                for (PlayListTrack playListTrack : objects.getPlayListTracks()) {
+                    ids.add(playListTrack.getId());
+                }
+            }
+            else if (ids.isEmpty() || random.nextInt(3) > 0) {
+                int position = random.nextInt(ids.size() + 1);
+                int count = 1 + random.nextInt(3);
+                List<PlayListTrack> toObjects = new ArrayList<PlayListTrack>();
+                List<PlayListTrack> toColumnar = new ArrayList<PlayListTrack>();
+                for (int j = 0; j < count; j++) {
+                    ids.add(position + j, nextId);
+                    toObjects.add(playListTrack(nextId));
+                    toColumnar.add(playListTrack(nextId));
+                    nextId++;
+                }
+                objects.addPlayListTracks(position, toObjects);
+                columnar.addPlayListTracks(position, toColumnar);
+            }
+            else {
+                List<Integer> toRemove = asList(ids.get(random.nextInt(ids.size())), ids.get(random.nextInt(ids.size())), -1);
+                objects.removePlayListTracksById(toRemove);
+                columnar.removePlayListTracksById(toRemove);
+                ids.removeAll(toRemove);
+            }
+        }
+
+        assertThat(columnar.getPlayListTracksSize(), is(ids.size()));
+        assertThat(columnar.getPlayListTracksSorted(), is(objects.getPlayListTracksSorted()));
+        assertThat(columnar.nextPlayListTrackId(), is(objects.nextPlayListTrackId()));
+        for (int i = 0; i < ids.size(); i += 97) {
+            PlayListTrack playListTrack = columnar.getPlayListTrackById(ids.get(i));
+            assertThat(playListTrack.getIndex(), is(i));
+            assertThat(playListTrack.getTrack().getTitle(), is("Title " + ids.get(i)));
+            assertThat(playListTrack.getTrack().getDuration(), is(objects.getPlayListTrackAt(i).getTrack().getDuration()));
+        }
+    }
+
+    @Test
+    public void columnarViewsWriteThroughAndFollowTheirTrack() {
+        TrackPlayList playList = new TrackPlayList(TrackStorage.COLUMNAR);
+        playList.addPlayListTracks(0, asList(playListTrack(1), playListTrack(2), playListTrack(3)));
+
+        PlayListTrack view = playList.getPlayListTrackById(2);
+        view.setDescription("changed");
+        playList.addPlayListTracks(0, asList(playListTrack(4)));
+        playList.removePlayListTracksById(asList(1));
+
+        assertThat(view.getIndex(), is(1));
+        assertThat(playList.getPlayListTrackAt(1).getDescription(), is("changed"));
+        assertThat(playList.getPlayListTrackAt(1).getTrackPlayList(), is(playList));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void columnarViewOfRemovedTrackCanNotBeUsed() {
+        TrackPlayList playList = new TrackPlayList(TrackStorage.COLUMNAR);
+        playList.addPlayListTracks(0, asList(playListTrack(1), playListTrack(2)));
+        PlayListTrack view = playList.getPlayListTrackAt(0);
+
+        List<PlayListTrack> removed = playList.removePlayListTracksById(Collections.singletonList(1));
+
+        assertThat(removed.get(0).getId(), is(1));
+        assertThat(removed.get(0).getIndex(), is(0));
+        assertThat(playList.removePlayListTrack(removed.get(0)), is(false));
+        view.getDescription();
+    }
+
+    @Test
+    public void convertsBetweenStorages() {
+        TrackPlayList playList = new TrackPlayList();
+        playList.addPlayListTracks(0, asList(playListTrack(1), playListTrack(2), playListTrack(3)));
+        List<PlayListTrack> before = playList.getPlayListTracksSorted();
+
+        playList.setTrackStorage(TrackStorage.COLUMNAR);
+        assertThat(playList.getTrackStorage(), is(TrackStorage.COLUMNAR));
+        assertThat(playList.getPlayListTracksSorted(), is(before));
+        assertThat(playList.getPlayListTrack(102).getId(), is(2));
+        assertThat(playList.getPlayListTrack(42), is(nullValue()));
+
+        playList.setTrackStorage(TrackStorage.OBJECTS);
+        assertThat(playList.getPlayListTracksSorted(), is(before));
+        assertThat(playList.removePlayListTrack(playList.getPlayListTrackAt(0)), is(true));
+        assertThat(playList.getPlayListTrackAt(0).getId(), is(2));
+    }
+
+    @Test
+    public void keepsAggregatesExactOverManyEdits() {
+        for (TrackStorage storage : TrackStorage.values()) {
+            TrackPlayList playList = new TrackPlayList(storage);
+            int nextId = 1;
+            for (int round = 0; round < 1000; round++) {
+                List<PlayListTrack> added = new ArrayList<PlayListTrack>();
+                for (int i = 0; i < 3; i++) {
+                    PlayListTrack playListTrack = playListTrack(nextId++);
+                    playListTrack.getTrack().setDuration(0.1f);
+                    added.add(playListTrack);
+                }
+                playList.addPlayListTracks(0, added);
+                playList.removePlayListTracksById(asList(added.get(0).getId(), added.get(1).getId()));
+            }
+            assertThat(playList.removePlayListTrack(playList.getPlayListTrackAt(0)), is(true));
+
+            assertThat(playList.getNrOfTracks(), is(999));
+            assertThat(playList.getDurationMillis(), is(99900L));
+            assertThat(playList.getDuration(), is(99.9f));
+            // Kept ids are 3, 6, ..., 2997, with artist id % 10
+            assertThat(playList.getTrackCountByArtist(3), is(100));
+            assertThat(playList.getTrackCountByArtist(0), is(99));
+            assertThat(playList.getTrackCountByArtist(42), is(0));
+            assertThat(playList.getDistinctArtistCount(), is(10));
+        }
+    }
+
+    @Test
+    public void readsPagesAndStreamsFromAnOffset() {
+        for (TrackStorage storage : TrackStorage.values()) {
+            TrackPlayList playList = new TrackPlayList(storage);
+            List<PlayListTrack> added = new ArrayList<PlayListTrack>();
+            for (int id = 1; id <= 100; id++) {
+                added.add(playListTrack(id));
+            }
+            playList.addPlayListTracks(0, added);
+
+            List<PlayListTrack> page = playList.getPlayListTracks(40, 5);
+            assertThat(page.size(), is(5));
+            assertThat(page.get(0).getId(), is(41));
+            assertThat(page.get(4).getId(), is(45));
+            assertThat(page.get(4).getIndex(), is(44));
+            assertThat(playList.getPlayListTracks(98, 5).size(), is(2));
+            assertThat(playList.getPlayListTracks(100, 5).isEmpty(), is(true));
+            assertThat(playList.getPlayListTracks(0, 0).isEmpty(), is(true));
+
+            Iterator<PlayListTrack> iterator = playList.iteratePlayListTracks(97);
+            assertThat(iterator.next().getId(), is(98));
+            assertThat(iterator.next().getId(), is(99));
+            assertThat(iterator.next().getId(), is(100));
+            assertThat(iterator.hasNext(), is(false));
+            assertThat(playList.iteratePlayListTracks(500).hasNext(), is(false));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativePageOffset() {
+        new TrackPlayList().getPlayListTracks(-1, 10);
+    }
+
+    @Test
+    public void lazyPlaylistMatchesObjectStorageUnderRandomEdits() {
+        Random random = new Random(5);
+        TrackPlayList objects = new TrackPlayList(TrackStorage.OBJECTS);
+        List<PlayListTrack> initial = new ArrayList<PlayListTrack>();
+        for (int id = 1; id <= 95; id++) {
+            initial.add(playListTrack(id));
+        }
+        objects.addPlayListTracks(0, initial);
+        TrackPlayList lazy = new TrackPlayList();
+        lazy.setPlayListTracks(new ListSegments(initial, 10));
+        int nextId = 96;
+        for (int i = 0; i < 300; i++) {
+            int size = objects.getPlayListTracksSize();
+            int kind = random.nextInt(4);
+            if (kind == 0 && size > 0) {
+                List<Integer> ids = asList(objects.getPlayListTrackAt(random.nextInt(size)).getId(), 1000 + i);
+                objects.removePlayListTracksById(ids);
+                lazy.removePlayListTracksById(ids);
+            }
+            else if (kind == 1 && size > 0) {
+                List<Integer> ids = asList(objects.getPlayListTrackAt(random.nextInt(size)).getId());
+                int position = random.nextInt(size);
+                objects.movePlayListTracksById(ids, position);
+                lazy.movePlayListTracksById(ids, position);
+            }
+            else {
+                int position = random.nextInt(size + 1);
+                objects.addPlayListTracks(position, Collections.singletonList(playListTrack(nextId)));
+                lazy.addPlayListTracks(position, Collections.singletonList(playListTrack(nextId)));
+                nextId++;
+            }
+            if (i % 50 == 0) {
+                int position = random.nextInt(objects.getPlayListTracksSize());
+                assertThat(lazy.getPlayListTrackAt(position), is(objects.getPlayListTrackAt(position)));
+            }
+        }
+
+        assertThat(lazy.getNrOfTracks(), is(objects.getNrOfTracks()));
+        assertThat(lazy.getDurationMillis(), is(objects.getDurationMillis()));
+        assertThat(lazy.nextPlayListTrackId(), is(objects.nextPlayListTrackId()));
+        assertThat(lazy.getPlayListTracksSorted(), is(objects.getPlayListTracksSorted()));
+        assertThat(lazy.getTrackCountByArtist(3), is(objects.getTrackCountByArtist(3)));
+        assertThat(lazy.isPartiallyLoaded(), is(false));
+    }
+
+    @Test
+    public void lazyPlaylistLoadsOnlyTheSegmentsItTouches() {
+        List<PlayListTrack> stored = new ArrayList<PlayListTrack>();
+        for (int id = 1; id <= 100; id++) {
+            stored.add(playListTrack(id));
+        }
+        ListSegments segments = new ListSegments(stored, 10);
+        TrackPlayList playList = new TrackPlayList();
+        playList.setPlayListTracks(segments);
+
+        assertThat(playList.getNrOfTracks(), is(100));
+        assertThat(playList.getDurationMillis(), is(segments.getDurationMillis()));
+        playList.addPlayListTracks(100, Collections.singletonList(playListTrack(playList.nextPlayListTrackId())));
+        playList.addPlayListTracks(30, Collections.singletonList(playListTrack(200)));
+        assertThat(segments.loads, is(0));
+
+        assertThat(playList.getPlayListTrackAt(45).getId(), is(45));
+        assertThat(playList.getPlayListTrackAt(45).getIndex(), is(45));
+        assertThat(segments.loads, is(1));
+        assertThat(playList.removePlayListTracksById(asList(77)).size(), is(1));
+        assertThat(segments.loads, is(2));
+        assertThat(playList.getPlayListTrackAt(77).getId(), is(78));
+        assertThat(playList.getPlayListTracks(0, 3).get(2).getId(), is(3));
+        assertThat(segments.loads, is(3));
+        assertThat(playList.isPartiallyLoaded(), is(true));
+    }
+
+    @Test
+    public void keepsHashOfTracksWhenTracksBeforeThemChange() {
+        TrackPlayList playList = new TrackPlayList();
+        playList.addPlayListTracks(0, asList(playListTrack(1), playListTrack(2), playListTrack(3)));
+        PlayListTrack last = playList.getPlayListTrackAt(2);
+        Set<PlayListTrack> seen = new HashSet<PlayListTrack>(playList.getPlayListTracks());
+
+        playList.addPlayListTracks(0, asList(playListTrack(4), playListTrack(5)));
+
+        assertThat(last.getIndex(), is(4));
+        assertThat(seen.contains(last), is(true));
+        assertThat(playList.getPlayListTrackAt(4), is(playListTrack(3)));
+    }
+
+    @Test
+    public void comparesTracksByValueButNotByPosition() {
+        TrackPlayList playList = new TrackPlayList();
+        playList.addPlayListTracks(0, asList(playListTrack(1), playListTrack(2)));
+        PlayListTrack moved = playListTrack(2);
+        moved.setIndex(7);
+
+        assertThat(playList.getPlayListTrackAt(1).equals(moved), is(true));
+        assertThat(playList.getPlayListTrackAt(1).hashCode(), is(moved.hashCode()));
+
+        moved.setDescription("Another description");
+        assertThat(playList.getPlayListTrackAt(1).equals(moved), is(false));
+        assertThat(playList.getPlayListTrackAt(1).hashCode(), is(moved.hashCode()));
+    }
+
+    @Test
+    public void replacesTracksInTheOrderOfTheirIndexes() {
+        List<PlayListTrack> playListTracks = new ArrayList<PlayListTrack>();
+        for (int id = 1; id <= 5; id++) {
+            PlayListTrack playListTrack = playListTrack(id);
+            playListTrack.setIndex((id * 3) % 5);
+            playListTracks.add(playListTrack);
+        }
+        TrackPlayList playList = new TrackPlayList();
+
+        playList.setPlayListTracks(new HashSet<PlayListTrack>(playListTracks));
+
+        assertThat(ids(playList.getPlayListTracksSorted()), is(asList(5, 2, 4, 1, 3)));
+    }
+
+    @Test
+    public void keepsTrackMembershipUpToDate() {
+        TrackPlayList playList = new TrackPlayList();
+        playList.addPlayListTracks(0, asList(playListTrack(1), playListTrack(2)));
+        assertThat(playList.containsTrack(101), is(true));
+        assertThat(playList.containsTrack(103), is(false));
+
+        playList.addPlayListTracks(1, asList(playListTrack(3)));
+        playList.removePlayListTracksById(asList(1));
+        playList.setTrackStorage(TrackStorage.COLUMNAR);
+        assertThat(playList.containsTrack(103), is(true));
+        assertThat(playList.containsTrack(101), is(false));
+        assertThat(playList.getPlayListTrack(101), is(nullValue()));
+        assertThat(playList.getPlayListTrack(102).getId(), is(2));
+    }
+
+    @Test
+    public void indexesFollowRandomEditsInPositionOrder() {
+        String[] words = {"Love", "you", "me", "Blue", "blues", "night", "Lover's"};
+        for (TrackStorage storage : TrackStorage.values()) {
+            Random random = new Random(3);
+            TrackPlayList playList = new TrackPlayList(storage);
+            int nextId = 1;
+            for (int i = 0; i < 1500; i++) {
+                int size = playList.getPlayListTracksSize();
+                int kind = random.nextInt(4);
+                if (kind == 0 && size > 0) {
+                    playList.removePlayListTracksById(asList(playList.getPlayListTrackAt(random.nextInt(size)).getId()));
+                }
+                else if (kind == 1 && size > 0) {
+                    playList.movePlayListTracksById(asList(playList.getPlayListTrackAt(random.nextInt(size)).getId()),
+                            random.nextInt(size));
+                }
+                else {
+                    PlayListTrack playListTrack = playListTrack(nextId++);
+                    playListTrack.getTrack().setTitle(words[random.nextInt(words.length)] + " " + words[random.nextInt(words.length)]);
+                    playList.addPlayListTracks(random.nextInt(size + 1), asList(playListTrack));
+                }
+                if (i == 100) {
+                    // Built part way, and kept up to date from there on
+                    playList.getPlayListTracksByArtist(0);
+                }
+            }
+
+            for (int artistId = 0; artistId < 10; artistId++) {
+                assertThat(ids(playList.getPlayListTracksByArtist(artistId)), is(scan(playList, artistId, null)));
+            }
+            assertThat(ids(playList.findPlayListTracksByTitle("LOVE")), is(scan(playList, -1, "love")));
+            assertThat(ids(playList.findPlayListTracksByTitle("blue lov")), is(scan(playList, -1, "blue lov")));
+            assertThat(playList.findPlayListTracksByTitle(" ,").isEmpty(), is(true));
+            PlayListTrack last = playList.getPlayListTrackAt(playList.getPlayListTracksSize() - 1);
+            List<PlayListTrack> byTrackId = playList.getPlayListTracksByTrackId(last.getTrackId());
+            assertThat(byTrackId.size(), is(1));
+            assertThat(byTrackId.get(0).getIndex(), is(playList.getPlayListTracksSize() - 1));
+            assertThat(playList.getPlayListTrack(last.getTrackId()).getId(), is(last.getId()));
+        }
+    }
+
+    private static List<Integer> scan(TrackPlayList playList, int artistId, String query) {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (PlayListTrack playListTrack : playList.getPlayListTracksSorted()) {
+            boolean matches = true;
+            if (query == null) {
+                matches = playListTrack.getTrackArtistId() == artistId;
+            }
+            else {
+                List<String> titleWords = asList(playListTrack.getTrack().getTitle().toLowerCase().split("[^a-z]+"));
+                for (String word : query.split(" ")) {
+                    boolean found = false;
+                    for (String titleWord : titleWords) {
+                        found |= titleWord.startsWith(word);
+                    }
+                    matches &= found;
+                }
+            }
+            if (matches) {
+                ids.add(playListTrack.getId());
+            }
+        }
+        return ids;
+    }
+
+    private static List<Integer> ids(List<PlayListTrack> playListTracks) {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (PlayListTrack playListTrack : playListTracks) {
+            ids.add(playListTrack.getId());
+        }
+        return ids;
+    }
+
+    private static PlayListTrack playListTrack(int id) {
+        Track track = new Track();
+        track.setId(id);
+        track.setArtistId(id % 10);
+        track.setTitle("Title " + id);
+        track.setDuration(id % 7);
+        PlayListTrack playListTrack = new PlayListTrack();
+        playListTrack.setId(id);
+        playListTrack.setTrackId(100 + id);
+        playListTrack.setTrackArtistId(id % 10);
+        playListTrack.setDateAdded(new Date(1000L * id));
+        playListTrack.setSharingLevel(id % 2 == 0 ? SharingLevel.PUBLIC : null);
+        playListTrack.setDescription(id % 3 == 0 ? null : "Description " + id % 5);
+        playListTrack.setTrack(track);
+        return playListTrack;
+    }
+
+    /**
+     * Segments of a list of tracks, handing out copies and counting the loads.
+     */
+    private static final class ListSegments implements PlayListTrackSegments {
+
+        private final List<PlayListTrack> tracks;
+        private final int segmentSize;
+        int loads;
+
+        ListSegments(List<PlayListTrack> tracks, int segmentSize) {
+            this.tracks = tracks;
+            this.segmentSize = segmentSize;
+        }
+
+        public int size() {
+            return tracks.size();
+        }
+
+        public int getSegmentSize() {
+            return segmentSize;
+        }
+
+        public long getDurationMillis() {
+            long durationMillis = 0;
+            for (PlayListTrack track : tracks) {
+                durationMillis += Math.round(track.getTrack().getDuration() * 1000d);
+            }
+            return durationMillis;
+        }
+
+        public int getMaxPlayListTrackId() {
+            return tracks.size();
+        }
+
+        public List<PlayListTrack> loadSegment(int segment) {
+            loads++;
+            List<PlayListTrack> loaded = new ArrayList<PlayListTrack>();
+            for (PlayListTrack track : segment(segment)) {
+                loaded.add(playListTrack(track.getId()));
+            }
+            return loaded;
+        }
+
+        public boolean containsId(int segment, int playListTrackId) {
+            for (PlayListTrack track : segment(segment)) {
+                if (track.getId() == playListTrackId) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private List<PlayListTrack> segment(int segment) {
+            return tracks.subList(segment * segmentSize, Math.min(tracks.size(), (segment + 1) * segmentSize));
+        }
+    }
+}
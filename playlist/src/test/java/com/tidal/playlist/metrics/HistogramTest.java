@@ -0,0 +1,38 @@
+package com.tidal.playlist.metrics;
+
+import org.junit.Test;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+
+    @Test
+    public void bucketsCoverAllValuesWithinPrecision() {
+        long[] values = {0, 1, 63, 64, 65, 127, 128, 1000, 123456789, Long.MAX_VALUE / 3, Long.MAX_VALUE};
+        for (long value : values) {
+            long reported = Histogram.highestValueAt(Histogram.indexOf(value));
+            assertTrue(value + " reported as " + reported, reported >= value && reported - value <= value / 32);
+        }
+        assertThat(Histogram.indexOf(Long.MAX_VALUE), is(Histogram.indexOf(Long.MAX_VALUE - 1)));
+    }
+
+    @Test
+    public void reportsPercentilesOfRecordedValues() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        histogram.record(-5);
+        Histogram.Snapshot snapshot = histogram.snapshot();
+
+        assertThat(snapshot.getCount(), is(1001L));
+        assertThat(snapshot.getValueAtPercentile(0), is(0L));
+        assertThat(snapshot.getValueAtPercentile(50), is(503L));
+        assertThat(snapshot.getValueAtPercentile(99), is(991L));
+        assertThat(snapshot.getMax(), is(1007L));
+        histogram.reset();
+        assertThat(histogram.snapshot().getMax(), is(0L));
+    }
+}